@@ -0,0 +1,140 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.xmldata.AmibeReader;
+import org.jcae.mesh.xmldata.DoubleFileReader;
+import org.jcae.mesh.xmldata.IntFileReader;
+import org.jcae.mesh.xmldata.MeshReader;
+import org.jcae.mesh.xmldata.MeshWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+import org.xml.sax.SAXException;
+
+/**
+ * Loading of Amibe files written from a grid of <code>size*size</code>
+ * vertices.  Files are either read with {@link AmibeReader} into arrays
+ * or through memory-mapped views, or loaded into a {@link Mesh} with
+ * {@link MeshReader#readObject3D} by one or all processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class AmibeReaderBenchmark
+{
+	@Param({"300", "1000"})
+	public int size;
+
+	private File dir;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		dir = File.createTempFile("amibe", ".bench");
+		dir.delete();
+		dir.mkdir();
+		MeshWriter.writeObject3D(SyntheticMesh.createWavyGrid(size, size), dir.getPath(), null);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		delete(dir);
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	@Benchmark
+	public int [] amibeReader() throws IOException, SAXException
+	{
+		AmibeReader.SubMesh subMesh = new AmibeReader.Dim3(dir.getPath()).getSubmeshes().get(0);
+		double [] coord = new double[3*subMesh.getNumberOfNodes()];
+		DoubleFileReader dfrN = subMesh.getNodes();
+		dfrN.get(coord);
+		dfrN.close();
+		int [] trias = new int[3*subMesh.getNumberOfTrias()];
+		IntFileReader ifrT = subMesh.getTriangles();
+		ifrT.get(trias);
+		ifrT.close();
+		return trias;
+	}
+
+	@Benchmark
+	public long mappedViews() throws IOException, SAXException
+	{
+		AmibeReader reader = new AmibeReader.Dim3(dir.getPath());
+		AmibeReader.SubMesh subMesh = reader.getSubmeshes().get(0);
+		DoubleBuffer nodes = subMesh.getNodesBuffer();
+		IntBuffer trias = subMesh.getTrianglesBuffer();
+		long ret = trias.get(trias.limit() - 1) + Double.doubleToLongBits(nodes.get(nodes.limit() - 1));
+		reader.close();
+		return ret;
+	}
+
+	@Benchmark
+	public Mesh readObject3D() throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		MeshReader.readObject3D(mesh, dir.getPath());
+		return mesh;
+	}
+
+	@Benchmark
+	public Mesh readObject3DSequential() throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		MeshReader.readObject3D(mesh, dir.getPath(), 1);
+		return mesh;
+	}
+}
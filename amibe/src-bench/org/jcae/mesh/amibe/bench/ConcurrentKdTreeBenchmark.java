@@ -0,0 +1,174 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.ConcurrentKdTree;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.metrics.Metric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent insertion into kd-trees.  Each invocation inserts
+ * {@link #VERTICES} vertices from <code>threads</code> threads, each
+ * thread runs a nearest vertex query after each insertion and removes half
+ * of its vertices at the end.  <code>locked</code> implementation guards
+ * a {@link KdTree} with a single lock, <code>concurrent</code> uses a
+ * {@link ConcurrentKdTree}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ConcurrentKdTreeBenchmark
+{
+	static final int VERTICES = 200000;
+	private static final double [] BBOX = new double[] { 0.0, 0.0, 0.0, 1.0, 1.0, 1.0 };
+
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	public int threads;
+
+	@Param({"locked", "concurrent"})
+	public String impl;
+
+	private Vertex [] vertices;
+	private Metric metric;
+	private ExecutorService pool;
+
+	@Setup
+	public void setup()
+	{
+		Random rand = new Random(123456789L);
+		Mesh mesh = new Mesh();
+		vertices = new Vertex[VERTICES];
+		for (int i = 0; i < VERTICES; i++)
+			vertices[i] = mesh.createVertex(rand.nextDouble(), rand.nextDouble(), rand.nextDouble());
+		metric = mesh.getMetric(null);
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		pool.shutdown();
+	}
+
+	private interface Tree
+	{
+		void add(Vertex v);
+		void remove(Vertex v);
+		Vertex getNearestVertex(double [] uv);
+	}
+
+	private Tree createTree()
+	{
+		if ("locked".equals(impl))
+		{
+			final KdTree<Vertex> tree = new KdTree<Vertex>(BBOX);
+			return new Tree() {
+				public synchronized void add(Vertex v)
+				{
+					tree.add(v);
+				}
+				public synchronized void remove(Vertex v)
+				{
+					tree.remove(v);
+				}
+				public synchronized Vertex getNearestVertex(double [] uv)
+				{
+					return tree.getNearestVertex(metric, uv);
+				}
+			};
+		}
+		else if ("concurrent".equals(impl))
+		{
+			final ConcurrentKdTree<Vertex> tree = new ConcurrentKdTree<Vertex>(BBOX);
+			return new Tree() {
+				public void add(Vertex v)
+				{
+					tree.add(v);
+				}
+				public void remove(Vertex v)
+				{
+					tree.remove(v);
+				}
+				public Vertex getNearestVertex(double [] uv)
+				{
+					return tree.getNearestVertex(metric, uv);
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown implementation: "+impl);
+	}
+
+	@Benchmark
+	public int insert() throws Exception
+	{
+		final Tree tree = createTree();
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>(threads);
+		for (int t = 0; t < threads; t++)
+		{
+			final int start = (int) ((long) VERTICES * t / threads);
+			final int end = (int) ((long) VERTICES * (t + 1) / threads);
+			futures.add(pool.submit(new Callable<Integer>() {
+				public Integer call()
+				{
+					int found = 0;
+					for (int i = start; i < end; i++)
+					{
+						tree.add(vertices[i]);
+						if (tree.getNearestVertex(vertices[i].getUV()) == vertices[i])
+							found++;
+					}
+					for (int i = start; i < end; i += 2)
+						tree.remove(vertices[i]);
+					return found;
+				}
+			}));
+		}
+		int ret = 0;
+		for (Future<Integer> f: futures)
+			ret += f.get();
+		return ret;
+	}
+}
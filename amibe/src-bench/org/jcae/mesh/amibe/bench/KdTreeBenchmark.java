@@ -0,0 +1,115 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.metrics.KdTreeSnapshot;
+import org.jcae.mesh.amibe.metrics.Metric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest vertex queries on a {@link KdTree} filled with random vertices.
+ * Each invocation runs {@link #QUERIES} queries, either one by one or
+ * as a batch on a {@link KdTreeSnapshot}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class KdTreeBenchmark
+{
+	static final int QUERIES = 10000;
+
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+
+	private KdTree<Vertex> kdTree;
+	private Metric metric;
+	private double [][] queries;
+	private KdTreeSnapshot<Vertex> snapshot;
+	private double [] packedQueries;
+	private int [] indices;
+	private double [] distance2;
+
+	@Setup
+	public void setup()
+	{
+		Random rand = new Random(123456789L);
+		Mesh mesh = new Mesh();
+		kdTree = new KdTree<Vertex>(new double[] { 0.0, 0.0, 0.0, 1.0, 1.0, 1.0 });
+		for (int i = 0; i < size; i++)
+			kdTree.add(mesh.createVertex(rand.nextDouble(), rand.nextDouble(), rand.nextDouble()));
+		metric = mesh.getMetric(null);
+		queries = new double[QUERIES][];
+		for (int i = 0; i < QUERIES; i++)
+			queries[i] = new double[] { rand.nextDouble(), rand.nextDouble(), rand.nextDouble() };
+		snapshot = kdTree.snapshot();
+		packedQueries = new double[3 * QUERIES];
+		for (int i = 0; i < QUERIES; i++)
+			System.arraycopy(queries[i], 0, packedQueries, 3 * i, 3);
+		indices = new int[8 * QUERIES];
+		distance2 = new double[8 * QUERIES];
+	}
+
+	@Benchmark
+	public void getNearestVertex(Blackhole bh)
+	{
+		for (double [] xyz : queries)
+			bh.consume(kdTree.getNearestVertex(metric, xyz));
+	}
+
+	@Benchmark
+	public int[] snapshotNearestVertex()
+	{
+		snapshot.getNearestVertices(packedQueries, 1, indices, distance2, 1);
+		return indices;
+	}
+
+	@Benchmark
+	public int[] snapshotNearestVertexParallel()
+	{
+		snapshot.getNearestVertices(packedQueries, 1, indices, distance2);
+		return indices;
+	}
+
+	@Benchmark
+	public int[] snapshotNearest8Parallel()
+	{
+		snapshot.getNearestVertices(packedQueries, 8, indices, distance2);
+		return indices;
+	}
+}
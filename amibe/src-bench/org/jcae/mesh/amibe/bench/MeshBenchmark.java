@@ -0,0 +1,146 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Basic {@link Mesh} operations on a grid of <code>size*size</code>
+ * vertices.  A new mesh is created before each invocation, so that
+ * measures do not depend on previous modifications.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class MeshBenchmark
+{
+	@Param({"100", "300", "1000"})
+	public int size;
+
+	/**
+	 * Mesh used by buildAdjacency benchmark.  Triangles are created, but
+	 * not connected.
+	 */
+	@State(Scope.Thread)
+	public static class Soup
+	{
+		Mesh mesh;
+
+		@Setup(Level.Invocation)
+		public void setup(MeshBenchmark parent)
+		{
+			mesh = SyntheticMesh.createWavyGrid(parent.size, parent.size, false);
+		}
+	}
+
+	/**
+	 * Mesh used by edgeSwap benchmark.  Its edges are the diagonals of
+	 * all grid cells.
+	 */
+	@State(Scope.Thread)
+	public static class Diagonals
+	{
+		Mesh mesh;
+		final List<AbstractHalfEdge> edges = new ArrayList<AbstractHalfEdge>();
+
+		@Setup(Level.Invocation)
+		public void setup(MeshBenchmark parent)
+		{
+			int n = parent.size;
+			mesh = SyntheticMesh.createWavyGrid(n, n);
+			Vertex [] v = SyntheticMesh.getVertices(mesh);
+			edges.clear();
+			for (int j = 0; j < n-1; j++)
+				for (int i = 0; i < n-1; i++)
+					edges.add(SyntheticMesh.findEdge(v[n*j+i+1], v[n*(j+1)+i]));
+		}
+	}
+
+	/**
+	 * Mesh used by edgeCollapse benchmark.  Its edges are horizontal
+	 * inner edges far enough from each other so that they can all be
+	 * collapsed.
+	 */
+	@State(Scope.Thread)
+	public static class Collapsible
+	{
+		Mesh mesh;
+		final List<AbstractHalfEdge> edges = new ArrayList<AbstractHalfEdge>();
+
+		@Setup(Level.Invocation)
+		public void setup(MeshBenchmark parent)
+		{
+			int n = parent.size;
+			mesh = SyntheticMesh.createWavyGrid(n, n);
+			Vertex [] v = SyntheticMesh.getVertices(mesh);
+			edges.clear();
+			for (int j = 1; j < n-1; j += 3)
+				for (int i = 1; i < n-2; i += 3)
+					edges.add(SyntheticMesh.findEdge(v[n*j+i], v[n*j+i+1]));
+		}
+	}
+
+	@Benchmark
+	public Mesh buildAdjacency(Soup s)
+	{
+		s.mesh.buildAdjacency();
+		return s.mesh;
+	}
+
+	@Benchmark
+	public void edgeSwap(Diagonals d, Blackhole bh)
+	{
+		for (AbstractHalfEdge e : d.edges)
+			bh.consume(d.mesh.edgeSwap(e));
+	}
+
+	@Benchmark
+	public void edgeCollapse(Collapsible c, Blackhole bh)
+	{
+		for (AbstractHalfEdge e : c.edges)
+		{
+			Vertex o = e.origin();
+			if (c.mesh.canCollapseEdge(e, o))
+				bh.consume(c.mesh.edgeCollapse(e, o));
+		}
+	}
+}
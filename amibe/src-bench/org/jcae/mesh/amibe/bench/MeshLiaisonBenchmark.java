@@ -0,0 +1,96 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Projection of moved vertices onto a background mesh with
+ * {@link MeshLiaison#move}.  Each invocation moves all inner vertices
+ * by a fraction of the grid step, and the next invocation moves them
+ * back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class MeshLiaisonBenchmark
+{
+	@Param({"100", "300"})
+	public int size;
+
+	private MeshLiaison liaison;
+	private final List<Vertex> vertices = new ArrayList<Vertex>();
+	private double delta;
+
+	@Setup
+	public void setup()
+	{
+		Mesh bgMesh = SyntheticMesh.createWavyGrid(size, size);
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		liaison = new MeshLiaison(bgMesh, mtb);
+		for (Vertex v : liaison.getMesh().getNodes())
+		{
+			double [] xyz = v.getUV();
+			if (xyz[0] > 0.0 && xyz[0] < 1.0 && xyz[1] > 0.0 && xyz[1] < 1.0)
+				vertices.add(v);
+		}
+		delta = 0.3 / (size - 1);
+	}
+
+	@Benchmark
+	public int move()
+	{
+		double [] target = new double[3];
+		int ret = 0;
+		for (Vertex v : vertices)
+		{
+			double [] xyz = v.getUV();
+			target[0] = xyz[0] + delta;
+			target[1] = xyz[1] + delta;
+			target[2] = SyntheticMesh.height(target[0], target[1]);
+			if (liaison.move(v, target))
+				ret++;
+		}
+		delta = -delta;
+		return ret;
+	}
+}
@@ -0,0 +1,98 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Mesh#pack} and {@link Mesh#unpack} on a grid of
+ * <code>size*size</code> vertices.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class MeshPackBenchmark
+{
+	@Param({"200", "1000"})
+	public int size;
+
+	private Mesh mesh;
+
+	private Mesh createMesh()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return SyntheticMesh.createWavyGrid(mtb, size, size, true);
+	}
+
+	/**
+	 * Mesh used by unpack benchmark, it has already been packed.
+	 */
+	@State(Scope.Thread)
+	public static class Packed
+	{
+		Mesh mesh;
+
+		@Setup(Level.Invocation)
+		public void setup(MeshPackBenchmark parent)
+		{
+			mesh = parent.createMesh();
+			mesh.pack();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		mesh = createMesh();
+	}
+
+	@Benchmark
+	public Mesh pack()
+	{
+		mesh.pack();
+		return mesh;
+	}
+
+	@Benchmark
+	public Mesh unpack(Packed p)
+	{
+		p.mesh.unpack();
+		return p.mesh;
+	}
+}
@@ -0,0 +1,171 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.xmldata.AmibeWriter;
+import org.jcae.mesh.xmldata.MeshWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing of a grid of <code>size*size</code> vertices into Amibe files
+ * by {@link MeshWriter#writeObject3D}, either by a single thread or by all
+ * processors, compared with the former implementation which collected
+ * vertices into a set and stored their indices into a hash map.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class MeshWriterBenchmark
+{
+	@Param({"300", "1000"})
+	public int size;
+
+	private Mesh mesh;
+	private File dir;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		mesh = SyntheticMesh.createWavyGrid(size, size);
+		int group = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				t.setGroupId(1 + (group++ % 4));
+		}
+		dir = File.createTempFile("amibe", ".bench");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		delete(dir);
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	@Benchmark
+	public File writeObject3D() throws IOException
+	{
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null, false, 0);
+		return dir;
+	}
+
+	@Benchmark
+	public File writeObject3DSequential() throws IOException
+	{
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null, false, 1);
+		return dir;
+	}
+
+	@Benchmark
+	public File legacy() throws IOException
+	{
+		Collection<Triangle> triangles = mesh.getTriangles();
+		Collection<Vertex> nodes = new LinkedHashSet<Vertex>(triangles.size() / 2);
+		for (Triangle t : triangles)
+		{
+			if (!t.isWritable())
+				continue;
+			for (int j = 0; j < 3; j++)
+				nodes.add(t.vertex[j]);
+		}
+		TObjectIntHashMap<Vertex> nodeIndex = new TObjectIntHashMap<Vertex>(nodes.size());
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(dir.getPath(), false, false);
+		int i = 0;
+		for (Vertex v : nodes)
+		{
+			aw.addNode(v.getUV());
+			nodeIndex.put(v, i++);
+		}
+		nodeIndex.put(mesh.outerVertex, i);
+		Map<Integer, TIntArrayList> groups = new TreeMap<Integer, TIntArrayList>();
+		int cnt = 0;
+		for (Triangle t : triangles)
+		{
+			if (!t.isWritable())
+				continue;
+			aw.addTriangle(nodeIndex.get(t.vertex[0]), nodeIndex.get(t.vertex[1]),
+				nodeIndex.get(t.vertex[2]));
+			TIntArrayList list = groups.get(t.getGroupId());
+			if (list == null)
+			{
+				list = new TIntArrayList(100);
+				groups.put(t.getGroupId(), list);
+			}
+			list.add(cnt++);
+		}
+		for (Triangle t : triangles)
+		{
+			if (t.isWritable())
+				continue;
+			aw.addTriangle(-nodeIndex.get(t.vertex[0]), -nodeIndex.get(t.vertex[1]),
+				-nodeIndex.get(t.vertex[2]));
+		}
+		for (Map.Entry<Integer, TIntArrayList> e : groups.entrySet())
+		{
+			aw.nextGroup(e.getKey().toString());
+			TIntArrayList list = e.getValue();
+			for (int j = 0, n = list.size(); j < n; j++)
+				aw.addTriaToGroup(list.get(j));
+		}
+		aw.finish();
+		return dir;
+	}
+}
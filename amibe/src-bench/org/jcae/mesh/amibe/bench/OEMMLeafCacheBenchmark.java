@@ -0,0 +1,119 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import gnu.trove.TIntHashSet;
+import org.jcae.mesh.oemm.LeafCache;
+import org.jcae.mesh.oemm.MeshReader;
+import org.jcae.mesh.oemm.OEMM;
+import org.jcae.mesh.oemm.SyntheticOEMM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding-window traversal of an OEMM: meshes are built from
+ * <code>window</code> consecutive leaves, and the window moves by one leaf
+ * at each step.  Leaves are read from disk at each step, or through a
+ * {@link LeafCache} which also prefetches adjacent leaves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class OEMMLeafCacheBenchmark
+{
+	@Param({"3"})
+	public int window;
+
+	private File dir;
+	private OEMM oemm;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		dir = File.createTempFile("oemm", ".bench");
+		dir.delete();
+		dir.mkdir();
+		oemm = SyntheticOEMM.createWavyGrid(dir, 400, 5000);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		delete(dir);
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private int traverse(MeshReader reader)
+	{
+		int ret = 0;
+		TIntHashSet leaves = new TIntHashSet();
+		for (int i = 0, n = oemm.getNumberOfLeaves(); i < n; i++)
+		{
+			leaves.clear();
+			for (int j = i; j < i + window && j < n; j++)
+				leaves.add(j);
+			ret += reader.buildMesh(leaves).getTriangles().size();
+		}
+		return ret;
+	}
+
+	@Benchmark
+	public int noCache()
+	{
+		return traverse(new MeshReader(oemm));
+	}
+
+	@Benchmark
+	public int leafCache()
+	{
+		MeshReader reader = new MeshReader(oemm);
+		LeafCache cache = new LeafCache(oemm, 64L << 20);
+		reader.setCache(cache);
+		int ret = traverse(reader);
+		cache.clear();
+		return ret;
+	}
+}
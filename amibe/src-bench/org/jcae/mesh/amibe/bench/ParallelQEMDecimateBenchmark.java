@@ -0,0 +1,84 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.algos3d.ParallelQEMDecimateHalfEdge;
+import org.jcae.mesh.amibe.algos3d.QEMDecimateHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decimation of a grid of <code>size*size</code> vertices with
+ * {@link ParallelQEMDecimateHalfEdge}.  When <code>threads</code> is 1,
+ * {@link QEMDecimateHalfEdge} is run instead, this is the reference
+ * to compute speedups.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class ParallelQEMDecimateBenchmark
+{
+	@Param({"100", "300"})
+	public int size;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	private Mesh mesh;
+
+	@Setup(Level.Invocation)
+	public void setup()
+	{
+		mesh = SyntheticMesh.createWavyGrid(size, size);
+	}
+
+	@Benchmark
+	public Mesh decimate()
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.05");
+		if (threads == 1)
+			new QEMDecimateHalfEdge(mesh, options).compute();
+		else
+		{
+			options.put("threads", Integer.toString(threads));
+			new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		}
+		return mesh;
+	}
+}
@@ -0,0 +1,116 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance queries to border edges with
+ * {@link MeshLiaison#isNearSkeleton}.  All edges of a grid of
+ * <code>size*size</code> vertices are tagged as sharp, there are about
+ * one million feature edges when size is 410.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class SkeletonBenchmark
+{
+	private static final int NR_QUERIES = 10000;
+
+	@Param({"100", "410"})
+	public int size;
+
+	private MeshLiaison liaison;
+	private Vertex [] queries;
+	private int groupId;
+	private double distance2;
+
+	@Setup
+	public void setup()
+	{
+		Mesh bgMesh = SyntheticMesh.createWavyGrid(size, size);
+		AbstractHalfEdge ot = null;
+		for (Triangle t : bgMesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			groupId = t.getGroupId();
+			ot = t.getAbstractHalfEdge(ot);
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				ot.setAttributes(AbstractHalfEdge.SHARP);
+			}
+		}
+		liaison = new MeshLiaison(bgMesh);
+		liaison.buildSkeleton();
+		// Queries are alternately near and away from horizontal edges
+		double step = 1.0 / (size - 1);
+		distance2 = 0.01 * step * step;
+		Random rand = new Random(12345L);
+		queries = new Vertex[NR_QUERIES];
+		for (int i = 0; i < NR_QUERIES; i++)
+		{
+			double x = rand.nextDouble();
+			double y = (rand.nextInt(size - 1) + ((i % 2 == 0) ? 0.05 : 0.25)) * step;
+			queries[i] = bgMesh.createVertex(x, y, SyntheticMesh.height(x, y));
+		}
+	}
+
+	@Benchmark
+	public int isNearSkeleton()
+	{
+		int ret = 0;
+		for (Vertex v : queries)
+		{
+			if (liaison.isNearSkeleton(v, groupId, distance2))
+				ret++;
+		}
+		return ret;
+	}
+
+	@Benchmark
+	public MeshLiaison buildSkeleton()
+	{
+		liaison.buildSkeleton();
+		return liaison;
+	}
+}
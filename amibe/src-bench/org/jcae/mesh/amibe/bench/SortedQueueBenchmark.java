@@ -0,0 +1,112 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.bench;
+
+import org.jcae.mesh.amibe.util.IndexedHeapQueue;
+import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import org.jcae.mesh.amibe.util.PRedBlackSortedTree;
+import org.jcae.mesh.amibe.util.SortedQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build and drain times of {@link SortedQueue} implementations.  Queues
+ * are filled with random values, half of them are updated, and queues
+ * are then drained by removing their lowest element.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class SortedQueueBenchmark
+{
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"avl", "redblack", "heap"})
+	public String queue;
+
+	private SortedQueue<Integer> sortedQueue;
+	private Integer [] keys;
+	private double [] values;
+
+	@Setup
+	public void setup()
+	{
+		if (queue.equals("avl"))
+			sortedQueue = new PAVLSortedTree<Integer>();
+		else if (queue.equals("redblack"))
+			sortedQueue = new PRedBlackSortedTree<Integer>();
+		else if (queue.equals("heap"))
+			sortedQueue = new IndexedHeapQueue<Integer>(size);
+		else
+			throw new IllegalArgumentException("Unknown sorted queue: "+queue);
+		Random rand = new Random(123456789L);
+		keys = new Integer[size];
+		values = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			keys[i] = Integer.valueOf(i);
+			values[i] = rand.nextDouble();
+		}
+	}
+
+	private void build()
+	{
+		for (int i = 0; i < size; i++)
+			sortedQueue.insert(keys[i], values[i]);
+		for (int i = 0; i < size; i += 2)
+			sortedQueue.update(keys[i], 1.0 - values[i]);
+	}
+
+	@Benchmark
+	public SortedQueue<Integer> buildAndClear()
+	{
+		build();
+		sortedQueue.clear();
+		return sortedQueue;
+	}
+
+	@Benchmark
+	public double buildAndDrain()
+	{
+		build();
+		double ret = 0.0;
+		while (!sortedQueue.isEmpty())
+		{
+			ret += sortedQueue.peekValue();
+			sortedQueue.remove(sortedQueue.peek());
+		}
+		return ret;
+	}
+}
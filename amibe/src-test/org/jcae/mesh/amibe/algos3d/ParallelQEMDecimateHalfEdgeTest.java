@@ -0,0 +1,143 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParallelQEMDecimateHalfEdgeTest
+{
+	@Test public void tolerance()
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(40, 40);
+		int before = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.1");
+		options.put("threads", "2");
+		options.put("partitions", "4");
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		int after = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+		assertTrue("Mesh has not been decimated: "+after, after < before / 4);
+		assertTrue("Mesh is not valid", mesh.isValid());
+		assertTrue("Mesh contains inverted triangles", mesh.checkNoInvertedTriangles());
+		for (Vertex v: mesh.getNodes())
+		{
+			assertTrue(v.isReadable());
+			assertTrue(v.isWritable());
+		}
+	}
+
+	@Test public void maxTriangles()
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(40, 40);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "500");
+		options.put("threads", "3");
+		options.put("partitions", "5");
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		int after = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+		assertTrue("Final number of triangles: "+after, after <= 500);
+		assertTrue("Mesh is not valid", mesh.isValid());
+		assertTrue("Mesh contains inverted triangles", mesh.checkNoInvertedTriangles());
+	}
+
+	@Test public void frozenTriangles()
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(40, 40);
+		List<Triangle> frozen = new ArrayList<Triangle>();
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER) && t.vertex[0].getUV()[0] < 0.2)
+			{
+				t.setWritable(false);
+				frozen.add(t);
+			}
+		}
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.1");
+		options.put("threads", "2");
+		options.put("partitions", "3");
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		assertTrue("Mesh is not valid", mesh.isValid());
+		assertTrue("Mesh contains inverted triangles", mesh.checkNoInvertedTriangles());
+		assertTrue(mesh.getTriangles().containsAll(frozen));
+	}
+
+	@Test public void kdTree()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		mtb.addKdTree(3);
+		Mesh mesh = SyntheticMesh.createWavyGrid(mtb, 30, 30, true);
+		mesh.resetKdTree(new double[] { -0.1, -0.1, -0.1 }, new double[] { 1.1, 1.1, 0.1 });
+		KdTree<Vertex> kdTree = mesh.getKdTree();
+		for (Vertex v: mesh.getNodes())
+			kdTree.add(v);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "300");
+		options.put("threads", "2");
+		options.put("partitions", "4");
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		assertTrue("Mesh is not valid", mesh.isValid());
+		Set<Vertex> nodes = new HashSet<Vertex>(mesh.getNodes());
+		Collection<Vertex> indexed = kdTree.getAllVertices(nodes.size());
+		assertEquals(nodes.size(), indexed.size());
+		assertTrue(nodes.containsAll(indexed));
+		// Kd-tree cells must match vertex coordinates
+		for (Vertex v: nodes)
+			kdTree.remove(v);
+	}
+
+	@Test public void maxTrianglesFrozen()
+	{
+		// Frozen triangles are not counted, and their vertices are
+		// fixed like interface vertices
+		Mesh mesh = SyntheticMesh.createWavyGrid(60, 60);
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER) && t.vertex[0].getUV()[0] < 0.1)
+				t.setWritable(false);
+		}
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "300");
+		options.put("threads", "2");
+		options.put("partitions", "16");
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		int after = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+		assertTrue("Final number of triangles: "+after, after <= 300);
+		assertTrue("Mesh is not valid", mesh.isValid());
+		assertTrue("Mesh contains inverted triangles", mesh.checkNoInvertedTriangles());
+	}
+}
@@ -109,9 +109,15 @@ public class QEMDecimateHalfEdgeTest
 	}
 	
 	private void testShell(int m, int n)
+	{
+		testShell(m, n, "avl");
+	}
+
+	private void testShell(int m, int n, String queue)
 	{
 		final Map<String, String> options = new HashMap<String, String>();
 		options.put("size", "0.1");
+		options.put("queue", queue);
 		mesh = new Mesh();
 		createMxNShell(m, n);
 		mesh.buildAdjacency();
@@ -125,9 +131,15 @@ public class QEMDecimateHalfEdgeTest
 	}
 
 	private void testCross(int m, int n)
+	{
+		testCross(m, n, "avl");
+	}
+
+	private void testCross(int m, int n, String queue)
 	{
 		final Map<String, String> options = new HashMap<String, String>();
 		options.put("size", "0.1");
+		options.put("queue", queue);
 		mesh = new Mesh();
 		createMxNShell(m, n);
 		rotateMxNShellAroundY(m, n, 90);
@@ -271,6 +283,54 @@ public class QEMDecimateHalfEdgeTest
 		testShell(30, 30);
 	}
 
+	@Test public void testShellLargeRedBlack()
+	{
+		testShell(30, 30, "redblack");
+	}
+
+	@Test public void testShellLargeHeap()
+	{
+		testShell(30, 30, "heap");
+	}
+
+	private int decimateWithImmutableVertices(String queue)
+	{
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "200");
+		options.put("queue", queue);
+		mesh = new Mesh();
+		createMxNShell(20, 20);
+		// Left half is frozen, cost of edges between two immutable
+		// vertices is Double.MAX_VALUE.
+		for (int i = 0; i < v.length; i++)
+			if (i % 20 < 10)
+				v[i].setMutable(false);
+		mesh.buildAdjacency();
+		QEMDecimateHalfEdge algo = new QEMDecimateHalfEdge(mesh, options);
+		algo.compute();
+		assertTrue("Mesh is not valid", mesh.isValid());
+		// Edges left in queue must still be sorted
+		double last = Double.NEGATIVE_INFINITY;
+		while (!algo.tree.isEmpty())
+		{
+			double cost = algo.tree.peekValue();
+			assertFalse(Double.isNaN(cost));
+			assertTrue(cost >= last);
+			assertFalse(Double.isNaN(algo.tree.getRootValue()));
+			last = cost;
+			algo.tree.remove(algo.tree.peek());
+		}
+		return AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+	}
+
+	@Test public void testImmutableMaxTrianglesHeap()
+	{
+		int expected = decimateWithImmutableVertices("avl");
+		int res = decimateWithImmutableVertices("heap");
+		// Frozen half contains 2*9*19 triangles
+		assertTrue("Final number of triangles: "+res, res >= 2*9*19 && res <= expected + 20);
+	}
+
 	@Test public void testShellNM1()
 	{
 		testCross(3, 2);
@@ -291,6 +351,11 @@ public class QEMDecimateHalfEdgeTest
 		testCross(10, 10);
 	}
 
+	@Test public void testShellNMLargeHeap()
+	{
+		testCross(10, 10, "heap");
+	}
+
 	@Test public void testShellNM3Inverted()
 	{
 		final Map<String, String> options = new HashMap<String, String>();
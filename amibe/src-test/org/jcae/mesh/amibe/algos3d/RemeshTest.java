@@ -144,6 +144,42 @@ public class RemeshTest
 		assertTrue("Mesh contains inverted triangles", newMesh.checkNoInvertedTriangles());
 	}
 	
+	private static double [] triangleCoordinates(Mesh mesh)
+	{
+		double [] ret = new double[9*mesh.getTriangles().size()];
+		int i = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			for (Vertex n : t.vertex)
+			{
+				System.arraycopy(n.getUV(), 0, ret, i, 3);
+				i += 3;
+			}
+		}
+		return ret;
+	}
+
+	@Test public void testThreads()
+	{
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.02");
+		// Background mesh is not modified, it can be reused
+		bgMesh = SphereBuilder.createShuffledSphereMesh(3);
+		Mesh seqMesh = new Remesh(new MeshLiaison(bgMesh), options).compute().getOutputMesh();
+		options.put("threads", "2");
+		Mesh newMesh = new Remesh(new MeshLiaison(bgMesh), options).compute().getOutputMesh();
+		assertTrue("Mesh is not valid", newMesh.isValid());
+		assertTrue(newMesh.checkNoDegeneratedTriangles());
+		// Points are inserted in a different order
+		int nrSeq = seqMesh.getTriangles().size();
+		assertEquals(nrSeq, newMesh.getTriangles().size(), 0.02 * nrSeq);
+		double [] expected = triangleCoordinates(newMesh);
+		options.put("threads", "3");
+		newMesh = new Remesh(new MeshLiaison(bgMesh), options).compute().getOutputMesh();
+		// Output does not depend on the number of threads
+		assertArrayEquals(expected, triangleCoordinates(newMesh), 0.0);
+	}
+
 	@Test public void test4Neighbors()
 	{
 		/*   v2       v3
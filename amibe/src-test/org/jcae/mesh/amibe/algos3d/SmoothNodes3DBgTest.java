@@ -246,6 +246,16 @@ public class SmoothNodes3DBgTest
 	}
 
 	@Test public void testTorus()
+	{
+		testTorus(1);
+	}
+
+	@Test public void testTorusThreads()
+	{
+		testTorus(3);
+	}
+
+	private void testTorus(int threads)
 	{
 		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
 		mtb.addNodeList();
@@ -264,6 +274,7 @@ public class SmoothNodes3DBgTest
 		options.put("check", "false");
 		options.put("refresh", "true");
 		options.put("relaxation", "0.9");
+		options.put("threads", Integer.toString(threads));
 		Mesh smoothedMesh = new SmoothNodes3DBg(new MeshLiaison(mesh, mtb), options).compute().getOutputMesh();
 		assertTrue("Mesh is not valid", smoothedMesh.isValid());
 		MinAngleFace qproc = new MinAngleFace();
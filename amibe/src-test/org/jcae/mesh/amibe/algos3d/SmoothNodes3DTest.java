@@ -164,6 +164,16 @@ public class SmoothNodes3DTest
 	}
  
 	@Test public void testTorus()
+	{
+		testTorus(1);
+	}
+
+	@Test public void testTorusThreads()
+	{
+		testTorus(3);
+	}
+
+	private void testTorus(int threads)
 	{
 		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
 		mtb.addNodeList();
@@ -182,6 +192,7 @@ public class SmoothNodes3DTest
 		options.put("check", "false");
 		options.put("refresh", "true");
 		options.put("relaxation", "0.9");
+		options.put("threads", Integer.toString(threads));
 		new SmoothNodes3D(mesh, options).compute();
 		assertTrue("Mesh is not valid", mesh.isValid());
 		MinAngleFace qproc = new MinAngleFace();
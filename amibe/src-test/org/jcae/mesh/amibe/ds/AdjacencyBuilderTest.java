@@ -0,0 +1,272 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link AdjacencyBuilder} gives the same adjacency relations
+ * as per-vertex triangle lists.
+ */
+public class AdjacencyBuilderTest
+{
+	private boolean virtualHalfEdge;
+	private boolean nodeList;
+
+	private Mesh createMesh()
+	{
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		if (virtualHalfEdge)
+			ttb.addVirtualHalfEdge();
+		else
+			ttb.addHalfEdge();
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		if (nodeList)
+			mtb.addNodeList();
+		mtb.add(ttb);
+		return new Mesh(mtb);
+	}
+
+	private interface Soup
+	{
+		Vertex [] create(Mesh mesh);
+	}
+
+	private static Vertex [] createVertices(Mesh mesh, int m, int n)
+	{
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(i, j, 0.0);
+				// AdjacencyBuilder stores indices into labels,
+				// some labels look like these indices
+				if ((m*j+i) % 3 == 0)
+					v[m*j+i].setLabel(Integer.MIN_VALUE + (m*j+i) % 5);
+				else
+					v[m*j+i].setLabel(m*j+i+1);
+				if (mesh.getNodes() != null)
+					mesh.add(v[m*j+i]);
+			}
+		}
+		return v;
+	}
+
+	private static void addTriangle(Mesh mesh, Vertex v0, Vertex v1, Vertex v2)
+	{
+		Triangle t = mesh.createTriangle(v0, v1, v2);
+		mesh.add(t);
+		v0.setLink(t);
+		v1.setLink(t);
+		v2.setLink(t);
+	}
+
+	private static void addGrid(Mesh mesh, Vertex [] v, int m, int n)
+	{
+		for (int j = 0; j < n-1; j++)
+		{
+			for (int i = 0; i < m-1; i++)
+			{
+				addTriangle(mesh, v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				addTriangle(mesh, v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+			}
+		}
+	}
+
+	private static final Soup GRID = new Soup() {
+		public Vertex [] create(Mesh mesh)
+		{
+			Vertex [] v = createVertices(mesh, 7, 5);
+			addGrid(mesh, v, 7, 5);
+			return v;
+		}
+	};
+
+	// Grid with fins on a row of edges, in both orientations,
+	// and a fan connected to a single vertex
+	private static final Soup NON_MANIFOLD = new Soup() {
+		public Vertex [] create(Mesh mesh)
+		{
+			Vertex [] v = createVertices(mesh, 6, 6);
+			addGrid(mesh, v, 6, 4);
+			for (int i = 0; i < 4; i++)
+			{
+				addTriangle(mesh, v[6+i], v[6+i+1], v[30+i]);
+				if (i % 2 == 0)
+					addTriangle(mesh, v[6+i+1], v[6+i], v[30+i+1]);
+				else
+					addTriangle(mesh, v[6+i], v[6+i+1], v[30+i+1]);
+			}
+			addTriangle(mesh, v[14], v[24], v[25]);
+			addTriangle(mesh, v[14], v[25], v[26]);
+			return v;
+		}
+	};
+
+	// Two triangles with incompatible orientations, and an
+	// unreadable vertex
+	private static final Soup INCONSISTENT = new Soup() {
+		public Vertex [] create(Mesh mesh)
+		{
+			Vertex [] v = createVertices(mesh, 4, 4);
+			addGrid(mesh, v, 4, 3);
+			addTriangle(mesh, v[8], v[9], v[12]);
+			addTriangle(mesh, v[8], v[9], v[13]);
+			v[5].setReadable(false);
+			return v;
+		}
+	};
+
+	// Random triangles on few vertices, most edges are non-manifold
+	private static final Soup RANDOM = new Soup() {
+		public Vertex [] create(Mesh mesh)
+		{
+			Vertex [] v = createVertices(mesh, 4, 4);
+			Random rand = new Random(987654L);
+			for (int k = 0; k < 80; k++)
+			{
+				int i0 = rand.nextInt(v.length);
+				int i1 = rand.nextInt(v.length);
+				int i2 = rand.nextInt(v.length);
+				if (i0 != i1 && i1 != i2 && i0 != i2)
+					addTriangle(mesh, v[i0], v[i1], v[i2]);
+			}
+			return v;
+		}
+	};
+
+	private static Map<Object, Integer> index(Mesh mesh, Vertex [] v)
+	{
+		Map<Object, Integer> ret = new IdentityHashMap<Object, Integer>();
+		for (int i = 0; i < v.length; i++)
+			ret.put(v[i], i);
+		ret.put(mesh.outerVertex, -1);
+		int cnt = 0;
+		for (Triangle t: mesh.getTriangles())
+		{
+			ret.put(t, cnt);
+			cnt++;
+		}
+		return ret;
+	}
+
+	private static String describeLink(Vertex v, Map<Object, Integer> index)
+	{
+		Object link = v.getLink();
+		if (link == null)
+			return "null";
+		if (link instanceof Triangle)
+			return index.get(link).toString();
+		StringBuilder sb = new StringBuilder("[");
+		for (Triangle t: (Triangle []) link)
+			sb.append(" "+index.get(t));
+		return sb.append(" ]").toString();
+	}
+
+	private void check(Soup soup)
+	{
+		for (int pass = 0; pass < 4; pass++)
+		{
+			virtualHalfEdge = (pass & 1) != 0;
+			nodeList = (pass & 2) != 0;
+			Mesh expected = createMesh();
+			Vertex [] ve = soup.create(expected);
+			expected.buildAdjacency(0, 0);
+			for (int nrThreads = 1; nrThreads <= 3; nrThreads++)
+			{
+				Mesh mesh = createMesh();
+				Vertex [] v = soup.create(mesh);
+				mesh.buildAdjacency(0, nrThreads);
+				compare(expected, ve, mesh, v);
+				assertTrue(mesh.isValid());
+			}
+		}
+	}
+
+	private static void compare(Mesh expected, Vertex [] ve, Mesh mesh, Vertex [] v)
+	{
+		Map<Object, Integer> ie = index(expected, ve);
+		Map<Object, Integer> im = index(mesh, v);
+		assertEquals(expected.getTriangles().size(), mesh.getTriangles().size());
+		ArrayList<Triangle> le = new ArrayList<Triangle>(expected.getTriangles());
+		ArrayList<Triangle> lm = new ArrayList<Triangle>(mesh.getTriangles());
+		for (int i = 0; i < le.size(); i++)
+		{
+			Triangle te = le.get(i);
+			Triangle tm = lm.get(i);
+			AbstractHalfEdge e = te.getAbstractHalfEdge();
+			AbstractHalfEdge f = tm.getAbstractHalfEdge();
+			for (int l = 0; l < 3; l++)
+			{
+				String msg = "triangle "+i+" edge "+l;
+				assertEquals(msg, ie.get(e.origin()), im.get(f.origin()));
+				assertEquals(msg, ie.get(e.destination()), im.get(f.destination()));
+				for (int b = 0; b < 16; b++)
+					assertEquals(msg, e.hasAttributes(1 << b), f.hasAttributes(1 << b));
+				assertEquals(msg, e.hasSymmetricEdge(), f.hasSymmetricEdge());
+				if (e.hasSymmetricEdge())
+				{
+					AbstractHalfEdge se = e.sym();
+					AbstractHalfEdge sf = f.sym();
+					assertEquals(msg, ie.get(se.getTri()), im.get(sf.getTri()));
+					assertEquals(msg, se.getLocalNumber(), sf.getLocalNumber());
+				}
+				e = e.next();
+				f = f.next();
+			}
+		}
+		for (int i = 0; i < ve.length; i++)
+		{
+			assertEquals("vertex "+i, ve[i].getRef(), v[i].getRef());
+			assertEquals("vertex "+i, ve[i].getLabel(), v[i].getLabel());
+			assertEquals("vertex "+i, describeLink(ve[i], ie), describeLink(v[i], im));
+		}
+	}
+
+	@Test public void grid()
+	{
+		check(GRID);
+	}
+
+	@Test public void nonManifold()
+	{
+		check(NON_MANIFOLD);
+	}
+
+	@Test public void inconsistent()
+	{
+		check(INCONSISTENT);
+	}
+
+	@Test public void random()
+	{
+		check(RANDOM);
+	}
+}
@@ -19,8 +19,12 @@
 
 package org.jcae.mesh.amibe.ds;
 
+import org.jcae.mesh.amibe.metrics.KdTree;
 import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -132,5 +136,105 @@ public class MeshTest
 		nr = mesh.scratchVirtualBoundaries();
 		assertTrue("Wrong return value of scratchVirtualBoundaries (2 was expected): "+nr, 2 == nr);
 	}
-	
+
+	private int countEdges(int attr)
+	{
+		int ret = 0;
+		AbstractHalfEdge ot = null;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			ot = t.getAbstractHalfEdge(ot);
+			for (int i = 0; i < 3; i++)
+			{
+				if (ot.hasAttributes(attr))
+					ret++;
+				ot = ot.next();
+			}
+		}
+		return ret;
+	}
+
+	@Test public void packUnpack()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		mesh = new Mesh(mtb);
+		createMxNShell(3, 3);
+		for (int i = 0; i < 8; i++)
+			T[i].setGroupId(i/4);
+		for (Vertex vv : v)
+			mesh.add(vv);
+		mesh.addBeam(v[0], v[8], 3);
+		mesh.buildAdjacency();
+		AbstractHalfEdge ot = T[0].getAbstractHalfEdge();
+		ot.setAttributes(AbstractHalfEdge.SHARP);
+		ot.sym().setAttributes(AbstractHalfEdge.SHARP);
+		int nrTriangles = mesh.getTriangles().size();
+		int nrNodes = mesh.getNodes().size();
+
+		mesh.pack();
+		assertTrue(mesh.isPacked());
+		assertTrue(mesh.getTriangles().isEmpty());
+		assertTrue(mesh.getNodes().isEmpty());
+		assertTrue(mesh.getBeams().isEmpty());
+
+		mesh.unpack();
+		assertFalse(mesh.isPacked());
+		assertEquals(nrTriangles, mesh.getTriangles().size());
+		assertEquals(nrNodes, mesh.getNodes().size());
+		assertEquals(2, mesh.getBeams().size());
+		assertEquals(3, mesh.getBeamGroup(0));
+		assertEquals(2, countEdges(AbstractHalfEdge.SHARP));
+		int group1 = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER) && t.getGroupId() == 1)
+				group1++;
+		}
+		assertEquals(4, group1);
+		assertTrue(mesh.isValid());
+	}
+
+	@Test public void packUnpackKdTree()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		mtb.addKdTree(3);
+		mesh = SyntheticMesh.createWavyGrid(mtb, 5, 5, true);
+		mesh.resetKdTree(new double[] { -1.0, -1.0, -1.0 }, new double[] { 2.0, 2.0, 2.0 });
+		KdTree<Vertex> kdTree = mesh.getKdTree();
+		for (Vertex vv : mesh.getNodes())
+			kdTree.add(vv);
+		// This vertex does not belong to mesh
+		Vertex other = mesh.createVertex(1.5, 1.5, 1.5);
+		kdTree.add(other);
+
+		mesh.pack();
+		Collection<Vertex> packed = kdTree.getAllVertices(1);
+		assertEquals(1, packed.size());
+		assertSame(other, packed.iterator().next());
+
+		mesh.unpack();
+		Set<Vertex> unpacked = new HashSet<Vertex>(kdTree.getAllVertices(26));
+		assertEquals(26, unpacked.size());
+		assertTrue(unpacked.contains(other));
+		assertTrue(unpacked.containsAll(mesh.getNodes()));
+		double [] xyz = mesh.getNodes().iterator().next().getUV();
+		assertTrue(mesh.getNodes().contains(kdTree.getNearestVertex(mesh.getMetric(null), xyz)));
+	}
+
+	@Test(expected=IllegalStateException.class) public void packTwice()
+	{
+		mesh = SyntheticMesh.createWavyGrid(3, 3);
+		mesh.pack();
+		mesh.pack();
+	}
+
+	@Test(expected=IllegalStateException.class) public void unpackWithoutPack()
+	{
+		mesh = SyntheticMesh.createWavyGrid(3, 3);
+		mesh.unpack();
+	}
 }
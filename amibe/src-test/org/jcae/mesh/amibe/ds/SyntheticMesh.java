@@ -0,0 +1,139 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.Iterator;
+
+/**
+ * Synthetic meshes shared by unit tests and benchmarks.  Meshes are regular grids on the
+ * unit square, slightly bent so that decimation and remeshing algorithms
+ * have something to do.  Vertices are stored row by row, a grid of
+ * <code>m*n</code> vertices contains <code>2*(m-1)*(n-1)</code> triangles.
+ */
+public final class SyntheticMesh
+{
+	private SyntheticMesh()
+	{
+	}
+
+	public static double height(double x, double y)
+	{
+		return 0.05 * Math.sin(4.0 * x) * Math.cos(3.0 * y);
+	}
+
+	/**
+	 * Creates a wavy grid with adjacency relations.
+	 *
+	 * @param m  number of vertices along x axis
+	 * @param n  number of vertices along y axis
+	 */
+	public static Mesh createWavyGrid(int m, int n)
+	{
+		return createWavyGrid(m, n, true);
+	}
+
+	/**
+	 * Creates a wavy grid.
+	 *
+	 * @param m  number of vertices along x axis
+	 * @param n  number of vertices along y axis
+	 * @param adjacency  if <code>true</code>, {@link Mesh#buildAdjacency}
+	 *   is called
+	 */
+	public static Mesh createWavyGrid(int m, int n, boolean adjacency)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return createWavyGrid(mtb, m, n, adjacency);
+	}
+
+	/**
+	 * Creates a wavy grid with the given traits.  Vertices are added to
+	 * the mesh only if <code>mtb</code> has a node list.
+	 *
+	 * @param mtb  mesh traits builder
+	 * @param m  number of vertices along x axis
+	 * @param n  number of vertices along y axis
+	 * @param adjacency  if <code>true</code>, {@link Mesh#buildAdjacency}
+	 *   is called
+	 */
+	public static Mesh createWavyGrid(MeshTraitsBuilder mtb, int m, int n, boolean adjacency)
+	{
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < m; i++)
+			{
+				double x = ((double) i) / (m - 1);
+				double y = ((double) j) / (n - 1);
+				v[m*j+i] = mesh.createVertex(x, y, height(x, y));
+				mesh.add(v[m*j+i]);
+			}
+		}
+		mesh.ensureCapacity(2*(m-1)*(n-1));
+		for (int j = 0; j < n-1; j++)
+		{
+			for (int i = 0; i < m-1; i++)
+			{
+				Triangle t1 = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				Triangle t2 = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+				mesh.add(t1);
+				mesh.add(t2);
+				v[m*j+i].setLink(t1);
+				v[m*j+i+1].setLink(t1);
+				v[m*(j+1)+i].setLink(t1);
+				v[m*(j+1)+i+1].setLink(t2);
+			}
+		}
+		if (adjacency)
+			mesh.buildAdjacency();
+		return mesh;
+	}
+
+	/**
+	 * Returns grid vertices, row by row.  This method must be called
+	 * before mesh is modified.
+	 */
+	public static Vertex [] getVertices(Mesh mesh)
+	{
+		return mesh.getNodes().toArray(new Vertex[mesh.getNodes().size()]);
+	}
+
+	/**
+	 * Returns an inner half-edge going from o to d, or <code>null</code>
+	 * if there is none.  Mesh must have adjacency relations.
+	 */
+	public static AbstractHalfEdge findEdge(Vertex o, Vertex d)
+	{
+		for (Iterator<Triangle> it = o.getNeighbourIteratorTriangle(); it.hasNext(); )
+		{
+			AbstractHalfEdge e = it.next().getAbstractHalfEdge();
+			for (int i = 0; i < 3; i++)
+			{
+				if (e.origin() == o && e.destination() == d && !e.hasAttributes(AbstractHalfEdge.OUTER))
+					return e;
+				e = e.next();
+			}
+		}
+		return null;
+	}
+}
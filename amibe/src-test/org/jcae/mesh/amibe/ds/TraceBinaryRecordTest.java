@@ -0,0 +1,161 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TraceBinaryRecordTest
+{
+	private static Vertex middle(Mesh mesh, AbstractHalfEdge e)
+	{
+		double [] p0 = e.origin().getUV();
+		double [] p1 = e.destination().getUV();
+		return mesh.createVertex(0.5*(p0[0]+p1[0]), 0.5*(p0[1]+p1[1]), 0.5*(p0[2]+p1[2]));
+	}
+
+	@Test public void replay() throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		mtb.addTraceBinaryRecord();
+		Mesh mesh = SyntheticMesh.createWavyGrid(mtb, 6, 6, true);
+		Vertex [] v = SyntheticMesh.getVertices(mesh);
+		File log = File.createTempFile("trace", "");
+		File traceFile = new File(log.getPath()+".trace");
+		try
+		{
+			TraceInterface trace = mesh.getTrace();
+			trace.setLogFile(log.getPath());
+			trace.createMesh("self.m", mesh);
+			trace.println("# Begin test");
+			mesh.edgeSwap(SyntheticMesh.findEdge(v[8], v[13]));
+			AbstractHalfEdge e = SyntheticMesh.findEdge(v[14], v[15]);
+			mesh.vertexSplit(e, middle(mesh, e));
+			// Boundary edge
+			e = SyntheticMesh.findEdge(v[0], v[1]);
+			mesh.vertexSplit(e, middle(mesh, e));
+			e = SyntheticMesh.findEdge(v[27], v[28]);
+			Vertex n = middle(mesh, e);
+			assertTrue(mesh.canCollapseEdge(e, n));
+			mesh.edgeCollapse(e, n);
+			v[22].moveTo(0.4, 0.6, 0.1);
+			trace.moveVertex(v[22]);
+			trace.println("# End test");
+			trace.finish();
+			assertEquals(0, traceFile.length() % TraceBinaryRecord.RECORD_SIZE);
+
+			MeshTraitsBuilder replayTraits = MeshTraitsBuilder.getDefault3D();
+			replayTraits.addNodeList();
+			replayTraits.addTraceReplay();
+			Mesh replayed = new Mesh(replayTraits);
+			TraceReplay replay = (TraceReplay) replayed.getTrace();
+			int nrRecords = replay.replay(traceFile.getPath(), replayed);
+			assertEquals(traceFile.length() / TraceBinaryRecord.RECORD_SIZE, nrRecords);
+
+			assertTrue(replayed.isValid());
+			assertEquals(mesh.getTriangles().size(), replayed.getTriangles().size());
+			for (Triangle t : mesh.getTriangles())
+			{
+				if (t.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				Triangle r = replay.getTriangle(trace.getTriangleId(t));
+				assertNotNull(r);
+				for (int i = 0; i < 3; i++)
+					assertArrayEquals(t.vertex[i].getUV(), r.vertex[i].getUV(), 0.0);
+			}
+			assertArrayEquals(v[22].getUV(), replay.getVertex(trace.getVertexId(v[22])).getUV(), 0.0);
+			assertSame(v[22], trace.getVertex(trace.getVertexId(v[22])));
+			assertSame(mesh.outerVertex, trace.getVertex(-1));
+			for (Triangle t : mesh.getTriangles())
+			{
+				if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+					assertSame(t, trace.getTriangle(trace.getTriangleId(t)));
+			}
+		}
+		finally
+		{
+			log.delete();
+			traceFile.delete();
+		}
+	}
+
+	@Test public void largeTrace() throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		mtb.addTraceBinaryRecord();
+		Mesh mesh = SyntheticMesh.createWavyGrid(mtb, 20, 20, true);
+		File log = File.createTempFile("trace", "");
+		File traceFile = new File(log.getPath()+".trace");
+		try
+		{
+			TraceInterface trace = mesh.getTrace();
+			trace.setLogFile(log.getPath());
+			trace.createMesh("self.m", mesh);
+			// Several buffers are written by background tasks
+			for (int i = 0; i < 100; i++)
+			{
+				for (Vertex v : mesh.getNodes())
+				{
+					double [] xyz = v.getUV();
+					v.moveTo(xyz[0], xyz[1], xyz[2] + 0.001);
+					trace.moveVertex(v);
+				}
+			}
+			trace.finish();
+
+			MeshTraitsBuilder replayTraits = MeshTraitsBuilder.getDefault3D();
+			replayTraits.addNodeList();
+			replayTraits.addTraceReplay();
+			Mesh replayed = new Mesh(replayTraits);
+			TraceReplay replay = (TraceReplay) replayed.getTrace();
+			assertTrue(replay.replay(traceFile.getPath(), replayed) > 40000);
+			for (Vertex v : mesh.getNodes())
+				assertArrayEquals(v.getUV(), replay.getVertex(trace.getVertexId(v)).getUV(), 0.0);
+		}
+		finally
+		{
+			log.delete();
+			traceFile.delete();
+		}
+	}
+
+	@Test public void explicitIds()
+	{
+		Mesh mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+		TraceBinaryRecord trace = new TraceBinaryRecord();
+		Vertex v0 = mesh.createVertex(0.0, 0.0, 0.0);
+		Vertex v1 = mesh.createVertex(1.0, 0.0, 0.0);
+		Vertex v2 = mesh.createVertex(0.0, 1.0, 0.0);
+		trace.add(v0, 10);
+		trace.add(v1);
+		assertSame(v0, trace.getVertex(10));
+		assertEquals(11, trace.getVertexId(v1));
+		Triangle t = mesh.createTriangle(v0, v1, v2);
+		trace.add(t, 5);
+		assertSame(t, trace.getTriangle(5));
+		assertEquals(5, trace.getTriangleId(t));
+		trace.remove(t);
+		assertNull(trace.getTriangle(5));
+	}
+}
@@ -0,0 +1,182 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ConcurrentKdTreeTest
+{
+	private static final double [] BBOX = new double[] { 0.0, 0.0, 0.0, 1.0, 1.0, 1.0 };
+	private final Metric metric = new EuclidianMetric3D();
+
+	private static final class Point implements Location
+	{
+		private final double [] uv;
+		private Point(Random rand)
+		{
+			uv = new double[] { rand.nextDouble(), rand.nextDouble(), rand.nextDouble() };
+		}
+		public double [] getUV()
+		{
+			return uv;
+		}
+		public void moveTo(double u, double v)
+		{
+			throw new UnsupportedOperationException();
+		}
+		public void moveTo(double x, double y, double z)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private Point bruteForce(List<Point> points, double [] uv)
+	{
+		Point ret = null;
+		double dist = Double.MAX_VALUE;
+		for (Point p: points)
+		{
+			double d = metric.distance2(uv, p.getUV());
+			if (d < dist)
+			{
+				dist = d;
+				ret = p;
+			}
+		}
+		return ret;
+	}
+
+	private void checkNearest(ConcurrentKdTree<Point> tree, List<Point> points, Random rand)
+	{
+		assertEquals(points.size(), tree.size());
+		for (int i = 0; i < 500; i++)
+		{
+			double [] uv = new Point(rand).getUV();
+			Point expected = bruteForce(points, uv);
+			Point p = tree.getNearestVertex(metric, uv);
+			assertEquals(metric.distance2(uv, expected.getUV()), metric.distance2(uv, p.getUV()), 0.0);
+		}
+	}
+
+	@Test public void sequential()
+	{
+		Random rand = new Random(1234L);
+		ConcurrentKdTree<Point> tree = new ConcurrentKdTree<Point>(BBOX, 4);
+		assertNull(tree.getNearestVertex(metric, new double[] { 0.5, 0.5, 0.5 }));
+		List<Point> points = new ArrayList<Point>();
+		for (int i = 0; i < 5000; i++)
+		{
+			Point p = new Point(rand);
+			points.add(p);
+			tree.add(p);
+		}
+		checkNearest(tree, points, rand);
+		for (int i = points.size() - 1; i >= 0; i -= 2)
+			tree.remove(points.remove(i));
+		checkNearest(tree, points, rand);
+		try
+		{
+			tree.remove(new Point(rand));
+			fail("Removing a missing vertex must fail");
+		}
+		catch (RuntimeException ex)
+		{
+		}
+	}
+
+	@Test public void stress() throws InterruptedException
+	{
+		final int nrThreads = 8;
+		final int nrPoints = 4000;
+		final Random rand = new Random(5678L);
+		final ConcurrentKdTree<Point> tree = new ConcurrentKdTree<Point>(BBOX, 4);
+		// Points which are present during the whole test, readers
+		// must always find them
+		final List<Point> fixed = new ArrayList<Point>();
+		for (int i = 0; i < 500; i++)
+		{
+			Point p = new Point(rand);
+			fixed.add(p);
+			tree.add(p);
+		}
+		final List<List<Point>> kept = new ArrayList<List<Point>>();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < nrThreads; t++)
+		{
+			final List<Point> points = new ArrayList<Point>();
+			for (int i = 0; i < nrPoints; i++)
+				points.add(new Point(rand));
+			kept.add(points);
+			final boolean reader = t % 2 == 0;
+			final long seed = rand.nextLong();
+			threads.add(new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						Random r = new Random(seed);
+						for (Point p: points)
+						{
+							tree.add(p);
+							if (reader)
+							{
+								Point f = fixed.get(r.nextInt(fixed.size()));
+								Point n = tree.getNearestVertex(metric, f.getUV());
+								if (metric.distance2(f.getUV(), n.getUV()) != 0.0)
+									throw new AssertionError("Vertex "+f+" not found");
+							}
+						}
+						for (int i = points.size() - 1; i >= 0; i -= 2)
+							tree.remove(points.remove(i));
+					}
+					catch (Throwable ex)
+					{
+						errors.add(ex);
+					}
+				}
+			});
+		}
+		for (Thread t: threads)
+			t.start();
+		start.countDown();
+		for (Thread t: threads)
+			t.join();
+		if (!errors.isEmpty())
+			throw new AssertionError(errors.get(0));
+
+		List<Point> all = new ArrayList<Point>(fixed);
+		for (List<Point> points: kept)
+			all.addAll(points);
+		for (Point p: all)
+			assertSame(p, tree.getNearestVertex(metric, p.getUV()));
+		checkNearest(tree, all, rand);
+	}
+}
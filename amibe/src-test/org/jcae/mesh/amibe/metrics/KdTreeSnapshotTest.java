@@ -0,0 +1,167 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class KdTreeSnapshotTest
+{
+	private static final class Point implements Location
+	{
+		private final double [] uv;
+		private Point(double [] uv)
+		{
+			this.uv = uv;
+		}
+		public double [] getUV()
+		{
+			return uv;
+		}
+		public void moveTo(double u, double v)
+		{
+			throw new UnsupportedOperationException();
+		}
+		public void moveTo(double x, double y, double z)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static double distance2(double [] p, double [] queries, int q)
+	{
+		double ret = 0.0;
+		for (int i = 0; i < p.length; i++)
+		{
+			double d = p[i] - queries[p.length * q + i];
+			ret += d * d;
+		}
+		return ret;
+	}
+
+	// Returns sorted squared distances between a query point and all points
+	private static double [] sortedDistances(ArrayList<Point> points, double [] queries, int q)
+	{
+		double [] ret = new double[points.size()];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = distance2(points.get(i).getUV(), queries, q);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private static void check(int dimension, int bucketSize, int nrThreads)
+	{
+		Random rand = new Random(4567L + dimension);
+		double [] bbox = new double[2*dimension];
+		for (int i = 0; i < dimension; i++)
+			bbox[i+dimension] = 1.0;
+		KdTree<Point> tree = new KdTree<Point>(bbox, bucketSize);
+		ArrayList<Point> points = new ArrayList<Point>();
+		for (int i = 0; i < 3000; i++)
+		{
+			double [] uv = new double[dimension];
+			for (int k = 0; k < dimension; k++)
+				uv[k] = rand.nextDouble();
+			Point p = new Point(uv);
+			points.add(p);
+			tree.add(p);
+		}
+		// Remove some points to have empty cells
+		for (int i = points.size() - 1; i >= 0; i -= 3)
+			tree.remove(points.remove(i));
+		KdTreeSnapshot<Point> snapshot = tree.snapshot();
+		assertEquals(points.size(), snapshot.size());
+
+		int nrQueries = 2500;
+		double [] queries = new double[dimension * nrQueries];
+		for (int i = 0; i < queries.length; i++)
+			queries[i] = 1.2 * rand.nextDouble() - 0.1;
+		int k = 7;
+		int [] indices = new int[k * nrQueries];
+		double [] dist = new double[k * nrQueries];
+		snapshot.getNearestVertices(queries, k, indices, dist, nrThreads);
+		double radius = 0.05;
+		int maxResults = 20;
+		int [] inRadius = new int[maxResults * nrQueries];
+		int [] counts = new int[nrQueries];
+		snapshot.getVerticesInRadius(queries, radius, maxResults, inRadius, counts, nrThreads);
+		for (int q = 0; q < nrQueries; q++)
+		{
+			double [] expected = sortedDistances(points, queries, q);
+			for (int j = 0; j < k; j++)
+			{
+				double d = distance2(snapshot.getVertex(indices[k*q+j]).getUV(), queries, q);
+				assertEquals(expected[j], d, 0.0);
+				assertEquals(expected[j], dist[k*q+j], 0.0);
+			}
+			int n = 0;
+			while (n < expected.length && expected[n] <= radius * radius)
+				n++;
+			assertEquals(Math.min(n, maxResults), counts[q]);
+			for (int j = 0; j < counts[q]; j++)
+			{
+				double d = distance2(snapshot.getVertex(inRadius[maxResults*q+j]).getUV(), queries, q);
+				assertEquals(expected[j], d, 0.0);
+			}
+		}
+	}
+
+	@Test public void nearest2D()
+	{
+		check(2, 10, 1);
+	}
+
+	@Test public void nearest3D()
+	{
+		check(3, 10, 1);
+	}
+
+	@Test public void smallBuckets()
+	{
+		check(3, 4, 1);
+	}
+
+	@Test public void threads()
+	{
+		check(3, 10, 4);
+	}
+
+	@Test public void fewVertices()
+	{
+		KdTree<Point> tree = new KdTree<Point>(new double[] { 0.0, 0.0, 1.0, 1.0 });
+		tree.add(new Point(new double[] { 0.5, 0.5 }));
+		tree.add(new Point(new double[] { 0.25, 0.5 }));
+		KdTreeSnapshot<Point> snapshot = tree.snapshot();
+		int [] indices = new int[3];
+		double [] dist = new double[3];
+		snapshot.getNearestVertices(new double[] { 0.0, 0.5 }, 3, indices, dist);
+		assertEquals(0.25, snapshot.getVertex(indices[0]).getUV()[0], 0.0);
+		assertEquals(0.5, snapshot.getVertex(indices[1]).getUV()[0], 0.0);
+		assertEquals(-1, indices[2]);
+		assertTrue(Double.isInfinite(dist[2]));
+		KdTreeSnapshot<Point> empty = new KdTree<Point>(new double[] { 0.0, 0.0, 1.0, 1.0 }).snapshot();
+		empty.getNearestVertices(new double[] { 0.0, 0.5 }, 3, indices, dist);
+		assertEquals(-1, indices[0]);
+	}
+}
@@ -0,0 +1,78 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.ArrayList;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class KdTreeTest
+{
+	private static final class Point implements Location
+	{
+		private final double [] uv;
+		private Point(double x, double y, double z)
+		{
+			uv = new double[] { x, y, z };
+		}
+		public double [] getUV()
+		{
+			return uv;
+		}
+		public void moveTo(double u, double v)
+		{
+			throw new UnsupportedOperationException();
+		}
+		public void moveTo(double x, double y, double z)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// The last vertex may be in any subcell of the root cell
+	@Test public void removeAll()
+	{
+		double [] bbox = new double[] { 0.0, 0.0, 0.0, 1.0, 1.0, 1.0 };
+		Random rand = new Random(1234L);
+		for (int last = 0; last < 8; last++)
+		{
+			KdTree<Point> tree = new KdTree<Point>(bbox, 4);
+			ArrayList<Point> points = new ArrayList<Point>();
+			for (int i = 0; i < 100; i++)
+			{
+				Point p = new Point(rand.nextDouble(), rand.nextDouble(), rand.nextDouble());
+				points.add(p);
+				tree.add(p);
+			}
+			Point p = new Point(0.25 + 0.5 * (last & 1), 0.25 + 0.5 * ((last >> 1) & 1), 0.25 + 0.5 * (last >> 2));
+			tree.add(p);
+			for (Point q : points)
+				tree.remove(q);
+			assertEquals(1, tree.getAllVertices(1).size());
+			tree.remove(p);
+			assertTrue(tree.getAllVertices(1).isEmpty());
+			// Tree can be filled again
+			for (Point q : points)
+				tree.add(q);
+			assertEquals(points.size(), tree.getAllVertices(points.size()).size());
+		}
+	}
+}
@@ -25,6 +25,7 @@ import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.BitSet;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -143,5 +144,85 @@ public class MeshLiaisonTest
 		Triangle tRes = ot.getTri();
 		assertTrue("North Pole not found", tRes.vertex[0] == northPole || tRes.vertex[1] == northPole || tRes.vertex[2] == northPole);
 	}
-	
+
+	@Test public void moveMany()
+	{
+		mesh = new Mesh();
+		createMxNShell(4, 4);
+		mesh.buildAdjacency();
+		MeshLiaison liaison = new MeshLiaison(mesh, MeshTraitsBuilder.getDefault3D().addNodeList());
+		Mesh newMesh = liaison.getMesh();
+		Vertex [] vertices = newMesh.getNodes().toArray(new Vertex[newMesh.getNodes().size()]);
+		double [] targets = new double[3*vertices.length];
+		for (int i = 0; i < vertices.length; i++)
+		{
+			double [] xyz = vertices[i].getUV();
+			targets[3*i] = Math.min(3.0, xyz[0] + 0.3);
+			targets[3*i+1] = Math.min(3.0, xyz[1] + 0.2);
+			targets[3*i+2] = 1.0;
+		}
+		BitSet moved = new BitSet();
+		assertEquals(vertices.length, liaison.move(vertices, targets, moved));
+		assertEquals(vertices.length, moved.cardinality());
+		Triangle [] bgT = new Triangle[vertices.length];
+		liaison.getBackgroundTriangles(vertices, bgT);
+		for (int i = 0; i < vertices.length; i++)
+		{
+			// Vertices are projected onto plane z=0
+			double [] xyz = vertices[i].getUV();
+			assertEquals(targets[3*i], xyz[0], 1.e-12);
+			assertEquals(targets[3*i+1], xyz[1], 1.e-12);
+			assertEquals(0.0, xyz[2], 1.e-12);
+			assertSame(liaison.getBackgroundTriangle(vertices[i]), bgT[i]);
+			assertTrue(mesh.getTriangles().contains(bgT[i]));
+		}
+
+		// Slots of removed vertices are reused
+		int slot = vertices[0].getSlot();
+		assertTrue(slot >= 0);
+		Triangle t = liaison.removeVertex(vertices[0]);
+		assertEquals(-1, vertices[0].getSlot());
+		Vertex n = newMesh.createVertex(1.5, 1.5, 0.0);
+		liaison.addVertex(n, t);
+		assertEquals(slot, n.getSlot());
+		assertTrue(liaison.move(n, new double[] { 1.5, 1.6, 0.0 }));
+		assertEquals(1.6, n.getUV()[1], 1.e-12);
+		assertEquals(1.0, Math.abs(liaison.getBackgroundNormal(n)[2]), 1.e-12);
+	}
+
+	@Test public void backupRestore()
+	{
+		mesh = new Mesh();
+		createMxNShell(4, 4);
+		mesh.buildAdjacency();
+		MeshLiaison liaison = new MeshLiaison(mesh, MeshTraitsBuilder.getDefault3D().addNodeList());
+		Mesh newMesh = liaison.getMesh();
+		MeshLiaison.ProjectedLocation location = liaison.createProjectedLocation();
+		for (Vertex n : newMesh.getNodes())
+		{
+			double [] xyz = n.getUV();
+			double x = xyz[0];
+			double y = xyz[1];
+			Triangle t = liaison.getBackgroundTriangle(n);
+			double [] target = new double[] { Math.min(3.0, x + 0.4), Math.min(3.0, y + 0.7), 1.0 };
+			assertTrue(liaison.backupAndMove(n, target, location));
+			assertEquals(target[1], n.getUV()[1], 1.e-12);
+			n.moveTo(x, y, 0.0);
+			liaison.backupRestore(n, true, location);
+			// Old projection is restored
+			assertSame(t, liaison.getBackgroundTriangle(n));
+			assertEquals(1.0, Math.abs(liaison.getBackgroundNormal(n)[2]), 1.e-12);
+			assertTrue(liaison.move(n, new double[] { x, y, 0.0 }, location));
+			assertSame(t, liaison.getBackgroundTriangle(n));
+		}
+		Vertex n = newMesh.getNodes().iterator().next();
+		try
+		{
+			liaison.backupRestore(n, false);
+			fail("Projection has not been saved");
+		}
+		catch (IllegalStateException ex)
+		{
+		}
+	}
 }
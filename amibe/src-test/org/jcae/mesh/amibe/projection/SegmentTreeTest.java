@@ -0,0 +1,94 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+import gnu.trove.TDoubleArrayList;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SegmentTreeTest
+{
+	private static double sqrDistance(double [] c, int s, double [] pos)
+	{
+		double [] d = new double[3];
+		double n2 = 0.0;
+		double t = 0.0;
+		for (int k = 0; k < 3; k++)
+		{
+			d[k] = c[6*s+3+k] - c[6*s+k];
+			n2 += d[k] * d[k];
+			t += d[k] * (pos[k] - c[6*s+k]);
+		}
+		t = Math.max(0.0, Math.min(1.0, t / n2));
+		double ret = 0.0;
+		for (int k = 0; k < 3; k++)
+		{
+			double x = pos[k] - c[6*s+k] - t * d[k];
+			ret += x * x;
+		}
+		return ret;
+	}
+
+	@Test public void bruteForce()
+	{
+		Random rand = new Random(12345L);
+		int n = 2000;
+		double [] c = new double[6*n];
+		TDoubleArrayList coords = new TDoubleArrayList();
+		for (int s = 0; s < n; s++)
+		{
+			// Short segments along a helix, and a few long ones
+			double a = 0.01 * s;
+			double len = (s % 100 == 0) ? 1.0 : 0.02;
+			c[6*s] = Math.cos(a);
+			c[6*s+1] = Math.sin(a);
+			c[6*s+2] = 0.001 * s;
+			for (int k = 0; k < 3; k++)
+				c[6*s+3+k] = c[6*s+k] + len * (rand.nextDouble() - 0.5);
+			for (int k = 0; k < 6; k++)
+				coords.add(c[6*s+k]);
+		}
+		SegmentTree tree = new SegmentTree(coords);
+		assertEquals(n, tree.size());
+		double [] pos = new double[3];
+		for (int i = 0; i < 500; i++)
+		{
+			pos[0] = 2.4 * rand.nextDouble() - 1.2;
+			pos[1] = 2.4 * rand.nextDouble() - 1.2;
+			pos[2] = 2.2 * rand.nextDouble() - 0.1;
+			double dMin = Double.MAX_VALUE;
+			for (int s = 0; s < n; s++)
+				dMin = Math.min(dMin, sqrDistance(c, s, pos));
+			double d = tree.getSqrDistance(pos);
+			assertEquals(dMin, d, 1.e-12);
+			assertTrue(tree.isNearer(pos, d));
+			assertFalse(tree.isNearer(pos, 0.99 * d));
+		}
+	}
+
+	@Test public void empty()
+	{
+		SegmentTree tree = new SegmentTree(new TDoubleArrayList());
+		double [] pos = new double[3];
+		assertEquals(Double.MAX_VALUE, tree.getSqrDistance(pos), 0.0);
+		assertFalse(tree.isNearer(pos, Double.MAX_VALUE));
+	}
+}
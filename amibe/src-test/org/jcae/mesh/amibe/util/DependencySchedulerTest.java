@@ -0,0 +1,153 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.amibe.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DependencySchedulerTest
+{
+	// Builds a grid-like graph: task (l, i) depends on tasks (l-1, i) and
+	// (l-1, i+1), like faces depend on their edges.
+	private static DependencyScheduler createLayers(int nrLayers, int width,
+		final List<Integer> order, final boolean [] done, final boolean [] error)
+	{
+		final DependencyScheduler scheduler = new DependencyScheduler();
+		for (int l = 0; l < nrLayers; l++)
+		{
+			for (int i = 0; i < width; i++)
+			{
+				final int index = l * width + i;
+				final int [] deps = l == 0 ? new int[0] :
+					new int[] { index - width, (l - 1) * width + (i + 1) % width };
+				scheduler.addTask(new Runnable() {
+					public void run()
+					{
+						synchronized (done)
+						{
+							for (int d : deps)
+								if (!done[d])
+									error[0] = true;
+						}
+						Thread.yield();
+						synchronized (done)
+						{
+							done[index] = true;
+							order.add(index);
+						}
+					}
+				});
+				for (int d : deps)
+					scheduler.addDependency(index, d);
+			}
+		}
+		return scheduler;
+	}
+
+	@Test public void sequential()
+	{
+		List<Integer> order = new ArrayList<Integer>();
+		boolean [] done = new boolean[60];
+		boolean [] error = new boolean[1];
+		createLayers(4, 15, order, done, error).run(1);
+		assertFalse(error[0]);
+		assertEquals(60, order.size());
+		for (int i = 0; i < 60; i++)
+			assertEquals(i, order.get(i).intValue());
+	}
+
+	@Test public void concurrent()
+	{
+		for (int nrThreads = 2; nrThreads <= 8; nrThreads *= 2)
+		{
+			List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			boolean [] done = new boolean[400];
+			boolean [] error = new boolean[1];
+			DependencyScheduler scheduler = createLayers(8, 50, order, done, error);
+			scheduler.run(nrThreads);
+			assertFalse(error[0]);
+			assertEquals(400, order.size());
+			// Scheduler can be run again
+			order.clear();
+			java.util.Arrays.fill(done, false);
+			scheduler.run(nrThreads);
+			assertFalse(error[0]);
+			assertEquals(400, order.size());
+		}
+	}
+
+	@Test(expected=IllegalStateException.class) public void cycle()
+	{
+		DependencyScheduler scheduler = new DependencyScheduler();
+		Runnable empty = new Runnable() {
+			public void run()
+			{
+			}
+		};
+		int a = scheduler.addTask(empty);
+		int b = scheduler.addTask(empty);
+		int c = scheduler.addTask(empty);
+		int d = scheduler.addTask(empty);
+		scheduler.addDependency(b, a);
+		scheduler.addDependency(c, b);
+		scheduler.addDependency(d, c);
+		scheduler.addDependency(b, d);
+		scheduler.run(3);
+	}
+
+	@Test public void exception()
+	{
+		for (int nrThreads = 1; nrThreads <= 4; nrThreads++)
+		{
+			final int [] count = new int[1];
+			DependencyScheduler scheduler = new DependencyScheduler();
+			for (int i = 0; i < 100; i++)
+			{
+				final int value = i;
+				scheduler.addTask(new Runnable() {
+					public void run()
+					{
+						if (value == 10)
+							throw new IllegalArgumentException("Task "+value);
+						synchronized (count)
+						{
+							count[0]++;
+						}
+					}
+				});
+				if (i > 0)
+					scheduler.addDependency(i, i - 1);
+			}
+			try
+			{
+				scheduler.run(nrThreads);
+				fail("Exception not thrown");
+			}
+			catch (IllegalArgumentException ex)
+			{
+				assertEquals("Task 10", ex.getMessage());
+			}
+			// Tasks depending on the failing one are not run
+			assertEquals(10, count[0]);
+		}
+	}
+}
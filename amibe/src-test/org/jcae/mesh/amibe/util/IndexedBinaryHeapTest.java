@@ -0,0 +1,147 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Random;
+
+public class IndexedBinaryHeapTest
+{
+	private static void checkDrain(IndexedBinaryHeap heap, int expected)
+	{
+		assertEquals(expected, heap.size());
+		double last = Double.NEGATIVE_INFINITY;
+		while (!heap.isEmpty())
+		{
+			double v = heap.peekValue();
+			int id = heap.poll();
+			assertFalse(heap.contains(id));
+			assertTrue("Heap not sorted: "+v+" < "+last, v >= last);
+			last = v;
+		}
+	}
+
+	@Test public void insertPoll()
+	{
+		IndexedBinaryHeap heap = new IndexedBinaryHeap(4);
+		Random rand = new Random(113355L);
+		for (int i = 0; i < 1000; i++)
+			heap.insert(i, rand.nextDouble());
+		checkDrain(heap, 1000);
+	}
+
+	@Test public void duplicates()
+	{
+		IndexedBinaryHeap heap = new IndexedBinaryHeap();
+		for (int i = 0; i < 100; i++)
+			heap.insert(i, (double) (i % 3));
+		checkDrain(heap, 100);
+	}
+
+	@Test public void updateRemove()
+	{
+		IndexedBinaryHeap heap = new IndexedBinaryHeap();
+		Random rand = new Random(224466L);
+		int n = 1000;
+		for (int i = 0; i < n; i++)
+			heap.insert(3*i, rand.nextDouble());
+		for (int i = 0; i < n; i++)
+			assertTrue(heap.update(3*i, rand.nextDouble()));
+		assertFalse(heap.update(1, 0.5));
+		int removed = 0;
+		for (int i = 0; i < n; i += 2)
+		{
+			assertTrue(heap.remove(3*i));
+			removed++;
+		}
+		assertFalse(heap.remove(0));
+		assertFalse(heap.contains(0));
+		assertTrue(heap.contains(3));
+		checkDrain(heap, n - removed);
+	}
+
+	@Test public void peek()
+	{
+		IndexedBinaryHeap heap = new IndexedBinaryHeap();
+		heap.insert(5, 3.0);
+		heap.insert(2, 1.0);
+		heap.insert(7, 2.0);
+		assertEquals(2, heap.peek());
+		heap.update(5, 0.5);
+		assertEquals(5, heap.peek());
+		assertEquals(0.5, heap.getValue(5), 0.0);
+		heap.clear();
+		assertTrue(heap.isEmpty());
+		assertFalse(heap.contains(5));
+	}
+
+	@Test public void queue()
+	{
+		IndexedHeapQueue<Integer> queue = new IndexedHeapQueue<Integer>(2);
+		for (int i = 0; i < 100; i++)
+			queue.insert(Integer.valueOf(i), (double) (100 - i));
+		assertEquals(Integer.valueOf(99), queue.peek());
+		double median = queue.getRootValue();
+		assertTrue("Bad median: "+median, median > 30.0 && median < 70.0);
+		for (int i = 50; i < 100; i++)
+			assertTrue(queue.remove(Integer.valueOf(i)));
+		assertEquals(50, queue.size());
+		assertEquals(Integer.valueOf(49), queue.peek());
+		assertTrue(queue.update(Integer.valueOf(0), 0.0));
+		assertEquals(Integer.valueOf(0), queue.peek());
+		// Recycled slots
+		for (int i = 100; i < 150; i++)
+			queue.insert(Integer.valueOf(i), 200.0);
+		assertEquals(100, queue.size());
+		int cnt = 0;
+		double last = Double.NEGATIVE_INFINITY;
+		while (!queue.isEmpty())
+		{
+			assertTrue(queue.peekValue() >= last);
+			last = queue.peekValue();
+			assertTrue(queue.remove(queue.peek()));
+			cnt++;
+		}
+		assertEquals(100, cnt);
+	}
+
+	@Test public void rootValueWithMaxValues()
+	{
+		// Edges which must not be processed have a cost of
+		// Double.MAX_VALUE, they must not change the penalty
+		IndexedHeapQueue<Integer> queue = new IndexedHeapQueue<Integer>();
+		queue.insert(Integer.valueOf(0), Double.MAX_VALUE);
+		queue.insert(Integer.valueOf(1), Double.MAX_VALUE);
+		queue.insert(Integer.valueOf(2), 1.0);
+		assertEquals(1.0, queue.getRootValue(), 0.0);
+		queue.remove(Integer.valueOf(0));
+		queue.remove(Integer.valueOf(1));
+		assertEquals(1.0, queue.getRootValue(), 0.0);
+		double penalty = queue.getRootValue() * 0.7;
+		queue.insert(Integer.valueOf(3), Double.MAX_VALUE + penalty);
+		queue.remove(Integer.valueOf(3));
+		assertEquals(1.0, queue.getRootValue(), 0.0);
+		queue.insert(Integer.valueOf(4), Double.POSITIVE_INFINITY);
+		assertEquals(1.0, queue.getRootValue(), 0.0);
+		queue.clear();
+		assertEquals(0.0, queue.getRootValue(), 0.0);
+	}
+}
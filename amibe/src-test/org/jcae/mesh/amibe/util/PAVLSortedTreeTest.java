@@ -155,6 +155,11 @@ public class PAVLSortedTreeTest extends QSortedTreeTest
 		}
 	}
 
+	@Test public void values()
+	{
+		unitTestValues(1000);
+	}
+
 	// This test is meant for timing purposes, one has then to increase n
 	@Test public void large()
 	{
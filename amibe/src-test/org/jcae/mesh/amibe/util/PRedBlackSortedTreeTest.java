@@ -114,6 +114,11 @@ public class PRedBlackSortedTreeTest extends QSortedTreeTest
 		}
 	}
 
+	@Test public void values()
+	{
+		unitTestValues(1000);
+	}
+
 	// This test is meant for timing purposes, one has then to increase n
 	@Test public void large()
 	{
@@ -0,0 +1,94 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class ParallelExecutorTest
+{
+	private static List<Callable<Integer>> createTasks(int n, final int failing)
+	{
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(n);
+		for (int i = 0; i < n; i++)
+		{
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call()
+					throws IOException
+				{
+					if (value == failing)
+						throw new IOException("Task "+value);
+					return Integer.valueOf(value * value);
+				}
+			});
+		}
+		return tasks;
+	}
+
+	@Test public void results()
+	{
+		for (int nrThreads = 1; nrThreads <= 4; nrThreads++)
+		{
+			List<Integer> res = ParallelExecutor.invokeAll(createTasks(100, -1), nrThreads);
+			assertEquals(100, res.size());
+			for (int i = 0; i < 100; i++)
+				assertEquals(i * i, res.get(i).intValue());
+		}
+		assertTrue(ParallelExecutor.invokeAll(createTasks(0, -1), 4).isEmpty());
+	}
+
+	@Test public void exception()
+	{
+		for (int nrThreads = 1; nrThreads <= 4; nrThreads++)
+		{
+			try
+			{
+				ParallelExecutor.invokeAll(createTasks(100, 57), nrThreads);
+				fail("Exception not thrown");
+			}
+			catch (RuntimeException ex)
+			{
+				assertTrue(ex.getCause() instanceof IOException);
+				assertEquals("Task 57", ex.getCause().getMessage());
+			}
+		}
+	}
+
+	@Test public void submit()
+	{
+		List<Callable<Integer>> tasks = createTasks(3, 2);
+		assertEquals(1, ParallelExecutor.get(ParallelExecutor.submit(tasks.get(1))).intValue());
+		try
+		{
+			ParallelExecutor.get(ParallelExecutor.submit(tasks.get(2)));
+			fail("Exception not thrown");
+		}
+		catch (RuntimeException ex)
+		{
+			assertTrue(ex.getCause() instanceof IOException);
+		}
+	}
+}
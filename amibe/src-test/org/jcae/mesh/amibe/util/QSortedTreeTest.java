@@ -142,4 +142,21 @@ public class QSortedTreeTest
 		}
 		assertTrue("Tree not empty", tree.isEmpty());
 	}
+
+	final void unitTestValues(int n)
+	{
+		// Values must follow objects when nodes are swapped
+		Integer [] iii = unitTestInit(n);
+		for (int i = 0; i < iii.length; i += 3)
+			tree.remove(iii[i]);
+		for (int i = 1; i < iii.length; i += 3)
+			tree.update(iii[i], 2*i);
+		while (!tree.isEmpty())
+		{
+			Integer o = tree.peek();
+			double expected = (o.intValue() % 3 == 1 ? 2 : 1) * o.intValue();
+			assertTrue("Wrong value for "+o+": "+tree.peekValue()+" != "+expected, tree.peekValue() == expected);
+			tree.remove(o);
+		}
+	}
 }
@@ -0,0 +1,176 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.validation;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.xmldata.AmibeReader;
+import org.jcae.mesh.xmldata.MeshWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+
+public class QualityEngineTest
+{
+	private static QualityStatistics [] compute(Mesh mesh, int threads)
+	{
+		QualityEngine engine = new QualityEngine();
+		engine.setNumberOfThreads(threads);
+		QualityStatistics [] ret = new QualityStatistics[] {
+			engine.add(new MinAngleFace()),
+			engine.add(new MaxLengthFace()),
+			engine.add(new NodeConnectivity())
+		};
+		ret[0].setTarget((float) Math.PI/3.0f);
+		ret[0].split(0.0f, 1.0f, 10);
+		ret[1].setHighIsWorse(true);
+		ret[1].setNumberOfWorstElements(5);
+		engine.compute(mesh);
+		return ret;
+	}
+
+	private static void assertSameStatistics(QualityStatistics expected, QualityStatistics actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getMinValue(), actual.getMinValue(), 0.0f);
+		assertEquals(expected.getMaxValue(), actual.getMaxValue(), 0.0f);
+		assertEquals(expected.getMeanValue(), actual.getMeanValue(), 1.e-6f);
+		assertEquals(expected.getValueByPercent(0.5), actual.getValueByPercent(0.5), 0.0f);
+		assertTrue(Arrays.equals(expected.getWorstIndices(), actual.getWorstIndices()));
+		assertTrue(Arrays.equals(expected.getWorstValues(), actual.getWorstValues()));
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	@Test public void statistics()
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(30, 20);
+		QualityStatistics [] stats = compute(mesh, 1);
+
+		MinAngleFace qproc = new MinAngleFace();
+		QualityFloat data = new QualityFloat(1000);
+		data.setQualityProcedure(qproc);
+		data.setTarget((float) Math.PI/3.0f);
+		float [] values = new float[2*29*19];
+		int nr = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			data.compute(t);
+			values[nr++] = qproc.quality(t) * (float) (3.0 / Math.PI);
+		}
+		assertEquals(values.length, nr);
+		data.finish();
+		data.split(0.0f, 1.0f, 10);
+
+		QualityStatistics minAngle = stats[0];
+		assertEquals(values.length, minAngle.size());
+		assertEquals(data.getValueByPercent(0.0), minAngle.getMinValue(), 0.0f);
+		assertEquals(data.getValueByPercent(1.0), minAngle.getMaxValue(), 0.0f);
+		assertEquals(data.getMeanValue(), minAngle.getMeanValue(), 1.e-5f);
+		assertEquals(data.getStandardDeviation(), minAngle.getStandardDeviation(), 1.e-4f);
+		float median = data.getValueByPercent(0.5);
+		assertEquals(median, minAngle.getValueByPercent(0.5), 0.01f * median);
+		long total = 0L;
+		for (long n : minAngle.getLayers())
+			total += n;
+		assertEquals(values.length, total);
+
+		// Worst elements have the lowest values
+		float [] sortedValues = values.clone();
+		Arrays.sort(sortedValues);
+		int [] worst = minAngle.getWorstIndices();
+		float [] worstValues = minAngle.getWorstValues();
+		assertEquals(10, worst.length);
+		for (int i = 0; i < worst.length; i++)
+		{
+			assertEquals(sortedValues[i], worstValues[i], 0.0f);
+			assertEquals(values[worst[i]], worstValues[i], 0.0f);
+		}
+		// Highest values for MaxLengthFace
+		assertEquals(5, stats[1].getWorstIndices().length);
+		assertEquals(stats[1].getMaxValue(), stats[1].getWorstValues()[0], 0.0f);
+		// Node connectivity
+		assertEquals(30*20, stats[2].size());
+		assertEquals(6.0f, stats[2].getMaxValue(), 0.0f);
+	}
+
+	@Test public void threads()
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(30, 20);
+		QualityStatistics [] expected = compute(mesh, 1);
+		QualityStatistics [] actual = compute(mesh, 3);
+		for (int i = 0; i < expected.length; i++)
+			assertSameStatistics(expected[i], actual[i]);
+		assertTrue(Arrays.equals(expected[0].getLayers(), actual[0].getLayers()));
+	}
+
+	@Test public void streaming() throws IOException, SAXException
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(30, 20);
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null);
+		QualityEngine engine = new QualityEngine();
+		QualityStatistics minAngle = engine.add(new MinAngleFace());
+		minAngle.setTarget((float) Math.PI/3.0f);
+		minAngle.split(0.0f, 1.0f, 10);
+		QualityStatistics maxLength = engine.add(new MaxLengthFace());
+		maxLength.setHighIsWorse(true);
+		maxLength.setNumberOfWorstElements(5);
+		engine.setNumberOfThreads(2);
+		AmibeReader.Dim3 reader = new AmibeReader.Dim3(dir.getPath());
+		try
+		{
+			engine.compute(reader);
+		}
+		finally
+		{
+			reader.close();
+			delete(dir);
+		}
+		QualityStatistics [] expected = compute(mesh, 1);
+		assertSameStatistics(expected[0], minAngle);
+		assertSameStatistics(expected[1], maxLength);
+	}
+
+	@Test(expected=IllegalArgumentException.class) public void streamingDihedralAngle() throws IOException, SAXException
+	{
+		QualityEngine engine = new QualityEngine();
+		engine.add(new DihedralAngle());
+		engine.compute((AmibeReader.Dim3) null);
+	}
+}
@@ -0,0 +1,195 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.bora.algo;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VolumeMeshExecutorTest
+{
+	// Fake TetGen: adds the centroid of input nodes and creates a tetrahedron
+	// for each facet
+	private static final String FAKE_TETGEN =
+		"name=`basename \"$2\" .poly`\n" +
+		"awk -v node=\"$name.1.node\" -v ele=\"$name.1.ele\" '\n" +
+		"/^#/ || NF == 0 { next }\n" +
+		"state == 0 { n = $1; i = 0; state = 1; next }\n" +
+		"state == 1 { x[i] = $2; y[i] = $3; z[i] = $4; i++; if (i == n) state = 2; next }\n" +
+		"state == 2 { m = $1; j = 0; state = 3; next }\n" +
+		"state == 3 { state = 4; next }\n" +
+		"state == 4 { a[j] = $2; b[j] = $3; c[j] = $4; j++; state = (j == m) ? 5 : 3; next }\n" +
+		"END {\n" +
+		"  for (i = 0; i < n; i++) { cx += x[i]; cy += y[i]; cz += z[i] }\n" +
+		"  printf \"%d 3 0 0\\n\", n + 1 > node\n" +
+		"  for (i = 0; i < n; i++) printf \"%d %.17g %.17g %.17g\\n\", i + 1, x[i], y[i], z[i] > node\n" +
+		"  printf \"# centroid\\n%d %.17g %.17g %.17g\\n\", n + 1, cx / n, cy / n, cz / n > node\n" +
+		"  printf \"%d 4 0\\n\", m > ele\n" +
+		"  for (j = 0; j < m; j++) printf \"%d %d %d %d %d\\n\", j + 1, a[j], b[j], c[j], n + 1 > ele\n" +
+		"}' \"$2\"\n";
+
+	// Fake Netgen: checks binary STL size and writes a single tetrahedron
+	private static final String FAKE_NETGEN =
+		"for arg; do\n" +
+		"  case \"$arg\" in\n" +
+		"    -meshfile=*) mesh=${arg#-meshfile=} ;;\n" +
+		"    -geofile=*) geo=${arg#-geofile=} ;;\n" +
+		"  esac\n" +
+		"done\n" +
+		"size=`wc -c < \"$geo\"`\n" +
+		"test `expr \\( $size - 84 \\) % 50` -eq 0 || exit 1\n" +
+		"cat > \"$mesh\" <<EOT\n" +
+		"MeshVersionFormatted 1\n" +
+		"Dimension\n3\n" +
+		"Vertices\n4\n" +
+		"0.0 0.0 0.0 0\n1.0 0.0 0.0 0\n0.0 1.0 0.0 0\n0.0 0.0 1.0D+00 0\n" +
+		"Tetrahedra\n1\n1 2 3 4 1\n" +
+		"End\n" +
+		"EOT\n";
+
+	private File dir;
+	private String [] tetgen;
+	private String [] netgen;
+
+	@Before public void createScripts() throws IOException
+	{
+		dir = File.createTempFile("volume", ".tmp");
+		dir.delete();
+		dir.mkdir();
+		tetgen = new String[] { "/bin/sh", writeScript("tetgen.sh", FAKE_TETGEN) };
+		netgen = new String[] { "/bin/sh", writeScript("netgen.sh", FAKE_NETGEN) };
+	}
+
+	private String writeScript(String name, String content) throws IOException
+	{
+		File f = new File(dir, name);
+		FileWriter out = new FileWriter(f);
+		out.write(content);
+		out.close();
+		return f.getAbsolutePath();
+	}
+
+	@After public void cleanup()
+	{
+		VolumeMeshExecutor.setMaxProcesses(0);
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static VolumeMeshExecutor createCube()
+	{
+		double [] coords = new double[24];
+		for (int i = 0; i < 8; i++)
+		{
+			coords[3*i] = i & 1;
+			coords[3*i+1] = (i >> 1) & 1;
+			coords[3*i+2] = (i >> 2) & 1;
+		}
+		int [] triangles = new int[] {
+			0, 2, 1,  1, 2, 3,
+			4, 5, 6,  5, 7, 6,
+			0, 1, 4,  1, 5, 4,
+			2, 6, 3,  3, 6, 7,
+			0, 4, 2,  2, 4, 6,
+			1, 3, 5,  3, 7, 5
+		};
+		int [] groups = new int[12];
+		for (int i = 0; i < 12; i++)
+			groups[i] = 1 + i / 2;
+		return new VolumeMeshExecutor(coords, triangles, groups);
+	}
+
+	private static void checkCube(VolumeMeshExecutor exec)
+	{
+		double [] nodes = exec.getNodes();
+		int [] tetrahedra = exec.getTetrahedra();
+		assertEquals(27, nodes.length);
+		assertEquals(48, tetrahedra.length);
+		for (int k = 0; k < 3; k++)
+			assertEquals(0.5, nodes[24+k], 1.e-15);
+		assertEquals(1.0, nodes[21], 0.0);
+		for (int i = 0; i < 12; i++)
+			assertEquals(8, tetrahedra[4*i+3]);
+		// Input triangles are kept
+		assertEquals(1, tetrahedra[4]);
+		assertEquals(2, tetrahedra[5]);
+		assertEquals(3, tetrahedra[6]);
+	}
+
+	@Test public void tetgen() throws IOException
+	{
+		VolumeMeshExecutor exec = createCube();
+		assertTrue(exec.runTetGen(tetgen, "-pYF", dir, "cube"));
+		checkCube(exec);
+		assertFalse(new File(dir, "cube.poly").exists());
+		assertFalse(new File(dir, "cube.1.ele").exists());
+	}
+
+	@Test public void netgen() throws IOException
+	{
+		VolumeMeshExecutor exec = createCube();
+		assertTrue(exec.runNetgen(netgen, dir, "cube"));
+		assertEquals(12, exec.getNodes().length);
+		assertEquals(1.0, exec.getNodes()[11], 0.0);
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, exec.getTetrahedra());
+		assertFalse(new File(dir, "cube.stl").exists());
+	}
+
+	@Test public void failure() throws IOException
+	{
+		VolumeMeshExecutor exec = createCube();
+		assertFalse(exec.runTetGen(new String[] { "/bin/sh", "-c", "exit 2" }, "-pYF", dir, "cube"));
+		assertNull(exec.getTetrahedra());
+	}
+
+	@Test public void concurrent() throws Exception
+	{
+		VolumeMeshExecutor.setMaxProcesses(2);
+		assertEquals(2, VolumeMeshExecutor.getMaxProcesses());
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<VolumeMeshExecutor>> results = new ArrayList<Future<VolumeMeshExecutor>>();
+		for (int i = 0; i < 6; i++)
+		{
+			final String name = "cube"+i;
+			results.add(pool.submit(new Callable<VolumeMeshExecutor>()
+			{
+				public VolumeMeshExecutor call() throws IOException
+				{
+					VolumeMeshExecutor exec = createCube();
+					assertTrue(exec.runTetGen(tetgen, "-pYF", dir, name));
+					return exec;
+				}
+			}));
+		}
+		for (Future<VolumeMeshExecutor> f : results)
+			checkCube(f.get());
+		pool.shutdown();
+	}
+}
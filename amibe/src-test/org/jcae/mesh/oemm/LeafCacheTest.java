@@ -0,0 +1,158 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import gnu.trove.TIntHashSet;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LeafCacheTest
+{
+	private static File dir;
+	private static OEMM oemm;
+
+	@BeforeClass public static void createOEMM() throws IOException
+	{
+		dir = File.createTempFile("oemm", ".dir");
+		assertTrue(dir.delete() && dir.mkdirs());
+		oemm = SyntheticOEMM.createWavyGrid(dir, 80, 1000);
+		assertTrue(oemm.getNumberOfLeaves() > 4);
+	}
+
+	@AfterClass public static void delete()
+	{
+		delete(dir);
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private static String key(Mesh mesh, Vertex v)
+	{
+		if (v == mesh.outerVertex)
+			return "outer";
+		double [] xyz = v.getUV();
+		return xyz[0]+","+xyz[1]+","+xyz[2]+(v.isReadable() ? "r" : "")+(v.isWritable() ? "w" : "");
+	}
+
+	private static List<String> signature(Mesh mesh)
+	{
+		List<String> ret = new ArrayList<String>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			String [] v = { key(mesh, t.vertex[0]), key(mesh, t.vertex[1]), key(mesh, t.vertex[2]) };
+			ret.add(v[0]+";"+v[1]+";"+v[2]+";"+t.getGroupId()+(t.isWritable() ? "w" : ""));
+		}
+		for (Vertex v : mesh.getNodes())
+			ret.add(key(mesh, v));
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static TIntHashSet window(int first, int n)
+	{
+		TIntHashSet ret = new TIntHashSet();
+		for (int i = first; i < first + n && i < oemm.getNumberOfLeaves(); i++)
+			ret.add(i);
+		return ret;
+	}
+
+	@Test public void sameMeshes()
+	{
+		MeshReader direct = new MeshReader(oemm);
+		direct.setLoadNonReadableTriangles(true);
+		MeshReader cached = new MeshReader(oemm);
+		cached.setLoadNonReadableTriangles(true);
+		LeafCache cache = new LeafCache(oemm, 64L << 20);
+		cached.setCache(cache);
+		int n = oemm.getNumberOfLeaves();
+		for (int i = 0; i < n; i++)
+		{
+			TIntHashSet leaves = window(i, 2);
+			assertEquals(signature(direct.buildMesh(leaves)), signature(cached.buildMesh(leaves)));
+		}
+		cache.waitForPrefetch();
+		// All leaves are now cached
+		long misses = cache.getMisses();
+		assertTrue(misses <= n);
+		for (int i = 0; i < n; i++)
+			cached.buildMesh(window(i, 2));
+		assertEquals(misses, cache.getMisses());
+		assertTrue(cache.getHits() >= 2 * n);
+	}
+
+	@Test public void prefetch()
+	{
+		LeafCache cache = new LeafCache(oemm, 64L << 20);
+		MeshReader reader = new MeshReader(oemm);
+		reader.setCache(cache);
+		reader.buildMesh(window(0, 1));
+		cache.waitForPrefetch();
+		assertEquals(1L, cache.getMisses());
+		assertTrue(cache.getPrefetched() > 0L);
+		// Prefetched leaves are adjacent to leaf 0
+		TIntHashSet adjacent = new TIntHashSet();
+		for (int i : oemm.leaves[0].adjLeaves.toNativeArray())
+		{
+			if (i != 0 && cache.peek(i) != null)
+				adjacent.add(i);
+		}
+		assertEquals(cache.getPrefetched(), (long) adjacent.size());
+		reader.buildMesh(adjacent);
+		assertEquals(1L, cache.getMisses());
+	}
+
+	@Test public void budget()
+	{
+		// Only the last leaf is kept
+		LeafCache cache = new LeafCache(oemm, 1L);
+		MeshReader reader = new MeshReader(oemm);
+		reader.setCache(cache);
+		for (int i = 0; i < 3; i++)
+			reader.buildMesh(window(i, 1));
+		assertEquals(0L, cache.getPrefetched());
+		assertEquals(3L, cache.getMisses());
+		assertTrue(cache.getSize() > 1L);
+		reader.buildMesh(window(2, 1));
+		assertEquals(1L, cache.getHits());
+		reader.buildMesh(window(1, 1));
+		assertEquals(4L, cache.getMisses());
+		cache.clear();
+		assertEquals(0L, cache.getSize());
+	}
+}
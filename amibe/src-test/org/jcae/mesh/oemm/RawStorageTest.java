@@ -0,0 +1,249 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.oemm;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class RawStorageTest
+{
+	private static final int NR_TRIANGLES = 20000;
+
+	private static double [] createSoup(File soup)
+		throws IOException
+	{
+		Random rand = new Random(123456L);
+		double [] coords = new double[9*NR_TRIANGLES];
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(soup)));
+		for (int t = 0; t < NR_TRIANGLES; t++)
+		{
+			double x = rand.nextDouble();
+			double y = rand.nextDouble();
+			double z = rand.nextDouble();
+			//  Some triangles are large enough to span several leaves
+			double h = (t % 10 == 0 ? 0.2 : 0.01);
+			for (int i = 0; i < 3; i++)
+			{
+				coords[9*t+3*i]   = x + h * rand.nextDouble();
+				coords[9*t+3*i+1] = y + h * rand.nextDouble();
+				coords[9*t+3*i+2] = z + h * rand.nextDouble();
+			}
+			for (int i = 0; i < 9; i++)
+				out.writeDouble(coords[9*t+i]);
+			out.writeInt(t % 7);
+			out.writeInt(0);
+		}
+		out.close();
+		return coords;
+	}
+
+	private static OEMM createOEMM(String soupFile)
+	{
+		OEMM oemm = new OEMM(5);
+		oemm.setBoundingBox(new double[] { 0.0, 0.0, 0.0, 1.2, 1.2, 1.2 });
+		assertTrue(RawStorage.countTriangles(oemm, soupFile));
+		Aggregate.compute(oemm, 500);
+		return oemm;
+	}
+
+	private static List<OEMM.Node> getLeaves(OEMM oemm)
+	{
+		final List<OEMM.Node> ret = new ArrayList<OEMM.Node>();
+		oemm.walk(new TraversalProcedure()
+		{
+			@Override
+			public final int action(OEMM tree, OEMM.Node current, int octant, int visit)
+			{
+				if (visit == LEAF)
+					ret.add(current);
+				return OK;
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * Computes expected content of leaf blocks, triangles are stored
+	 * in soup order.
+	 */
+	private static Map<OEMM.Node, List<int []>> expectedBlocks(OEMM oemm, double [] coords)
+	{
+		Map<OEMM.Node, List<int []>> ret = new HashMap<OEMM.Node, List<int []>>();
+		double [] xyz = new double[3];
+		int [] ijk = new int[3];
+		OEMM.Node [] cells = new OEMM.Node[3];
+		for (int t = 0; t < NR_TRIANGLES; t++)
+		{
+			int [] record = new int[10];
+			for (int i = 0; i < 3; i++)
+			{
+				System.arraycopy(coords, 9*t+3*i, xyz, 0, 3);
+				oemm.double2int(xyz, ijk);
+				cells[i] = oemm.search(ijk);
+				System.arraycopy(ijk, 0, record, 3*i, 3);
+			}
+			record[9] = t % 7;
+			for (int i = 0; i < 3; i++)
+			{
+				if ((i > 0 && cells[i] == cells[0]) || (i > 1 && cells[i] == cells[1]))
+					continue;
+				List<int []> list = ret.get(cells[i]);
+				if (list == null)
+				{
+					list = new ArrayList<int []>();
+					ret.put(cells[i], list);
+				}
+				list.add(record);
+			}
+		}
+		return ret;
+	}
+
+	private static void checkDispatch(File dir, double [] coords, int nrThreads, int chunkSize)
+		throws IOException
+	{
+		String soupFile = new File(dir, "soup").getPath();
+		File dataFile = new File(dir, "dispatched.data");
+		OEMM oemm = createOEMM(soupFile);
+		Map<OEMM.Node, List<int []>> expected = expectedBlocks(oemm, coords);
+		RawStorage.dispatch(oemm, soupFile, new File(dir, "dispatched").getPath(), dataFile.getPath(), nrThreads, chunkSize);
+
+		List<OEMM.Node> leaves = getLeaves(oemm);
+		assertTrue(leaves.size() > 8);
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+		int nrTriangles = 0;
+		for (OEMM.Node leaf : leaves)
+		{
+			List<int []> list = expected.get(leaf);
+			int tn = (list == null ? 0 : list.size());
+			assertEquals(tn, leaf.tn);
+			raf.seek(leaf.counter);
+			assertEquals(leaf.counter, raf.readLong());
+			for (int t = 0; t < tn; t++)
+			{
+				int [] record = list.get(t);
+				for (int i = 0; i < record.length; i++)
+					assertEquals("Leaf "+leaf.leafIndex+" triangle "+t, record[i], raf.readInt());
+			}
+			nrTriangles += tn;
+		}
+		//  File size had been computed before cells were merged,
+		//  it may be larger than needed
+		assertTrue(raf.getFilePointer() <= raf.length());
+		raf.close();
+		assertTrue(nrTriangles >= NR_TRIANGLES);
+	}
+
+	@Test public void dispatch() throws IOException
+	{
+		File dir = File.createTempFile("oemm", ".dir");
+		assertTrue(dir.delete() && dir.mkdirs());
+		try
+		{
+			double [] coords = createSoup(new File(dir, "soup"));
+			checkDispatch(dir, coords, 1, NR_TRIANGLES);
+			checkDispatch(dir, coords, 3, 777);
+			checkDispatch(dir, coords, 2, 1);
+		}
+		finally
+		{
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	private static byte [] content(File f) throws IOException
+	{
+		byte [] ret = new byte[(int) f.length()];
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		raf.readFully(ret);
+		raf.close();
+		return ret;
+	}
+
+	private static void assertSameFiles(File expected, File actual) throws IOException
+	{
+		File [] children = expected.listFiles();
+		if (children == null)
+		{
+			assertTrue(actual.getPath(), Arrays.equals(content(expected), content(actual)));
+			return;
+		}
+		assertEquals(expected.getPath(), children.length, actual.listFiles().length);
+		for (File c : children)
+			assertSameFiles(c, new File(actual, c.getName()));
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	@Test public void indexOEMM() throws IOException
+	{
+		File dir = File.createTempFile("oemm", ".dir");
+		assertTrue(dir.delete() && dir.mkdirs());
+		try
+		{
+			createSoup(new File(dir, "soup"));
+			String soupFile = new File(dir, "soup").getPath();
+			String structFile = new File(dir, "dispatched").getPath();
+			OEMM oemm = createOEMM(soupFile);
+			RawStorage.dispatch(oemm, soupFile, structFile, new File(dir, "dispatched.data").getPath());
+			File expected = new File(dir, "avl");
+			RawStorage.indexOEMMWithAVLTrees(structFile, expected.getPath());
+			for (int nrThreads = 1; nrThreads <= 3; nrThreads += 2)
+			{
+				File actual = new File(dir, "hash"+nrThreads);
+				RawStorage.indexOEMM(structFile, actual.getPath(), nrThreads);
+				assertSameFiles(expected, actual);
+			}
+			OEMM indexed = Storage.readOEMMStructure(expected.getPath());
+			int nrTriangles = 0;
+			for (OEMM.Node leaf : indexed.leaves)
+				nrTriangles += leaf.tn;
+			assertEquals(NR_TRIANGLES, nrTriangles);
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+}
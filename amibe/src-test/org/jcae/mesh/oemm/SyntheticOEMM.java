@@ -0,0 +1,92 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Synthetic OEMM shared by unit tests and benchmarks.  A triangle soup
+ * of a wavy grid, as in {@link SyntheticMesh}, is written into a directory
+ * and converted into an OEMM.
+ */
+public final class SyntheticOEMM
+{
+	private SyntheticOEMM()
+	{
+	}
+
+	private static void writePoint(DataOutputStream out, int i, int j, int n)
+		throws IOException
+	{
+		double x = 0.1 + ((double) i) / n;
+		double y = 0.1 + ((double) j) / n;
+		out.writeDouble(x);
+		out.writeDouble(y);
+		out.writeDouble(0.5 + SyntheticMesh.height(x, y));
+	}
+
+	/**
+	 * Creates an OEMM containing a grid of <code>n*n</code> cells.
+	 * Triangles belong to 3 groups.
+	 *
+	 * @param dir  directory in which soup and OEMM files are written
+	 * @param n  number of cells along each axis
+	 * @param maxTriangles  maximal number of triangles in a leaf
+	 * @return OEMM read from disk
+	 */
+	public static OEMM createWavyGrid(File dir, int n, int maxTriangles)
+		throws IOException
+	{
+		File soup = new File(dir, "soup");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(soup)));
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				writePoint(out, i, j, n);
+				writePoint(out, i+1, j, n);
+				writePoint(out, i, j+1, n);
+				out.writeInt(i % 3);
+				out.writeInt(0);
+				writePoint(out, i+1, j, n);
+				writePoint(out, i+1, j+1, n);
+				writePoint(out, i, j+1, n);
+				out.writeInt(i % 3);
+				out.writeInt(0);
+			}
+		}
+		out.close();
+		OEMM oemm = new OEMM(5);
+		oemm.setBoundingBox(new double[] { 0.0, 0.0, 0.0, 1.2, 1.2, 1.2 });
+		if (!RawStorage.countTriangles(oemm, soup.getPath()))
+			throw new IllegalStateException("Invalid bounding box");
+		Aggregate.compute(oemm, maxTriangles);
+		String structFile = new File(dir, "dispatched").getPath();
+		RawStorage.dispatch(oemm, soup.getPath(), structFile, new File(dir, "dispatched.data").getPath());
+		String oemmDir = new File(dir, "oemm").getPath();
+		RawStorage.indexOEMM(structFile, oemmDir);
+		return Storage.readOEMMStructure(oemmDir);
+	}
+}
@@ -0,0 +1,221 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+
+public class AmibeReaderTest
+{
+	private static File writeMesh() throws IOException
+	{
+		return writeMesh(20, 15, false);
+	}
+
+	private static File writeMesh(int m, int n, boolean compressed) throws IOException
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(m, n);
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				t.setGroupId(t.vertex[0].getUV()[0] < 0.5 ? 1 : 2);
+		}
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null, compressed);
+		return dir;
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	@Test public void mappedViews() throws IOException, SAXException
+	{
+		File dir = writeMesh();
+		AmibeReader ar = new AmibeReader.Dim3(dir.getPath());
+		try
+		{
+			AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+			double [] coord = new double[3*sm.getNumberOfNodes()];
+			DoubleFileReader dfr = sm.getNodes();
+			dfr.get(coord);
+			dfr.close();
+			DoubleBuffer nodes = sm.getNodesBuffer();
+			assertTrue(nodes.isReadOnly());
+			assertEquals(coord.length, nodes.remaining());
+			for (int i = 0; i < coord.length; i++)
+				assertEquals(coord[i], nodes.get(i), 0.0);
+
+			int [] trias = new int[3*sm.getNumberOfTrias()];
+			IntFileReader ifr = sm.getTriangles();
+			ifr.get(trias);
+			ifr.close();
+			IntBuffer triangles = sm.getTrianglesBuffer();
+			assertEquals(trias.length, triangles.remaining());
+			for (int i = 0; i < trias.length; i++)
+				assertEquals(trias[i], triangles.get());
+			// Views are independent
+			assertEquals(0, sm.getTrianglesBuffer().position());
+
+			// Windows
+			DoubleBuffer nodesWindow = sm.getNodesBuffer(5, 7);
+			assertEquals(3*7, nodesWindow.remaining());
+			for (int i = 0; i < 3*7; i++)
+				assertEquals(coord[3*5+i], nodesWindow.get(i), 0.0);
+			IntBuffer triasWindow = sm.getTrianglesBuffer(10, 4);
+			assertEquals(3*4, triasWindow.remaining());
+			for (int i = 0; i < 3*4; i++)
+				assertEquals(trias[3*10+i], triasWindow.get(i));
+			try
+			{
+				sm.getTrianglesBuffer(sm.getNumberOfTrias() - 1, 2);
+				fail("Window out of bounds");
+			}
+			catch (IndexOutOfBoundsException ex)
+			{
+			}
+
+			assertEquals(2, sm.getGroups().size());
+			int nrTrias = 0;
+			for (AmibeReader.Group g : sm.getGroups())
+			{
+				int [] ids = g.readTria3Ids();
+				IntBuffer idsBuffer = g.getTria3IdsBuffer();
+				assertEquals(ids.length, idsBuffer.remaining());
+				for (int i = 0; i < ids.length; i++)
+					assertEquals(ids[i], idsBuffer.get(i));
+				assertEquals(0, g.getBeamsIdsBuffer().remaining());
+				nrTrias += ids.length;
+			}
+			assertEquals(2*19*14, nrTrias);
+		}
+		finally
+		{
+			ar.close();
+			delete(dir);
+		}
+	}
+
+	private static long size(File dir, String name)
+	{
+		return new File(new File(dir, "jcae3d.files"), name).length();
+	}
+
+	@Test public void compressed() throws IOException, SAXException
+	{
+		// Several blocks of nodes, triangles and groups
+		File raw = writeMesh(200, 150, false);
+		File compressed = writeMesh(200, 150, true);
+		AmibeReader rar = new AmibeReader.Dim3(raw.getPath());
+		AmibeReader car = new AmibeReader.Dim3(compressed.getPath());
+		try
+		{
+			assertFalse(rar.isCompressed());
+			assertTrue(car.isCompressed());
+			assertTrue(size(compressed, "nodes3d.bin") < size(raw, "nodes3d.bin"));
+			assertTrue(size(compressed, "triangles3d.bin") < size(raw, "triangles3d.bin") / 4);
+			AmibeReader.SubMesh rsm = rar.getSubmeshes().get(0);
+			AmibeReader.SubMesh csm = car.getSubmeshes().get(0);
+			assertEquals(rsm.getNumberOfNodes(), csm.getNumberOfNodes());
+			assertEquals(rsm.getNumberOfTrias(), csm.getNumberOfTrias());
+
+			double [] rcoord = new double[3*rsm.getNumberOfNodes()];
+			double [] ccoord = new double[rcoord.length];
+			DoubleFileReader dfr = rsm.getNodes();
+			dfr.get(rcoord);
+			dfr.close();
+			dfr = csm.getNodes();
+			assertEquals(rcoord.length, dfr.size());
+			dfr.get(ccoord);
+			assertTrue(dfr.isEOF());
+			// Random access, in a block which is not cached
+			assertEquals(rcoord[1000], dfr.get(1000), 0.0);
+			dfr.close();
+			assertArrayEquals(rcoord, ccoord, 0.0);
+			DoubleBuffer nodes = csm.getNodesBuffer();
+			assertTrue(nodes.isReadOnly());
+			for (int i = 0; i < rcoord.length; i++)
+				assertEquals(rcoord[i], nodes.get(i), 0.0);
+
+			int [] rtrias = new int[3*rsm.getNumberOfTrias()];
+			int [] ctrias = new int[rtrias.length];
+			IntFileReader ifr = rsm.getTriangles();
+			ifr.get(rtrias);
+			ifr.close();
+			ifr = csm.getTriangles();
+			for (int i = 0; i < ctrias.length; i++)
+				ctrias[i] = ifr.get();
+			ifr.close();
+			assertArrayEquals(rtrias, ctrias);
+			assertEquals(rtrias.length, csm.getTrianglesBuffer().remaining());
+			// Windows across block boundaries
+			int first = BlockFile.BLOCK_SIZE / 3 - 2;
+			IntBuffer window = csm.getTrianglesBuffer(first, 5);
+			for (int i = 0; i < 15; i++)
+				assertEquals(rtrias[3*first+i], window.get(i));
+
+			for (AmibeReader.Group rg : rsm.getGroups())
+			{
+				AmibeReader.Group cg = csm.getGroup(rg.getName());
+				assertArrayEquals(rg.readTria3Ids(), cg.readTria3Ids());
+				int [] trias = cg.readTria3();
+				assertArrayEquals(rg.readTria3(), trias);
+				assertTrue(Arrays.equals(rsm.readNodes(trias), csm.readNodes(trias)));
+				IntBuffer ids = cg.getTria3IdsBuffer();
+				assertEquals(rg.getNumberOfTrias(), ids.remaining());
+			}
+		}
+		finally
+		{
+			rar.close();
+			car.close();
+			delete(raw);
+		}
+		Mesh mesh = new Mesh();
+		MeshReader.readObject3D(mesh, compressed.getPath());
+		delete(compressed);
+		int nrTrias = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				nrTrias++;
+		}
+		assertEquals(2*199*149, nrTrias);
+	}
+}
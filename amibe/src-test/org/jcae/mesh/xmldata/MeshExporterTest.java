@@ -0,0 +1,182 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class MeshExporterTest
+{
+	private static File writeMesh() throws IOException
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(40, 30);
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				t.setGroupId(t.vertex[0].getUV()[0] < 0.5 ? 1 : 2);
+		}
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null);
+		return dir;
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private static byte [] read(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte [] buffer = new byte[65536];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			out.write(buffer, 0, n);
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test public void formatD25_16()
+	{
+		MeshExporter.FormatD25_16 expected = new MeshExporter.FormatD25_16();
+		OutputBuffer buffer = new OutputBuffer(64);
+		Random rand = new Random(1234L);
+		double [] special = new double[] { 0.0, -0.0, 1.0, -1.0, 0.1, 1.e-24, 15.e24,
+			1.e-30, 1.e40, 0.9999999999999999, Double.MAX_VALUE, Double.MIN_VALUE,
+			Double.NaN, 2.82879384806159E17 };
+		for (int i = 0; i < 200000 + special.length; i++)
+		{
+			double x;
+			if (i < special.length)
+				x = special[i];
+			else if (i % 3 == 0)
+				x = Double.longBitsToDouble(rand.nextLong());
+			else if (i % 3 == 1)
+				x = (rand.nextDouble() - 0.5) * Math.pow(10.0, rand.nextInt(30) - 15);
+			else
+				x = Math.round(rand.nextDouble() * 1.e6) / 1.e3;
+			buffer.clear();
+			buffer.appendD25_16(x);
+			assertEquals(expected.format(x), buffer.toString());
+		}
+		buffer.clear();
+		buffer.appendI10(123);
+		buffer.appendI10(-45);
+		assertEquals("       123       -45", buffer.toString());
+	}
+
+	private static void checkUNV(int threads) throws Exception
+	{
+		File dir = writeMesh();
+		File unv = File.createTempFile("amibe", ".unv");
+		try
+		{
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(expected);
+			new MeshExporter.UNV(dir.getPath()).write(out);
+			out.close();
+			MeshExporter.UNV exporter = new MeshExporter.UNV(dir.getPath());
+			exporter.setNumberOfThreads(threads);
+			exporter.write(unv.getPath());
+			assertArrayEquals(expected.toByteArray(), read(new FileInputStream(unv)));
+		}
+		finally
+		{
+			unv.delete();
+			delete(dir);
+		}
+	}
+
+	@Test public void unv() throws Exception
+	{
+		checkUNV(1);
+	}
+
+	@Test public void unvThreads() throws Exception
+	{
+		checkUNV(3);
+	}
+
+	@Test public void binarySTL() throws Exception
+	{
+		File dir = writeMesh();
+		File stl = File.createTempFile("amibe", ".stl");
+		File stlgz = File.createTempFile("amibe", ".stl.gz");
+		try
+		{
+			MeshExporter.BinarySTL exporter = new MeshExporter.BinarySTL(dir.getPath());
+			exporter.setNumberOfThreads(3);
+			exporter.write(stl.getPath());
+			new MeshExporter.BinarySTL(dir.getPath()).write(stlgz.getPath());
+			byte [] data = read(new FileInputStream(stl));
+			assertArrayEquals(data, read(new GZIPInputStream(new FileInputStream(stlgz))));
+
+			ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			int nrTriangles = bb.getInt(80);
+			assertEquals(2*39*29, nrTriangles);
+			assertEquals(84 + 50 * nrTriangles, data.length);
+			AmibeReader ar = new AmibeReader.Dim3(dir.getPath());
+			AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+			double [] coord = new double[3*sm.getNumberOfNodes()];
+			DoubleFileReader dfr = sm.getNodes();
+			dfr.get(coord);
+			dfr.close();
+			// Compare first vertex of first triangle of first group
+			int t = sm.getGroups().get(0).readTria3Ids()[0];
+			IntFileReader ifr = sm.getTriangles();
+			int v = ifr.get(3*t);
+			ifr.close();
+			ar.close();
+			for (int k = 0; k < 3; k++)
+				assertEquals((float) coord[3*v+k], bb.getFloat(84 + 12 + 4*k), 0.0f);
+			// Normal is a unit vector
+			float nx = bb.getFloat(84), ny = bb.getFloat(88), nz = bb.getFloat(92);
+			assertEquals(1.0, nx*nx + ny*ny + nz*nz, 1.e-5);
+		}
+		finally
+		{
+			stl.delete();
+			stlgz.delete();
+			delete(dir);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MeshReaderTest
+{
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private static Mesh read(String dir, int nrThreads) throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		MeshReader.readObject3D(mesh, dir, nrThreads);
+		return mesh;
+	}
+
+	private static List<Triangle> innerTriangles(Mesh mesh)
+	{
+		List<Triangle> ret = new ArrayList<Triangle>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				ret.add(t);
+		}
+		return ret;
+	}
+
+	@Test public void parallel() throws IOException
+	{
+		// Several chunks of vertices and triangles
+		Mesh mesh = SyntheticMesh.createWavyGrid(300, 250);
+		int group = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				t.setGroupId(1 + (group++ % 3));
+		}
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			MeshWriter.writeObject3D(mesh, dir.getPath(), null);
+			Mesh seq = read(dir.getPath(), 1);
+			Mesh par = read(dir.getPath(), 4);
+			assertEquals(300*250, par.getNodes().size());
+			assertEquals(seq.getNodes().size(), par.getNodes().size());
+			List<Vertex> seqNodes = new ArrayList<Vertex>(seq.getNodes());
+			int index = 0;
+			for (Vertex v : par.getNodes())
+			{
+				Vertex w = seqNodes.get(index++);
+				assertArrayEquals(w.getUV(), v.getUV(), 0.0);
+				assertEquals(w.getRef(), v.getRef());
+			}
+			List<Triangle> seqTrias = innerTriangles(seq);
+			List<Triangle> parTrias = innerTriangles(par);
+			assertEquals(2*299*249, parTrias.size());
+			assertEquals(seqTrias.size(), parTrias.size());
+			Iterator<Triangle> it = seqTrias.iterator();
+			for (Triangle t : parTrias)
+			{
+				Triangle u = it.next();
+				assertEquals(u.getGroupId(), t.getGroupId());
+				for (int k = 0; k < 3; k++)
+					assertArrayEquals(u.vertex[k].getUV(), t.vertex[k].getUV(), 0.0);
+			}
+			assertTrue(par.isValid());
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+
+	@Test public void kdTree() throws IOException
+	{
+		Mesh mesh = SyntheticMesh.createWavyGrid(20, 10);
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		try
+		{
+			MeshWriter.writeObject3D(mesh, dir.getPath(), null);
+			MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+			mtb.addKdTree(3);
+			// Kd-tree is set up by reader
+			Mesh m1 = new Mesh(mtb);
+			MeshReader.readObject3D(m1, dir.getPath(), 1);
+			assertTrue(m1.getKdTree().isSetup());
+			assertEquals(20*10, m1.getKdTree().getAllVertices(200).size());
+			// Kd-tree had already been set up
+			Mesh m2 = new Mesh(mtb);
+			m2.resetKdTree(new double[] { -10.0, -10.0, -10.0 }, new double[] { 30.0, 30.0, 30.0 });
+			MeshReader.readObject3D(m2, dir.getPath(), 1);
+			assertEquals(20*10, m2.getKdTree().getAllVertices(200).size());
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.SyntheticMesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.List;
+import gnu.trove.TIntHashSet;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import static org.junit.Assert.*;
+
+public class MeshWriterTest
+{
+	private static final int LABEL = 7;
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private static File write(Mesh mesh, int nrThreads) throws IOException
+	{
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		MeshWriter.writeObject3D(mesh, dir.getPath(), null, false, nrThreads);
+		return dir;
+	}
+
+	private static byte [] content(File f) throws IOException
+	{
+		byte [] ret = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try
+		{
+			int offset = 0;
+			while (offset < ret.length)
+				offset += in.read(ret, offset, ret.length - offset);
+		}
+		finally
+		{
+			in.close();
+		}
+		return ret;
+	}
+
+	private static void assertSameFiles(File expected, File actual) throws IOException
+	{
+		File [] children = expected.listFiles();
+		if (children == null)
+		{
+			assertTrue(actual.getName(), Arrays.equals(content(expected), content(actual)));
+			return;
+		}
+		assertEquals(children.length, actual.listFiles().length);
+		for (File c : children)
+			assertSameFiles(c, new File(actual, c.getName()));
+	}
+
+	private static Mesh createMesh(boolean nodeList)
+	{
+		// Enough triangles to be sorted by several threads
+		Mesh mesh = SyntheticMesh.createWavyGrid(300, 350);
+		if (!nodeList)
+		{
+			Mesh grid = mesh;
+			mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+			for (Triangle t : grid.getTriangles())
+			{
+				if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+					mesh.add(t);
+			}
+		}
+		mesh.setPersistentReferences(true);
+		int group = 0;
+		Vertex [] boundary = new Vertex[3];
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			t.setGroupId(1 + (group++ % 3));
+			for (int k = 0; k < 3; k++)
+			{
+				t.vertex[k].setLabel(LABEL);
+				if (boundary[0] == null)
+					boundary[0] = t.vertex[k];
+				else if (boundary[1] == null && t.vertex[k] != boundary[0])
+					boundary[1] = t.vertex[k];
+				else if (boundary[2] == null && boundary[1] != null &&
+					t.vertex[k] != boundary[0] && t.vertex[k] != boundary[1])
+					boundary[2] = t.vertex[k];
+			}
+		}
+		// Two nodes share the same reference
+		boundary[0].setRef(5);
+		boundary[1].setRef(6);
+		boundary[2].setRef(5);
+		return mesh;
+	}
+
+	private static Collection<Vertex> vertices(Mesh mesh)
+	{
+		if (mesh.getNodes() != null)
+			return mesh.getNodes();
+		Set<Vertex> ret = new HashSet<Vertex>();
+		for (Triangle t : mesh.getTriangles())
+			ret.addAll(Arrays.asList(t.vertex));
+		ret.remove(mesh.outerVertex);
+		return ret;
+	}
+
+	private static void check(Mesh mesh) throws IOException, SAXException
+	{
+		File seq = write(mesh, 1);
+		File par = write(mesh, 4);
+		try
+		{
+			assertSameFiles(seq, par);
+			for (Triangle t : mesh.getTriangles())
+			{
+				for (int k = 0; k < 3; k++)
+					assertTrue(t.vertex[k] == mesh.outerVertex || t.vertex[k].getLabel() == LABEL);
+			}
+
+			AmibeReader ar = new AmibeReader.Dim3(par.getPath());
+			try
+			{
+				AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+				assertEquals(300*350, sm.getNumberOfNodes());
+				ByteBuffer refs = ByteBuffer.wrap(content(
+					new File(new File(par, "jcae3d.files"), "nodes1dref.bin")));
+				TIntHashSet distinct = new TIntHashSet();
+				int nref = 0;
+				for (Vertex v : vertices(mesh))
+				{
+					if (v.getRef() != 0)
+					{
+						distinct.add(Math.abs(v.getRef()));
+						nref++;
+					}
+				}
+				assertEquals(4*nref, refs.remaining());
+				// Duplicate references are written last
+				TIntHashSet seen = new TIntHashSet();
+				for (int i = 0; i < nref; i++)
+					assertEquals(i < distinct.size(), seen.add(refs.getInt(4*i)));
+
+				double [] coord = new double[3*sm.getNumberOfNodes()];
+				DoubleFileReader dfr = sm.getNodes();
+				dfr.get(coord);
+				dfr.close();
+				int [] trias = new int[3*sm.getNumberOfTrias()];
+				IntFileReader ifr = sm.getTriangles();
+				ifr.get(trias);
+				ifr.close();
+				List<Triangle> inner = new ArrayList<Triangle>();
+				for (Triangle t : mesh.getTriangles())
+				{
+					if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+						inner.add(t);
+				}
+				for (int i = 0; i < inner.size(); i++)
+				{
+					for (int k = 0; k < 3; k++)
+					{
+						double [] xyz = inner.get(i).vertex[k].getUV();
+						for (int j = 0; j < 3; j++)
+							assertEquals(xyz[j], coord[3*trias[3*i+k]+j], 0.0);
+					}
+				}
+
+				assertEquals(3, sm.getGroups().size());
+				for (AmibeReader.Group g : sm.getGroups())
+				{
+					int id = Integer.parseInt(g.getName());
+					int [] ids = g.readTria3Ids();
+					int n = 0;
+					for (int i = 0; i < inner.size(); i++)
+					{
+						if (inner.get(i).getGroupId() == id)
+							assertEquals(i, ids[n++]);
+					}
+					assertEquals(ids.length, n);
+				}
+			}
+			finally
+			{
+				ar.close();
+			}
+		}
+		finally
+		{
+			delete(seq);
+			delete(par);
+		}
+	}
+
+	@Test public void withNodeList() throws IOException, SAXException
+	{
+		check(createMesh(true));
+	}
+
+	@Test public void withoutNodeList() throws IOException, SAXException
+	{
+		check(createMesh(false));
+	}
+}
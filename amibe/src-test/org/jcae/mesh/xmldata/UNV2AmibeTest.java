@@ -0,0 +1,254 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import org.xml.sax.SAXException;
+
+public class UNV2AmibeTest
+{
+	private static final String FORMAT_NODE = "%10d%10d%10d%10d%n";
+
+	// Write a m x n grid of triangles, with a few beams and parabolic
+	// triangles, and two groups.
+	private static File writeUNV(int m, int n) throws IOException
+	{
+		File file = File.createTempFile("amibe", ".unv");
+		PrintStream out = new PrintStream(file);
+		Random rand = new Random(12345L);
+		out.println("    -1");
+		out.println("   164");
+		out.println("         1Meter (newton)               2");
+		out.println("  5.0000000000000000D-01  1.0000000000000000D+00  1.0000000000000000D+00");
+		out.println("  2.7314999999999998D+02");
+		out.println("    -1");
+		out.println("    -1");
+		out.println("  2411");
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < m; i++)
+			{
+				out.printf(FORMAT_NODE, j*m+i+1, 1, 1, 11);
+				double z = rand.nextDouble() * Math.pow(10.0, rand.nextInt(60) - 30);
+				out.println(String.format("%25.16E%25.16E%25.16E", (double) i, j * 0.1, z).replace('E', 'D'));
+			}
+		}
+		out.println("    -1");
+		out.println("    -1");
+		out.println("  2412");
+		int label = 0;
+		for (int j = 0; j < n-1; j++)
+		{
+			for (int i = 0; i < m-1; i++)
+			{
+				int p = j*m+i+1;
+				out.printf("%10d%10d%10d%10d%10d%10d%n", ++label, 91, 1, 1, 7, 3);
+				out.printf("%10d%10d%10d%n", p, p+1, p+m);
+				out.printf("%10d%10d%10d%10d%10d%10d%n", ++label, 91, 1, 1, 7, 3);
+				out.printf("%10d%10d%10d%n", p+1, p+m+1, p+m);
+			}
+		}
+		for (int i = 0; i < m-1; i++)
+		{
+			out.printf("%10d%10d%10d%10d%10d%10d%n", ++label, 21, 1, 1, 7, 2);
+			out.printf("%10d%10d%10d%n", 0, 1, 1);
+			out.printf("%10d%10d%n", i+1, i+2);
+		}
+		out.printf("%10d%10d%10d%10d%10d%10d%n", ++label, 92, 1, 1, 7, 6);
+		out.printf("%10d%10d%10d%10d%10d%10d%n", 1, 2, 3, m+2, 2*m+1, m+1);
+		out.println("    -1");
+		out.println("    -1");
+		out.println("  2435");
+		int nrTrias = 2*(m-1)*(n-1);
+		out.printf("%10d%10d%10d%10d%10d%10d%10d%10d%n", 1, 0, 0, 0, 0, 0, 0, nrTrias/2 + m-1);
+		out.println("First");
+		for (int i = 0; i < nrTrias/2; i++)
+			out.printf("%10d%10d%10d%10d%s", 8, i+1, 0, 0, i % 2 == 1 ? "\n" : "");
+		for (int i = 0; i < m-1; i++)
+			out.printf("%10d%10d%10d%10d%s", 8, nrTrias+i+1, 0, 0, (nrTrias/2 + i) % 2 == 1 ? "\n" : "");
+		if ((nrTrias/2 + m-1) % 2 == 1)
+			out.println();
+		out.printf("%10d%10d%10d%10d%10d%10d%10d%10d%n", 2, 0, 0, 0, 0, 0, 0, nrTrias - nrTrias/2 + 1);
+		out.println("Second group");
+		for (int i = nrTrias/2; i <= nrTrias; i++)
+			out.printf("%10d%10d%10d%10d%s", 8, i == nrTrias ? label : i+1, 0, 0, (i - nrTrias/2) % 2 == 1 ? "\n" : "");
+		if ((nrTrias - nrTrias/2 + 1) % 2 == 1)
+			out.println();
+		out.println("    -1");
+		out.close();
+		return file;
+	}
+
+	private static File createDir() throws IOException
+	{
+		File dir = File.createTempFile("amibe", ".test");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	private static void delete(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+
+	private static void compareGroups(AmibeReader.SubMesh expected, AmibeReader.SubMesh actual)
+		throws IOException
+	{
+		assertEquals(expected.getGroups().size(), actual.getGroups().size());
+		for (int i = 0; i < expected.getGroups().size(); i++)
+		{
+			AmibeReader.Group ge = expected.getGroups().get(i);
+			AmibeReader.Group ga = actual.getGroups().get(i);
+			assertEquals(ge.getName(), ga.getName());
+			assertArrayEquals(ge.readTria3Ids(), ga.readTria3Ids());
+			assertArrayEquals(ge.readBeamsIds(), ga.readBeamsIds());
+		}
+	}
+
+	private static void compare(File expected, File actual) throws IOException, SAXException
+	{
+		AmibeReader are = new AmibeReader.Dim3(expected.getPath());
+		AmibeReader ara = new AmibeReader.Dim3(actual.getPath());
+		try
+		{
+			AmibeReader.SubMesh sme = are.getSubmeshes().get(0);
+			AmibeReader.SubMesh sma = ara.getSubmeshes().get(0);
+			assertEquals(sme.getNumberOfNodes(), sma.getNumberOfNodes());
+			assertEquals(sme.getNumberOfTrias(), sma.getNumberOfTrias());
+			assertEquals(sme.getNumberOfBeams(), sma.getNumberOfBeams());
+			double [] ce = new double[3*sme.getNumberOfNodes()];
+			double [] ca = new double[ce.length];
+			DoubleFileReader dfr = sme.getNodes();
+			dfr.get(ce);
+			dfr.close();
+			dfr = sma.getNodes();
+			dfr.get(ca);
+			dfr.close();
+			assertArrayEquals(ce, ca, 0.0);
+			int [] te = new int[3*sme.getNumberOfTrias()];
+			int [] ta = new int[te.length];
+			IntFileReader ifr = sme.getTriangles();
+			ifr.get(te);
+			ifr.close();
+			ifr = sma.getTriangles();
+			ifr.get(ta);
+			ifr.close();
+			assertArrayEquals(te, ta);
+			int [] be = new int[2*sme.getNumberOfBeams()];
+			int [] ba = new int[be.length];
+			ifr = sme.getBeams();
+			ifr.get(be);
+			ifr.close();
+			ifr = sma.getBeams();
+			ifr.get(ba);
+			ifr.close();
+			assertArrayEquals(be, ba);
+			compareGroups(sme, sma);
+		}
+		finally
+		{
+			are.close();
+			ara.close();
+		}
+	}
+
+	private void checkImport(int m, int n, int threads) throws IOException, SAXException
+	{
+		File unv = writeUNV(m, n);
+		File expected = createDir();
+		File actual = createDir();
+		try
+		{
+			UNV2Amibe u = new UNV2Amibe();
+			BufferedReader in = new BufferedReader(new FileReader(unv));
+			u.importMesh(in, expected.getPath());
+			in.close();
+			u = new UNV2Amibe();
+			u.setNumberOfThreads(threads);
+			u.importMesh(unv, actual.getPath());
+			compare(expected, actual);
+		}
+		finally
+		{
+			unv.delete();
+			delete(expected);
+			delete(actual);
+		}
+	}
+
+	@Test public void small() throws IOException, SAXException
+	{
+		checkImport(5, 4, 1);
+	}
+
+	// Nodes are split into several chunks
+	@Test public void largeThreads() throws IOException, SAXException
+	{
+		checkImport(300, 200, 4);
+	}
+
+	@Test public void striped() throws IOException, SAXException
+	{
+		File unv = writeUNV(5, 4);
+		File expected = File.createTempFile("amibe", ".unv");
+		File actual = File.createTempFile("amibe", ".unv");
+		File dir = createDir();
+		try
+		{
+			UNV2Amibe u = new UNV2Amibe();
+			u.setStripedUnv(expected.getPath());
+			BufferedReader in = new BufferedReader(new FileReader(unv));
+			u.importMesh(in, dir.getPath());
+			in.close();
+			u = new UNV2Amibe();
+			u.setStripedUnv(actual.getPath());
+			u.importMesh(unv, dir.getPath());
+			BufferedReader re = new BufferedReader(new FileReader(expected));
+			BufferedReader ra = new BufferedReader(new FileReader(actual));
+			String line;
+			while ((line = re.readLine()) != null)
+				assertEquals(line, ra.readLine());
+			assertNull(ra.readLine());
+			re.close();
+			ra.close();
+		}
+		finally
+		{
+			unv.delete();
+			expected.delete();
+			actual.delete();
+			delete(dir);
+		}
+	}
+}
@@ -29,8 +29,11 @@ import java.io.InputStream;
 import java.io.FileInputStream;
 import java.nio.channels.FileChannel;
 import java.util.Properties;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.text.SimpleDateFormat;
 
 import org.jcae.mesh.amibe.patch.InitialTriangulationException;
@@ -41,6 +44,7 @@ import org.jcae.mesh.amibe.algos1d.*;
 import org.jcae.mesh.amibe.algos2d.*;
 import org.jcae.mesh.amibe.ds.MMesh1D;
 import org.jcae.mesh.amibe.ds.MeshParameters;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import org.jcae.mesh.xmldata.*;
 import org.jcae.mesh.cad.*;
 import java.util.logging.Logger;
@@ -97,6 +101,8 @@ public class Mesher
 	private int minFace=0;
 	private int maxFace=0;
 	private int numFace=0;
+	/** Number of threads used to compute 2D meshes */
+	private int nrThreads=1;
 		
 	/**
 	 * Read system properties which affect the meshing behavior.
@@ -136,6 +142,16 @@ public class Mesher
 		}
 		maxFace=Integer.parseInt(maxFaceProp);
 		
+		String nrThreadsProp = System.getProperty("org.jcae.mesh.Mesher.threads");
+		if (nrThreadsProp == null)
+		{
+			nrThreadsProp = "1";
+			System.setProperty("org.jcae.mesh.Mesher.threads", nrThreadsProp);
+		}
+		nrThreads=Integer.parseInt(nrThreadsProp);
+		if (nrThreads <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
+		
 		String processMesh1dProp = System.getProperty("org.jcae.mesh.Mesher.mesh1d");
 		if (processMesh1dProp == null)
 		{
@@ -303,6 +319,39 @@ public class Mesher
 		return toReturn;
 	}
 	
+	/**
+	 * Computes 2D mesh of a single face.  Tasks only read the 1D mesh,
+	 * so that they can be run concurrently.
+	 */
+	private final class Face2DTask implements Callable<Boolean>
+	{
+		private final int iFace;
+		private final int nrFaces;
+		private final CADFace face;
+		private final MMesh1D mesh1D;
+		private final MeshParameters mp;
+		private final String brepFile;
+		private final MeshTraitsBuilder mtb;
+
+		Face2DTask(int iFace, int nrFaces, CADFace face, MMesh1D mesh1D,
+			MeshParameters mp, String brepFile, MeshTraitsBuilder mtb)
+		{
+			this.iFace = iFace;
+			this.nrFaces = nrFaces;
+			this.face = face;
+			this.mesh1D = mesh1D;
+			this.mp = mp;
+			this.brepFile = brepFile;
+			this.mtb = mtb;
+		}
+
+		public Boolean call()
+		{
+			logger.info("Meshing face " + iFace+"/"+nrFaces);
+			return Boolean.valueOf(mesh2D(iFace, face, mesh1D, mp, brepFile, mtb));
+		}
+	}
+
 	/**
 	 * Export the created mesh to various format
 	 */
@@ -426,6 +475,7 @@ public class Mesher
 				seen.add(expF.current());
 			nrFaces = seen.size();			
 			seen.clear();
+			List<Face2DTask> tasks = new ArrayList<Face2DTask>();
 			for (expF.init(shape, CADShapeEnum.FACE); expF.more(); expF.next())
 			{
 				CADFace face = (CADFace) expF.current();
@@ -440,10 +490,19 @@ public class Mesher
 				if (seen.contains(face))
 					continue;
 				seen.add(face);
-				logger.info("Meshing face " + iFace+"/"+nrFaces);
-				MeshParameters mp = new MeshParameters(options2d);
-				if(!mesh2D(iFace, face, mesh1D, mp, brepFile, mtb))
-					badGroups.add(iFace);
+				tasks.add(new Face2DTask(iFace, nrFaces, face, mesh1D,
+					new MeshParameters(options2d), brepFile, mtb));
+			}
+			//  Faces are independent once mesh1D is computed, each
+			//  task writes its own file and results are returned in
+			//  face order, so output does not depend on nrThreads.
+			if (nrThreads > 1)
+				logger.info("Meshing "+tasks.size()+" faces with "+nrThreads+" threads");
+			List<Boolean> results = ParallelExecutor.invokeAll(tasks, nrThreads);
+			for (int i = 0; i < tasks.size(); i++)
+			{
+				if (!results.get(i).booleanValue())
+					badGroups.add(tasks.get(i).iFace);
 			}
 		}
 
@@ -28,8 +28,10 @@ import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
-import org.jcae.mesh.amibe.util.QSortedTree;
+import org.jcae.mesh.amibe.util.SortedQueue;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import org.jcae.mesh.amibe.util.PRedBlackSortedTree;
+import org.jcae.mesh.amibe.util.IndexedHeapQueue;
 import java.util.Stack;
 import java.util.Iterator;
 import java.io.ObjectOutputStream;
@@ -57,7 +59,7 @@ public abstract class AbstractAlgoHalfEdge
 	private boolean noSwapAfterProcessing = false;
 	double minCos = 0.95;
 	boolean moreTriangles = false;
-	QSortedTree<HalfEdge> tree = new PAVLSortedTree<HalfEdge>();
+	SortedQueue<HalfEdge> tree = new PAVLSortedTree<HalfEdge>();
 	
 	protected abstract void preProcessAllHalfEdges();
 	protected abstract void postProcessAllHalfEdges();
@@ -92,6 +94,25 @@ public abstract class AbstractAlgoHalfEdge
 		assert mesh.checkNoInvertedTriangles();
 	}
 
+	/**
+	 * Select the priority queue used to sort edges.  This method must be
+	 * called before {@link #compute}.
+	 *
+	 * @param name  <code>avl</code> (default), <code>redblack</code> or
+	 *   <code>heap</code>
+	 */
+	public final void setSortedQueue(String name)
+	{
+		if (name.equals("avl"))
+			tree = new PAVLSortedTree<HalfEdge>();
+		else if (name.equals("redblack"))
+			tree = new PRedBlackSortedTree<HalfEdge>();
+		else if (name.equals("heap"))
+			tree = new IndexedHeapQueue<HalfEdge>(mesh.getTriangles().size());
+		else
+			throw new RuntimeException("Unknown sorted queue: "+name);
+	}
+
 	public void setProgressBarStatus(int n)
 	{
 		progressBarStatus = n;
@@ -203,14 +224,18 @@ public abstract class AbstractAlgoHalfEdge
 		{
 			preProcessEdge();
 			HalfEdge current = null;
-			Iterator<QSortedTree.Node<HalfEdge>> itt = tree.iterator();
 			if (processed > 0 && (processed % progressBarStatus) == 0)
 				thisLogger().info("Edges processed: "+processed);
-			while (itt.hasNext())
+			// Edges which cannot be processed are temporarily removed
+			// from queue, they are inserted back below with a penalty.
+			// This penalty depends on tree root, it must then be
+			// computed before any edge is removed.
+			double penalty = 0.0;
+			boolean penaltyComputed = false;
+			while (!tree.isEmpty())
 			{
-				QSortedTree.Node<HalfEdge> q = itt.next();
-				current = q.getData();
-				cost = q.getValue();
+				current = tree.peek();
+				cost = tree.peekValue();
 				if (nrFinal == 0 && cost > tolerance)
 					break;
 				if (canProcessEdge(current))
@@ -219,9 +244,7 @@ public abstract class AbstractAlgoHalfEdge
 					thisLogger().fine("Edge not processed: "+current);
 				notProcessed++;
 				// Add a penalty to edges which could not have been
-				// processed.  This has to be done outside this loop,
-				// because PAVLSortedTree instances must not be modified
-				// when walked through.
+				// processed.
 				if (nrFinal == 0)
 				{
 					stackNotProcessedObject.push(current);
@@ -234,22 +257,27 @@ public abstract class AbstractAlgoHalfEdge
 				else
 				{
 					stackNotProcessedObject.push(current);
-					double penalty = tree.getRootValue()*0.7;
-					if (penalty == 0.0)
-						penalty = 1.0;
+					if (!penaltyComputed)
+					{
+						penalty = tree.getRootValue()*0.7;
+						if (penalty == 0.0)
+							penalty = 1.0;
+						penaltyComputed = true;
+					}
 					stackNotProcessedValue.push(Double.valueOf(cost+penalty));
 				}
+				tree.remove(current);
 				current = null;
 			}
-			if ((nrFinal == 0 && cost > tolerance) || current == null)
-				break;
 			// Update costs for edges which were not contracted
 			while (stackNotProcessedObject.size() > 0)
 			{
 				double newCost = stackNotProcessedValue.pop().doubleValue();
 				HalfEdge f = stackNotProcessedObject.pop();
-				tree.update(f, newCost);
+				tree.insert(f, newCost);
 			}
+			if ((nrFinal == 0 && cost > tolerance) || current == null)
+				break;
 			current = processEdge(current, cost);
 			afterProcessHook();
 			processed++;
@@ -360,7 +388,7 @@ public abstract class AbstractAlgoHalfEdge
 			ObjectInputStream q = new ObjectInputStream(istream);
 			System.out.println("Loading restored state");
 			mesh = (Mesh) q.readObject();
-			tree = (QSortedTree<HalfEdge>) q.readObject();
+			tree = (SortedQueue<HalfEdge>) q.readObject();
 			appendRestoreState(q);
 			System.out.println("... Done.");
 			q.close();
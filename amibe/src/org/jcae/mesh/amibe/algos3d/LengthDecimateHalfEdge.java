@@ -104,6 +104,11 @@ public class LengthDecimateHalfEdge extends AbstractAlgoHalfEdge
 				minCos = Double.parseDouble(val);
 				LOGGER.fine("Minimum dot product of face normals allowed for swapping an edge: "+minCos);
 			}
+			else if ("queue".equals(key))
+			{
+				setSortedQueue(val);
+				LOGGER.fine("Sorted queue: "+val);
+			}
 			else
 				throw new IllegalArgumentException("Unknown option: "+key);
 		}
@@ -0,0 +1,798 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Decimates a mesh on several threads.  The mesh is split into spatial
+ * regions by recursive coordinate bisection of triangle centroids.  Each
+ * region is copied into its own {@link Mesh} and decimated by
+ * {@link QEMDecimateHalfEdge} in a thread pool; vertices shared by several
+ * regions are not mutable within these submeshes, so interfaces between
+ * regions are left untouched.  Decimated triangles are then spliced back
+ * into the mesh: they replace original triangles and are glued to their
+ * neighbours along region boundaries, adjacency relations of the whole mesh
+ * are not rebuilt.  A last {@link QEMDecimateHalfEdge} pass is run the same
+ * way on a submesh made of triangles near interfaces.
+ *
+ * <p>
+ * Options are the same as {@link QEMDecimateHalfEdge}, with two more keys:
+ * </p>
+ * <ul>
+ *   <li><code>threads</code>: number of threads, default is the number of
+ *       available processors;</li>
+ *   <li><code>partitions</code>: number of regions, default is the number
+ *       of threads.</li>
+ * </ul>
+ * <p>
+ * When <code>maxtriangles</code> is set, each region is decimated down to a
+ * number of triangles proportional to its size, and the pass on interfaces
+ * tries to reach the global target.  If it is not reached, for instance
+ * because many triangles are incident to interface vertices, a last pass
+ * is run in the current thread on all writable triangles.  Submeshes are
+ * copies of the original mesh, so memory usage is temporarily doubled.  If
+ * the mesh has a {@link KdTree}, it must contain all mesh vertices and is
+ * kept up to date.  Meshes with non-manifold edges or vertices are
+ * decimated sequentially.
+ * </p>
+ */
+public class ParallelQEMDecimateHalfEdge
+{
+	private static final Logger LOGGER=Logger.getLogger(ParallelQEMDecimateHalfEdge.class.getName());
+	// Vertices which belong to several regions
+	private static final int INTERFACE = -2;
+	// Triangles which are not decimated
+	private static final int NO_REGION = -1;
+	// Number of rings around interfaces processed by the last pass
+	private static final int HALO_RINGS = 2;
+	private static final int USER_ATTRIBUTES = AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.SHARP;
+
+	private final Mesh mesh;
+	private final Map<String, String> decimateOptions = new HashMap<String, String>();
+	private int nrThreads = ParallelExecutor.getNumberOfProcessors();
+	private int nrPartitions = -1;
+	private int nrFinal = 0;
+
+	/**
+	 * Creates a <code>ParallelQEMDecimateHalfEdge</code> instance.
+	 *
+	 * @param m  the <code>Mesh</code> instance to decimate, it must have
+	 *        adjacency relations.
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>threads</code>,
+	 *        <code>partitions</code> and those of {@link QEMDecimateHalfEdge}.
+	 */
+	public ParallelQEMDecimateHalfEdge(final Mesh m, final Map<String, String> options)
+	{
+		mesh = m;
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if (key.equals("threads"))
+			{
+				nrThreads = Integer.valueOf(val).intValue();
+				LOGGER.fine("Number of threads: "+nrThreads);
+			}
+			else if (key.equals("partitions"))
+			{
+				nrPartitions = Integer.valueOf(val).intValue();
+				LOGGER.fine("Number of partitions: "+nrPartitions);
+			}
+			else
+			{
+				if (key.equals("maxtriangles"))
+					nrFinal = Integer.valueOf(val).intValue();
+				decimateOptions.put(key, val);
+			}
+		}
+		if (nrPartitions < 0)
+			nrPartitions = nrThreads;
+	}
+
+	public final void compute()
+	{
+		if (!mesh.hasAdjacency())
+			throw new RuntimeException("ParallelQEMDecimateHalfEdge called on a mesh without adjacency relations");
+		if (nrPartitions <= 1)
+		{
+			new QEMDecimateHalfEdge(mesh, decimateOptions).compute();
+			return;
+		}
+		long start = System.currentTimeMillis();
+
+		// Split triangles into regions
+		List<Triangle> triangles = new ArrayList<Triangle>(mesh.getTriangles().size());
+		List<Triangle> frozen = new ArrayList<Triangle>();
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			if (!canSplice(t))
+			{
+				LOGGER.info("Non-manifold mesh, run "+QEMDecimateHalfEdge.class.getName()+" instead");
+				new QEMDecimateHalfEdge(mesh, decimateOptions).compute();
+				return;
+			}
+			if (t.isWritable())
+				triangles.add(t);
+			else
+				frozen.add(t);
+		}
+		LOGGER.info("Run "+getClass().getName()+" with "+nrPartitions+" partitions on "+nrThreads+" threads");
+		int nrTriangles = triangles.size();
+		int [] part = computePartition(triangles, nrPartitions);
+		List<List<Triangle>> regions = new ArrayList<List<Triangle>>(nrPartitions);
+		for (int i = 0; i < nrPartitions; i++)
+			regions.add(new ArrayList<Triangle>(nrTriangles / nrPartitions + 1));
+		for (int i = 0; i < nrTriangles; i++)
+			regions.get(part[i]).add(triangles.get(i));
+		part = null;
+		triangles = null;
+
+		// Find vertices shared by several regions
+		TObjectIntHashMap<Vertex> vertexRegion = new TObjectIntHashMap<Vertex>(nrTriangles / 2);
+		Set<Vertex> interfaces = new LinkedHashSet<Vertex>();
+		for (int r = 0; r < nrPartitions; r++)
+		{
+			for (Triangle t: regions.get(r))
+				for (Vertex v: t.vertex)
+					setVertexRegion(vertexRegion, interfaces, v, r);
+		}
+		for (Triangle t: frozen)
+			for (Vertex v: t.vertex)
+				setVertexRegion(vertexRegion, interfaces, v, NO_REGION);
+		vertexRegion = null;
+		frozen = null;
+		LOGGER.fine("Partitioning: "+(System.currentTimeMillis() - start)+" ms");
+
+		// Decimate regions
+		List<DecimateRegion> tasks = new ArrayList<DecimateRegion>(nrPartitions);
+		for (int r = 0; r < nrPartitions; r++)
+		{
+			int regionFinal = 0;
+			if (nrFinal > 0)
+				regionFinal = Math.max(1, (int) ((long) nrFinal * regions.get(r).size() / nrTriangles));
+			tasks.add(new DecimateRegion(regions.get(r), null, interfaces, regionFinal));
+		}
+		regions = null;
+		List<Region> results = ParallelExecutor.invokeAll(tasks, nrThreads);
+		tasks = null;
+		LOGGER.info("Parallel decimation: "+(System.currentTimeMillis() - start)+" ms");
+
+		// Put decimated regions back into mesh
+		int nrInner = splice(results);
+		results = null;
+		LOGGER.info("Splice: "+(System.currentTimeMillis() - start)+" ms");
+
+		// Process interfaces
+		decimateInterfaces(interfaces, nrInner);
+		if (nrFinal > 0)
+			enforceTarget();
+		LOGGER.info("Total time: "+(System.currentTimeMillis() - start)+" ms");
+		assert mesh.isValid();
+		assert mesh.checkNoInvertedTriangles();
+	}
+
+	/**
+	 * Tells whether triangle can be replaced by a decimated copy.  Splicing
+	 * only handles manifold edges and vertices, and triangles must be
+	 * {@link org.jcae.mesh.amibe.ds.TriangleHE} instances like those created
+	 * in submeshes.
+	 */
+	private static boolean canSplice(Triangle t)
+	{
+		AbstractHalfEdge e = t.getAbstractHalfEdge();
+		if (!(e instanceof HalfEdge))
+			return false;
+		for (int i = 0; i < 3; i++)
+		{
+			if (e.hasAttributes(AbstractHalfEdge.NONMANIFOLD) || !(t.vertex[i].getLink() instanceof Triangle))
+				return false;
+			e = e.next();
+		}
+		return true;
+	}
+
+	private static void setVertexRegion(TObjectIntHashMap<Vertex> vertexRegion, Set<Vertex> interfaces, Vertex v, int r)
+	{
+		if (!vertexRegion.contains(v))
+			vertexRegion.put(v, r);
+		else if (vertexRegion.get(v) != r)
+		{
+			vertexRegion.put(v, INTERFACE);
+			interfaces.add(v);
+		}
+	}
+
+	/**
+	 * Splits triangles into regions of the same size by recursive
+	 * coordinate bisection of their centroids.
+	 *
+	 * @return region number of each triangle
+	 */
+	static int [] computePartition(List<Triangle> triangles, int nrParts)
+	{
+		int n = triangles.size();
+		double [] centroid = new double[3*n];
+		int [] index = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			Triangle t = triangles.get(i);
+			for (int k = 0; k < 3; k++)
+			{
+				double [] xyz = t.vertex[k].getUV();
+				centroid[3*i]   += xyz[0];
+				centroid[3*i+1] += xyz[1];
+				centroid[3*i+2] += xyz[2];
+			}
+			index[i] = i;
+		}
+		int [] ret = new int[n];
+		bisect(index, centroid, 0, n, 0, nrParts, ret);
+		return ret;
+	}
+
+	private static void bisect(int [] index, double [] centroid, int from, int to, int firstPart, int nrParts, int [] part)
+	{
+		if (nrParts == 1 || to - from < 2)
+		{
+			for (int i = from; i < to; i++)
+				part[index[i]] = firstPart;
+			return;
+		}
+		// Split along the largest dimension
+		double [] bbox = new double[6];
+		for (int k = 0; k < 3; k++)
+		{
+			bbox[k] = Double.MAX_VALUE;
+			bbox[k+3] = - Double.MAX_VALUE;
+		}
+		for (int i = from; i < to; i++)
+		{
+			for (int k = 0; k < 3; k++)
+			{
+				double c = centroid[3*index[i]+k];
+				bbox[k] = Math.min(bbox[k], c);
+				bbox[k+3] = Math.max(bbox[k+3], c);
+			}
+		}
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+		{
+			if (bbox[k+3] - bbox[k] > bbox[axis+3] - bbox[axis])
+				axis = k;
+		}
+		int leftParts = nrParts / 2;
+		int split = from + (int) ((long) (to - from) * leftParts / nrParts);
+		select(index, centroid, axis, from, to - 1, split);
+		bisect(index, centroid, from, split, firstPart, leftParts, part);
+		bisect(index, centroid, split, to, firstPart + leftParts, nrParts - leftParts, part);
+	}
+
+	/**
+	 * Reorders index[lo..hi] so that entries before k have a lower coordinate
+	 * than entries after k.
+	 */
+	static void select(int [] index, double [] centroid, int axis, int lo, int hi, int k)
+	{
+		while (hi > lo)
+		{
+			double pivot = centroid[3*index[(lo + hi) >>> 1]+axis];
+			int i = lo;
+			int j = hi;
+			while (i <= j)
+			{
+				while (centroid[3*index[i]+axis] < pivot)
+					i++;
+				while (centroid[3*index[j]+axis] > pivot)
+					j--;
+				if (i <= j)
+				{
+					int temp = index[i];
+					index[i] = index[j];
+					index[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * Decimated copy of a set of triangles, and everything needed to put
+	 * it back into mesh.
+	 */
+	private static class Region
+	{
+		// Inner and outer triangles of submesh, their vertices have been
+		// replaced by mesh vertices
+		private final List<Triangle> innerTriangles = new ArrayList<Triangle>();
+		private final List<Triangle> outerTriangles = new ArrayList<Triangle>();
+		// Original triangles, and outer triangles connected to them
+		private final List<Triangle> oldTriangles;
+		private final List<Triangle> oldOuterTriangles = new ArrayList<Triangle>();
+		// Half-edges of triangles which are not replaced, and were connected
+		// to original triangles
+		private final List<AbstractHalfEdge> neighbours = new ArrayList<AbstractHalfEdge>();
+		private final List<Vertex> createdVertices = new ArrayList<Vertex>();
+		private final List<Vertex> removedVertices = new ArrayList<Vertex>();
+		// Mutable vertices and their new coordinates
+		private final List<Vertex> movedVertices = new ArrayList<Vertex>();
+		private final List<double []> newCoordinates = new ArrayList<double []>();
+		private Region(List<Triangle> oldTriangles)
+		{
+			this.oldTriangles = oldTriangles;
+		}
+	}
+
+	private class DecimateRegion implements Callable<Region>
+	{
+		private final List<Triangle> triangles;
+		// Triangles replaced by this task or by concurrent ones, or
+		// null if all writable triangles are replaced
+		private final Set<Triangle> replaced;
+		private final Set<Vertex> fixed;
+		private final int regionFinal;
+
+		private DecimateRegion(List<Triangle> triangles, Set<Triangle> replaced, Set<Vertex> fixed, int regionFinal)
+		{
+			this.triangles = triangles;
+			this.replaced = replaced;
+			this.fixed = fixed;
+			this.regionFinal = regionFinal;
+		}
+
+		public Region call()
+		{
+			Mesh submesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+			Map<Vertex, Vertex> copies = new HashMap<Vertex, Vertex>(triangles.size() / 2);
+			Map<Vertex, Vertex> originals = new HashMap<Vertex, Vertex>(triangles.size() / 2);
+			List<Triangle> newTriangles = new ArrayList<Triangle>(triangles.size());
+			Vertex [] vv = new Vertex[3];
+			for (Triangle t: triangles)
+			{
+				for (int k = 0; k < 3; k++)
+				{
+					Vertex v = t.vertex[k];
+					Vertex c = copies.get(v);
+					if (c == null)
+					{
+						double [] xyz = v.getUV();
+						c = submesh.createVertex(xyz[0], xyz[1], xyz[2]);
+						c.setRef(v.getRef());
+						c.setLabel(v.getLabel());
+						c.setReadable(v.isReadable());
+						c.setWritable(v.isWritable());
+						c.setMutable(v.isMutable() && !fixed.contains(v));
+						copies.put(v, c);
+						originals.put(c, v);
+					}
+					vv[k] = c;
+				}
+				Triangle newT = submesh.createTriangle(vv[0], vv[1], vv[2]);
+				newT.setGroupId(t.getGroupId());
+				submesh.add(newT);
+				newTriangles.add(newT);
+			}
+			submesh.buildAdjacency();
+			for (int i = 0, n = triangles.size(); i < n; i++)
+				copyEdgeAttributes(triangles.get(i), newTriangles.get(i));
+			newTriangles = null;
+
+			Map<String, String> options = new HashMap<String, String>(decimateOptions);
+			if (regionFinal > 0)
+				options.put("maxtriangles", Integer.toString(regionFinal));
+			new QEMDecimateHalfEdge(submesh, options).compute();
+
+			Region ret = new Region(triangles);
+			findNeighbours(ret);
+			boolean moveVertices = mesh.getKdTree() == null;
+			Set<Vertex> used = new HashSet<Vertex>(copies.size());
+			for (Triangle t: submesh.getTriangles())
+			{
+				boolean outer = t.hasAttributes(AbstractHalfEdge.OUTER);
+				for (int k = 0; k < 3; k++)
+				{
+					Vertex c = t.vertex[k];
+					if (c == submesh.outerVertex)
+					{
+						t.vertex[k] = mesh.outerVertex;
+						continue;
+					}
+					Vertex v = originals.get(c);
+					if (v == null)
+					{
+						// Vertex created by QEMDecimateHalfEdge
+						double [] xyz = c.getUV();
+						v = mesh.createVertex(xyz[0], xyz[1], xyz[2]);
+						v.setMutable(c.isMutable());
+						v.setRef(c.getRef());
+						originals.put(c, v);
+						ret.createdVertices.add(v);
+					}
+					else if (used.add(v) && c.isMutable())
+					{
+						// QEMDecimateHalfEdge may reuse vertices
+						v.setRef(c.getRef());
+						if (moveVertices)
+						{
+							double [] xyz = c.getUV();
+							v.moveTo(xyz[0], xyz[1], xyz[2]);
+						}
+						else
+						{
+							ret.movedVertices.add(v);
+							ret.newCoordinates.add(c.getUV());
+						}
+					}
+					t.vertex[k] = v;
+				}
+				if (outer)
+					ret.outerTriangles.add(t);
+				else
+					ret.innerTriangles.add(t);
+			}
+			for (Vertex v: copies.keySet())
+			{
+				if (!used.contains(v))
+					ret.removedVertices.add(v);
+			}
+			return ret;
+		}
+
+		/**
+		 * Collects mesh triangles which are connected to original
+		 * triangles.  Mesh is not modified by concurrent tasks, so it
+		 * can be read here.
+		 */
+		private void findNeighbours(Region region)
+		{
+			for (Triangle t: triangles)
+			{
+				AbstractHalfEdge e = t.getAbstractHalfEdge();
+				for (int i = 0; i < 3; i++)
+				{
+					e = e.next();
+					AbstractHalfEdge sym = e.sym();
+					Triangle n = sym.getTri();
+					if (n.hasAttributes(AbstractHalfEdge.OUTER))
+						region.oldOuterTriangles.add(n);
+					else if (!isReplaced(n))
+						region.neighbours.add(sym);
+				}
+			}
+		}
+
+		private boolean isReplaced(Triangle t)
+		{
+			if (replaced == null)
+				return t.isWritable();
+			return replaced.contains(t);
+		}
+	}
+
+	private static void copyEdgeAttributes(Triangle from, Triangle to)
+	{
+		AbstractHalfEdge e = from.getAbstractHalfEdge();
+		AbstractHalfEdge f = to.getAbstractHalfEdge();
+		for (int i = 0; i < 3; i++)
+		{
+			for (int attr = 1; attr <= USER_ATTRIBUTES; attr <<= 1)
+			{
+				if ((attr & USER_ATTRIBUTES) != 0 && e.hasAttributes(attr))
+					f.setAttributes(attr);
+			}
+			e = e.next();
+			f = f.next();
+		}
+	}
+
+	/**
+	 * Replaces original triangles by decimated ones.  Half-edges on
+	 * submesh boundaries are glued either to half-edges of another
+	 * submesh, or to mesh triangles which have not been replaced; the
+	 * remaining ones are on mesh boundary and keep their outer triangle.
+	 *
+	 * @return number of inner triangles in submeshes
+	 */
+	private int splice(List<Region> regions)
+	{
+		Collection<Triangle> meshTriangles = mesh.getTriangles();
+		KdTree<Vertex> kdTree = mesh.getKdTree();
+		Set<Vertex> beams = new HashSet<Vertex>(mesh.getBeams());
+		List<Triangle> oldTriangles = new ArrayList<Triangle>();
+		List<Vertex> oldVertices = new ArrayList<Vertex>();
+		int nrInner = 0;
+		for (Region r: regions)
+		{
+			oldTriangles.addAll(r.oldTriangles);
+			oldTriangles.addAll(r.oldOuterTriangles);
+			for (Vertex v: r.removedVertices)
+			{
+				if (!beams.contains(v))
+					oldVertices.add(v);
+			}
+			nrInner += r.innerTriangles.size();
+		}
+		removeAll(meshTriangles, oldTriangles);
+		oldTriangles = null;
+		if (mesh.hasNodes())
+			removeAll(mesh.getNodes(), oldVertices);
+
+		// Half-edges which have not been glued yet, sorted by origin
+		Map<Vertex, List<AbstractHalfEdge>> pending = new HashMap<Vertex, List<AbstractHalfEdge>>();
+		int nrNeighbours = 0;
+		for (Region r: regions)
+		{
+			for (AbstractHalfEdge e: r.neighbours)
+				addPending(pending, e);
+			nrNeighbours += r.neighbours.size();
+		}
+		AbstractHalfEdge e = null;
+		for (Region r: regions)
+		{
+			for (Triangle t: r.outerTriangles)
+			{
+				e = t.getAbstractHalfEdge(e);
+				for (int i = 0; i < 3 && (e.origin() == mesh.outerVertex || e.destination() == mesh.outerVertex); i++)
+					e = e.next();
+				AbstractHalfEdge inner = e.sym();
+				if (inner.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				AbstractHalfEdge sym = removePending(pending, inner.destination(), inner.origin());
+				if (sym == null)
+					addPending(pending, inner);
+				else
+				{
+					// sym is either a neighbour, still connected to an
+					// original triangle, or on the boundary of another
+					// submesh and connected to an outer triangle
+					if (!sym.sym().hasAttributes(AbstractHalfEdge.OUTER))
+						nrNeighbours--;
+					inner.glue(sym);
+					inner.clearAttributes(AbstractHalfEdge.BOUNDARY);
+					sym.clearAttributes(AbstractHalfEdge.BOUNDARY);
+				}
+			}
+		}
+		if (nrNeighbours != 0)
+			throw new RuntimeException("Decimated regions do not match their neighbours");
+
+		for (Region r: regions)
+		{
+			for (Triangle t: r.innerTriangles)
+			{
+				meshTriangles.add(t);
+				for (Vertex v: t.vertex)
+					v.setLink(t);
+			}
+			for (Triangle t: r.outerTriangles)
+			{
+				// Outer triangles which have been replaced by a
+				// neighbour are no more connected to inner triangles
+				e = t.getAbstractHalfEdge(e);
+				for (int i = 0; i < 3 && (e.origin() == mesh.outerVertex || e.destination() == mesh.outerVertex); i++)
+					e = e.next();
+				if (e.sym().sym() == e)
+					meshTriangles.add(t);
+			}
+			if (mesh.hasNodes())
+			{
+				for (Vertex v: r.createdVertices)
+					mesh.add(v);
+			}
+			if (kdTree != null)
+			{
+				for (int i = 0, n = r.movedVertices.size(); i < n; i++)
+				{
+					Vertex v = r.movedVertices.get(i);
+					double [] xyz = r.newCoordinates.get(i);
+					kdTree.remove(v);
+					v.moveTo(xyz[0], xyz[1], xyz[2]);
+					kdTree.add(v);
+				}
+				for (Vertex v: r.createdVertices)
+					kdTree.add(v);
+			}
+		}
+		if (kdTree != null)
+		{
+			for (Vertex v: oldVertices)
+				kdTree.remove(v);
+		}
+		return nrInner;
+	}
+
+	private static void addPending(Map<Vertex, List<AbstractHalfEdge>> pending, AbstractHalfEdge e)
+	{
+		List<AbstractHalfEdge> list = pending.get(e.origin());
+		if (list == null)
+		{
+			list = new ArrayList<AbstractHalfEdge>(2);
+			pending.put(e.origin(), list);
+		}
+		list.add(e);
+	}
+
+	private static AbstractHalfEdge removePending(Map<Vertex, List<AbstractHalfEdge>> pending, Vertex o, Vertex d)
+	{
+		List<AbstractHalfEdge> list = pending.get(o);
+		if (list == null)
+			return null;
+		for (Iterator<AbstractHalfEdge> it = list.iterator(); it.hasNext(); )
+		{
+			AbstractHalfEdge e = it.next();
+			if (e.destination() == d)
+			{
+				it.remove();
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes elements from a collection.  Sets remove them one by one,
+	 * other collections are filtered in a single pass.
+	 */
+	private static <E> void removeAll(Collection<E> collection, Collection<E> removed)
+	{
+		if (removed.isEmpty())
+			return;
+		if (collection instanceof Set)
+		{
+			for (E o: removed)
+				collection.remove(o);
+		}
+		else
+			collection.removeAll(new HashSet<E>(removed));
+	}
+
+	private void decimateInterfaces(Set<Vertex> interfaces, int nrInner)
+	{
+		// Find vertices near interfaces
+		Set<Vertex> active = new LinkedHashSet<Vertex>(interfaces);
+		List<Vertex> front = new ArrayList<Vertex>(active);
+		for (int ring = 0; ring < HALO_RINGS; ring++)
+		{
+			List<Vertex> newFront = new ArrayList<Vertex>();
+			for (Vertex v: front)
+			{
+				for (Iterator<Vertex> it = v.getNeighbourIteratorVertex(); it.hasNext(); )
+				{
+					Vertex n = it.next();
+					if (n != mesh.outerVertex && active.add(n))
+						newFront.add(n);
+				}
+			}
+			front = newFront;
+		}
+		// Triangles incident to these vertices are decimated
+		Set<Triangle> halo = new LinkedHashSet<Triangle>();
+		for (Vertex v: active)
+		{
+			for (Iterator<Triangle> it = v.getNeighbourIteratorTriangle(); it.hasNext(); )
+			{
+				Triangle t = it.next();
+				if (!t.hasAttributes(AbstractHalfEdge.OUTER) && t.isWritable())
+					halo.add(t);
+			}
+		}
+		if (halo.isEmpty())
+			return;
+		int haloFinal = 0;
+		if (nrFinal > 0)
+		{
+			if (nrInner <= nrFinal)
+				return;
+			haloFinal = Math.max(1, nrFinal - (nrInner - halo.size()));
+		}
+		LOGGER.fine("Triangles near interfaces: "+halo.size());
+		decimateTriangles(halo, haloFinal);
+	}
+
+	/**
+	 * Runs a last pass on all writable triangles if the global target
+	 * has not been reached.  Regions and halo are decimated with
+	 * budgets computed from their sizes, but triangles near fixed
+	 * vertices cannot always be removed, so the final number of
+	 * triangles may be larger than <code>maxtriangles</code>.  The mesh
+	 * is already decimated, so this pass is cheap.
+	 */
+	private void enforceTarget()
+	{
+		int nrTriangles = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+		if (nrTriangles <= nrFinal)
+			return;
+		LOGGER.fine("Number of triangles after parallel decimation: "+nrTriangles+", target: "+nrFinal);
+		Set<Triangle> all = new LinkedHashSet<Triangle>(nrTriangles);
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER) && t.isWritable())
+				all.add(t);
+		}
+		decimateTriangles(all, nrFinal);
+	}
+
+	/**
+	 * Decimates a set of triangles in the current thread and puts result
+	 * back into mesh.  Vertices connected to other triangles are not
+	 * modified.
+	 *
+	 * @param subset  triangles to decimate
+	 * @param target  number of triangles to reach, or 0 if there is no
+	 *   such target
+	 */
+	private void decimateTriangles(Set<Triangle> subset, int target)
+	{
+		// Vertices connected to other triangles must not be modified
+		Set<Vertex> fixed = new HashSet<Vertex>();
+		Set<Vertex> seen = new HashSet<Vertex>();
+		for (Triangle t: subset)
+		{
+			for (Vertex v: t.vertex)
+			{
+				if (!seen.add(v))
+					continue;
+				for (Iterator<Triangle> it = v.getNeighbourIteratorTriangle(); it.hasNext(); )
+				{
+					Triangle n = it.next();
+					if (!n.hasAttributes(AbstractHalfEdge.OUTER) && !subset.contains(n))
+					{
+						fixed.add(v);
+						break;
+					}
+				}
+			}
+		}
+		LOGGER.fine("Fixed vertices: "+fixed.size());
+		Region r = new DecimateRegion(new ArrayList<Triangle>(subset), subset, fixed, target).call();
+		splice(Collections.singletonList(r));
+	}
+}
@@ -125,7 +125,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	 * @param m  the <code>Mesh</code> instance to refine.
 	 * @param options  map containing key-value pairs to modify algorithm
 	 *        behaviour.  Valid keys are <code>size</code>,
-	 *        <code>placement</code> and <code>maxtriangles</code>.
+	 *        <code>placement</code>, <code>maxtriangles</code> and
+	 *        <code>queue</code> (see {@link #setSortedQueue}).
 	 */
 	public QEMDecimateHalfEdge(final Mesh m, final Map<String, String> options)
 	{
@@ -178,6 +179,11 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 				freeEdgesOnly = Boolean.parseBoolean(val);
 				LOGGER.fine("freeEdgesOnly: "+freeEdgesOnly);
 			}
+			else if (key.equals("queue"))
+			{
+				setSortedQueue(val);
+				LOGGER.fine("Sorted queue: "+val);
+			}
 			else
 				throw new RuntimeException("Unknown option: "+key);
 		}
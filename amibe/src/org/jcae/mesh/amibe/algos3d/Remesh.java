@@ -31,6 +31,7 @@ import org.jcae.mesh.amibe.metrics.EuclidianMetric3D;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
 import org.jcae.mesh.amibe.metrics.Metric;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import org.jcae.mesh.xmldata.MeshReader;
 import org.jcae.mesh.xmldata.MeshWriter;
 import org.jcae.mesh.xmldata.DoubleFileReader;
@@ -45,16 +46,34 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Remesh an existing mesh.
  *
+ * Candidate points only depend on existing vertices, so they can be
+ * computed concurrently by setting the <code>threads</code> option;
+ * analytic metrics must then be thread-safe.  When more than one thread
+ * is used, candidate points are also inserted concurrently: they are
+ * split into regions by recursive coordinate bisection, and a point is
+ * inserted by the thread of its region if all triangles being modified
+ * have their vertices in this region.  Other points are inserted
+ * afterwards by the calling thread, as well as edge swaps which would
+ * cross region boundaries.  Regions only depend on candidate points, so
+ * the output mesh is the same for any number of threads greater than 1,
+ * but it differs from the one obtained with a single thread.  Hooks are
+ * not called for points inserted concurrently, and points are never
+ * inserted concurrently if mesh has a trace.
+ *
  * See org.jcae.mesh.amibe.algos2d.Insertion
  * @author Denis Barbier
  */
@@ -62,6 +81,13 @@ public class Remesh
 {
 	private final static Logger LOGGER = Logger.getLogger(Remesh.class.getName());
 	private static final double ONE_PLUS_SQRT2 = 1.0 + Math.sqrt(2.0);
+	// Number of edges processed by a task when computing candidate points
+	private static final int EDGES_PER_TASK = 256;
+	// Minimal number of candidate points in a region when inserting
+	// points concurrently
+	private static final int NODES_PER_REGION = 1024;
+	// Maximal depth of recursive bisection, there are at most 2^MAX_DEPTH regions
+	private static final int MAX_DEPTH = 6;
 	private int progressBarStatus = 10000;
 	private final Mesh mesh;
 	private final MeshLiaison liaison;
@@ -74,9 +100,12 @@ public class Remesh
 	// useful to see if addCandidatePoints() does its job
 	private int nrInterpolations;
 	private int nrFailedInterpolations;
+	private int nrThreads = 1;
 
-	Map<Triangle, Collection<Vertex>> mapTriangleVertices = new HashMap<Triangle, Collection<Vertex>>();
-	Map<Vertex, Triangle> surroundingTriangle = new HashMap<Vertex, Triangle>();
+	// These maps are modified concurrently when points are inserted
+	// by several threads
+	private final Map<Triangle, Collection<Vertex>> mapTriangleVertices;
+	private final Map<Vertex, Triangle> surroundingTriangle;
 
 	private final boolean project;
 	private final boolean hasRidges;
@@ -189,9 +218,25 @@ public class Remesh
 				nearNodes = Boolean.valueOf(val).booleanValue();
 			else if (key.equals("features"))
 				onlyFeatureEdges = Boolean.valueOf(val).booleanValue();
+			else if (key.equals("threads"))
+			{
+				nrThreads = Integer.valueOf(val).intValue();
+				if (nrThreads <= 0)
+					nrThreads = ParallelExecutor.getNumberOfProcessors();
+			}
 			else
 				LOGGER.warning("Unknown option: "+key);
 		}
+		if (nrThreads > 1)
+		{
+			mapTriangleVertices = new ConcurrentHashMap<Triangle, Collection<Vertex>>();
+			surroundingTriangle = new ConcurrentHashMap<Vertex, Triangle>();
+		}
+		else
+		{
+			mapTriangleVertices = new HashMap<Triangle, Collection<Vertex>>();
+			surroundingTriangle = new HashMap<Vertex, Triangle>();
+		}
 		if (meshLiaison == null)
 			mesh.buildRidges(copl);
 
@@ -424,6 +469,354 @@ public class Remesh
 		}
 	}
 
+	/**
+	 * Inserts candidate points.  If a region is given, only triangles whose
+	 * vertices all belong to this region are modified; points which would
+	 * modify other triangles are left untouched, and edges around inserted
+	 * points are not swapped if this would modify other triangles.  Regions
+	 * can then be processed concurrently: other threads only modify
+	 * triangles of their own regions, and half-edges whose both end points
+	 * belong to their regions.  Shared data which are not indexed by
+	 * triangles are not modified, they are updated afterwards by
+	 * {@link #insertConcurrently}.
+	 */
+	private final class Inserter
+	{
+		private static final int INSERTED = 0;
+		private static final int SKIPPED = 1;
+		private static final int DEFERRED = 2;
+		// Mesh given to methods which create triangles or use temporary arrays
+		private final Mesh workMesh;
+		private final Regions regions;
+		private final int region;
+		private final Set<Vertex> boundaryNodes;
+		private final double[][] temp = new double[4][3];
+		private AbstractHalfEdge sym;
+		private int nrSkipped;
+		private int nrSwap;
+		// Vertices to be inserted by this region
+		private final List<Vertex> nodes = new ArrayList<Vertex>();
+		// Vertices inserted or skipped by this region
+		private final List<Vertex> inserted = new ArrayList<Vertex>();
+		private final List<Vertex> skipped = new ArrayList<Vertex>();
+		// Vertices around which some edges could not be swapped
+		private final List<Vertex> unswapped = new ArrayList<Vertex>();
+
+		Inserter(Set<Vertex> boundaryNodes)
+		{
+			this.workMesh = mesh;
+			this.regions = null;
+			this.region = -1;
+			this.boundaryNodes = boundaryNodes;
+		}
+
+		Inserter(Regions regions, int region)
+		{
+			this.workMesh = mesh.createWorkMesh();
+			this.regions = regions;
+			this.region = region;
+			this.boundaryNodes = Collections.emptySet();
+		}
+
+		int insert(Vertex v)
+		{
+			Triangle start = surroundingTriangle.get(v);
+			if (regions != null && !regions.contains(region, start))
+				return DEFERRED;
+			AbstractHalfEdge ot = MeshLiaison.findNearestEdge(v, start);
+			if (regions != null)
+			{
+				// Features are inserted by the calling thread
+				if (ot.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
+					return DEFERRED;
+				if (regions.get(v) != region || !regions.contains(region, ot.sym(sym).getTri()))
+					return DEFERRED;
+			}
+			surroundingTriangle.remove(v);
+			sym = ot.sym(sym);
+			if (ot.hasAttributes(AbstractHalfEdge.IMMUTABLE))
+			{
+				// Vertex is not inserted
+				skip(v, start);
+				return SKIPPED;
+			}
+			if (!ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
+			{
+				// Check whether edge can be split
+				Vertex o = ot.origin();
+				Vertex d = ot.destination();
+				Vertex n = sym.apex();
+				double[] pos = v.getUV();
+				Matrix3D.computeNormal3D(o.getUV(), n.getUV(), pos, temp[0], temp[1], temp[2]);
+				Matrix3D.computeNormal3D(n.getUV(), d.getUV(), pos, temp[0], temp[1], temp[3]);
+				if (Matrix3D.prodSca(temp[2], temp[3]) <= 0.0)
+				{
+					// Vertex is not inserted
+					skip(v, start);
+					return SKIPPED;
+				}
+			}
+			else if (!boundaryNodes.contains(v))
+			{
+				// Vertex is not inserted
+				skip(v, start);
+				return SKIPPED;
+			}
+
+			Map<Triangle, Collection<Vertex>> verticesToDispatch = collectVertices(ot);
+
+			ot = workMesh.vertexSplit(ot, v);
+			assert ot.destination() == v : v+" "+ot;
+			// Triangles around v have been modified, they
+			// must reset their MARKED flag.  This will be
+			// done below when swapping edges.
+
+			dispatchVertices(v, verticesToDispatch);
+
+			if (regions == null)
+			{
+				kdTree.add(v);
+				afterSplitHook();
+			}
+			else
+				inserted.add(v);
+			swapEdges(((HalfEdge) ot).prev(), v);
+			if (regions == null)
+				afterSwapHook();
+			return INSERTED;
+		}
+
+		private void skip(Vertex v, Triangle start)
+		{
+			nrSkipped++;
+			mapTriangleVertices.get(start).remove(v);
+			if (regions == null)
+			{
+				liaison.removeVertex(v);
+				neighborBgMap.remove(v);
+			}
+			else
+				skipped.add(v);
+		}
+
+		/**
+		 * Swaps edges around a vertex.
+		 *
+		 * @param edge  an edge whose apex is v
+		 * @param v  vertex
+		 */
+		void swapEdges(HalfEdge edge, Vertex v)
+		{
+			Vertex s = edge.origin();
+			boolean advance = true;
+			boolean complete = true;
+			double [] tNormal = liaison.getBackgroundNormal(v);
+			do
+			{
+				advance = true;
+				edge.getTri().clearAttributes(AbstractHalfEdge.MARKED);
+				double checkNormal = edge.checkSwapNormal(workMesh, coplanarity, tNormal);
+				if (checkNormal < -1.0)
+				{
+					edge = edge.nextApexLoop();
+					continue;
+				}
+				if (edge.checkSwap3D(workMesh, -2.0) > 0.0)
+				{
+					if (regions != null && !regions.contains(region, edge.sym().getTri()))
+					{
+						// Leave this edge to the calling thread
+						complete = false;
+						edge = edge.nextApexLoop();
+						continue;
+					}
+					edge.sym().getTri().clearAttributes(AbstractHalfEdge.MARKED);
+					Map<Triangle, Collection<Vertex>> vTri = collectVertices(edge);
+					edge = (HalfEdge) workMesh.edgeSwap(edge);
+					dispatchVertices(null, vTri);
+					nrSwap++;
+					advance = false;
+				}
+				else
+					edge = edge.nextApexLoop();
+			}
+			while (!advance || edge.origin() != s);
+			if (!complete)
+				unswapped.add(v);
+		}
+	}
+
+	/**
+	 * Spatial regions obtained by recursive coordinate bisection of a set
+	 * of vertices.  All regions contain about the same number of vertices
+	 * of this set, and any vertex can be located.
+	 */
+	private static final class Regions
+	{
+		private final int depth;
+		// Complete binary tree of cutting planes, children of node i
+		// are nodes 2*i+1 and 2*i+2
+		private final int [] axis;
+		private final double [] cut;
+
+		Regions(List<Vertex> nodes, int depth)
+		{
+			this.depth = depth;
+			axis = new int[(1 << depth) - 1];
+			cut = new double[axis.length];
+			int n = nodes.size();
+			double [] coord = new double[3*n];
+			int [] index = new int[n];
+			for (int i = 0; i < n; i++)
+			{
+				System.arraycopy(nodes.get(i).getUV(), 0, coord, 3*i, 3);
+				index[i] = i;
+			}
+			bisect(index, coord, 0, n, 0, depth);
+		}
+
+		private void bisect(int [] index, double [] coord, int from, int to, int node, int level)
+		{
+			if (level == 0)
+				return;
+			// Cut along the largest dimension
+			double [] bbox = new double[6];
+			for (int k = 0; k < 3; k++)
+			{
+				bbox[k] = Double.MAX_VALUE;
+				bbox[k+3] = - Double.MAX_VALUE;
+			}
+			for (int i = from; i < to; i++)
+			{
+				for (int k = 0; k < 3; k++)
+				{
+					double c = coord[3*index[i]+k];
+					bbox[k] = Math.min(bbox[k], c);
+					bbox[k+3] = Math.max(bbox[k+3], c);
+				}
+			}
+			int a = 0;
+			for (int k = 1; k < 3; k++)
+			{
+				if (bbox[k+3] - bbox[k] > bbox[a+3] - bbox[a])
+					a = k;
+			}
+			int split = (from + to) >>> 1;
+			ParallelQEMDecimateHalfEdge.select(index, coord, a, from, to - 1, split);
+			axis[node] = a;
+			cut[node] = coord[3*index[split]+a];
+			bisect(index, coord, from, split, 2*node+1, level - 1);
+			bisect(index, coord, split, to, 2*node+2, level - 1);
+		}
+
+		int size()
+		{
+			return 1 << depth;
+		}
+
+		int get(Vertex v)
+		{
+			double [] xyz = v.getUV();
+			int node = 0;
+			for (int i = 0; i < depth; i++)
+				node = 2*node + (xyz[axis[node]] < cut[node] ? 1 : 2);
+			return node - axis.length;
+		}
+
+		/**
+		 * Tells whether all vertices of a triangle belong to a region.
+		 */
+		boolean contains(int region, Triangle t)
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				return false;
+			for (Vertex v : t.vertex)
+			{
+				if (get(v) != region)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Inserts points concurrently.  Points are split into regions, and each
+	 * region is processed by an {@link Inserter}.  Shared data are then
+	 * updated in region order, so that results do not depend on the number
+	 * of threads.  Points which have not been inserted or skipped are
+	 * left to the calling thread.
+	 *
+	 * @param ordered  points, in insertion order
+	 * @param inserter  inserter of the calling thread
+	 * @return number of inserted points
+	 */
+	private int insertConcurrently(List<Vertex> ordered, Inserter inserter)
+	{
+		int depth = 0;
+		while (depth < MAX_DEPTH && ordered.size() >= (2 << depth) * NODES_PER_REGION)
+			depth++;
+		final Regions regions = new Regions(ordered, depth);
+		final Inserter [] inserters = new Inserter[regions.size()];
+		for (int i = 0; i < inserters.length; i++)
+			inserters[i] = new Inserter(regions, i);
+		for (Vertex v : ordered)
+		{
+			Triangle t = surroundingTriangle.get(v);
+			int region = regions.get(t.vertex[0]);
+			if (regions.contains(region, t))
+				inserters[region].nodes.add(v);
+		}
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(inserters.length);
+		for (final Inserter regionInserter : inserters)
+		{
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					for (Vertex v : regionInserter.nodes)
+						regionInserter.insert(v);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+		int ret = 0;
+		for (Inserter regionInserter : inserters)
+		{
+			for (Triangle t : regionInserter.workMesh.getTriangles())
+				mesh.add(t);
+			for (Vertex v : regionInserter.inserted)
+			{
+				if (mesh.hasNodes())
+					mesh.add(v);
+				kdTree.add(v);
+			}
+			for (Vertex v : regionInserter.skipped)
+			{
+				liaison.removeVertex(v);
+				neighborBgMap.remove(v);
+			}
+			inserter.nrSkipped += regionInserter.nrSkipped;
+			inserter.nrSwap += regionInserter.nrSwap;
+			ret += regionInserter.inserted.size();
+		}
+		// Swap edges along region boundaries
+		for (Inserter regionInserter : inserters)
+		{
+			for (Vertex v : regionInserter.unswapped)
+			{
+				HalfEdge edge = (HalfEdge) ((Triangle) v.getLink()).getAbstractHalfEdge();
+				while (edge.apex() != v)
+					edge = edge.next();
+				inserter.swapEdges(edge, v);
+			}
+		}
+		if (ret > 0)
+			LOGGER.fine(ret+" nodes inserted concurrently in "+inserters.length+" regions");
+		return ret;
+	}
+
 	public final Remesh compute()
 	{
 		LOGGER.info("Run "+getClass().getName());
@@ -452,9 +845,6 @@ public class Remesh
 		}
 
 		ArrayList<Vertex> nodes = new ArrayList<Vertex>();
-		ArrayList<Vertex> triNodes = new ArrayList<Vertex>();
-		ArrayList<EuclidianMetric3D> triMetrics = new ArrayList<EuclidianMetric3D>();
-		ArrayList<Vertex> triNeighbor = new ArrayList<Vertex>();
 
 		LinkedHashSet<Vertex> boundaryNodes = new LinkedHashSet<Vertex>();
 		int nrIter = 0;
@@ -464,7 +854,6 @@ public class Remesh
 		AbstractHalfEdge h = null;
 		AbstractHalfEdge sym = null;
 
-		double[][] temp = new double[4][3];
 		// We try to insert new nodes by splitting large edges.  As edge collapse
 		// is costful, nodes are inserted only if it does not create small edges,
 		// which means that nodes are not deleted.
@@ -496,20 +885,18 @@ public class Remesh
 			boundaryNodes.clear();
 			skippedNodes = 0;
 			LOGGER.fine("Check all edges");
+			// Edges to split are collected by blocks, candidate points
+			// of a block are computed concurrently and then checked
+			// sequentially in triangle order.
+			ArrayList<TriangleCandidates> block = new ArrayList<TriangleCandidates>();
+			int blockEdges = 0;
 			for(Triangle t : mesh.getTriangles())
 			{
 				if (t.hasAttributes(AbstractHalfEdge.OUTER))
 					continue;
 				h = t.getAbstractHalfEdge(h);
 				sym = t.getAbstractHalfEdge(sym);
-				triNodes.clear();
-				triMetrics.clear();
-				triNeighbor.clear();
-				Collection<Vertex> newVertices = mapTriangleVertices.get(t);
-				if (newVertices == null)
-					newVertices = new ArrayList<Vertex>();
-				// Maximal number of nodes which are inserted on edges of this triangle
-				int nrTriNodes = 0;
+				TriangleCandidates tc = null;
 				for (int i = 0; i < 3; i++)
 				{
 					h = h.next();
@@ -546,80 +933,31 @@ public class Remesh
 						h.setAttributes(AbstractHalfEdge.MARKED);
 						continue;
 					}
-					int nrNodes = addCandidatePoints(h, l, reversed,
-						triNodes, triMetrics, triNeighbor, boundaryNodes);
-					if (nrNodes > nrTriNodes)
-					{
-						nrTriNodes = nrNodes;
-					}
+					if (tc == null)
+						tc = new TriangleCandidates(t);
+					// HalfEdge instances are bound to triangles, h can be kept
+					tc.edges.add(new EdgeCandidates(h, l));
 					checked++;
 				}
-				if (nrTriNodes > maxNodes)
-					maxNodes = nrTriNodes;
-				if (!triNodes.isEmpty())
+				if (tc != null)
 				{
-					//  Process in pseudo-random order
-					int prime = PrimeFinder.nextPrime(nrTriNodes);
-					int imax = triNodes.size();
-					while (imax % prime == 0)
-						prime = PrimeFinder.nextPrime(prime+1);
-					if (prime >= imax)
-						prime = 1;
-					int index = imax / 2;
-					for (int i = 0; i < imax; i++)
+					block.add(tc);
+					blockEdges += tc.edges.size();
+					if (blockEdges >= 4 * EDGES_PER_TASK * nrThreads)
 					{
-						Vertex v = triNodes.get(index);
-						EuclidianMetric3D metric = triMetrics.get(index);
-						assert metric != null;
-						double localSize = 0.5 * metric.getUnitBallBBox()[0];
-						double localSize2 = localSize * localSize;
-						Vertex bgNear = neighborBgMap.get(triNeighbor.get(index));
-						Triangle bgT = liaison.findSurroundingTriangle(v, bgNear, localSize2, true).getTri();
-						liaison.addVertex(v, bgT);
-						liaison.move(v, v.getUV());
-
-						double[] uv = v.getUV();
-						boolean validCandidate = allowNearNodes;
-						if (!validCandidate)
-						{
-							if (boundaryNodes.contains(v))
-								validCandidate = true;
-						}
-						if (!validCandidate)
-						{
-							Vertex n = kdTree.getNearestVertex(metric, uv);
-							validCandidate = interpolatedDistance(v, metric, n, metrics.get(n)) > minlen;
-						}
-						if (validCandidate)
-						{
-							kdTree.add(v);
-							metrics.put(v, metric);
-							nodes.add(v);
-							newVertices.add(v);
-							surroundingTriangle.put(v, t);
-							double d0 = v.sqrDistance3D(bgT.vertex[0]);
-							double d1 = v.sqrDistance3D(bgT.vertex[1]);
-							double d2 = v.sqrDistance3D(bgT.vertex[2]);
-							if (d0 <= d1 && d0 <= d2)
-								neighborBgMap.put(v, bgT.vertex[0]);
-							else if (d1 <= d0 && d1 <= d2)
-								neighborBgMap.put(v, bgT.vertex[1]);
-							else
-								neighborBgMap.put(v, bgT.vertex[2]);
-						}
-						else
-						{
-							tooNearNodes++;
-							liaison.removeVertex(v);
-						}
-						index += prime;
-						if (index >= imax)
-							index -= imax;
+						maxNodes = Math.max(maxNodes, computeCandidatePoints(block, reversed));
+						tooNearNodes += checkCandidatePoints(block, nodes, boundaryNodes);
+						block.clear();
+						blockEdges = 0;
 					}
-					if (!newVertices.isEmpty())
-						mapTriangleVertices.put(t, newVertices);
 				}
 			}
+			if (!block.isEmpty())
+			{
+				maxNodes = Math.max(maxNodes, computeCandidatePoints(block, reversed));
+				tooNearNodes += checkCandidatePoints(block, nodes, boundaryNodes);
+				block.clear();
+			}
 			if (nodes.isEmpty())
 				break;
 
@@ -641,100 +979,30 @@ public class Remesh
 			if (prime >= imax)
 				prime = 1;
 			int index = imax / 2 - prime;
-			int totNrSwap = 0;
+			ArrayList<Vertex> ordered = new ArrayList<Vertex>(imax);
 			for (int i = 0; i < imax; i++)
 			{
 				index += prime;
 				if (index >= imax)
 					index -= imax;
-				Vertex v = nodes.get(index);
-				Triangle start = surroundingTriangle.remove(v);
-				AbstractHalfEdge ot = MeshLiaison.findNearestEdge(v, start);
-				sym = ot.sym(sym);
-				if (ot.hasAttributes(AbstractHalfEdge.IMMUTABLE))
-				{
-					// Vertex is not inserted
-					skippedNodes++;
-					mapTriangleVertices.get(start).remove(v);
-					liaison.removeVertex(v);
-					neighborBgMap.remove(v);
+				ordered.add(nodes.get(index));
+			}
+			Inserter inserter = new Inserter(boundaryNodes);
+			if (nrThreads > 1 && !mesh.hasTrace() && imax >= 2 * NODES_PER_REGION)
+				processed += insertConcurrently(ordered, inserter);
+			for (Vertex v : ordered)
+			{
+				// Skip vertices which have been processed concurrently
+				if (!surroundingTriangle.containsKey(v))
 					continue;
-				}
-				if (!ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
-				{
-					// Check whether edge can be split
-					Vertex o = ot.origin();
-					Vertex d = ot.destination();
-					Vertex n = sym.apex();
-					double[] pos = v.getUV();
-					Matrix3D.computeNormal3D(o.getUV(), n.getUV(), pos, temp[0], temp[1], temp[2]);
-					Matrix3D.computeNormal3D(n.getUV(), d.getUV(), pos, temp[0], temp[1], temp[3]);
-					if (Matrix3D.prodSca(temp[2], temp[3]) <= 0.0)
-					{
-						// Vertex is not inserted
-						skippedNodes++;
-						mapTriangleVertices.get(start).remove(v);
-						liaison.removeVertex(v);
-						neighborBgMap.remove(v);
-						continue;
-					}
-				}
-				else if (!boundaryNodes.contains(v))
-				{
-					// Vertex is not inserted
-					skippedNodes++;
-					mapTriangleVertices.get(start).remove(v);
-					liaison.removeVertex(v);
-					neighborBgMap.remove(v);
+				if (inserter.insert(v) != Inserter.INSERTED)
 					continue;
-				}
-
-				Map<Triangle, Collection<Vertex>> verticesToDispatch = collectVertices(ot);
-
-				ot = mesh.vertexSplit(ot, v);
-				assert ot.destination() == v : v+" "+ot;
-				// Triangles around v have been modified, they
-				// must reset their MARKED flag.  This will be
-				// done below when swapping edges.
-
-				dispatchVertices(v, verticesToDispatch);
-
-				kdTree.add(v);
 				processed++;
-				afterSplitHook();
-				// Swap edges
-				HalfEdge edge = (HalfEdge) ot;
-				edge = edge.prev();
-				Vertex s = edge.origin();
-				boolean advance = true;
-				double [] tNormal = liaison.getBackgroundNormal(v);
-				do
-				{
-					advance = true;
-					edge.getTri().clearAttributes(AbstractHalfEdge.MARKED);
-					double checkNormal = edge.checkSwapNormal(mesh, coplanarity, tNormal);
-					if (checkNormal < -1.0)
-					{
-						edge = edge.nextApexLoop();
-						continue;
-					}
-					if (edge.checkSwap3D(mesh, -2.0) > 0.0)
-					{
-						edge.sym().getTri().clearAttributes(AbstractHalfEdge.MARKED);
-						Map<Triangle, Collection<Vertex>> vTri = collectVertices(edge);
-						edge = (HalfEdge) mesh.edgeSwap(edge);
-						dispatchVertices(null, vTri);
-						totNrSwap++;
-						advance = false;
-					}
-					else
-						edge = edge.nextApexLoop();
-				}
-				while (!advance || edge.origin() != s);
-				afterSwapHook();
-				if (processed > 0 && (processed % progressBarStatus) == 0)
+				if ((processed % progressBarStatus) == 0)
 					LOGGER.info("Vertices inserted: "+processed);
 			}
+			skippedNodes = inserter.nrSkipped;
+			int totNrSwap = inserter.nrSwap;
 			afterIterationHook();
 			assert mesh.isValid();
 			if (hasRidges)
@@ -771,11 +1039,195 @@ public class Remesh
 		return this;
 	}
 
-	private int addCandidatePoints(AbstractHalfEdge ot, double edgeLength, boolean reversed,
-		ArrayList<Vertex> triNodes, ArrayList<EuclidianMetric3D> triMetrics,
-		ArrayList<Vertex> triNeighbor, Set<Vertex> boundaryNodes)
+	/**
+	 * Candidate points of an edge.
+	 */
+	private static final class EdgeCandidates
+	{
+		private final AbstractHalfEdge edge;
+		private final double length;
+		private final ArrayList<Vertex> nodes = new ArrayList<Vertex>();
+		private final ArrayList<EuclidianMetric3D> metrics = new ArrayList<EuclidianMetric3D>();
+		private final ArrayList<Vertex> neighbors = new ArrayList<Vertex>();
+		private boolean border;
+		private int nrInterpolations;
+		private boolean failed;
+
+		EdgeCandidates(AbstractHalfEdge edge, double length)
+		{
+			this.edge = edge;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Edges of a triangle which have to be split.
+	 */
+	private static final class TriangleCandidates
+	{
+		private final Triangle triangle;
+		private final ArrayList<EdgeCandidates> edges = new ArrayList<EdgeCandidates>(3);
+
+		TriangleCandidates(Triangle triangle)
+		{
+			this.triangle = triangle;
+		}
+	}
+
+	/**
+	 * Computes candidate points on all edges of a block.  Mesh is not
+	 * modified, and only metrics of existing vertices are read, so edges
+	 * are processed concurrently.
+	 *
+	 * @return maximal number of candidate points in a triangle
+	 */
+	private int computeCandidatePoints(List<TriangleCandidates> block, final boolean reversed)
+	{
+		final ArrayList<EdgeCandidates> edges = new ArrayList<EdgeCandidates>();
+		for (TriangleCandidates tc : block)
+			edges.addAll(tc.edges);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < edges.size(); i += EDGES_PER_TASK)
+		{
+			final int first = i;
+			final int last = Math.min(edges.size(), i + EDGES_PER_TASK);
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					for (int j = first; j < last; j++)
+						addCandidatePoints(edges.get(j), reversed);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+		int ret = 0;
+		for (TriangleCandidates tc : block)
+		{
+			for (EdgeCandidates ec : tc.edges)
+			{
+				nrInterpolations += ec.nrInterpolations;
+				if (ec.failed)
+					nrFailedInterpolations++;
+				ret = Math.max(ret, ec.nodes.size());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Checks candidate points of a block and keeps those which are not
+	 * too near from existing vertices.
+	 *
+	 * @return number of rejected points
+	 */
+	private int checkCandidatePoints(List<TriangleCandidates> block,
+		ArrayList<Vertex> nodes, Set<Vertex> boundaryNodes)
+	{
+		int tooNearNodes = 0;
+		ArrayList<Vertex> triNodes = new ArrayList<Vertex>();
+		ArrayList<EuclidianMetric3D> triMetrics = new ArrayList<EuclidianMetric3D>();
+		ArrayList<Vertex> triNeighbor = new ArrayList<Vertex>();
+		for (TriangleCandidates tc : block)
+		{
+			Triangle t = tc.triangle;
+			triNodes.clear();
+			triMetrics.clear();
+			triNeighbor.clear();
+			// Maximal number of nodes which are inserted on edges of this triangle
+			int nrTriNodes = 0;
+			for (EdgeCandidates ec : tc.edges)
+			{
+				triNodes.addAll(ec.nodes);
+				triMetrics.addAll(ec.metrics);
+				triNeighbor.addAll(ec.neighbors);
+				if (ec.border)
+					boundaryNodes.addAll(ec.nodes);
+				if (ec.nodes.size() > nrTriNodes)
+					nrTriNodes = ec.nodes.size();
+			}
+			if (triNodes.isEmpty())
+				continue;
+			Collection<Vertex> newVertices = mapTriangleVertices.get(t);
+			if (newVertices == null)
+				newVertices = new ArrayList<Vertex>();
+			//  Process in pseudo-random order
+			int prime = PrimeFinder.nextPrime(nrTriNodes);
+			int imax = triNodes.size();
+			while (imax % prime == 0)
+				prime = PrimeFinder.nextPrime(prime+1);
+			if (prime >= imax)
+				prime = 1;
+			int index = imax / 2;
+			for (int i = 0; i < imax; i++)
+			{
+				Vertex v = triNodes.get(index);
+				EuclidianMetric3D metric = triMetrics.get(index);
+				assert metric != null;
+				double localSize = 0.5 * metric.getUnitBallBBox()[0];
+				double localSize2 = localSize * localSize;
+				Vertex bgNear = neighborBgMap.get(triNeighbor.get(index));
+				Triangle bgT = liaison.findSurroundingTriangle(v, bgNear, localSize2, true).getTri();
+				liaison.addVertex(v, bgT);
+				liaison.move(v, v.getUV());
+
+				double[] uv = v.getUV();
+				boolean validCandidate = allowNearNodes;
+				if (!validCandidate)
+				{
+					if (boundaryNodes.contains(v))
+						validCandidate = true;
+				}
+				if (!validCandidate)
+				{
+					Vertex n = kdTree.getNearestVertex(metric, uv);
+					validCandidate = interpolatedDistance(v, metric, n, metrics.get(n)) > minlen;
+				}
+				if (validCandidate)
+				{
+					kdTree.add(v);
+					metrics.put(v, metric);
+					nodes.add(v);
+					newVertices.add(v);
+					surroundingTriangle.put(v, t);
+					double d0 = v.sqrDistance3D(bgT.vertex[0]);
+					double d1 = v.sqrDistance3D(bgT.vertex[1]);
+					double d2 = v.sqrDistance3D(bgT.vertex[2]);
+					if (d0 <= d1 && d0 <= d2)
+						neighborBgMap.put(v, bgT.vertex[0]);
+					else if (d1 <= d0 && d1 <= d2)
+						neighborBgMap.put(v, bgT.vertex[1]);
+					else
+						neighborBgMap.put(v, bgT.vertex[2]);
+				}
+				else
+				{
+					tooNearNodes++;
+					liaison.removeVertex(v);
+				}
+				index += prime;
+				if (index >= imax)
+					index -= imax;
+			}
+			if (!newVertices.isEmpty())
+				mapTriangleVertices.put(t, newVertices);
+		}
+		return tooNearNodes;
+	}
+
+	/**
+	 * Computes candidate points on an edge.  This method is called
+	 * concurrently, it must not modify shared data.
+	 */
+	private void addCandidatePoints(EdgeCandidates ec, boolean reversed)
 	{
-		int nrNodes = 0;
+		AbstractHalfEdge ot = ec.edge;
+		double edgeLength = ec.length;
+		ArrayList<Vertex> triNodes = ec.nodes;
+		ArrayList<EuclidianMetric3D> triMetrics = ec.metrics;
+		ArrayList<Vertex> triNeighbor = ec.neighbors;
 		Vertex start = ot.origin();
 		Vertex end = ot.destination();
 		EuclidianMetric3D mS = metrics.get(start);
@@ -800,6 +1252,7 @@ public class Remesh
 		double [] lower = new double[3];
 		double [] upper = new double[3];
 		boolean border = ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP);
+		ec.border = border;
 		int borderGroup = ot.getTri().getGroupId();
 		int nr;
 		double maxError, target;
@@ -845,7 +1298,7 @@ public class Remesh
 			while(cnt >= 0)
 			{
 				cnt--;
-				nrInterpolations++;
+				ec.nrInterpolations++;
 				// Update vertex position if 'project' flag was set
 				double [] pos = np.getUV();
 				if (project && !ot.hasAttributes(AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
@@ -877,8 +1330,6 @@ public class Remesh
 							break;
 						}
 					}
-					else
-						boundaryNodes.add(last);
 					triNodes.add(last);
 					triMetrics.add(m);
 					if (start.getRef() == 0 && end.getRef() != 0)
@@ -889,7 +1340,6 @@ public class Remesh
 						triNeighbor.add(start);
 					else
 						triNeighbor.add(end);
-					nrNodes++;
 					r--;
 					break;
 				}
@@ -916,11 +1366,10 @@ public class Remesh
 			}
 			if (cnt < 0)
 			{
-				nrFailedInterpolations++;
-				return nrNodes;
+				ec.failed = true;
+				return;
 			}
 		}
-		return nrNodes;
 	}
 
 	protected void postProcessIteration(Mesh mesh, int i)
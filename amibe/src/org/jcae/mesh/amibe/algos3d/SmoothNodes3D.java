@@ -29,6 +29,7 @@ import org.jcae.mesh.amibe.projection.QuadricProjection;
 import org.jcae.mesh.amibe.projection.LocalSurfaceProjection;
 import org.jcae.mesh.amibe.util.QSortedTree;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import org.jcae.mesh.xmldata.MeshReader;
 import org.jcae.mesh.xmldata.MeshWriter;
 import java.util.Map;
@@ -36,8 +37,13 @@ import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
 import java.io.IOException;
 import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectIntHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +56,11 @@ import java.util.logging.Logger;
  * <a href="http://www.ann.jussieu.fr/~frey/publications/ijnme4198.pdf">Adaptive Triangular-Quadrilateral Mesh Generation</a>, by Houman Borouchaky and
  * Pascal J. Frey.
  * If final position improves vertex quality, point is moved.
+ * When <code>threads</code> option is greater than 1, vertices are first
+ * colored so that adjacent vertices have different colors, and centroids
+ * and projections of all vertices of a given color are computed
+ * concurrently.  Vertices are then processed by color instead of by
+ * quality.
  */
 public class SmoothNodes3D
 {
@@ -71,6 +82,8 @@ public class SmoothNodes3D
 	private TObjectDoubleHashMap<Triangle> qualityMap;
 	private Map<Vertex, LocalSurfaceProjection> nodeProjection;
 	private Collection<Vertex> nodeset;
+	private int nrThreads = 1;
+	private static final int NODES_PER_TASK = 256;
 	
 	/**
 	 * Creates a <code>SmoothNodes3D</code> instance.
@@ -89,8 +102,8 @@ public class SmoothNodes3D
 	 * @param options  map containing key-value pairs to modify algorithm
 	 *        behaviour.  Valid keys are <code>size</code>,
 	 *        <code>iterations</code>, <code>boundaries</code>,
-	 *        <code>tolerance</code>, <code>refresh</code> and
-	 *        <code>relaxation</code>.
+	 *        <code>tolerance</code>, <code>refresh</code>,
+	 *        <code>relaxation</code> and <code>threads</code>.
 	 */
 	public SmoothNodes3D(final Mesh m, final Map<String, String> options)
 	{
@@ -114,6 +127,12 @@ public class SmoothNodes3D
 				checkQuality = Boolean.valueOf(val).booleanValue();
 			else if (key.equals("relaxation"))
 				relaxation = Double.valueOf(val).doubleValue();
+			else if (key.equals("threads"))
+			{
+				nrThreads = Integer.valueOf(val).intValue();
+				if (nrThreads <= 0)
+					nrThreads = ParallelExecutor.getNumberOfProcessors();
+			}
 			else
 				throw new RuntimeException("Unknown option: "+key);
 		}
@@ -126,6 +145,7 @@ public class SmoothNodes3D
 			LOGGER.fine("Relaxation: "+relaxation);
 			LOGGER.fine("Tolerance: "+tolerance);
 			LOGGER.fine("Preserve boundaries: "+preserveBoundaries);
+			LOGGER.fine("Threads: "+nrThreads);
 		}
 	}
 	
@@ -182,7 +202,10 @@ public class SmoothNodes3D
 			}
 			for (int i = 0; i < nloop; i++)
 			{
-				processAllNodes();
+				if (nrThreads > 1)
+					processAllNodesColored();
+				else
+					processAllNodes();
 				postProcessIteration(mesh, i);
 			}
 		}
@@ -279,6 +302,26 @@ public class SmoothNodes3D
 	}
 	
 	private boolean smoothNode(Vertex n, AbstractHalfEdge ot, double quality)
+	{
+		ot = originEdge(n, ot);
+		double [] centroid3 = c.getUV();
+		computeCentroid(ot, centroid3);
+		if (!mesh.checkNewRingNormals(ot, centroid3))
+		{
+			LOGGER.finer("Point not moved, some triangles would become inverted");
+			return false;
+		}
+		LocalSurfaceProjection tr = nodeProjection.get(n);
+		if (tr == null || !tr.canProject())
+		{
+			LOGGER.finer("Point cannot be projected into surface");
+			return false;
+		}
+		tr.project(c);
+		return moveNode(n, ot, centroid3, quality);
+	}
+
+	private static AbstractHalfEdge originEdge(Vertex n, AbstractHalfEdge ot)
 	{
 		Triangle f = (Triangle) n.getLink();
  		ot = f.getAbstractHalfEdge(ot);
@@ -287,11 +330,18 @@ public class SmoothNodes3D
 		else if (ot.apex() == n)
 			ot = ot.prev();
 		assert ot.origin() == n;
+		return ot;
+	}
+
+	/*
+	 * Computes the relaxed centroid of neighbors of ot.origin().  Only
+	 * ot.origin() and its neighbors are read.
+	 */
+	private void computeCentroid(AbstractHalfEdge ot, double [] centroid3)
+	{
+		Vertex n = ot.origin();
 		double [] oldp3 = n.getUV();
-		
-		//  Compute 3D coordinates centroid
 		int nn = 0;
-		double [] centroid3 = c.getUV();
 		centroid3[0] = centroid3[1] = centroid3[2] = 0.0;
 		assert n.isManifold();
 		Vertex d = ot.destination();
@@ -333,23 +383,15 @@ public class SmoothNodes3D
 			centroid3[i] /= nn;
 		for (int i = 0; i < 3; i++)
 			centroid3[i] = oldp3[i] + relaxation * (centroid3[i] - oldp3[i]);
-		if (!mesh.checkNewRingNormals(ot, centroid3))
-		{
-			LOGGER.finer("Point not moved, some triangles would become inverted");
-			return false;
-		}
-		LocalSurfaceProjection tr = nodeProjection.get(n);
-		if (tr == null || !tr.canProject())
-		{
-			LOGGER.finer("Point cannot be projected into surface");
-			return false;
-		}
-		tr.project(c);
+	}
 
+	private boolean moveNode(Vertex n, AbstractHalfEdge ot, double [] newp3, double quality)
+	{
+		double [] oldp3 = n.getUV();
 		double saveX = oldp3[0];
 		double saveY = oldp3[1];
 		double saveZ = oldp3[2];
-		n.moveTo(centroid3[0], centroid3[1], centroid3[2]);
+		n.moveTo(newp3[0], newp3[1], newp3[2]);
 		if (checkQuality)
 		{
 			// Check that quality has not been degraded
@@ -362,6 +404,144 @@ public class SmoothNodes3D
 		}
 		return true;
 	}
+
+	/*
+	 * Moves all nodes, vertices of the same color are processed
+	 * concurrently.
+	 */
+	private void processAllNodesColored()
+	{
+ 		AbstractHalfEdge ot = null;
+		// Compute vertex quality
+		tree.clear();
+		for (Vertex v: nodeset)
+		{
+			if (!v.isManifold() || !v.isMutable() || v.getRef() > 0)
+				continue;
+			ot = originEdge(v, ot);
+			double qv = vertexQuality(ot);
+			if (qv <= tolerance)
+				tree.insert(v, qv);
+		}
+		// Greedy coloring, worst vertices are colored first so that
+		// most of them get the first colors.  Colors are stored
+		// with an offset of 1, 0 means that vertex is not colored.
+		List<List<Vertex>> colors = new ArrayList<List<Vertex>>();
+		TObjectIntHashMap<Vertex> colorMap = new TObjectIntHashMap<Vertex>(tree.size());
+		BitSet neighborColors = new BitSet();
+		for (Iterator<QSortedTree.Node<Vertex>> itt = tree.iterator(); itt.hasNext(); )
+		{
+			Vertex v = itt.next().getData();
+			neighborColors.clear();
+			for (Iterator<Vertex> itn = v.getNeighbourIteratorVertex(); itn.hasNext(); )
+			{
+				int c = colorMap.get(itn.next());
+				if (c > 0)
+					neighborColors.set(c - 1);
+			}
+			int c = neighborColors.nextClearBit(0);
+			if (c == colors.size())
+				colors.add(new ArrayList<Vertex>());
+			colors.get(c).add(v);
+			colorMap.put(v, c + 1);
+		}
+		tree.clear();
+		LOGGER.fine("Number of colors: "+colors.size());
+		for (List<Vertex> nodes : colors)
+			smoothIndependentNodes(nodes);
+	}
+
+	/*
+	 * Smoothes vertices which are not adjacent.  Centroids and projections
+	 * on local quadrics only read these vertices and their neighbors, they
+	 * are computed concurrently.  Quality computations, validity checks
+	 * and mesh updates are performed sequentially, they use mesh temporary
+	 * arrays.  Vertex quality is computed when vertex is processed, thus
+	 * refresh option has no effect here.
+	 */
+	private void smoothIndependentNodes(final List<Vertex> nodes)
+	{
+		final int nrNodes = nodes.size();
+		final double [] centroids = new double[3*nrNodes];
+		final double [] newPosition = new double[3*nrNodes];
+		// Bit i is set if nodes[i] has been projected.  Access is
+		// synchronized, BitSet is not thread-safe.
+		final BitSet projected = new BitSet(nrNodes);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < nrNodes; i += NODES_PER_TASK)
+		{
+			final int first = i;
+			final int last = Math.min(nrNodes, i + NODES_PER_TASK);
+			// Each task has its own work vertex
+			final Vertex work = mesh.createVertex(0.0, 0.0, 0.0);
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					AbstractHalfEdge ot = null;
+					double [] centroid3 = work.getUV();
+					for (int j = first; j < last; j++)
+					{
+						Vertex n = nodes.get(j);
+						ot = originEdge(n, ot);
+						computeCentroid(ot, centroid3);
+						System.arraycopy(centroid3, 0, centroids, 3*j, 3);
+						// Each vertex has its own projection, they
+						// can be used concurrently
+						LocalSurfaceProjection tr = nodeProjection.get(n);
+						if (tr == null || !tr.canProject())
+							continue;
+						tr.project(work);
+						System.arraycopy(work.getUV(), 0, newPosition, 3*j, 3);
+						synchronized (projected)
+						{
+							projected.set(j);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+ 		AbstractHalfEdge ot = null;
+		double [] centroid3 = c.getUV();
+		for (int j = 0; j < nrNodes; j++)
+		{
+			Vertex n = nodes.get(j);
+			ot = originEdge(n, ot);
+			double quality = vertexQuality(ot);
+			if (quality > tolerance)
+			{
+				notProcessed++;
+				continue;
+			}
+			if (n.getRef() != 0 && preserveBoundaries)
+			{
+				notProcessed++;
+				continue;
+			}
+			System.arraycopy(centroids, 3*j, centroid3, 0, 3);
+			boolean moved = false;
+			if (!mesh.checkNewRingNormals(ot, centroid3))
+				LOGGER.finer("Point not moved, some triangles would become inverted");
+			else if (!projected.get(j))
+				LOGGER.finer("Point cannot be projected into surface");
+			else
+			{
+				System.arraycopy(newPosition, 3*j, centroid3, 0, 3);
+				moved = moveNode(n, ot, centroid3, quality);
+			}
+			if (!moved)
+			{
+				notProcessed++;
+				continue;
+			}
+			processed++;
+			if (processed > 0 && (processed % progressBarStatus) == 0)
+				LOGGER.info("Vertices processed: "+processed);
+		}
+	}
 	
 	private double triangleQuality(AbstractHalfEdge edge)
 	{
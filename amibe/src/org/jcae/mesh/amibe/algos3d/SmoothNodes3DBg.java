@@ -27,6 +27,7 @@ import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.amibe.util.QSortedTree;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import org.jcae.mesh.xmldata.MeshReader;
 import org.jcae.mesh.xmldata.MeshWriter;
 import java.util.Map;
@@ -35,8 +36,13 @@ import java.util.Set;
 import java.util.LinkedHashSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
 import java.io.IOException;
 import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectIntHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +55,10 @@ import java.util.logging.Logger;
  * <a href="http://www.ann.jussieu.fr/~frey/publications/ijnme4198.pdf">Adaptive Triangular-Quadrilateral Mesh Generation</a>, by Houman Borouchaky and
  * Pascal J. Frey.
  * If final position improves vertex quality, point is moved.
+ * When <code>threads</code> option is greater than 1, vertices are first
+ * colored so that adjacent vertices have different colors, and new
+ * locations of all vertices of a given color are computed concurrently.
+ * Vertices are then processed by color instead of by quality.
  */
 public class SmoothNodes3DBg
 {
@@ -71,6 +81,8 @@ public class SmoothNodes3DBg
 	private TObjectDoubleHashMap<Triangle> qualityMap;
 	private Collection<Vertex> nodeset;
 	private final Set<Vertex> immutableNodes = new LinkedHashSet<Vertex>();
+	private int nrThreads = 1;
+	private static final int NODES_PER_TASK = 256;
 	
 	/**
 	 * Creates a <code>SmoothNodes3DBg</code> instance.
@@ -90,8 +102,8 @@ public class SmoothNodes3DBg
 	 * @param options  map containing key-value pairs to modify algorithm
 	 *        behaviour.  Valid keys are <code>size</code>,
 	 *        <code>iterations</code>, <code>boundaries</code>,
-	 *        <code>tolerance</code>, <code>refresh</code> and
-	 *        <code>relaxation</code>.
+	 *        <code>tolerance</code>, <code>refresh</code>,
+	 *        <code>relaxation</code> and <code>threads</code>.
 	 */
 	@Deprecated
 	public SmoothNodes3DBg(final Mesh bgMesh, final Map<String, String> options)
@@ -121,6 +133,12 @@ public class SmoothNodes3DBg
 				checkQuality = Boolean.valueOf(val).booleanValue();
 			else if (key.equals("relaxation"))
 				relaxation = Double.valueOf(val).doubleValue();
+			else if (key.equals("threads"))
+			{
+				nrThreads = Integer.valueOf(val).intValue();
+				if (nrThreads <= 0)
+					nrThreads = ParallelExecutor.getNumberOfProcessors();
+			}
 			else if (key.equals("coplanarity"))
 			{
 				minCos = Double.parseDouble(val);
@@ -140,6 +158,7 @@ public class SmoothNodes3DBg
 			LOGGER.fine("Relaxation: "+relaxation);
 			LOGGER.fine("Tolerance: "+tolerance);
 			LOGGER.fine("Preserve boundaries: "+preserveBoundaries);
+			LOGGER.fine("Threads: "+nrThreads);
 		}
 	}
 	
@@ -215,7 +234,10 @@ public class SmoothNodes3DBg
 
 			for (int i = 0; i < nloop; i++)
 			{
-				processAllNodes();
+				if (nrThreads > 1)
+					processAllNodesColored();
+				else
+					processAllNodes();
 				postProcessIteration(mesh, i);
 			}
 		}
@@ -314,6 +336,20 @@ public class SmoothNodes3DBg
 	}
 	
 	private boolean smoothNode(Vertex n, AbstractHalfEdge ot, double quality)
+	{
+		ot = originEdge(n, ot);
+		double [] centroid3 = new double[3];
+		computeCentroid(ot, centroid3);
+		if (!projectNode(n, centroid3, null))
+		{
+			LOGGER.finer("Point not moved, projection failed");
+			liaison.backupRestore(n, true);
+			return false;
+		}
+		return checkAndMoveNode(n, ot, centroid3, quality);
+	}
+
+	private static AbstractHalfEdge originEdge(Vertex n, AbstractHalfEdge ot)
 	{
 		Triangle f = (Triangle) n.getLink();
  		ot = f.getAbstractHalfEdge(ot);
@@ -322,11 +358,19 @@ public class SmoothNodes3DBg
 		else if (ot.apex() == n)
 			ot = ot.prev();
 		assert ot.origin() == n;
+		return ot;
+	}
+
+	/*
+	 * Computes the relaxed centroid of neighbors of ot.origin().  Only
+	 * ot.origin() and its neighbors are read.
+	 */
+	private void computeCentroid(AbstractHalfEdge ot, double [] centroid3)
+	{
+		Vertex n = ot.origin();
 		double [] oldp3 = n.getUV();
-		
-		//  Compute 3D coordinates centroid
 		int nn = 0;
-		double [] centroid3 = new double[3];
+		centroid3[0] = centroid3[1] = centroid3[2] = 0.0;
 		assert n.isManifold();
 		Vertex d = ot.destination();
 		do
@@ -367,19 +411,38 @@ public class SmoothNodes3DBg
 			centroid3[i] /= nn;
 		for (int i = 0; i < 3; i++)
 			centroid3[i] = oldp3[i] + relaxation * (centroid3[i] - oldp3[i]);
+	}
+
+	/*
+	 * Projects centroid3 onto background mesh.  On success, projected
+	 * location is copied into centroid3 and n is left at its previous
+	 * location.  In all cases, backupRestore must then be called.
+	 * If location is null, liaison workspace is used.
+	 */
+	private boolean projectNode(Vertex n, double [] centroid3, MeshLiaison.ProjectedLocation location)
+	{
+		double [] oldp3 = n.getUV();
 		double saveX = oldp3[0];
 		double saveY = oldp3[1];
 		double saveZ = oldp3[2];
-		if (!liaison.backupAndMove(n, centroid3))
-		{
-			LOGGER.finer("Point not moved, projection failed");
-			liaison.backupRestore(n, true);
+		boolean moved = location == null ?
+			liaison.backupAndMove(n, centroid3) :
+			liaison.backupAndMove(n, centroid3, location);
+		if (!moved)
 			return false;
-		}
 		// Temporarily reset n to its previous location, but do not
 		// modify liaison, this is not needed
 		System.arraycopy(n.getUV(), 0, centroid3, 0, 3);
 		n.moveTo(saveX, saveY, saveZ);
+		return true;
+	}
+
+	private boolean checkAndMoveNode(Vertex n, AbstractHalfEdge ot, double [] centroid3, double quality)
+	{
+		double [] oldp3 = n.getUV();
+		double saveX = oldp3[0];
+		double saveY = oldp3[1];
+		double saveZ = oldp3[2];
 		if (!mesh.canMoveOrigin(ot, centroid3))
 		{
 			liaison.backupRestore(n, true);
@@ -403,6 +466,149 @@ public class SmoothNodes3DBg
 		return true;
 	}
 
+	/*
+	 * Moves all nodes, vertices of the same color are processed
+	 * concurrently.
+	 */
+	private void processAllNodesColored()
+	{
+ 		AbstractHalfEdge ot = null;
+		// Compute vertex quality
+		tree.clear();
+		for (Vertex v: nodeset)
+		{
+			if (immutableNodes.contains(v))
+			{
+				notProcessed++;
+				continue;
+			}
+			ot = originEdge(v, ot);
+			double qv = vertexQuality(ot);
+			if (qv <= tolerance)
+				tree.insert(v, qv);
+		}
+		// Greedy coloring, worst vertices are colored first so that
+		// most of them get the first colors.  Colors are stored
+		// with an offset of 1, 0 means that vertex is not colored.
+		List<List<Vertex>> colors = new ArrayList<List<Vertex>>();
+		TObjectIntHashMap<Vertex> colorMap = new TObjectIntHashMap<Vertex>(tree.size());
+		BitSet neighborColors = new BitSet();
+		for (Iterator<QSortedTree.Node<Vertex>> itt = tree.iterator(); itt.hasNext(); )
+		{
+			Vertex v = itt.next().getData();
+			neighborColors.clear();
+			for (Iterator<Vertex> itn = v.getNeighbourIteratorVertex(); itn.hasNext(); )
+			{
+				int c = colorMap.get(itn.next());
+				if (c > 0)
+					neighborColors.set(c - 1);
+			}
+			int c = neighborColors.nextClearBit(0);
+			if (c == colors.size())
+				colors.add(new ArrayList<Vertex>());
+			colors.get(c).add(v);
+			colorMap.put(v, c + 1);
+		}
+		tree.clear();
+		LOGGER.fine("Number of colors: "+colors.size());
+		for (List<Vertex> nodes : colors)
+			smoothIndependentNodes(nodes);
+	}
+
+	/*
+	 * Smoothes vertices which are not adjacent.  Centroids and projections
+	 * onto background mesh only read these vertices and their neighbors,
+	 * they are computed concurrently.  Validity checks and mesh updates
+	 * are performed sequentially.
+	 */
+	private void smoothIndependentNodes(final List<Vertex> nodes)
+	{
+		final int nrNodes = nodes.size();
+		final double [] quality = new double[nrNodes];
+		final double [] newPosition = new double[3*nrNodes];
+		// Bit i is set if nodes[i] has been projected, and cleared
+		// if it has to be skipped.  Access is synchronized, BitSet is
+		// not thread-safe.
+		final BitSet projected = new BitSet(nrNodes);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < nrNodes; i += NODES_PER_TASK)
+		{
+			final int first = i;
+			final int last = Math.min(nrNodes, i + NODES_PER_TASK);
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					AbstractHalfEdge ot = null;
+					double [] centroid3 = new double[3];
+					MeshLiaison.ProjectedLocation location = liaison.createProjectedLocation();
+					for (int j = first; j < last; j++)
+					{
+						Vertex n = nodes.get(j);
+						ot = originEdge(n, ot);
+						quality[j] = vertexQuality(ot);
+						if (quality[j] > tolerance)
+							continue;
+						computeCentroid(ot, centroid3);
+						boolean ok = projectNode(n, centroid3, location);
+						System.arraycopy(centroid3, 0, newPosition, 3*j, 3);
+						synchronized (projected)
+						{
+							projected.set(j, ok);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+ 		AbstractHalfEdge ot = null;
+		double [] centroid3 = new double[3];
+		for (int j = 0; j < nrNodes; j++)
+		{
+			Vertex n = nodes.get(j);
+			if (quality[j] > tolerance)
+			{
+				notProcessed++;
+				continue;
+			}
+			boolean moved = false;
+			if (!projected.get(j))
+			{
+				LOGGER.finer("Point not moved, projection failed");
+				liaison.backupRestore(n, true);
+			}
+			else
+			{
+				ot = originEdge(n, ot);
+				System.arraycopy(newPosition, 3*j, centroid3, 0, 3);
+				moved = checkAndMoveNode(n, ot, centroid3, quality[j]);
+			}
+			if (!moved)
+			{
+				notProcessed++;
+				continue;
+			}
+			processed++;
+			if (processed > 0 && (processed % progressBarStatus) == 0)
+				LOGGER.info("Vertices processed: "+processed);
+			if (!refresh)
+				continue;
+			// Update triangle quality
+			Vertex d = ot.destination();
+			do
+			{
+				ot = ot.nextOriginLoop();
+				if (ot.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				double qt = triangleQuality(ot);
+				qualityMap.put(ot.getTri(), qt);
+			}
+			while (ot.destination() != d);
+		}
+	}
+
 	private double triangleQuality(AbstractHalfEdge edge)
 	{
 		Triangle f = edge.getTri();
@@ -0,0 +1,521 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import org.jcae.mesh.amibe.util.RadixSort;
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds adjacency relations of a triangle soup without per-vertex
+ * triangle lists nor hash maps.  Vertices are given dense indices by
+ * temporarily storing them into their label, original labels are restored
+ * afterwards.  Half-edges are then sorted by their endpoints with a
+ * {@link HalfEdgeSorter}, so that symmetric half-edges are contiguous.
+ * Groups of two half-edges with opposite orientations are glued together.
+ * Other groups are non-manifold, they are processed sequentially in the
+ * same order as {@link Mesh#buildAdjacency} used to do with vertex lists,
+ * so that virtual triangles are created in the very same order.
+ *
+ * <p>
+ * As vertex labels are modified, adjacency relations must not be built
+ * concurrently on meshes which share vertices.
+ * </p>
+ *
+ * <p>
+ * Half-edges are identified by <code>3*t+l</code>, where <code>t</code> is
+ * the index of a triangle and <code>l</code> a local edge number; origin
+ * of this half-edge is <code>vertex[(l+1)%3]</code> and destination
+ * <code>vertex[(l+2)%3]</code>.
+ * </p>
+ */
+final class AdjacencyBuilder
+{
+	private static final Logger LOGGER = Logger.getLogger(AdjacencyBuilder.class.getName());
+	// Threads are not worth it for small meshes
+	private static final int MIN_TRIANGLES_PER_THREAD = 50000;
+	// Labels of indexed vertices are shifted by this value while
+	// indices are computed
+	private static final int LABEL_OFFSET = Integer.MIN_VALUE;
+
+	private final Mesh mesh;
+	private final int nrThreads;
+	// Vertices, in the same order as vertex lists of Mesh.getMapVertexLinks
+	private final Vertex [] vertices;
+	// Inner triangles
+	private final Triangle [] triangles;
+	// Indices of triangle vertices, or -1 for unindexed or unreadable vertices
+	private final int [] triangleVertices;
+	// Number of inner triangles incident to each vertex
+	private final int [] degree;
+
+	// Half-edges sorted by endpoints
+	private HalfEdgeSorter sorter;
+
+	/**
+	 * Indexes vertices and triangles of a mesh, and sets vertex links.
+	 *
+	 * @param mesh  mesh
+	 * @param nrThreads  number of threads
+	 */
+	AdjacencyBuilder(Mesh mesh, int nrThreads)
+	{
+		this.mesh = mesh;
+		this.nrThreads = Math.max(1, nrThreads);
+		Collection<Triangle> triangleList = mesh.getTriangles();
+		Collection<Vertex> nodes = mesh.getNodes();
+		int nrInner = 0;
+		for (Triangle t: triangleList)
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				nrInner++;
+		}
+		triangles = new Triangle[nrInner];
+
+		// Index vertices.  Label of vertex i is set to i+LABEL_OFFSET,
+		// this value is checked against vertices array so that it
+		// cannot be confused with original labels.
+		int capacity = (nodes == null ? nrInner / 2 + 1 : nodes.size());
+		Vertex [] indexed = new Vertex[capacity];
+		int [] labels = new int[capacity];
+		int nrVertices = 0;
+		try
+		{
+			if (nodes == null)
+			{
+				for (Triangle t: triangleList)
+				{
+					if (!t.isWritable())
+						continue;
+					for (Vertex v: t.vertex)
+					{
+						if (index(v, indexed, nrVertices) >= 0)
+							continue;
+						if (nrVertices == indexed.length)
+						{
+							Vertex [] newIndexed = new Vertex[2 * nrVertices];
+							System.arraycopy(indexed, 0, newIndexed, 0, nrVertices);
+							indexed = newIndexed;
+							int [] newLabels = new int[2 * nrVertices];
+							System.arraycopy(labels, 0, newLabels, 0, nrVertices);
+							labels = newLabels;
+						}
+						nrVertices = addVertex(v, indexed, labels, nrVertices);
+					}
+				}
+			}
+			else
+			{
+				for (Vertex v: nodes)
+				{
+					if (index(v, indexed, nrVertices) < 0)
+						nrVertices = addVertex(v, indexed, labels, nrVertices);
+				}
+			}
+			if (nrVertices < indexed.length)
+			{
+				vertices = new Vertex[nrVertices];
+				System.arraycopy(indexed, 0, vertices, 0, nrVertices);
+			}
+			else
+				vertices = indexed;
+
+			int cnt = 0;
+			for (Triangle t: triangleList)
+			{
+				if (t.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				triangles[cnt] = t;
+				cnt++;
+				for (Vertex v: t.vertex)
+					v.setLink(t);
+			}
+
+			triangleVertices = new int[3 * triangles.length];
+			final int nrChunks = this.nrThreads;
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrChunks);
+			for (int c = 0; c < nrChunks; c++)
+			{
+				final int start = chunkStart(c, nrChunks);
+				final int end = chunkStart(c + 1, nrChunks);
+				tasks.add(new Callable<Object>() {
+					public Object call()
+					{
+						for (int k = 3 * start; k < 3 * end; k++)
+						{
+							Vertex v = triangles[k / 3].vertex[k % 3];
+							triangleVertices[k] = v.isReadable() ? index(v, vertices, vertices.length) : -1;
+						}
+						return null;
+					}
+				});
+			}
+			execute(tasks);
+		}
+		finally
+		{
+			// Restore labels, even if an exception has been raised
+			for (int i = 0; i < nrVertices; i++)
+				indexed[i].setLabel(labels[i]);
+		}
+
+		degree = new int[vertices.length];
+		for (int i: triangleVertices)
+		{
+			if (i >= 0)
+				degree[i]++;
+		}
+	}
+
+	/**
+	 * Returns index of a vertex, or -1 if it is not indexed.
+	 */
+	private static int index(Vertex v, Vertex [] indexed, int nrVertices)
+	{
+		int i = v.getLabel() - LABEL_OFFSET;
+		if (i >= 0 && i < nrVertices && indexed[i] == v)
+			return i;
+		return -1;
+	}
+
+	private static int addVertex(Vertex v, Vertex [] indexed, int [] labels, int nrVertices)
+	{
+		indexed[nrVertices] = v;
+		labels[nrVertices] = v.getLabel();
+		v.setLabel(nrVertices + LABEL_OFFSET);
+		return nrVertices + 1;
+	}
+
+	/**
+	 * Returns the number of threads worth using to build adjacency
+	 * relations of a given number of triangles.
+	 */
+	static int getNumberOfThreads(int nrTriangles)
+	{
+		int nrProcessors = ParallelExecutor.getNumberOfProcessors();
+		return Math.max(1, Math.min(nrProcessors, nrTriangles / MIN_TRIANGLES_PER_THREAD));
+	}
+
+	/**
+	 * Returns indexed vertices.
+	 */
+	List<Vertex> getVertices()
+	{
+		return Collections.unmodifiableList(Arrays.asList(vertices));
+	}
+
+	/**
+	 * Glues symmetric half-edges together.  Non-manifold edges are bound
+	 * to virtual triangles, which are added to <code>newTri</code>.
+	 *
+	 * @param newTri  list of virtual triangles
+	 */
+	void glue(ArrayList<Triangle> newTri)
+	{
+		if (triangles.length == 0 || vertices.length == 0)
+			return;
+		sorter = new HalfEdgeSorter(vertices.length, nrThreads);
+		sorter.sort(new HalfEdgeSorter.Source() {
+			public int size()
+			{
+				return triangleVertices.length;
+			}
+			public int origin(int h)
+			{
+				int o = triangleVertices[h - h % 3 + (h + 1) % 3];
+				int d = triangleVertices[h - h % 3 + (h + 2) % 3];
+				return o == d ? -1 : o;
+			}
+			public int destination(int h)
+			{
+				return triangleVertices[h - h % 3 + (h + 2) % 3];
+			}
+		});
+
+		// Find groups of half-edges
+		final int nrBuckets = sorter.getNumberOfBuckets();
+		final boolean concurrentGlue = triangles[0] instanceof TriangleHE;
+		final TIntArrayList [] pairs = new TIntArrayList[nrBuckets];
+		final TIntArrayList [] nonManifold = new TIntArrayList[nrBuckets];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrBuckets);
+		for (int b = 0; b < nrBuckets; b++)
+		{
+			final int bucket = b;
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					pairs[bucket] = new TIntArrayList();
+					nonManifold[bucket] = new TIntArrayList();
+					findGroups(sorter.getBucketStart(bucket), sorter.getBucketEnd(bucket), pairs[bucket], nonManifold[bucket], concurrentGlue);
+					return null;
+				}
+			});
+		}
+		execute(tasks);
+
+		// VirtualHalfEdge stores adjacency relations of all edges
+		// of a triangle into shared fields, they are glued here.
+		AbstractHalfEdge ot = null;
+		AbstractHalfEdge sym = null;
+		for (TIntArrayList list: pairs)
+		{
+			for (int i = 0, n = list.size(); i < n; i++)
+			{
+				int k = list.get(i);
+				ot = getHalfEdge(sorter.getHalfEdge(k), ot);
+				sym = getHalfEdge(sorter.getHalfEdge(k+1), sym);
+				ot.glue(sym);
+			}
+		}
+		glueNonManifoldGroups(nonManifold, newTri);
+		sorter = null;
+	}
+
+	private int chunkStart(int chunk, int nrChunks)
+	{
+		return (int) ((long) triangles.length * chunk / nrChunks);
+	}
+
+	private static Vertex origin(Triangle t, int l)
+	{
+		return t.vertex[(l+1) % 3];
+	}
+
+	private Vertex origin(int h)
+	{
+		return origin(triangles[h / 3], h % 3);
+	}
+
+	private AbstractHalfEdge getHalfEdge(int h, AbstractHalfEdge ot)
+	{
+		ot = triangles[h / 3].getAbstractHalfEdge(ot);
+		int l = h % 3;
+		if (l == 1)
+			ot = ot.next();
+		else if (l == 2)
+			ot = ot.prev();
+		return ot;
+	}
+
+	private void findGroups(int start, int end, TIntArrayList pairs, TIntArrayList nonManifold, boolean concurrentGlue)
+	{
+		AbstractHalfEdge ot = null;
+		AbstractHalfEdge sym = null;
+		int i = start;
+		while (i < end)
+		{
+			int j = sorter.groupEnd(i);
+			if (j - i == 2)
+			{
+				int h0 = sorter.getHalfEdge(i);
+				int h1 = sorter.getHalfEdge(i+1);
+				boolean manifold = h0 / 3 != h1 / 3 && origin(h0) != origin(h1);
+				if (manifold)
+				{
+					ot = getHalfEdge(h0, ot);
+					sym = getHalfEdge(h1, sym);
+					manifold = !ot.hasSymmetricEdge() && !sym.hasSymmetricEdge();
+				}
+				if (!manifold)
+					nonManifold.add(i);
+				else if (concurrentGlue)
+					ot.glue(sym);
+				else
+					pairs.add(i);
+			}
+			else if (j - i > 2)
+				nonManifold.add(i);
+			i = j;
+		}
+	}
+
+	/**
+	 * Processes non-manifold groups.  Mesh.buildAdjacency used to loop
+	 * over vertices, and for each vertex over incident half-edges, so
+	 * groups are sorted by their first initiating half-edge.
+	 */
+	private void glueNonManifoldGroups(TIntArrayList [] nonManifold, ArrayList<Triangle> newTri)
+	{
+		int nrGroups = 0;
+		for (TIntArrayList list: nonManifold)
+			nrGroups += list.size();
+		if (nrGroups == 0)
+			return;
+		long [] order = new long[nrGroups];
+		int [] groups = new int[nrGroups];
+		int cnt = 0;
+		for (TIntArrayList list: nonManifold)
+		{
+			for (int i = 0, n = list.size(); i < n; i++)
+			{
+				int start = list.get(i);
+				int end = sorter.groupEnd(start);
+				long key = sorter.getKey(start);
+				int first = sorter.smallestVertex(key);
+				Vertex v = vertices[first];
+				int initiator = -1;
+				for (int k = start; k < end && initiator < 0; k++)
+				{
+					if (origin(sorter.getHalfEdge(k)) == v)
+						initiator = sorter.getHalfEdge(k);
+				}
+				if (initiator < 0)
+				{
+					first = sorter.largestVertex(key);
+					initiator = sorter.getHalfEdge(start);
+				}
+				order[cnt] = (long) first * triangles.length + initiator / 3;
+				groups[cnt] = start;
+				cnt++;
+			}
+		}
+		RadixSort.sort(order, groups, nrGroups);
+
+		AbstractHalfEdge ot = null;
+		AbstractHalfEdge ot2 = null;
+		AbstractHalfEdge [] work = new AbstractHalfEdge[3];
+		work[0] = triangles[0].getAbstractHalfEdge(work[0]);
+		work[1] = triangles[0].getAbstractHalfEdge(work[1]);
+		for (int g = 0; g < nrGroups; g++)
+		{
+			int start = groups[g];
+			int end = sorter.groupEnd(start);
+			long key = sorter.getKey(start);
+			Vertex v1 = vertices[sorter.smallestVertex(key)];
+			Vertex v2 = vertices[sorter.largestVertex(key)];
+			glueNonManifoldGroup(start, end, v1, v2, ot, ot2, work, newTri);
+			glueNonManifoldGroup(start, end, v2, v1, ot, ot2, work, newTri);
+		}
+	}
+
+	private void glueNonManifoldGroup(int start, int end, Vertex v, Vertex v2,
+		AbstractHalfEdge ot, AbstractHalfEdge ot2, AbstractHalfEdge [] work, ArrayList<Triangle> newTri)
+	{
+		for (int k = start; k < end; k++)
+		{
+			if (origin(sorter.getHalfEdge(k)) != v)
+				continue;
+			Triangle t = triangles[sorter.getHalfEdge(k) / 3];
+			ot = v.getIncidentAbstractHalfEdge(t, ot);
+			if (ot.hasSymmetricEdge())
+				continue;
+			boolean manifold = true;
+			for (int m = start; m < end; m++)
+			{
+				Triangle t2 = triangles[sorter.getHalfEdge(m) / 3];
+				if (t == t2)
+					continue;
+				ot2 = v2.getIncidentAbstractHalfEdge(t2, ot2);
+				if (manifold && ot2.destination() == v && !ot.hasSymmetricEdge() && !ot2.hasSymmetricEdge())
+				{
+					ot.glue(ot2);
+					continue;
+				}
+				manifold = false;
+				if (ot2.destination() != v)
+					ot2 = ot2.prev();
+				mesh.glueNonManifoldHalfEdges(v, v2, ot, ot2, work, newTri);
+			}
+			if (LOGGER.isLoggable(Level.FINE) && !manifold)
+			{
+				int cnt = 0;
+				for (Iterator<AbstractHalfEdge> it = ot.fanIterator(); it.hasNext(); it.next())
+					cnt++;
+				LOGGER.fine("Non-manifold edge: "+v+" "+v2+" "+" connected to "+cnt+" fans");
+			}
+		}
+	}
+
+	/**
+	 * Fixes links of non-manifold vertices.  This must be called after
+	 * boundary edges have been bound to virtual triangles.  Lists of
+	 * incident triangles are only built for vertices whose fan does not
+	 * contain all incident triangles.
+	 */
+	void rebuildVertexLinks()
+	{
+		final int nrChunks = vertices.length < nrThreads ? 1 : nrThreads;
+		List<Callable<TIntArrayList>> tasks = new ArrayList<Callable<TIntArrayList>>(nrChunks);
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int start = (int) ((long) vertices.length * c / nrChunks);
+			final int end = (int) ((long) vertices.length * (c + 1) / nrChunks);
+			tasks.add(new Callable<TIntArrayList>() {
+				public TIntArrayList call()
+				{
+					TIntArrayList ret = new TIntArrayList();
+					for (int i = start; i < end; i++)
+					{
+						if (!mesh.hasValidVertexLink(vertices[i], degree[i]))
+							ret.add(i);
+					}
+					return ret;
+				}
+			});
+		}
+		TIntArrayList nonManifold = new TIntArrayList();
+		for (TIntArrayList list: ParallelExecutor.invokeAll(tasks, nrThreads))
+			nonManifold.add(list.toNativeArray());
+		if (nonManifold.isEmpty())
+			return;
+
+		// Collect incident triangles of non-manifold vertices
+		int nrNonManifold = nonManifold.size();
+		int [] slot = new int[vertices.length];
+		Arrays.fill(slot, -1);
+		int [] offset = new int[nrNonManifold + 1];
+		for (int n = 0; n < nrNonManifold; n++)
+		{
+			int i = nonManifold.get(n);
+			slot[i] = n;
+			offset[n+1] = offset[n] + degree[i];
+		}
+		Triangle [] incident = new Triangle[offset[nrNonManifold]];
+		int [] pos = new int[nrNonManifold];
+		System.arraycopy(offset, 0, pos, 0, nrNonManifold);
+		for (int k = 0; k < triangleVertices.length; k++)
+		{
+			int i = triangleVertices[k];
+			if (i >= 0 && slot[i] >= 0)
+			{
+				incident[pos[slot[i]]] = triangles[k / 3];
+				pos[slot[i]]++;
+			}
+		}
+		List<Triangle> incidentList = Arrays.asList(incident);
+		for (int n = 0; n < nrNonManifold; n++)
+			mesh.rebuildVertexLinks(vertices[nonManifold.get(n)], incidentList.subList(offset[n], offset[n+1]));
+	}
+
+	private void execute(List<Callable<Object>> tasks)
+	{
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+	}
+}
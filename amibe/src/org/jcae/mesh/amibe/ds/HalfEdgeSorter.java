@@ -0,0 +1,254 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import org.jcae.mesh.amibe.util.RadixSort;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Sorts half-edges by the edge they are bound to.  Vertices are identified
+ * by indices lower than <code>nrVertices</code>, and each half-edge is given
+ * the <code>long</code> key <code>min*nrVertices+max</code>, where
+ * <code>min</code> and <code>max</code> are the smallest and largest
+ * indices of its endpoints, so that half-edges bound to the same edge share
+ * the same key.  Keys are distributed into buckets by smallest vertex index
+ * and buckets are radix sorted concurrently.  Sorting is stable: within a
+ * group of equal keys, half-edges are sorted by increasing index.
+ *
+ * <p>
+ * Keys are computed twice, once to count bucket sizes and once to scatter
+ * them, so that only the sorted <code>long[]</code> and <code>int[]</code>
+ * arrays are allocated.
+ * </p>
+ */
+final class HalfEdgeSorter
+{
+	// Number of buckets per thread, for load balancing
+	private static final int BUCKETS_PER_THREAD = 8;
+
+	/**
+	 * Half-edges to be sorted.
+	 */
+	interface Source
+	{
+		/**
+		 * Returns the number of half-edges, they are numbered from 0 to
+		 * <code>size()-1</code>.
+		 */
+		int size();
+
+		/**
+		 * Returns origin of an half-edge, or -1 if it must be skipped.
+		 */
+		int origin(int h);
+
+		/**
+		 * Returns destination of an half-edge, or -1 if it must be skipped.
+		 */
+		int destination(int h);
+	}
+
+	private final int nrVertices;
+	private final int nrThreads;
+	private final int nrBuckets;
+	private long [] keys;
+	private int [] halfEdges;
+	private int [] bucketOffset;
+
+	/**
+	 * Creates an empty sorter.
+	 *
+	 * @param nrVertices  number of vertices, all indices must be lower
+	 * @param nrThreads  number of threads
+	 */
+	HalfEdgeSorter(int nrVertices, int nrThreads)
+	{
+		this.nrVertices = Math.max(1, nrVertices);
+		this.nrThreads = Math.max(1, nrThreads);
+		nrBuckets = this.nrThreads == 1 ? 1 : BUCKETS_PER_THREAD * this.nrThreads;
+	}
+
+	/**
+	 * Sorts half-edges.
+	 *
+	 * @param source  half-edges to sort
+	 */
+	void sort(final Source source)
+	{
+		final int size = source.size();
+		final int nrChunks = size < nrThreads ? 1 : nrThreads;
+		final int [][] histogram = new int[nrChunks][nrBuckets];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrChunks);
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int start = (int) ((long) size * c / nrChunks);
+			final int end = (int) ((long) size * (c + 1) / nrChunks);
+			final int [] count = histogram[c];
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					for (int h = start; h < end; h++)
+					{
+						long key = key(source, h);
+						if (key >= 0L)
+							count[bucket(key)]++;
+					}
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+		// Scatter keys into buckets; this is stable so half-edges
+		// are still sorted by index within each bucket
+		bucketOffset = new int[nrBuckets + 1];
+		final int [][] position = new int[nrChunks][nrBuckets];
+		int sum = 0;
+		for (int b = 0; b < nrBuckets; b++)
+		{
+			bucketOffset[b] = sum;
+			for (int c = 0; c < nrChunks; c++)
+			{
+				position[c][b] = sum;
+				sum += histogram[c][b];
+			}
+		}
+		bucketOffset[nrBuckets] = sum;
+		keys = new long[sum];
+		halfEdges = new int[sum];
+		tasks.clear();
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int start = (int) ((long) size * c / nrChunks);
+			final int end = (int) ((long) size * (c + 1) / nrChunks);
+			final int [] pos = position[c];
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					for (int h = start; h < end; h++)
+					{
+						long key = key(source, h);
+						if (key < 0L)
+							continue;
+						int b = bucket(key);
+						keys[pos[b]] = key;
+						halfEdges[pos[b]] = h;
+						pos[b]++;
+					}
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
+		tasks.clear();
+		for (int b = 0; b < nrBuckets; b++)
+		{
+			final int bucket = b;
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					RadixSort.sort(keys, halfEdges, bucketOffset[bucket], bucketOffset[bucket+1]);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+	}
+
+	private long key(Source source, int h)
+	{
+		int o = source.origin(h);
+		int d = source.destination(h);
+		if (o < 0 || d < 0)
+			return -1L;
+		if (o < d)
+			return (long) o * nrVertices + d;
+		return (long) d * nrVertices + o;
+	}
+
+	private int bucket(long key)
+	{
+		return (int) (smallestVertex(key) * (long) nrBuckets / nrVertices);
+	}
+
+	/**
+	 * Returns the number of sorted half-edges.
+	 */
+	int size()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Returns the number of buckets.  Groups of equal keys do not cross
+	 * bucket boundaries, so that buckets can be processed concurrently.
+	 */
+	int getNumberOfBuckets()
+	{
+		return nrBuckets;
+	}
+
+	int getBucketStart(int bucket)
+	{
+		return bucketOffset[bucket];
+	}
+
+	int getBucketEnd(int bucket)
+	{
+		return bucketOffset[bucket+1];
+	}
+
+	long getKey(int i)
+	{
+		return keys[i];
+	}
+
+	int getHalfEdge(int i)
+	{
+		return halfEdges[i];
+	}
+
+	/**
+	 * Returns the index after the last half-edge having the same key as
+	 * the one at index <code>start</code>.
+	 */
+	int groupEnd(int start)
+	{
+		int end = start + 1;
+		while (end < keys.length && keys[end] == keys[start])
+			end++;
+		return end;
+	}
+
+	int smallestVertex(long key)
+	{
+		return (int) (key / nrVertices);
+	}
+
+	int largestVertex(long key)
+	{
+		return (int) (key % nrVertices);
+	}
+}
@@ -55,8 +55,12 @@ public class MEdge1D
 	
 	private boolean setID()
 	{
-		id++;
-		mapHashcodeToID.put(this, id);
+		// Bora may discretize several edges concurrently
+		synchronized (MEdge1D.class)
+		{
+			id++;
+			mapHashcodeToID.put(this, id);
+		}
 		return true;
 	}
 	
@@ -68,7 +72,12 @@ public class MEdge1D
 	final int getID()
 	{
 		if (id > 0)
-			return mapHashcodeToID.get(this);
+		{
+			synchronized (MEdge1D.class)
+			{
+				return mapHashcodeToID.get(this);
+			}
+		}
 		return hashCode();
 	}
 	
@@ -104,8 +104,12 @@ public class MNode1D
 
 	private boolean setID()
 	{
-		id++;
-		mapHashcodeToID.put(this, id);
+		// Bora may discretize several edges concurrently
+		synchronized (MNode1D.class)
+		{
+			id++;
+			mapHashcodeToID.put(this, id);
+		}
 		return true;
 	}
 	
@@ -117,7 +121,12 @@ public class MNode1D
 	public final int getID()
 	{
 		if (id > 0)
-			return mapHashcodeToID.get(this);
+		{
+			synchronized (MNode1D.class)
+			{
+				return mapHashcodeToID.get(this);
+			}
+		}
 		return hashCode();
 	}
 	
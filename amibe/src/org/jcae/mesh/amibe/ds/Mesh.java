@@ -23,6 +23,7 @@ package org.jcae.mesh.amibe.ds;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIntHashMap;
+import gnu.trove.TObjectIntHashMap;
 import org.jcae.mesh.amibe.traits.Traits;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
@@ -35,6 +36,7 @@ import org.jcae.mesh.amibe.metrics.PoolWorkVectors;
 
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.LinkedHashSet;
 import java.util.LinkedHashMap;
@@ -137,6 +139,13 @@ public class Mesh implements Serializable
 
 	private int maxLabel = 0;
 
+	//  Snapshot created by pack(), or null
+	private PackedMesh packed;
+
+	//  Indices in packed snapshot of vertices which were stored in
+	//  Kd-tree, they are put back into Kd-tree by unpack()
+	private BitSet packedKdTreeVertices;
+
 	// 3D euclidian metric
 	private final Metric euclidian_metric3d = new EuclidianMetric3D();
 
@@ -317,6 +326,39 @@ public class Mesh implements Serializable
 		return traitsBuilder.getTrace(traits);
 	}
 
+	/**
+	 * Tells whether mesh modifications are traced.
+	 *
+	 * @return <code>true</code> if mesh was created with a <code>MeshTraitsBuilder</code>
+	 * instance defining a trace, and <code>false</code> otherwise.
+	 */
+	public final boolean hasTrace()
+	{
+		return traitsBuilder.hasTrace();
+	}
+
+	/**
+	 * Creates an empty mesh whose elements have the same traits as those of
+	 * this mesh.  It only contains a triangle list, and can be given to
+	 * {@link AbstractHalfEdge} methods which create triangles so that this
+	 * mesh can be modified by several threads.  Triangles created this way
+	 * are added to the returned mesh and must then be added to this mesh.
+	 *
+	 * @return an empty mesh
+	 */
+	public final Mesh createWorkMesh()
+	{
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		if (traitsBuilder.getVertexTraitsBuilder() != null)
+			mtb.add(traitsBuilder.getVertexTraitsBuilder());
+		if (traitsBuilder.getHalfEdgeTraitsBuilder() != null)
+			mtb.add(traitsBuilder.getHalfEdgeTraitsBuilder());
+		if (traitsBuilder.getTriangleTraitsBuilder() != null)
+			mtb.add(traitsBuilder.getTriangleTraitsBuilder());
+		return new Mesh(mtb, meshParameters);
+	}
+
 	/**
 	 * Returns the Kd-tree associated with this mesh.
 	 *
@@ -326,7 +368,85 @@ public class Mesh implements Serializable
 	{
 		return traitsBuilder.getKdTree(traits);
 	}
-	
+
+	/**
+	 * Replaces vertices, triangles and beams of this mesh by an array
+	 * snapshot.  Triangle and vertex lists are then empty, and {@link Vertex}
+	 * and {@link Triangle} instances can be reclaimed by the garbage
+	 * collector if they are not referenced elsewhere.  Mesh vertices are
+	 * also removed from Kd-tree, if any, and {@link #unpack} puts new
+	 * instances back.
+	 *
+	 * <p>
+	 * This is a serialization helper to release the object graph of a mesh
+	 * which is not used for a while.  Both representations coexist while
+	 * this method and {@link #unpack} run, so peak memory usage is higher
+	 * than with the object graph alone.  No algorithm can be run on a packed
+	 * mesh, {@link #unpack} must be called first.
+	 * </p>
+	 *
+	 * @throws IllegalStateException if this mesh is already packed
+	 */
+	public final void pack()
+	{
+		if (packed != null)
+			throw new IllegalStateException("Mesh is already packed");
+		TObjectIntHashMap<Vertex> index = new TObjectIntHashMap<Vertex>();
+		packed = new PackedMesh(this, index);
+		KdTree<Vertex> kdTree = getKdTree();
+		if (kdTree != null)
+		{
+			packedKdTreeVertices = new BitSet(packed.getNumberOfVertices());
+			//  Vertices which do not belong to this mesh are kept
+			for (Vertex v : kdTree.getAllVertices(index.size()))
+			{
+				if (index.contains(v))
+				{
+					packedKdTreeVertices.set(index.get(v));
+					kdTree.remove(v);
+				}
+			}
+		}
+		triangleList.clear();
+		if (nodeList != null)
+			nodeList.clear();
+		resetBeams();
+	}
+
+	/**
+	 * Tells whether {@link #pack} has been called without {@link #unpack}.
+	 *
+	 * @return <code>true</code> if this mesh is packed, <code>false</code>
+	 * otherwise
+	 */
+	public final boolean isPacked()
+	{
+		return packed != null;
+	}
+
+	/**
+	 * Recreates vertices, triangles and beams from the snapshot built by
+	 * {@link #pack}.  Adjacency relations are rebuilt if needed, and
+	 * vertices which had been removed from Kd-tree by {@link #pack} are
+	 * replaced by their new instances.
+	 *
+	 * @throws IllegalStateException if this mesh is not packed
+	 */
+	public final void unpack()
+	{
+		if (packed == null)
+			throw new IllegalStateException("Mesh is not packed");
+		Vertex [] vertices = packed.copyTo(this, maxLabel);
+		packed = null;
+		if (packedKdTreeVertices != null)
+		{
+			KdTree<Vertex> kdTree = getKdTree();
+			for (int i = packedKdTreeVertices.nextSetBit(0); i >= 0; i = packedKdTreeVertices.nextSetBit(i+1))
+				kdTree.add(vertices[i]);
+			packedKdTreeVertices = null;
+		}
+	}
+
 	/**
 	 * Initializes Kd-tree with a given bounding box.  This method must be called before
 	 * putting any vertex into this Kd-tree.
@@ -552,22 +672,50 @@ public class Mesh implements Serializable
 	}
 
 	/**
-	 * Build adjacency relations between triangles.
+	 * Build adjacency relations between triangles.  Vertex labels are
+	 * temporarily modified, so this method must not be called
+	 * concurrently on meshes which share vertices.
 	 */
 	public final void buildAdjacency()
 	{
 		buildAdjacency(0);
 	}
 	public final void buildAdjacency(int currentMaxLabel)
+	{
+		buildAdjacency(currentMaxLabel, AdjacencyBuilder.getNumberOfThreads(triangleList.size()));
+	}
+
+	/**
+	 * Build adjacency relations between triangles.
+	 *
+	 * @param currentMaxLabel  largest reference already used
+	 * @param nrThreads  number of threads used by {@link AdjacencyBuilder};
+	 *   if 0, symmetric edges are found with per-vertex triangle lists
+	 */
+	final void buildAdjacency(int currentMaxLabel, int nrThreads)
 	{
 		//  Connect all edges together
 		logger.fine("Connect triangles");
 		ArrayList<Triangle> newTri = new ArrayList<Triangle>();
-		//  For each vertex, build the list of triangles
-		//  connected to this vertex.
-		Map<Vertex, ArrayList<Triangle>> tVertList = getMapVertexLinks();
-		//  Connect all edges together
-		glueSymmetricHalfEdges(tVertList, newTri);
+		Map<Vertex, ArrayList<Triangle>> tVertList = null;
+		AdjacencyBuilder builder = null;
+		Collection<Vertex> vertices;
+		if (nrThreads > 0)
+		{
+			//  Sort half-edges by endpoints to find symmetric edges
+			builder = new AdjacencyBuilder(this, nrThreads);
+			builder.glue(newTri);
+			vertices = builder.getVertices();
+		}
+		else
+		{
+			//  For each vertex, build the list of triangles
+			//  connected to this vertex.
+			tVertList = getMapVertexLinks();
+			//  Connect all edges together
+			glueSymmetricHalfEdges(tVertList, newTri);
+			vertices = tVertList.keySet();
+		}
 
 		//  Mark boundary edges and bind them to virtual triangles.
 		logger.fine("Connect boundary triangles");
@@ -575,7 +723,10 @@ public class Mesh implements Serializable
 
 		//  Fix links for junctions
 		logger.fine("Fix vertex links");
-		rebuildVertexLinks(tVertList);
+		if (builder != null)
+			builder.rebuildVertexLinks();
+		else
+			rebuildVertexLinks(tVertList);
 		
 		//  Find the list of vertices which are on mesh boundary
 		logger.fine("Build the list of nodes on boundaries and non-manifold edges");
@@ -607,7 +758,7 @@ public class Mesh implements Serializable
 		}
 
 		int nrJunctionPoints = 0;
-		for (Vertex v: tVertList.keySet())
+		for (Vertex v: vertices)
 		{
 			if (bndNodes.contains(v))
 				continue;
@@ -626,8 +777,11 @@ public class Mesh implements Serializable
 		if (maxLabel != currentMaxLabel)
 			logger.fine("Created "+(maxLabel - currentMaxLabel)+" more references");
 		//  Remove all references to help the garbage collector.
-		for (ArrayList<Triangle> list : tVertList.values())
-			list.clear();
+		if (tVertList != null)
+		{
+			for (ArrayList<Triangle> list : tVertList.values())
+				list.clear();
+		}
 		// Add outer triangles
 		triangleList.addAll(newTri);
 		if (traitsBuilder.hasTrace())
@@ -684,50 +838,73 @@ public class Mesh implements Serializable
 	private void rebuildVertexLinks(Map<Vertex, ArrayList<Triangle>> tVertList)
 	{
 		for (Map.Entry<Vertex, ArrayList<Triangle>> entry : tVertList.entrySet())
+			rebuildVertexLinks(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Tells whether the link of a vertex needs not be fixed, which is the
+	 * case when the fan of its link contains all incident triangles.
+	 *
+	 * @param v  vertex
+	 * @param nrIncident  number of inner triangles incident to this vertex
+	 * @return <code>false</code> if {@link #rebuildVertexLinks(Vertex, Collection)}
+	 *   has to be called for this vertex
+	 */
+	final boolean hasValidVertexLink(Vertex v, int nrIncident)
+	{
+		int cnt = 0;
+		AbstractHalfEdge ot = null;
+		if (null == v.getLink())
+			return true;
+		ot = v.getIncidentAbstractHalfEdge((Triangle) v.getLink(), ot);
+		Vertex d = ot.destination();
+		do
 		{
-			Vertex v = entry.getKey();
-			ArrayList<Triangle> list = entry.getValue();
-			int cnt = 0;
-			AbstractHalfEdge ot = null;
-			if (null == v.getLink())
-				continue;
-			ot = v.getIncidentAbstractHalfEdge((Triangle) v.getLink(), ot);
-			Vertex d = ot.destination();
+			if (!ot.hasAttributes(AbstractHalfEdge.OUTER))
+				cnt++;
+			if (ot.hasAttributes(AbstractHalfEdge.NONMANIFOLD))
+			{
+				cnt = 0;
+				break;
+			}
+			ot = ot.nextOriginLoop();
+		}
+		while (ot.destination() != d);
+		return cnt == nrIncident;
+	}
+
+	/**
+	 * Fix link of a vertex if it is non-manifold.
+	 *
+	 * @param v  vertex
+	 * @param list  inner triangles incident to this vertex
+	 */
+	final void rebuildVertexLinks(Vertex v, Collection<Triangle> list)
+	{
+		if (hasValidVertexLink(v, list.size()))
+			return;
+		// Non-manifold vertex
+		AbstractHalfEdge ot = null;
+		Vertex d;
+		LinkedHashSet<Triangle> neighbours = new LinkedHashSet<Triangle>(list);
+		ArrayList<Triangle> fans = new ArrayList<Triangle>();
+		while (!neighbours.isEmpty())
+		{
+			ot = v.getIncidentAbstractHalfEdge(neighbours.iterator().next(), ot);
+			d = ot.destination();
+			fans.add(ot.getTri());
 			do
 			{
 				if (!ot.hasAttributes(AbstractHalfEdge.OUTER))
-					cnt++;
-				if (ot.hasAttributes(AbstractHalfEdge.NONMANIFOLD))
-				{
-					cnt = 0;
-					break;
-				}
+					neighbours.remove(ot.getTri());
 				ot = ot.nextOriginLoop();
 			}
 			while (ot.destination() != d);
-			if (cnt == list.size())
-				continue;
-			// Non-manifold vertex
-			LinkedHashSet<Triangle> neighbours = new LinkedHashSet<Triangle>(list);
-			ArrayList<Triangle> fans = new ArrayList<Triangle>();
-			while (!neighbours.isEmpty())
-			{
-				ot = v.getIncidentAbstractHalfEdge(neighbours.iterator().next(), ot);
-				d = ot.destination();
-				fans.add(ot.getTri());
-				do
-				{
-					if (!ot.hasAttributes(AbstractHalfEdge.OUTER))
-						neighbours.remove(ot.getTri());
-					ot = ot.nextOriginLoop();
-				}
-				while (ot.destination() != d);
-			}
-			Triangle[] links = new Triangle[fans.size()];
-			fans.toArray(links);
-			v.setLink(links);
-			logger.fine("Non-manifold vertex has "+fans.size()+" fans");
 		}
+		Triangle[] links = new Triangle[fans.size()];
+		fans.toArray(links);
+		v.setLink(links);
+		logger.fine("Non-manifold vertex has "+fans.size()+" fans");
 	}
 
 	private void connectBoundaryTriangles(ArrayList<Triangle> newTri)
@@ -836,7 +1013,7 @@ public class Mesh implements Serializable
 		}
 	}
 
-	private void glueNonManifoldHalfEdges(Vertex v, Vertex v2, AbstractHalfEdge ot, AbstractHalfEdge ot2, AbstractHalfEdge [] work, ArrayList<Triangle> newTri)
+	final void glueNonManifoldHalfEdges(Vertex v, Vertex v2, AbstractHalfEdge ot, AbstractHalfEdge ot2, AbstractHalfEdge [] work, ArrayList<Triangle> newTri)
 	{
 		assert v == ot.origin() && v2 == ot.destination();
 		assert (v == ot2.origin() && v2 == ot2.destination()) || (v2 == ot2.origin() && v == ot2.destination());
@@ -0,0 +1,258 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TObjectIntHashMap;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Array snapshot of a {@link Mesh}, used by {@link Mesh#pack} and
+ * {@link Mesh#unpack}.  Vertex coordinates are stored into a single
+ * <code>double[]</code> array, triangles into an <code>int[]</code> array
+ * of vertex indices, and flags into bitsets.  Adjacency relations are not
+ * stored, they are rebuilt by {@link #copyTo}; only edge attributes which
+ * cannot be recomputed (<code>SHARP</code>, <code>IMMUTABLE</code> and
+ * <code>MARKED</code>) are kept.
+ *
+ * <p>
+ * This is a serialization helper, algorithms cannot run on this
+ * representation.
+ * </p>
+ */
+final class PackedMesh implements Serializable
+{
+	private static final long serialVersionUID = 2861570947353092461L;
+	private static final int USER_ATTRIBUTES = AbstractHalfEdge.SHARP | AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.MARKED;
+
+	//  Vertices
+	private final double [] coord;
+	private final int [] vertexRef;
+	private final int [] vertexLabel;
+	private final BitSet vertexImmutable = new BitSet();
+	private final BitSet vertexUnreadable = new BitSet();
+	private final BitSet vertexUnwritable = new BitSet();
+
+	//  Triangles
+	private final int [] triVertex;
+	private final int [] groupId;
+	private final BitSet triangleUnreadable = new BitSet();
+	private final BitSet triangleUnwritable = new BitSet();
+	//  Edge attributes of half-edge l of triangle t are stored at 3*t+l,
+	//  this array is null if mesh has no adjacency relations
+	private final byte [] heAttributes;
+
+	//  Beams
+	private final int [] beams;
+	private final int [] beamGroups;
+
+	/**
+	 * Copies mesh vertices, triangles and beams.  Outer triangles are
+	 * skipped if mesh has adjacency relations.  Mesh is not modified.
+	 *
+	 * @param mesh  mesh to copy
+	 * @param index  map filled with indices of mesh vertices in this instance
+	 */
+	PackedMesh(Mesh mesh, TObjectIntHashMap<Vertex> index)
+	{
+		boolean adjacency = mesh.hasAdjacency();
+		Collection<Triangle> triangles = mesh.getTriangles();
+		List<Vertex> vertices = new ArrayList<Vertex>();
+		if (mesh.hasNodes())
+		{
+			for (Vertex v : mesh.getNodes())
+				addVertex(mesh, v, vertices, index);
+		}
+		int nrTriangles = 0;
+		for (Triangle t : triangles)
+		{
+			if (adjacency && t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			nrTriangles++;
+			for (Vertex v : t.vertex)
+				addVertex(mesh, v, vertices, index);
+		}
+		List<Vertex> meshBeams = mesh.getBeams();
+		for (Vertex v : meshBeams)
+			addVertex(mesh, v, vertices, index);
+
+		int nrVertices = vertices.size();
+		coord = new double[3*nrVertices];
+		vertexRef = new int[nrVertices];
+		vertexLabel = new int[nrVertices];
+		for (int i = 0; i < nrVertices; i++)
+		{
+			Vertex v = vertices.get(i);
+			double [] xyz = v.getUV();
+			coord[3*i]   = xyz[0];
+			coord[3*i+1] = xyz[1];
+			coord[3*i+2] = xyz[2];
+			vertexRef[i] = v.getRef();
+			vertexLabel[i] = v.getLabel();
+			vertexImmutable.set(i, !v.isMutable());
+			vertexUnreadable.set(i, !v.isReadable());
+			vertexUnwritable.set(i, !v.isWritable());
+		}
+		vertices = null;
+
+		triVertex = new int[3*nrTriangles];
+		groupId = new int[nrTriangles];
+		heAttributes = adjacency ? new byte[3*nrTriangles] : null;
+		int i = 0;
+		AbstractHalfEdge ot = null;
+		for (Triangle t : triangles)
+		{
+			if (adjacency && t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			for (int k = 0; k < 3; k++)
+				triVertex[3*i+k] = index.get(t.vertex[k]);
+			groupId[i] = t.getGroupId();
+			triangleUnreadable.set(i, !t.isReadable());
+			triangleUnwritable.set(i, !t.isWritable());
+			if (adjacency)
+			{
+				ot = t.getAbstractHalfEdge(ot);
+				for (int l = 0; l < 3; l++)
+				{
+					heAttributes[3*i+ot.getLocalNumber()] = (byte) getUserAttributes(ot);
+					ot = ot.next();
+				}
+			}
+			i++;
+		}
+
+		beams = new int[meshBeams.size()];
+		beamGroups = new int[meshBeams.size() / 2];
+		for (int b = 0; b < beams.length; b++)
+			beams[b] = index.get(meshBeams.get(b));
+		for (int b = 0; b < beamGroups.length; b++)
+			beamGroups[b] = mesh.getBeamGroup(b);
+	}
+
+	//  Beam vertices may appear several times in node list
+	private static void addVertex(Mesh mesh, Vertex v, List<Vertex> vertices, TObjectIntHashMap<Vertex> index)
+	{
+		if (v == mesh.outerVertex || index.contains(v))
+			return;
+		index.put(v, vertices.size());
+		vertices.add(v);
+	}
+
+	private static int getUserAttributes(AbstractHalfEdge ot)
+	{
+		int ret = 0;
+		for (int bit = 1; bit < 256; bit <<= 1)
+		{
+			if ((bit & USER_ATTRIBUTES) != 0 && ot.hasAttributes(bit))
+				ret |= bit;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 *
+	 * @return the number of vertices
+	 */
+	int getNumberOfVertices()
+	{
+		return vertexRef.length;
+	}
+
+	/**
+	 * Returns the number of triangles.
+	 *
+	 * @return the number of triangles
+	 */
+	int getNumberOfTriangles()
+	{
+		return groupId.length;
+	}
+
+	/**
+	 * Creates vertices, triangles and beams into a mesh.  Adjacency
+	 * relations are rebuilt if mesh supports them, and edge attributes
+	 * are then restored.
+	 *
+	 * @param mesh  an empty mesh
+	 * @param maxLabel  largest vertex reference of mesh
+	 * @return an array of created vertices, indexed by their index in this
+	 * instance
+	 */
+	Vertex [] copyTo(Mesh mesh, int maxLabel)
+	{
+		int nrVertices = vertexRef.length;
+		int nrTriangles = groupId.length;
+		Vertex [] vertices = new Vertex[nrVertices];
+		for (int v = 0; v < nrVertices; v++)
+		{
+			Vertex vertex = mesh.createVertex(coord[3*v], coord[3*v+1], coord[3*v+2]);
+			vertex.setRef(vertexRef[v]);
+			vertex.setLabel(vertexLabel[v]);
+			vertex.setMutable(!vertexImmutable.get(v));
+			vertex.setReadable(!vertexUnreadable.get(v));
+			vertex.setWritable(!vertexUnwritable.get(v));
+			vertices[v] = vertex;
+		}
+		Triangle [] triangles = new Triangle[nrTriangles];
+		mesh.ensureCapacity(2*nrTriangles);
+		for (int t = 0; t < nrTriangles; t++)
+		{
+			Triangle tri = mesh.createTriangle(vertices[triVertex[3*t]], vertices[triVertex[3*t+1]], vertices[triVertex[3*t+2]]);
+			tri.setGroupId(groupId[t]);
+			tri.setReadable(!triangleUnreadable.get(t));
+			tri.setWritable(!triangleUnwritable.get(t));
+			for (int k = 0; k < 3; k++)
+				vertices[triVertex[3*t+k]].setLink(tri);
+			mesh.add(tri);
+			triangles[t] = tri;
+		}
+		if (mesh.hasNodes())
+		{
+			for (Vertex v : vertices)
+				mesh.add(v);
+		}
+		for (int b = 0; b < beamGroups.length; b++)
+			mesh.addBeam(vertices[beams[2*b]], vertices[beams[2*b+1]], beamGroups[b]);
+		if (mesh.hasAdjacency())
+		{
+			mesh.buildAdjacency(maxLabel);
+			if (heAttributes != null)
+			{
+				AbstractHalfEdge ot = null;
+				for (int t = 0; t < nrTriangles; t++)
+				{
+					ot = triangles[t].getAbstractHalfEdge(ot);
+					for (int l = 0; l < 3; l++)
+					{
+						int attr = heAttributes[3*t+ot.getLocalNumber()];
+						if (attr != 0)
+							ot.setAttributes(attr);
+						ot = ot.next();
+					}
+				}
+			}
+		}
+		return vertices;
+	}
+}
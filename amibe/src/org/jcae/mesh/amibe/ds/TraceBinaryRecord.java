@@ -0,0 +1,421 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records mesh operations into a binary file.  This is the binary
+ * counterpart of {@link TraceRecord}: each operation is written as one
+ * or more fixed-size records, which contain an opcode, up to 5 integers
+ * and 3 doubles.  Vertices and triangles are identified by the same
+ * labels as in {@link TraceRecord}.  Records are written into a buffer, which is written to disk by
+ * a background task when full while a second buffer is being filled.
+ * Traces are replayed by {@link TraceReplay#replay}.
+ */
+public class TraceBinaryRecord implements TraceInterface
+{
+	private static final Logger LOGGER=Logger.getLogger(TraceBinaryRecord.class.getName());
+
+	/** Size of a record in bytes: opcode, 5 ints and 3 doubles. */
+	static final int RECORD_SIZE = 48;
+	static final int MAGIC = 0x41545231;
+	private static final int RECORDS_PER_BUFFER = 16384;
+
+	static final int OP_HEADER = 0;
+	static final int OP_CREATE_MESH = 1;
+	static final int OP_CREATE_VERTEX = 2;
+	static final int OP_ADD_VERTEX = 3;
+	static final int OP_REMOVE_VERTEX = 4;
+	static final int OP_CREATE_TRIANGLE = 5;
+	static final int OP_ADD_TRIANGLE = 6;
+	static final int OP_REMOVE_TRIANGLE = 7;
+	static final int OP_ADJACENT = 8;
+	static final int OP_SWAP = 9;
+	static final int OP_COLLAPSE = 10;
+	static final int OP_SPLIT = 11;
+	static final int OP_SPLIT_TRIANGLES = 12;
+	static final int OP_MOVE = 13;
+	static final int OP_TEXT = 14;
+	/** Opcodes are stored in the low byte, flags in upper bytes. */
+	static final int OP_MASK = 0xff;
+	static final int FLAG_NOT_READABLE = 1 << 8;
+	static final int FLAG_NOT_WRITABLE = 1 << 9;
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(RECORDS_PER_BUFFER * RECORD_SIZE);
+	private ByteBuffer spare = ByteBuffer.allocateDirect(RECORDS_PER_BUFFER * RECORD_SIZE);
+	private Future<Void> pending;
+	private boolean disabled;
+
+	private int labelVertex;
+	private final TObjectIntHashMap<Vertex> mapVertexId = new TObjectIntHashMap<Vertex>();
+	private final TIntObjectHashMap<Vertex> mapIdVertex = new TIntObjectHashMap<Vertex>();
+
+	private int labelTriangle;
+	private final TObjectIntHashMap<Triangle> mapTriangleId = new TObjectIntHashMap<Triangle>();
+	private final TIntObjectHashMap<Triangle> mapIdTriangle = new TIntObjectHashMap<Triangle>();
+
+	public void setLogFile(String logName)
+	{
+		try {
+			channel = new FileOutputStream(logName+".trace").getChannel();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, null, ex);
+			return;
+		}
+		write(OP_HEADER, MAGIC, 0, 0, 0, 0);
+	}
+
+	public void createMesh(String meshName, Mesh mesh)
+	{
+		write(OP_CREATE_MESH, 0, 0, 0, 0, 0);
+		// Forget labels given before trace is started, for instance
+		// by buildAdjacency
+		labelVertex = 0;
+		labelTriangle = 0;
+		mapVertexId.clear();
+		mapIdVertex.clear();
+		mapTriangleId.clear();
+		mapIdTriangle.clear();
+		add(mesh.outerVertex, -1);
+		for (Vertex v : mesh.getNodes())
+		{
+			createAndAdd(v);
+			write(OP_ADD_VERTEX, labelVertex, 0, 0, 0, 0);
+		}
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+			{
+				createAndAdd(t);
+				write(OP_ADD_TRIANGLE, labelTriangle, 0, 0, 0, 0);
+			}
+		}
+		if (mesh.hasAdjacency())
+		{
+			println("self.m.buildAdjacency()");
+			addAdjacentTriangles(mesh);
+		}
+	}
+
+	public void setDisabled(boolean b)
+	{
+		disabled = b;
+	}
+
+	public boolean getDisabled()
+	{
+		return disabled;
+	}
+
+	private void createAndAdd(Vertex v)
+	{
+		add(v);
+		double[] pos = v.getUV();
+		write(OP_CREATE_VERTEX, labelVertex, 0, 0, 0, 0, pos[0], pos[1], pos[2]);
+	}
+
+	public void add(Vertex v)
+	{
+		labelVertex++;
+		mapIdVertex.put(labelVertex, v);
+		mapVertexId.put(v, labelVertex);
+	}
+
+	public void add(Vertex v, int id)
+	{
+		// Labels given by add(Vertex) must not collide with this one
+		if (id > labelVertex)
+			labelVertex = id;
+		mapIdVertex.put(id, v);
+		mapVertexId.put(v, id);
+	}
+
+	public void remove(Vertex v)
+	{
+		int id = mapVertexId.get(v);
+		write(OP_REMOVE_VERTEX, id, 0, 0, 0, 0);
+		mapIdVertex.remove(id);
+		mapVertexId.remove(v);
+	}
+
+	public Vertex getVertex(int id)
+	{
+		return mapIdVertex.get(id);
+	}
+
+	public int getVertexId(Vertex v)
+	{
+		return mapVertexId.get(v);
+	}
+
+	private void createAndAdd(Triangle t)
+	{
+		add(t);
+		int flags = 0;
+		if (!t.isReadable())
+			flags |= FLAG_NOT_READABLE;
+		if (!t.isWritable())
+			flags |= FLAG_NOT_WRITABLE;
+		write(OP_CREATE_TRIANGLE | flags, labelTriangle,
+			mapVertexId.get(t.vertex[0]), mapVertexId.get(t.vertex[1]),
+			mapVertexId.get(t.vertex[2]), t.getGroupId());
+	}
+
+	public void add(Triangle t)
+	{
+		labelTriangle++;
+		mapIdTriangle.put(labelTriangle, t);
+		mapTriangleId.put(t, labelTriangle);
+	}
+
+	public void add(Triangle t, int id)
+	{
+		// Labels given by add(Triangle) must not collide with this one
+		if (id > labelTriangle)
+			labelTriangle = id;
+		mapIdTriangle.put(id, t);
+		mapTriangleId.put(t, id);
+	}
+
+	public void remove(Triangle t)
+	{
+		int id = mapTriangleId.get(t);
+		write(OP_REMOVE_TRIANGLE, id, 0, 0, 0, 0);
+		mapIdTriangle.remove(id);
+		mapTriangleId.remove(t);
+	}
+
+	public Triangle getTriangle(int id)
+	{
+		return mapIdTriangle.get(id);
+	}
+
+	public int getTriangleId(Triangle t)
+	{
+		return mapTriangleId.get(t);
+	}
+
+	public void addAdjacentTriangles(Mesh m)
+	{
+		if (disabled)
+			return;
+		for (Triangle t : m.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+				continue;
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			AbstractHalfEdge ot = t.getAbstractHalfEdge();
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+				{
+					Triangle s = ot.sym().getTri();
+					if (!mapTriangleId.contains(s))
+					{
+						add(s);
+						write(OP_ADJACENT, mapTriangleId.get(t), ot.getLocalNumber(), labelTriangle, 0, 0);
+					}
+				}
+			}
+		}
+	}
+
+	public void edgeSwap(AbstractHalfEdge h)
+	{
+		if (disabled)
+			return;
+		write(OP_SWAP, mapTriangleId.get(h.getTri()), h.getLocalNumber(), 0, 0, 0);
+	}
+
+	public void edgeCollapse(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		createAndAdd(v);
+		remove(h.origin());
+		remove(h.destination());
+		write(OP_COLLAPSE, mapTriangleId.get(h.getTri()), h.getLocalNumber(), mapVertexId.get(v), 0, 0);
+	}
+
+	public void vertexSplitBefore(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		createAndAdd(v);
+		write(OP_SPLIT, mapTriangleId.get(h.getTri()), h.getLocalNumber(), mapVertexId.get(v), 0, 0);
+	}
+
+	public void vertexSplitAfter(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		if (h.hasAttributes(AbstractHalfEdge.NONMANIFOLD))
+		{
+			for (Iterator<AbstractHalfEdge> fanIt = h.fanIterator(); fanIt.hasNext();)
+				traceSplitTriangle(fanIt.next());
+		}
+		else
+			traceSplitTriangle(h);
+	}
+
+	/*
+	 * Labels are given to new triangles exactly like in
+	 * TraceRecord.traceSplitTriangle, see explanations there.
+	 */
+	private void traceSplitTriangle(AbstractHalfEdge h)
+	{
+		if(mapTriangleId.contains(h.getTri()))
+		{
+			// h is on t1, add t4 and t3
+			add(h.sym().getTri());
+			add(h.next().sym().getTri());
+		}
+		else
+		{
+			// h is on t3, add t3 and t4
+			add(h.getTri());
+			add(h.prev().sym().prev().sym().getTri());
+		}
+		write(OP_SPLIT_TRIANGLES, labelTriangle - 1, labelTriangle, 0, 0, 0);
+	}
+
+	public void moveVertex(Vertex v)
+	{
+		if (!disabled && mapVertexId.containsKey(v))
+		{
+			double[] pos = v.getUV();
+			write(OP_MOVE, mapVertexId.get(v), 0, 0, 0, 0, pos[0], pos[1], pos[2]);
+		}
+	}
+
+	/**
+	 * Writes a text record.  Comments are kept to help locating
+	 * operations, and the commands emitted by {@link Mesh} are
+	 * interpreted during replay.
+	 */
+	public void println(String x)
+	{
+		if (disabled || channel == null)
+			return;
+		byte[] bytes;
+		try {
+			bytes = x.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+		write(OP_TEXT, bytes.length, 0, 0, 0, 0);
+		for (int offset = 0; offset < bytes.length; offset += RECORD_SIZE)
+		{
+			ensureRecord();
+			int length = Math.min(RECORD_SIZE, bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			for (int i = length; i < RECORD_SIZE; i++)
+				buffer.put((byte) 0);
+		}
+	}
+
+	public void finish()
+	{
+		if (channel == null)
+			return;
+		flush();
+		waitPending();
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		channel = null;
+	}
+
+	private void write(int op, int i0, int i1, int i2, int i3, int i4)
+	{
+		write(op, i0, i1, i2, i3, i4, 0.0, 0.0, 0.0);
+	}
+
+	private void write(int op, int i0, int i1, int i2, int i3, int i4, double x, double y, double z)
+	{
+		// Nothing is recorded until log file is set
+		if (channel == null)
+			return;
+		ensureRecord();
+		buffer.putInt(op);
+		buffer.putInt(i0);
+		buffer.putInt(i1);
+		buffer.putInt(i2);
+		buffer.putInt(i3);
+		buffer.putInt(i4);
+		buffer.putDouble(x);
+		buffer.putDouble(y);
+		buffer.putDouble(z);
+	}
+
+	private void ensureRecord()
+	{
+		if (buffer.remaining() < RECORD_SIZE)
+			flush();
+	}
+
+	/**
+	 * Hands the current buffer to a background task and continues with
+	 * the spare one, once its previous content has been written.
+	 */
+	private void flush()
+	{
+		waitPending();
+		final ByteBuffer full = buffer;
+		final FileChannel out = channel;
+		full.flip();
+		pending = ParallelExecutor.submit(new Callable<Void>() {
+			public Void call() throws IOException
+			{
+				while (full.hasRemaining())
+					out.write(full);
+				return null;
+			}
+		});
+		buffer = spare;
+		buffer.clear();
+		spare = full;
+	}
+
+	private void waitPending()
+	{
+		if (pending != null)
+		{
+			ParallelExecutor.get(pending);
+			pending = null;
+		}
+	}
+}
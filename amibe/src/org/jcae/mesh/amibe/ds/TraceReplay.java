@@ -19,11 +19,22 @@
 
 package org.jcae.mesh.amibe.ds;
 
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.jcae.mesh.amibe.ds.TraceBinaryRecord.*;
+
 public class TraceReplay implements TraceInterface
 {
         private static final Logger LOGGER=Logger.getLogger(TraceReplay.class.getName());
@@ -148,4 +159,200 @@ public class TraceReplay implements TraceInterface
 		// Do nothing
 	}
 
+	/**
+	 * Replays a trace written by {@link TraceBinaryRecord} on an empty mesh.
+	 * Text records are interpreted when they contain one of the commands
+	 * emitted by {@link Mesh}, comments are logged at FINE level.
+	 *
+	 * @param traceFile  trace file name
+	 * @param mesh  mesh on which operations are replayed
+	 * @return number of records which have been read
+	 * @throws IOException if the trace file cannot be read
+	 */
+	public int replay(String traceFile, Mesh mesh) throws IOException
+	{
+		FileChannel channel = new FileInputStream(traceFile).getChannel();
+		try
+		{
+			return replay(channel, mesh);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private int replay(FileChannel channel, Mesh mesh) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * RECORD_SIZE);
+		buffer.flip();
+		int nrRecords = 0;
+		TIntArrayList groups = new TIntArrayList();
+		List<AbstractHalfEdge> splitEdges = new ArrayList<AbstractHalfEdge>();
+		int splitIndex = 0;
+		while (true)
+		{
+			if (!fill(channel, buffer))
+				break;
+			nrRecords++;
+			int op = buffer.getInt();
+			int i0 = buffer.getInt();
+			int i1 = buffer.getInt();
+			int i2 = buffer.getInt();
+			int i3 = buffer.getInt();
+			int i4 = buffer.getInt();
+			double x = buffer.getDouble();
+			double y = buffer.getDouble();
+			double z = buffer.getDouble();
+			switch (op & OP_MASK)
+			{
+			case OP_HEADER:
+				if (i0 != MAGIC)
+					throw new IOException("Invalid trace header");
+				break;
+			case OP_CREATE_MESH:
+				add(mesh.outerVertex, -1);
+				break;
+			case OP_CREATE_VERTEX:
+				add(mesh.createVertex(x, y, z), i0);
+				break;
+			case OP_ADD_VERTEX:
+				mesh.add(getVertex(i0));
+				break;
+			case OP_REMOVE_VERTEX:
+				remove(getVertex(i0));
+				break;
+			case OP_CREATE_TRIANGLE:
+			{
+				Triangle t = mesh.createTriangle(getVertex(i1), getVertex(i2), getVertex(i3));
+				t.setGroupId(i4);
+				if ((op & FLAG_NOT_READABLE) != 0)
+					t.setReadable(false);
+				if ((op & FLAG_NOT_WRITABLE) != 0)
+					t.setWritable(false);
+				add(t, i0);
+				break;
+			}
+			case OP_ADD_TRIANGLE:
+				mesh.add(getTriangle(i0));
+				break;
+			case OP_REMOVE_TRIANGLE:
+				remove(getTriangle(i0));
+				break;
+			case OP_ADJACENT:
+				add(getHalfEdge(i0, i1).sym().getTri(), i2);
+				break;
+			case OP_SWAP:
+				mesh.edgeSwap(getHalfEdge(i0, i1));
+				break;
+			case OP_COLLAPSE:
+				mesh.edgeCollapse(getHalfEdge(i0, i1), getVertex(i2));
+				break;
+			case OP_SPLIT:
+			{
+				AbstractHalfEdge ret = mesh.vertexSplit(getHalfEdge(i0, i1), getVertex(i2));
+				splitEdges.clear();
+				splitIndex = 0;
+				if (ret.hasAttributes(AbstractHalfEdge.NONMANIFOLD))
+				{
+					for (Iterator<AbstractHalfEdge> fanIt = ret.fanIterator(); fanIt.hasNext();)
+						splitEdges.add(fanIt.next());
+				}
+				else
+					splitEdges.add(ret);
+				break;
+			}
+			case OP_SPLIT_TRIANGLES:
+			{
+				AbstractHalfEdge h = splitEdges.get(splitIndex);
+				splitIndex++;
+				// See TraceRecord.traceSplitTriangle
+				if (mapTriangleId.contains(h.getTri()))
+				{
+					add(h.sym().getTri(), i0);
+					add(h.next().sym().getTri(), i1);
+				}
+				else
+				{
+					add(h.getTri(), i0);
+					add(h.prev().sym().prev().sym().getTri(), i1);
+				}
+				break;
+			}
+			case OP_MOVE:
+				getVertex(i0).moveTo(x, y, z);
+				break;
+			case OP_TEXT:
+			{
+				byte[] bytes = new byte[i0];
+				for (int offset = 0; offset < i0; offset += RECORD_SIZE)
+				{
+					if (!fill(channel, buffer))
+						throw new IOException("Truncated text record");
+					nrRecords++;
+					int length = Math.min(RECORD_SIZE, i0 - offset);
+					buffer.get(bytes, offset, length);
+					buffer.position(buffer.position() + RECORD_SIZE - length);
+				}
+				replayCommand(new String(bytes, "UTF-8"), mesh, groups);
+				break;
+			}
+			default:
+				throw new IOException("Unknown opcode "+op+" in record "+nrRecords);
+			}
+		}
+		return nrRecords;
+	}
+
+	/**
+	 * Ensures that buffer contains a full record.
+	 *
+	 * @return <code>false</code> if end of file is reached
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		if (buffer.remaining() >= RECORD_SIZE)
+			return true;
+		buffer.compact();
+		while (buffer.position() < RECORD_SIZE && channel.read(buffer) >= 0);
+		buffer.flip();
+		return buffer.remaining() >= RECORD_SIZE;
+	}
+
+	private AbstractHalfEdge getHalfEdge(int triangleId, int localNumber)
+	{
+		AbstractHalfEdge ot = getTriangle(triangleId).getAbstractHalfEdge();
+		if (localNumber == 1)
+			ot = ot.next();
+		else if (localNumber == 2)
+			ot = ot.prev();
+		return ot;
+	}
+
+	private void replayCommand(String command, Mesh mesh, TIntArrayList groups)
+	{
+		if (command.startsWith("#"))
+		{
+			LOGGER.fine(command);
+		}
+		else if (command.equals("self.m.buildAdjacency()"))
+			mesh.buildAdjacency();
+		else if (command.startsWith("self.m.buildRidges("))
+			mesh.buildRidges(Double.parseDouble(argument(command)));
+		else if (command.equals("groups = []"))
+			groups.clear();
+		else if (command.startsWith("groups.append("))
+			groups.add(Integer.parseInt(argument(command)));
+		else if (command.equals("self.m.buildGroupBoundaries(groups)"))
+			mesh.buildGroupBoundaries(groups.toNativeArray());
+		else if (command.equals("self.m.buildPartition()"))
+			mesh.buildPartition();
+		else
+			LOGGER.log(Level.WARNING, "Command not replayed: "+command);
+	}
+
+	private static String argument(String command)
+	{
+		return command.substring(command.indexOf('(') + 1, command.lastIndexOf(')'));
+	}
 }
@@ -76,6 +76,8 @@ public class Vertex implements Location, Serializable
 
 	// Used in OEMM
 	private int label;
+	// Index into arrays of a container, see getSlot()
+	private transient int slot = -1;
 	private boolean readable = true;
 	private boolean writable = true;
 	
@@ -278,6 +280,31 @@ public class Vertex implements Location, Serializable
 	{
 		label = l;
 	}
+
+	/**
+	 * Get the index of this vertex into arrays of a container.  Unlike
+	 * labels, this index is not copied and is not meaningful to users, it
+	 * is used by containers which store vertex data into arrays, for
+	 * instance {@link org.jcae.mesh.amibe.projection.MeshLiaison}.  A
+	 * vertex can have a slot in a single container, which must check
+	 * that this slot really contains this vertex.
+	 *
+	 * @return slot of this vertex, or -1 if it is not set.
+	 */
+	public final int getSlot()
+	{
+		return slot;
+	}
+
+	/**
+	 * Set the index of this vertex into arrays of a container.
+	 *
+	 * @param s  slot of this vertex, or -1
+	 */
+	public final void setSlot(int s)
+	{
+		slot = s;
+	}
 	
 	/**
 	 * Get a finite element containing this Vertex.
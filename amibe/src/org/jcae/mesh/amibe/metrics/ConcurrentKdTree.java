@@ -0,0 +1,497 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Kd-tree which can be modified and queried by several threads at the
+ * same time.  Cells are split the same way as in {@link KdTree}, but
+ * storage is different:
+ * <ul>
+ *   <li>Children of a cell are stored into an
+ *       <code>AtomicReferenceArray</code>, and missing children are
+ *       created by compare-and-set, so descending into the tree never
+ *       takes a lock.</li>
+ *   <li>Vertices of a leaf are stored into an
+ *       <code>AtomicReferenceArray</code> of <code>bucketsize</code>
+ *       slots, empty slots are <code>null</code>.  Writers hold the leaf
+ *       monitor, vertices are never moved within a leaf so readers do not
+ *       need any lock.</li>
+ *   <li>When a leaf is split, children are published before vertex array
+ *       is removed.  Queries read vertex array before children, so a
+ *       vertex may be seen twice during a split but is never missed.</li>
+ * </ul>
+ * Unlike <code>KdTree</code>, cells which become empty are not removed.
+ */
+public class ConcurrentKdTree<T extends Location>
+{
+	private static final int MAXLEVEL = 30;
+	private static final int gridSize = 1 << MAXLEVEL;
+	private static final double DGridSize = gridSize;
+
+	private static final class Cell
+	{
+		// Children, or null if this cell is a leaf
+		private volatile AtomicReferenceArray<Cell> children;
+		// Vertices of a leaf, or null
+		private volatile AtomicReferenceArray<Object> items;
+		// Number of vertices, guarded by cell monitor
+		private int count;
+	}
+
+	private final int bucketSize;
+	private final int dimension;
+	private final int nrSub;
+	private final Cell root = new Cell();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger nCells = new AtomicInteger(1);
+	// Depth of the deepest cell, used to size traversal stacks
+	private volatile int maxDepth;
+	// Conversion between double and integer coordinates
+	private final double [] x0;
+
+	/**
+	 * Create a new <code>ConcurrentKdTree</code> of the desired size.
+	 *
+	 * @param bbox   coordinates of bottom-left vertex and upper-right vertices
+	 */
+	public ConcurrentKdTree(double [] bbox)
+	{
+		this(bbox, 10);
+	}
+
+	/**
+	 * Create a new <code>ConcurrentKdTree</code> of the desired size.
+	 *
+	 * @param bbox   coordinates of bottom-left vertex and upper-right vertices
+	 * @param bucketsize  bucket size
+	 */
+	ConcurrentKdTree(double [] bbox, int bucketsize)
+	{
+		if (bbox.length != 4 && bbox.length != 6)
+			throw new IllegalArgumentException();
+		bucketSize = bucketsize;
+		dimension = bbox.length / 2;
+		nrSub = 1 << dimension;
+		x0 = new double[dimension+1];
+		double maxDelta = 0.0;
+		for (int i = 0; i < dimension; i++)
+		{
+			x0[i] = bbox[i];
+			double delta = Math.abs(bbox[i+dimension] - bbox[i]);
+			if (delta > maxDelta)
+				maxDelta = delta;
+		}
+		maxDelta *= 1.01;
+		x0[dimension] = DGridSize / maxDelta;
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 */
+	public final int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of cells.
+	 */
+	public final int getNumberOfCells()
+	{
+		return nCells.get();
+	}
+
+	private void double2int(double [] p, int [] i)
+	{
+		for (int k = 0; k < dimension; k++)
+			i[k] = (int) ((p[k] - x0[k]) * x0[dimension]);
+	}
+
+	private int indexSubCell(int [] ijk, int s)
+	{
+		int ret = 0;
+		if (s == 0)
+			throw new RuntimeException("Exceeded maximal number of levels for kd-trees... Aborting");
+		for (int k = 0; k < dimension; k++)
+		{
+			if ((ijk[k] & s) != 0)
+				ret |= 1 << k;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns child of a cell, and creates it if needed.
+	 */
+	private Cell getOrCreateChild(AtomicReferenceArray<Cell> children, int ind)
+	{
+		Cell ret = children.get(ind);
+		if (ret != null)
+			return ret;
+		Cell c = new Cell();
+		if (children.compareAndSet(ind, null, c))
+		{
+			nCells.incrementAndGet();
+			return c;
+		}
+		return children.get(ind);
+	}
+
+	/**
+	 * Add a vertex to the kd-tree.  This method can be called
+	 * concurrently.
+	 *
+	 * @param v  the vertex being added.
+	 * @return <code>true</code> if a cell was full and had to be split, <code>false</code> otherwise.
+	 */
+	public final boolean add(T v)
+	{
+		boolean ret = false;
+		int [] ij = new int[dimension];
+		double2int(v.getUV(), ij);
+		Cell current = root;
+		int s = gridSize;
+		while (true)
+		{
+			AtomicReferenceArray<Cell> children = current.children;
+			if (children != null)
+			{
+				s >>= 1;
+				current = getOrCreateChild(children, indexSubCell(ij, s));
+				continue;
+			}
+			synchronized (current)
+			{
+				// Cell may have been split by another thread
+				if (current.children != null)
+					continue;
+				if (current.count < bucketSize)
+				{
+					AtomicReferenceArray<Object> items = current.items;
+					if (items == null)
+					{
+						items = new AtomicReferenceArray<Object>(bucketSize);
+						current.items = items;
+					}
+					int pos = 0;
+					while (items.get(pos) != null)
+						pos++;
+					items.set(pos, v);
+					current.count++;
+					size.incrementAndGet();
+					return ret;
+				}
+				split(current, s);
+				ret = true;
+				updateMaxDepth(s);
+			}
+		}
+	}
+
+	private synchronized void updateMaxDepth(int s)
+	{
+		int depth = MAXLEVEL + 1;
+		for (; s > 0; s >>= 1)
+			depth--;
+		if (depth > maxDepth)
+			maxDepth = depth;
+	}
+
+	/**
+	 * Moves vertices of a full leaf into new children.  Caller must hold
+	 * cell monitor.
+	 */
+	private void split(Cell cell, int s)
+	{
+		s >>= 1;
+		AtomicReferenceArray<Object> items = cell.items;
+		AtomicReferenceArray<Cell> children = new AtomicReferenceArray<Cell>(nrSub);
+		int [] ij = new int[dimension];
+		for (int i = 0; i < bucketSize; i++)
+		{
+			@SuppressWarnings("unchecked")
+			T p = (T) items.get(i);
+			double2int(p.getUV(), ij);
+			int ind = indexSubCell(ij, s);
+			Cell child = children.get(ind);
+			if (child == null)
+			{
+				child = new Cell();
+				child.items = new AtomicReferenceArray<Object>(bucketSize);
+				children.set(ind, child);
+				nCells.incrementAndGet();
+			}
+			child.items.set(child.count, p);
+			child.count++;
+		}
+		// Publish children before removing items, see class documentation
+		cell.children = children;
+		cell.items = null;
+		cell.count = 0;
+	}
+
+	/**
+	 * Remove a vertex from the kd-tree.  This method can be called
+	 * concurrently, but a vertex must not be removed while it is added,
+	 * removed or moved by another thread.
+	 *
+	 * @param v  the vertex being removed.
+	 */
+	public final void remove(T v)
+	{
+		int [] ij = new int[dimension];
+		double2int(v.getUV(), ij);
+		Cell current = root;
+		int s = gridSize;
+		while (true)
+		{
+			AtomicReferenceArray<Cell> children = current.children;
+			if (children != null)
+			{
+				s >>= 1;
+				current = children.get(indexSubCell(ij, s));
+				if (current == null)
+					throw new RuntimeException("Vertex "+v+" is not present and can not be deleted");
+				continue;
+			}
+			synchronized (current)
+			{
+				if (current.children != null)
+					continue;
+				AtomicReferenceArray<Object> items = current.items;
+				int pos = -1;
+				for (int i = 0; items != null && i < bucketSize && pos < 0; i++)
+				{
+					if (items.get(i) == v)
+						pos = i;
+				}
+				if (pos < 0)
+					throw new RuntimeException("Vertex "+v+" is not present and can not be deleted");
+				items.set(pos, null);
+				current.count--;
+				size.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Return a stored element which is near from a given position.  The
+	 * leaf which would contain this position is retrieved, and the
+	 * nearest vertex of this leaf is returned.  If this leaf is empty,
+	 * the first vertex found in its siblings is returned.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates.
+	 * @return a near vertex, or <code>null</code> if tree is empty.
+	 */
+	public final T getNearVertex(Metric metric, double[] uv)
+	{
+		int [] ijk = new int[dimension];
+		double2int(uv, ijk);
+		Cell [] path = new Cell[MAXLEVEL + 2];
+		int l = 0;
+		path[0] = root;
+		Cell current = root;
+		int s = gridSize;
+		while (true)
+		{
+			T ret = nearestItem(metric, uv, current.items, null, Double.MAX_VALUE);
+			if (ret != null)
+				return ret;
+			AtomicReferenceArray<Cell> children = current.children;
+			if (children == null)
+				break;
+			s >>= 1;
+			Cell next = children.get(indexSubCell(ijk, s));
+			if (next == null)
+				break;
+			l++;
+			path[l] = next;
+			current = next;
+		}
+		// Search in ancestors, from the nearest one
+		for (; l >= 0; l--)
+		{
+			T ret = anyVertex(path[l]);
+			if (ret != null)
+				return ret;
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T nearestItem(Metric metric, double [] uv, AtomicReferenceArray<Object> items, T best, double bestDist)
+	{
+		T ret = best;
+		double dist = bestDist;
+		if (items == null)
+			return ret;
+		for (int i = 0; i < bucketSize; i++)
+		{
+			T vtest = (T) items.get(i);
+			if (vtest == null)
+				continue;
+			double d = metric.distance2(uv, vtest.getUV());
+			if (d < dist || ret == null)
+			{
+				dist = d;
+				ret = vtest;
+			}
+		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T anyVertex(Cell cell)
+	{
+		AtomicReferenceArray<Object> items = cell.items;
+		for (int i = 0; items != null && i < bucketSize; i++)
+		{
+			Object o = items.get(i);
+			if (o != null)
+				return (T) o;
+		}
+		AtomicReferenceArray<Cell> children = cell.children;
+		if (children == null)
+			return null;
+		for (int i = 0; i < nrSub; i++)
+		{
+			Cell c = children.get(i);
+			if (c == null)
+				continue;
+			T ret = anyVertex(c);
+			if (ret != null)
+				return ret;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the nearest vertex stored in this tree.  Like
+	 * {@link KdTree#getNearestVertex}, cells which do not intersect a box
+	 * enclosing the ball of current nearest vertex are skipped.  Result
+	 * is exact if tree is not modified during this call; otherwise
+	 * vertices added concurrently may or may not be considered.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates.
+	 * @return the nearest vertex, or <code>null</code> if tree is empty.
+	 */
+	public final T getNearestVertex(Metric metric, double[] uv)
+	{
+		T ret = getNearVertex(metric, uv);
+		if (ret == null)
+			return null;
+		double dist = metric.distance2(uv, ret.getUV());
+		int [] ijk = new int[dimension];
+		double2int(uv, ijk);
+		double [] r = metric.getUnitBallBBox();
+		double [] i2d = new double[dimension];
+		int [] idist = new int[dimension];
+		for (int k = 0; k < dimension; k++)
+			i2d[k] = 1.005 * x0[dimension] * r[k];
+		updateDistance(dist, i2d, idist);
+
+		// Depth-first traversal, with cell origins and sizes
+		int stackSize = (maxDepth + 2) * nrSub;
+		Cell [] cellStack = new Cell[stackSize];
+		int [] originStack = new int[stackSize * dimension];
+		int [] sizeStack = new int[stackSize];
+		int [] origin = new int[dimension];
+		int sp = 0;
+		cellStack[0] = root;
+		sizeStack[0] = gridSize;
+		sp++;
+		while (sp > 0)
+		{
+			sp--;
+			Cell cell = cellStack[sp];
+			cellStack[sp] = null;
+			int s = sizeStack[sp];
+			boolean skip = false;
+			for (int k = 0; k < dimension && !skip; k++)
+			{
+				int i0 = originStack[sp * dimension + k];
+				if ((ijk[k] < i0 - idist[k]) || (ijk[k] > i0 + s + idist[k]))
+					skip = true;
+			}
+			if (skip)
+				continue;
+			T best = nearestItem(metric, uv, cell.items, ret, dist);
+			if (best != ret)
+			{
+				ret = best;
+				dist = metric.distance2(uv, ret.getUV());
+				updateDistance(dist, i2d, idist);
+			}
+			AtomicReferenceArray<Cell> children = cell.children;
+			if (children == null)
+				continue;
+			// Parent slot is overwritten by its first child
+			System.arraycopy(originStack, sp * dimension, origin, 0, dimension);
+			if (sp + nrSub > cellStack.length)
+			{
+				// Tree has been deepened by another thread
+				Cell [] newCells = new Cell[2 * cellStack.length];
+				System.arraycopy(cellStack, 0, newCells, 0, sp);
+				cellStack = newCells;
+				int [] newOrigins = new int[2 * originStack.length];
+				System.arraycopy(originStack, 0, newOrigins, 0, sp * dimension);
+				originStack = newOrigins;
+				int [] newSizes = new int[2 * sizeStack.length];
+				System.arraycopy(sizeStack, 0, newSizes, 0, sp);
+				sizeStack = newSizes;
+			}
+			s >>= 1;
+			for (int i = 0; i < nrSub; i++)
+			{
+				Cell c = children.get(i);
+				if (c == null)
+					continue;
+				cellStack[sp] = c;
+				sizeStack[sp] = s;
+				for (int k = 0; k < dimension; k++)
+				{
+					int i0 = origin[k];
+					if ((i & (1 << k)) != 0)
+						i0 += s;
+					originStack[sp * dimension + k] = i0;
+				}
+				sp++;
+			}
+		}
+		return ret;
+	}
+
+	private void updateDistance(double dist, double [] i2d, int [] idist)
+	{
+		for (int k = 0; k < dimension; k++)
+		{
+			idist[k] = (int) (Math.sqrt(dist) * i2d[k]);
+			if (idist[k] > Integer.MAX_VALUE/2)
+				idist[k] = Integer.MAX_VALUE/2;
+		}
+	}
+}
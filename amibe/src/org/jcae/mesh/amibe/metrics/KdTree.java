@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.metrics;
 
+import gnu.trove.TIntArrayList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.logging.Level;
@@ -262,6 +263,17 @@ public class KdTree<T extends Location>
 		setup(bbox);
 	}
 	
+	/**
+	 * Tells whether {@link #setup} has already been called.
+	 *
+	 * @return <code>true</code> if this tree has a bounding box,
+	 *   <code>false</code> otherwise.
+	 */
+	public final boolean isSetup()
+	{
+		return nCells > 0;
+	}
+
 	/**
 	 * Computes {@link #x0} adapted to this bounding box.
 	 *
@@ -466,7 +478,9 @@ public class KdTree<T extends Location>
 		{
 			//  nItems is negative
 			current.nItems++;
-			if (current.nItems == 0)
+			//  Root cell is never detached, it becomes an empty
+			//  leaf when its last vertex is removed
+			if (current.nItems == 0 && current != root)
 				last.subCell[lastPos] = null;
 			s >>= 1;
 			assert s > 0;
@@ -611,6 +625,94 @@ public class KdTree<T extends Location>
 		return true;
 	}
 
+	/**
+	 * Returns a read-only copy of this tree, which can answer batches
+	 * of queries from several threads.  Later modifications of this
+	 * tree are not reflected in the snapshot.
+	 *
+	 * @return a read-only copy of this tree
+	 */
+	public final KdTreeSnapshot<T> snapshot()
+	{
+		// Breadth-first traversal, so that children of a cell are
+		// contiguous
+		ArrayList<Cell> cells = new ArrayList<Cell>(nCells);
+		TIntArrayList depth = new TIntArrayList(nCells);
+		TIntArrayList first = new TIntArrayList(nCells);
+		TIntArrayList last = new TIntArrayList(nCells);
+		cells.add(root);
+		depth.add(0);
+		int nrVertices = Math.abs(root.nItems);
+		Object [] vertices = new Object[nrVertices];
+		double [] coords = new double[dimension * nrVertices];
+		int nrStored = 0;
+		int maxDepth = 0;
+		for (int c = 0; c < cells.size(); c++)
+		{
+			Cell current = cells.get(c);
+			maxDepth = Math.max(maxDepth, depth.get(c));
+			if (current.nItems >= 0)
+			{
+				first.add(nrStored);
+				for (int i = 0; i < current.nItems; i++)
+				{
+					T v = current.getVertex(i);
+					vertices[nrStored] = v;
+					System.arraycopy(v.getUV(), 0, coords, dimension * nrStored, dimension);
+					nrStored++;
+				}
+				last.add(nrStored);
+				continue;
+			}
+			first.add(cells.size());
+			for (int i = 0; i < nrSub; i++)
+			{
+				if (null == current.subCell[i])
+					continue;
+				@SuppressWarnings("unchecked")
+				Cell child = (Cell) current.subCell[i];
+				cells.add(child);
+				depth.add(depth.get(c) + 1);
+			}
+			last.add(cells.size());
+		}
+		assert nrStored == nrVertices;
+
+		// Bounding boxes are computed from vertex coordinates, in
+		// reverse order so that children are processed before
+		// their parent.
+		int nc = cells.size();
+		boolean [] leaf = new boolean[nc];
+		double [] lower = new double[dimension * nc];
+		double [] upper = new double[dimension * nc];
+		for (int c = nc - 1; c >= 0; c--)
+		{
+			leaf[c] = cells.get(c).nItems >= 0;
+			for (int k = 0; k < dimension; k++)
+			{
+				double lo = Double.POSITIVE_INFINITY;
+				double hi = Double.NEGATIVE_INFINITY;
+				for (int i = first.get(c); i < last.get(c); i++)
+				{
+					if (leaf[c])
+					{
+						lo = Math.min(lo, coords[dimension * i + k]);
+						hi = Math.max(hi, coords[dimension * i + k]);
+					}
+					else
+					{
+						lo = Math.min(lo, lower[dimension * i + k]);
+						hi = Math.max(hi, upper[dimension * i + k]);
+					}
+				}
+				lower[dimension * c + k] = lo;
+				upper[dimension * c + k] = hi;
+			}
+		}
+		return new KdTreeSnapshot<T>(dimension, nrSub, maxDepth, vertices, coords,
+			lower, upper, leaf, first.toNativeArray(), last.toNativeArray());
+	}
+
 	// Called in log messages
 	private String coordinatesToString(double[] uv)
 	{
@@ -0,0 +1,442 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.metrics;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Read-only copy of a {@link KdTree} to answer batches of queries.
+ * Cells are stored in breadth-first order into primitive arrays, children
+ * of a cell are contiguous, and vertex coordinates of each leaf are copied
+ * into a contiguous <code>double[]</code> array.  A snapshot is not
+ * modified when its <code>KdTree</code> is modified, and it can be
+ * queried by several threads at the same time.
+ *
+ * <p>
+ * Distances are Euclidean distances; unlike
+ * {@link KdTree#getNearestVertex(Metric, double[])}, metrics are not
+ * taken into account.  Query points are packed into a single
+ * <code>double[]</code> array, <code>dimension</code> coordinates per
+ * point.  Results are vertex indices, see {@link #getVertex}, and are
+ * stored into arrays given by caller, so no object is allocated per
+ * query.
+ * </p>
+ */
+public final class KdTreeSnapshot<T extends Location>
+{
+	// Below this number of queries, threads are not worth it
+	private static final int MIN_QUERIES_PER_THREAD = 1000;
+	// Number of tasks per thread, for load balancing
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final int dimension;
+	private final int nrSub;
+	private final int maxDepth;
+	// Vertices and their coordinates
+	private final Object [] vertices;
+	private final double [] coords;
+	// Bounding boxes of cells
+	private final double [] lower;
+	private final double [] upper;
+	// If leaf[c] is true, vertices of cell c are stored between
+	// first[c] (inclusive) and last[c] (exclusive), otherwise these
+	// are indices of its children.
+	private final boolean [] leaf;
+	private final int [] first;
+	private final int [] last;
+
+	KdTreeSnapshot(int dimension, int nrSub, int maxDepth, Object [] vertices, double [] coords,
+		double [] lower, double [] upper, boolean [] leaf, int [] first, int [] last)
+	{
+		this.dimension = dimension;
+		this.nrSub = nrSub;
+		this.maxDepth = maxDepth;
+		this.vertices = vertices;
+		this.coords = coords;
+		this.lower = lower;
+		this.upper = upper;
+		this.leaf = leaf;
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 */
+	public int size()
+	{
+		return vertices.length;
+	}
+
+	/**
+	 * Returns space dimension.
+	 */
+	public int getDimension()
+	{
+		return dimension;
+	}
+
+	/**
+	 * Returns vertex with a given index.
+	 *
+	 * @param i  vertex index, between 0 and <code>size()-1</code>
+	 * @return vertex
+	 */
+	@SuppressWarnings("unchecked")
+	public T getVertex(int i)
+	{
+		return (T) vertices[i];
+	}
+
+	/**
+	 * Finds the <code>k</code> nearest vertices of each query point.
+	 * All available processors are used.
+	 *
+	 * @see #getNearestVertices(double[], int, int[], double[], int)
+	 */
+	public void getNearestVertices(double [] queries, int k, int [] indices, double [] distance2)
+	{
+		getNearestVertices(queries, k, indices, distance2, ParallelExecutor.getNumberOfProcessors());
+	}
+
+	/**
+	 * Finds the <code>k</code> nearest vertices of each query point.
+	 * Results of query <code>q</code> are stored between
+	 * <code>q*k</code> and <code>(q+1)*k</code>, sorted by increasing
+	 * distance.  If there are less than <code>k</code> vertices,
+	 * remaining indices are set to <code>-1</code>.
+	 *
+	 * @param queries  coordinates of query points
+	 * @param k  number of vertices to find
+	 * @param indices  array of size <code>k*nrQueries</code>, filled with
+	 *   vertex indices
+	 * @param distance2  array of size <code>k*nrQueries</code>, filled with
+	 *   squared distances, or <code>null</code>
+	 * @param nrThreads  maximal number of threads
+	 */
+	public void getNearestVertices(final double [] queries, final int k, final int [] indices,
+		final double [] distance2, int nrThreads)
+	{
+		if (k <= 0)
+			throw new IllegalArgumentException("Invalid number of neighbours: "+k);
+		int nrQueries = checkQueries(queries, indices, k);
+		run(nrQueries, nrThreads, new Search() {
+			public void search(int q, Workspace ws)
+			{
+				int n = searchNearest(queries, q, k, Double.MAX_VALUE, ws);
+				store(ws, n, k, q * k, indices, distance2);
+			}
+		});
+	}
+
+	/**
+	 * Finds vertices within a given distance of each query point.
+	 * All available processors are used.
+	 *
+	 * @see #getVerticesInRadius(double[], double, int, int[], int[], int)
+	 */
+	public void getVerticesInRadius(double [] queries, double radius, int maxResults, int [] indices, int [] counts)
+	{
+		getVerticesInRadius(queries, radius, maxResults, indices, counts, ParallelExecutor.getNumberOfProcessors());
+	}
+
+	/**
+	 * Finds vertices within a given distance of each query point.
+	 * Results of query <code>q</code> are stored from
+	 * <code>q*maxResults</code>, sorted by increasing distance, and their
+	 * number is stored into <code>counts[q]</code>.  If more than
+	 * <code>maxResults</code> vertices are found, only the nearest ones
+	 * are kept.
+	 *
+	 * @param queries  coordinates of query points
+	 * @param radius  maximal distance
+	 * @param maxResults  maximal number of vertices per query
+	 * @param indices  array of size <code>maxResults*nrQueries</code>,
+	 *   filled with vertex indices
+	 * @param counts  array of size <code>nrQueries</code>, filled with
+	 *   the number of vertices found
+	 * @param nrThreads  maximal number of threads
+	 */
+	public void getVerticesInRadius(final double [] queries, double radius, final int maxResults,
+		final int [] indices, final int [] counts, int nrThreads)
+	{
+		if (maxResults <= 0)
+			throw new IllegalArgumentException("Invalid number of results: "+maxResults);
+		int nrQueries = checkQueries(queries, indices, maxResults);
+		if (counts.length < nrQueries)
+			throw new IllegalArgumentException("Array too small: "+counts.length+" < "+nrQueries);
+		final double radius2 = radius * radius;
+		run(nrQueries, nrThreads, new Search() {
+			public void search(int q, Workspace ws)
+			{
+				int n = searchNearest(queries, q, maxResults, radius2, ws);
+				counts[q] = n;
+				store(ws, n, n, q * maxResults, indices, null);
+			}
+		});
+	}
+
+	private int checkQueries(double [] queries, int [] indices, int k)
+	{
+		if (queries.length % dimension != 0)
+			throw new IllegalArgumentException("Query array length must be a multiple of "+dimension);
+		int nrQueries = queries.length / dimension;
+		if (indices.length < (long) nrQueries * k)
+			throw new IllegalArgumentException("Array too small: "+indices.length+" < "+((long) nrQueries * k));
+		return nrQueries;
+	}
+
+	private interface Search
+	{
+		void search(int q, Workspace ws);
+	}
+
+	/**
+	 * Work arrays of a thread.
+	 */
+	private static final class Workspace
+	{
+		private final int [] stack;
+		private final double [] stackDist;
+		private final int [] childIndex;
+		private final double [] childDist;
+		// Max-heap of current results
+		private int [] heapIndex = new int[16];
+		private double [] heapDist = new double[16];
+
+		private Workspace(int maxDepth, int nrSub)
+		{
+			stack = new int[(maxDepth + 1) * nrSub];
+			stackDist = new double[(maxDepth + 1) * nrSub];
+			childIndex = new int[nrSub];
+			childDist = new double[nrSub];
+		}
+
+		private void ensureCapacity(int k)
+		{
+			if (heapIndex.length < k)
+			{
+				heapIndex = new int[k];
+				heapDist = new double[k];
+			}
+		}
+	}
+
+	private double boxDistance2(int cell, double [] queries, int offset)
+	{
+		double ret = 0.0;
+		for (int i = 0; i < dimension; i++)
+		{
+			double x = queries[offset + i];
+			double lo = lower[dimension * cell + i];
+			double hi = upper[dimension * cell + i];
+			double d = 0.0;
+			if (x < lo)
+				d = lo - x;
+			else if (x > hi)
+				d = x - hi;
+			ret += d * d;
+		}
+		return ret;
+	}
+
+	private double vertexDistance2(int v, double [] queries, int offset)
+	{
+		double ret = 0.0;
+		for (int i = 0; i < dimension; i++)
+		{
+			double d = coords[dimension * v + i] - queries[offset + i];
+			ret += d * d;
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds at most k vertices nearer than sqrt(maxDist2) from query q.
+	 * Results are left unsorted in workspace heap.
+	 *
+	 * @return number of vertices found
+	 */
+	private int searchNearest(double [] queries, int q, int k, double maxDist2, Workspace ws)
+	{
+		ws.ensureCapacity(k);
+		int [] heapIndex = ws.heapIndex;
+		double [] heapDist = ws.heapDist;
+		int [] stack = ws.stack;
+		double [] stackDist = ws.stackDist;
+		int offset = q * dimension;
+		int size = 0;
+		double bound = maxDist2;
+		if (vertices.length == 0)
+			return 0;
+		int sp = 0;
+		stack[sp] = 0;
+		stackDist[sp] = boxDistance2(0, queries, offset);
+		sp++;
+		while (sp > 0)
+		{
+			sp--;
+			if (stackDist[sp] > bound)
+				continue;
+			int c = stack[sp];
+			if (leaf[c])
+			{
+				for (int v = first[c]; v < last[c]; v++)
+				{
+					double d = vertexDistance2(v, queries, offset);
+					if (d > bound)
+						continue;
+					if (size < k)
+					{
+						heapPush(heapIndex, heapDist, size, v, d);
+						size++;
+					}
+					else if (d < heapDist[0])
+						heapReplaceTop(heapIndex, heapDist, size, v, d);
+					else
+						continue;
+					if (size == k)
+						bound = Math.min(maxDist2, heapDist[0]);
+				}
+			}
+			else
+			{
+				// Sort children by decreasing distance, so that the
+				// nearest one is popped first
+				int n = 0;
+				for (int child = first[c]; child < last[c]; child++)
+				{
+					double d = boxDistance2(child, queries, offset);
+					if (d > bound)
+						continue;
+					int j = n;
+					while (j > 0 && ws.childDist[j-1] < d)
+					{
+						ws.childIndex[j] = ws.childIndex[j-1];
+						ws.childDist[j] = ws.childDist[j-1];
+						j--;
+					}
+					ws.childIndex[j] = child;
+					ws.childDist[j] = d;
+					n++;
+				}
+				for (int j = 0; j < n; j++)
+				{
+					stack[sp] = ws.childIndex[j];
+					stackDist[sp] = ws.childDist[j];
+					sp++;
+				}
+			}
+		}
+		return size;
+	}
+
+	private static void heapPush(int [] heapIndex, double [] heapDist, int size, int v, double d)
+	{
+		int pos = size;
+		while (pos > 0)
+		{
+			int parent = (pos - 1) >> 1;
+			if (heapDist[parent] >= d)
+				break;
+			heapIndex[pos] = heapIndex[parent];
+			heapDist[pos] = heapDist[parent];
+			pos = parent;
+		}
+		heapIndex[pos] = v;
+		heapDist[pos] = d;
+	}
+
+	private static void heapReplaceTop(int [] heapIndex, double [] heapDist, int size, int v, double d)
+	{
+		int pos = 0;
+		int half = size >> 1;
+		while (pos < half)
+		{
+			int child = 2 * pos + 1;
+			if (child + 1 < size && heapDist[child + 1] > heapDist[child])
+				child++;
+			if (d >= heapDist[child])
+				break;
+			heapIndex[pos] = heapIndex[child];
+			heapDist[pos] = heapDist[child];
+			pos = child;
+		}
+		heapIndex[pos] = v;
+		heapDist[pos] = d;
+	}
+
+	/**
+	 * Pops vertices from workspace heap, and stores them by increasing
+	 * distance.  Unused slots between n and k are set to -1.
+	 */
+	private static void store(Workspace ws, int n, int k, int offset, int [] indices, double [] distance2)
+	{
+		int [] heapIndex = ws.heapIndex;
+		double [] heapDist = ws.heapDist;
+		for (int size = n; size > 0; size--)
+		{
+			indices[offset + size - 1] = heapIndex[0];
+			if (distance2 != null)
+				distance2[offset + size - 1] = heapDist[0];
+			if (size > 1)
+				heapReplaceTop(heapIndex, heapDist, size - 1, heapIndex[size - 1], heapDist[size - 1]);
+		}
+		for (int i = n; i < k; i++)
+		{
+			indices[offset + i] = -1;
+			if (distance2 != null)
+				distance2[offset + i] = Double.POSITIVE_INFINITY;
+		}
+	}
+
+	private void run(final int nrQueries, int nrThreads, final Search search)
+	{
+		nrThreads = Math.max(1, Math.min(nrThreads, nrQueries / MIN_QUERIES_PER_THREAD));
+		if (nrThreads == 1)
+		{
+			Workspace ws = new Workspace(maxDepth, nrSub);
+			for (int q = 0; q < nrQueries; q++)
+				search.search(q, ws);
+			return;
+		}
+		int nrTasks = TASKS_PER_THREAD * nrThreads;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrTasks);
+		for (int t = 0; t < nrTasks; t++)
+		{
+			final int start = (int) ((long) nrQueries * t / nrTasks);
+			final int end = (int) ((long) nrQueries * (t + 1) / nrTasks);
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					Workspace ws = new Workspace(maxDepth, nrSub);
+					for (int q = start; q < end; q++)
+						search.search(q, ws);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+	}
+}
@@ -25,16 +25,19 @@ import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import java.io.FileNotFoundException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,14 +47,12 @@ public class MeshLiaison
 	
 	private final Mesh backgroundMesh;
 	private final Mesh currentMesh;
-	// Map between vertices of currentMesh and their projection on backgroundMesh
-	private final Map<Vertex, ProjectedLocation> mapCurrentVertexProjection;
+	// Projections of vertices of currentMesh on backgroundMesh
+	private final ProjectionStore projections;
 	private Skeleton skeleton;
 	
-	private final double [] work1 = new double[3];
-	private final double [] work2 = new double[3];
-	private final double [] work3 = new double[3];
-	private final ProjectedLocation savedProjectedLocation = new ProjectedLocation();
+	// Workspace used by methods which are not given one
+	private final ProjectedLocation location = new ProjectedLocation();
 	
 	public MeshLiaison(Mesh backgroundMesh)
 	{
@@ -123,7 +124,7 @@ public class MeshLiaison
 		this.currentMesh.buildAdjacency();
 		
 		// Compute projections of vertices from currentMesh
-		this.mapCurrentVertexProjection = new HashMap<Vertex, ProjectedLocation>(backgroundNodeset.size());
+		this.projections = new ProjectionStore(backgroundNodeset.size());
 		for (Vertex v: backgroundNodeset)
 		{
 			Iterator<Triangle> it = v.getNeighbourIteratorTriangle();
@@ -165,21 +166,68 @@ public class MeshLiaison
 		return currentMesh;
 	}
 
+	/**
+	 * Returns a new workspace for methods which move vertices.  Methods
+	 * which are not given a workspace use the one of this instance, and
+	 * thus must not be called concurrently.  Distinct vertices can be
+	 * moved concurrently if each thread uses its own workspace, as long as
+	 * no vertex is added to or removed from this instance meanwhile.  A
+	 * workspace is meant to be reused for many vertices, so that moving
+	 * vertices does not allocate memory.
+	 */
+	public final ProjectedLocation createProjectedLocation()
+	{
+		return new ProjectedLocation();
+	}
+
 	public final void backupRestore(Vertex v, boolean restore)
 	{
-		ProjectedLocation location = mapCurrentVertexProjection.get(v);
-		if (!location.isCached)
+		backupRestore(v, restore, location);
+	}
+
+	/**
+	 * Restore or discard projection saved by
+	 * {@link #backupAndMove(Vertex, double[], ProjectedLocation)}.
+	 *
+	 * @param v  vertex
+	 * @param restore  if <code>true</code>, saved projection is restored,
+	 *   otherwise it is discarded
+	 * @param ws  workspace, see {@link #createProjectedLocation}
+	 */
+	public final void backupRestore(Vertex v, boolean restore, ProjectedLocation ws)
+	{
+		int slot = projections.get(v);
+		if (!projections.hasBackup[slot])
 			throw new IllegalStateException();
+		projections.hasBackup[slot] = false;
 		if (restore)
-			location.copy(savedProjectedLocation);
+		{
+			ws.restore(slot);
+			ws.save(slot);
+		}
 		else
 			currentMesh.getTrace().moveVertex(v);
-		location.isCached = false;
 	}
 
 	public final boolean backupAndMove(Vertex v, double [] target)
 	{
-		return move(v, target, true);
+		return move(v, target, true, location);
+	}
+
+	/**
+	 * Move Vertex like {@link #move(Vertex, double[], ProjectedLocation)},
+	 * but save its old projection, which must then be either restored or
+	 * discarded by {@link #backupRestore}.
+	 *
+	 * @param v  vertex being moved
+	 * @param target  new location
+	 * @param ws  workspace, see {@link #createProjectedLocation}
+	 * @return <code>true</code> if a projection has been found,
+	 *   <code>false</code> otherwise.
+	 */
+	public final boolean backupAndMove(Vertex v, double [] target, ProjectedLocation ws)
+	{
+		return move(v, target, true, ws);
 	}
 
 	/**
@@ -192,24 +240,50 @@ public class MeshLiaison
 	 */
 	public final boolean move(Vertex v, double [] target)
 	{
-		return move(v, target, false);
+		return move(v, target, false, location);
 	}
-	private boolean move(Vertex v, double [] target, boolean backup)
+
+	/**
+	 * Move Vertex like {@link #move(Vertex, double[])} by using a
+	 * given workspace.
+	 *
+	 * @param v  vertex being moved
+	 * @param target  new location
+	 * @param ws  workspace, see {@link #createProjectedLocation}
+	 * @return <code>true</code> if a projection has been found,
+	 *   <code>false</code> otherwise.
+	 */
+	public final boolean move(Vertex v, double [] target, ProjectedLocation ws)
+	{
+		return move(v, target, false, ws);
+	}
+
+	private boolean move(Vertex v, double [] target, boolean backup, ProjectedLocation location)
+	{
+		int slot = projections.get(v);
+		boolean ret = moveLocation(v, slot, location, target, backup);
+		// Projection is updated even if vertex cannot be moved
+		location.save(slot);
+		return ret;
+	}
+
+	private boolean moveLocation(Vertex v, int slot, ProjectedLocation location, double [] target, boolean backup)
 	{
 		if (LOGGER.isLoggable(Level.FINER))
 			LOGGER.log(Level.FINER, "Trying to move vertex "+v+" to ("+target[0]+", "+target[1]+", "+target[2]+")");
 		// Old projection
-		ProjectedLocation location = mapCurrentVertexProjection.get(v);
+		location.load(slot);
 		if (backup)
 		{
-			if (location.isCached)
+			if (projections.hasBackup[slot])
 				throw new IllegalStateException();
-			savedProjectedLocation.copy(location);
-			location.isCached = true;
+			location.backup(slot);
+			projections.hasBackup[slot] = true;
 		}
 		if (LOGGER.isLoggable(Level.FINEST))
 			LOGGER.log(Level.FINEST, "Old projection: "+location);
-		LocationFinder lf = new LocationFinder(target);
+		LocationFinder lf = location.finder;
+		lf.reset(target);
 		AbstractHalfEdge ot = location.t.getAbstractHalfEdge();
 		if (ot.apex() == location.t.vertex[location.vIndex])
 			ot = ot.prev();
@@ -224,17 +298,16 @@ public class MeshLiaison
 
 		if (LOGGER.isLoggable(Level.FINEST))
 			LOGGER.log(Level.FINEST, "New projection: "+location);
-		double [] newPosition = new double[3];
+		double [] newPosition = location.position;
 		location.projectOnTriangle(target, newPosition);
 		if (!location.computeBarycentricCoordinates(newPosition))
 		{
-			int[] index = new int[2];
-			double maxError = sqrDistanceVertexTriangle(target, lf.current, index);
+			double maxError = sqrDistanceVertexTriangle(target, lf.current, location.index);
 			AbstractHalfEdge newEdge = ot;
 			do
 			{
 				ot = newEdge;
-				newEdge = findBetterTriangleInNeighborhood(target, ot, maxError);
+				newEdge = findBetterTriangleInNeighborhood(target, ot, maxError, location.seen, location.queue, location.index);
 				maxError *= 0.5;
 			} while (newEdge != null);
 			if (ot != null)
@@ -289,18 +362,63 @@ public class MeshLiaison
 
 	}
 
+	/**
+	 * Move vertices on the desired locations.  This is equivalent to
+	 * calling {@link #move(Vertex, double[])} on each vertex.
+	 *
+	 * @param vertices  vertices being moved
+	 * @param targets  new locations, 3 values by vertex
+	 * @param moved  if not <code>null</code>, bit <code>i</code> is set if
+	 *   <code>vertices[i]</code> has been moved, and cleared otherwise
+	 * @return number of vertices which have been moved
+	 */
+	public final int move(Vertex [] vertices, double [] targets, BitSet moved)
+	{
+		double [] target = new double[3];
+		int ret = 0;
+		for (int i = 0; i < vertices.length; i++)
+		{
+			System.arraycopy(targets, 3*i, target, 0, 3);
+			boolean ok = move(vertices[i], target, false, location);
+			if (ok)
+				ret++;
+			if (moved != null)
+				moved.set(i, ok);
+		}
+		return ret;
+	}
+
 	public final Triangle getBackgroundTriangle(Vertex v)
 	{
-		ProjectedLocation location = mapCurrentVertexProjection.get(v);
-		assert location != null : "Vertex "+v+" not found";
-		return location.t;
+		int slot = projections.get(v);
+		assert slot >= 0 : "Vertex "+v+" not found";
+		return projections.triangle[slot];
+	}
+
+	/**
+	 * Gets background triangles of many vertices at once.
+	 *
+	 * @param vertices  vertices of current mesh
+	 * @param result  array of the same size as <code>vertices</code>,
+	 *   triangles are stored into it
+	 */
+	public final void getBackgroundTriangles(Vertex [] vertices, Triangle [] result)
+	{
+		for (int i = 0; i < vertices.length; i++)
+			result[i] = getBackgroundTriangle(vertices[i]);
 	}
 
+	/**
+	 * Returns the normal of the background triangle of a vertex.  A new
+	 * array is returned.
+	 */
 	public final double[] getBackgroundNormal(Vertex v)
 	{
-		ProjectedLocation location = mapCurrentVertexProjection.get(v);
-		assert location != null : "Vertex "+v+" not found";
-		return location.normal;
+		int slot = projections.get(v);
+		assert slot >= 0 : "Vertex "+v+" not found";
+		double [] ret = new double[3];
+		System.arraycopy(projections.normal, 3*slot, ret, 0, 3);
+		return ret;
 	}
 
 	/**
@@ -311,7 +429,8 @@ public class MeshLiaison
 	 */
 	public final void addVertex(Vertex v, Triangle bgT)
 	{
-		mapCurrentVertexProjection.put(v, new ProjectedLocation(v.getUV(), bgT));
+		location.init(v.getUV(), bgT);
+		location.save(projections.add(v));
 	}
 
 	/**
@@ -322,14 +441,21 @@ public class MeshLiaison
 	 */
 	public final Triangle removeVertex(Vertex v)
 	{
-		return mapCurrentVertexProjection.remove(v).t;
+		int slot = projections.remove(v);
+		Triangle ret = projections.triangle[slot];
+		projections.triangle[slot] = null;
+		return ret;
 	}
 
 	public final void updateAll()
 	{
 		LOGGER.config("Update projections");
-		for (Vertex v : mapCurrentVertexProjection.keySet())
-			move(v, v.getUV());
+		for (int slot = 0, n = projections.getNumberOfSlots(); slot < n; slot++)
+		{
+			Vertex v = projections.vertex[slot];
+			if (v != null)
+				move(v, v.getUV());
+		}
 	}
 
 	public static AbstractHalfEdge findSurroundingTriangleDebug(Vertex v, Mesh mesh)
@@ -442,7 +568,8 @@ public class MeshLiaison
 			// Check a better start edge in neighborhood
 			if (LOGGER.isLoggable(Level.FINER))
 				LOGGER.log(Level.FINER, "Error too large: "+lf.dmin+" > "+maxError);
-			ot = findBetterTriangleInNeighborhood(pos, ot, maxError);
+			ot = findBetterTriangleInNeighborhood(pos, ot, maxError,
+				new THashSet<Triangle>(), new ArrayList<Triangle>(), new int[2]);
 			if (ot == null)
 				return null;
 			redo = false;
@@ -456,21 +583,38 @@ public class MeshLiaison
 		return null;
 	}
 
-	private static AbstractHalfEdge findBetterTriangleInNeighborhood(double[] pos, AbstractHalfEdge ot, double maxError)
+	/*
+	 * Work arrays are given by caller so that they can be reused,
+	 * collections are cleared before returning.  Triangle.List cannot be
+	 * used here, it is not thread-safe.
+	 */
+	private static AbstractHalfEdge findBetterTriangleInNeighborhood(double[] pos, AbstractHalfEdge ot, double maxError,
+		Set<Triangle> seen, List<Triangle> queue, int[] index)
+	{
+		try
+		{
+			return findBetterTriangle(pos, ot, maxError, seen, queue, index);
+		}
+		finally
+		{
+			seen.clear();
+			queue.clear();
+		}
+	}
+
+	private static AbstractHalfEdge findBetterTriangle(double[] pos, AbstractHalfEdge ot, double maxError,
+		Set<Triangle> seen, List<Triangle> queue, int[] index)
 	{
-		int[] index = new int[2];
-		Triangle.List seen = new Triangle.List();
-		LinkedList<Triangle> queue = new LinkedList<Triangle>();
 		queue.add(ot.origin().getNeighbourIteratorTriangle().next());
-		while (!queue.isEmpty())
+		// Queue is not shrinked, triangles are read from head
+		for (int head = 0; head < queue.size(); head++)
 		{
-			Triangle t = queue.poll();
+			Triangle t = queue.get(head);
 			if (seen.contains(t) || t.hasAttributes(AbstractHalfEdge.OUTER))
 				continue;
 			double dist = sqrDistanceVertexTriangle(pos, t, index);
 			if (dist < maxError)
 			{
-				seen.clear();
 				int i = index[0];
 				ot = t.getAbstractHalfEdge(ot);
 				if (ot.origin() == t.vertex[i])
@@ -508,10 +652,14 @@ public class MeshLiaison
 				}
 			}
 		}
-		seen.clear();
 		return null;
 	}
 
+	/**
+	 * Builds the index of border edges of background mesh, which is used by
+	 * {@link #isNearSkeleton}.  This index is not updated automatically,
+	 * this method must be called again if background mesh is modified.
+	 */
 	public final void buildSkeleton()
 	{
 		skeleton = new Skeleton(backgroundMesh);
@@ -847,7 +995,11 @@ public class MeshLiaison
 		distBB.close();
 	}
 
-	private class ProjectedLocation
+	/**
+	 * Workspace used when moving vertices, see
+	 * {@link #createProjectedLocation}.
+	 */
+	public final class ProjectedLocation
 	{
 		// triangle where vertex is projected into
 		private Triangle t;
@@ -859,8 +1011,16 @@ public class MeshLiaison
 		private int vIndex = -1;
 		// barycentric coordinates
 		private final double [] b = new double[3];
-		private boolean isCached;
-		ProjectedLocation()
+		private final double [] work1 = new double[3];
+		private final double [] work2 = new double[3];
+		private final double [] work3 = new double[3];
+		// work arrays and collections used by moveLocation
+		private final double [] position = new double[3];
+		private final int [] index = new int[2];
+		private final LocationFinder finder = new LocationFinder();
+		private final Set<Triangle> seen = new THashSet<Triangle>();
+		private final List<Triangle> queue = new ArrayList<Triangle>();
+		private ProjectedLocation()
 		{
 		}
 
@@ -869,20 +1029,48 @@ public class MeshLiaison
 		 * @param xyz coordinates
 		 * @param t triangle in background mesh
 		 */
-		public ProjectedLocation(double [] xyz, Triangle t)
+		void init(double [] xyz, Triangle newT)
 		{
-			updateTriangle(t);
+			t = null;
+			vIndex = -1;
+			updateTriangle(newT);
 			computeBarycentricCoordinates(xyz);
 			updateVertexIndex(xyz);
 		}
 
-		void copy(ProjectedLocation that)
+		void load(int slot)
 		{
-			t = that.t;
-			invArea = that.invArea;
-			vIndex = that.vIndex;
-			System.arraycopy(that.normal, 0, normal, 0, 3);
-			System.arraycopy(that.b, 0, b, 0, 3);
+			t = projections.triangle[slot];
+			invArea = projections.invArea[slot];
+			vIndex = projections.vIndex[slot];
+			System.arraycopy(projections.normal, 3*slot, normal, 0, 3);
+			System.arraycopy(projections.bary, 3*slot, b, 0, 3);
+		}
+
+		void save(int slot)
+		{
+			projections.triangle[slot] = t;
+			projections.invArea[slot] = invArea;
+			projections.vIndex[slot] = (byte) vIndex;
+			System.arraycopy(normal, 0, projections.normal, 3*slot, 3);
+			System.arraycopy(b, 0, projections.bary, 3*slot, 3);
+		}
+
+		void backup(int slot)
+		{
+			projections.backupTriangle[slot] = t;
+			projections.backupVIndex[slot] = (byte) vIndex;
+			System.arraycopy(b, 0, projections.backupBary, 3*slot, 3);
+		}
+
+		void restore(int slot)
+		{
+			// Normal and area are not saved, they are computed again
+			t = null;
+			updateTriangle(projections.backupTriangle[slot]);
+			projections.backupTriangle[slot] = null;
+			vIndex = projections.backupVIndex[slot];
+			System.arraycopy(projections.backupBary, 3*slot, b, 0, 3);
 		}
 
 		private boolean updateTriangle(Triangle newT)
@@ -966,9 +1154,22 @@ public class MeshLiaison
 		int region = -1;
 		int[] index = new int[2];
 
+		LocationFinder()
+		{
+		}
+
 		LocationFinder(double[] pos)
+		{
+			reset(pos);
+		}
+
+		void reset(double[] pos)
 		{
 			System.arraycopy(pos, 0, target, 0, 3);
+			dmin = Double.MAX_VALUE;
+			current = null;
+			localEdgeIndex = -1;
+			region = -1;
 		}
 
 		boolean walkOnTriangle(Triangle t)
@@ -1112,25 +1313,29 @@ public class MeshLiaison
 
 	}
 
+	/**
+	 * Border edges of each group, stored into a {@link SegmentTree}.
+	 */
 	private static class Skeleton
 	{
-		private final TIntObjectHashMap<Collection<Line>> mapGroupBorder = new TIntObjectHashMap<Collection<Line>>();
+		private final TIntObjectHashMap<SegmentTree> mapGroupBorder = new TIntObjectHashMap<SegmentTree>();
 	
 		Skeleton(Mesh mesh)
 		{
 			if (!mesh.hasAdjacency())
 				throw new IllegalArgumentException("Mesh does not contain adjacency relations");
+			TIntObjectHashMap<TDoubleArrayList> coords = new TIntObjectHashMap<TDoubleArrayList>();
 			AbstractHalfEdge ot = null;
 			for (Triangle t : mesh.getTriangles())
 			{
 				if (t.hasAttributes(AbstractHalfEdge.OUTER))
 					continue;
 				int groupId = t.getGroupId();
-				Collection<Line> borders = mapGroupBorder.get(groupId);
+				TDoubleArrayList borders = coords.get(groupId);
 				if (borders == null)
 				{
-					borders = new ArrayList<Line>();
-					mapGroupBorder.put(groupId, borders);
+					borders = new TDoubleArrayList();
+					coords.put(groupId, borders);
 				}
 				// This test is performed here so that mapGroupBorder.get(N)
 				// is not null if a group has no boundary edge.
@@ -1141,75 +1346,30 @@ public class MeshLiaison
 				{
 					ot = ot.next();
 					if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
-						borders.add(new Line(ot.origin(), ot.destination()));
+					{
+						borders.add(ot.origin().getUV());
+						borders.add(ot.destination().getUV());
+					}
 				}
 			}
+			for (int groupId : coords.keys())
+				mapGroupBorder.put(groupId, new SegmentTree(coords.get(groupId)));
 		}
 	
 		double getSqrDistance(Vertex v, int groupId)
 		{
-			Collection<Line> borders = mapGroupBorder.get(groupId);
+			SegmentTree borders = mapGroupBorder.get(groupId);
 			if (borders == null)
 				throw new IllegalArgumentException("group identifier not found");
-			double[] pos = v.getUV();
-			double dMin = Double.MAX_VALUE;
-			for (Line l : borders)
-			{
-				double d = l.sqrDistance(pos);
-				if (d < dMin)
-					dMin = d;
-			}
-			return dMin;
+			return borders.getSqrDistance(v.getUV());
 		}
 	
 		boolean isNearer(Vertex v, int groupId, double distance2)
 		{
-			Collection<Line> borders = mapGroupBorder.get(groupId);
+			SegmentTree borders = mapGroupBorder.get(groupId);
 			if (borders == null)
 				throw new IllegalArgumentException("group identifier "+groupId+" not found");
-			double[] pos = v.getUV();
-			for (Line l : borders)
-			{
-				if (l.sqrDistance(pos) <= distance2)
-				{
-					return true;
-				}
-			}
-			return false;
-		}
-	
-		private static class Line
-		{
-			private final double[] origin = new double[3];
-			private final double[] direction = new double[3];
-			private final double sqrNormDirection;
-			Line(Vertex v1, Vertex v2)
-			{
-				System.arraycopy(v1.getUV(), 0, origin, 0, 3);
-				double[] end = v2.getUV();
-				direction[0] = end[0] - origin[0];
-				direction[1] = end[1] - origin[1];
-				direction[2] = end[2] - origin[2];
-				sqrNormDirection = direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2];
-			}
-	
-			double sqrDistance(double[] v)
-			{
-				double t =
-					direction[0] * (v[0] - origin[0]) +
-					direction[1] * (v[1] - origin[1]) +
-					direction[2] * (v[2] - origin[2]);
-				if (t <= 0)
-					t = 0.0;
-				else if (t >= sqrNormDirection)
-					t = 1.0;
-				else
-					t /= sqrNormDirection;
-				double dx = v[0] - (origin[0] + t * direction[0]);
-				double dy = v[1] - (origin[1] + t * direction[1]);
-				double dz = v[2] - (origin[2] + t * direction[2]);
-				return dx * dx + dy * dy + dz * dz;
-			}
+			return borders.isNearer(v.getUV(), distance2);
 		}
 	}
 }
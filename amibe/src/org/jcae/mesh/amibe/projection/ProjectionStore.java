@@ -0,0 +1,186 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import gnu.trove.TIntArrayList;
+
+/**
+ * Projections of vertices onto a background mesh.  Each vertex is given
+ * a slot, and projection data are stored into parallel arrays indexed by
+ * slots, so that there is no object allocated per vertex.  Slots are
+ * stored into vertices, see {@link Vertex#getSlot}, so that finding the
+ * slot of a vertex is an array access.  Slots of removed vertices are
+ * reused, arrays grow when needed.
+ */
+final class ProjectionStore
+{
+	private final TIntArrayList freeSlots = new TIntArrayList();
+	private int capacity;
+	private int nrSlots;
+	private int size;
+
+	// Vertex stored into each slot, null if slot is free
+	Vertex [] vertex;
+	// Background triangle where vertex is projected into
+	Triangle [] triangle;
+	// Inverse of triangle area
+	double [] invArea;
+	// Normal to triangle plane, 3 values by slot
+	double [] normal;
+	// Barycentric coordinates, 3 values by slot
+	double [] bary;
+	// Local index of nearest triangle vertex
+	byte [] vIndex;
+
+	// Projections saved by MeshLiaison.backupAndMove; normal and inverse
+	// area are computed again from triangle when they are restored.
+	Triangle [] backupTriangle;
+	double [] backupBary;
+	byte [] backupVIndex;
+	// Tells whether slot has a backup.  A BitSet cannot be used, its
+	// words are shared by several slots and backups of distinct slots
+	// are modified concurrently.
+	boolean [] hasBackup;
+
+	ProjectionStore(int initialCapacity)
+	{
+		capacity = Math.max(16, initialCapacity);
+		vertex = new Vertex[capacity];
+		triangle = new Triangle[capacity];
+		invArea = new double[capacity];
+		normal = new double[3*capacity];
+		bary = new double[3*capacity];
+		vIndex = new byte[capacity];
+		backupTriangle = new Triangle[capacity];
+		backupBary = new double[3*capacity];
+		backupVIndex = new byte[capacity];
+		hasBackup = new boolean[capacity];
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns an upper bound of slot indices.
+	 */
+	int getNumberOfSlots()
+	{
+		return nrSlots;
+	}
+
+	/**
+	 * Returns the slot of a vertex, or -1 if this vertex is not found.
+	 * Vertex slot may have been set by another container, it is checked
+	 * against the vertex array.
+	 */
+	int get(Vertex v)
+	{
+		int slot = v.getSlot();
+		if (slot >= 0 && slot < nrSlots && vertex[slot] == v)
+			return slot;
+		return -1;
+	}
+
+	/**
+	 * Returns the slot of a vertex, and allocates a new one if needed.
+	 */
+	int add(Vertex v)
+	{
+		int slot = get(v);
+		if (slot >= 0)
+			return slot;
+		if (!freeSlots.isEmpty())
+			slot = freeSlots.remove(freeSlots.size() - 1);
+		else
+		{
+			if (nrSlots >= capacity)
+				grow(2 * capacity);
+			slot = nrSlots;
+			nrSlots++;
+		}
+		v.setSlot(slot);
+		vertex[slot] = v;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Removes a vertex and returns its former slot, or -1 if this vertex
+	 * is not found.  Data are not cleared, they can be read until this
+	 * slot is reused.
+	 */
+	int remove(Vertex v)
+	{
+		int slot = get(v);
+		if (slot < 0)
+			return slot;
+		v.setSlot(-1);
+		vertex[slot] = null;
+		hasBackup[slot] = false;
+		backupTriangle[slot] = null;
+		freeSlots.add(slot);
+		size--;
+		return slot;
+	}
+
+	private void grow(int newCapacity)
+	{
+		Vertex [] newVertex = new Vertex[newCapacity];
+		System.arraycopy(vertex, 0, newVertex, 0, capacity);
+		vertex = newVertex;
+		Triangle [] newTriangle = new Triangle[newCapacity];
+		System.arraycopy(triangle, 0, newTriangle, 0, capacity);
+		triangle = newTriangle;
+		invArea = resize(invArea, newCapacity);
+		normal = resize(normal, 3*newCapacity);
+		bary = resize(bary, 3*newCapacity);
+		vIndex = resize(vIndex, newCapacity);
+		Triangle [] newBackupTriangle = new Triangle[newCapacity];
+		System.arraycopy(backupTriangle, 0, newBackupTriangle, 0, capacity);
+		backupTriangle = newBackupTriangle;
+		backupBary = resize(backupBary, 3*newCapacity);
+		backupVIndex = resize(backupVIndex, newCapacity);
+		boolean [] newHasBackup = new boolean[newCapacity];
+		System.arraycopy(hasBackup, 0, newHasBackup, 0, capacity);
+		hasBackup = newHasBackup;
+		capacity = newCapacity;
+	}
+
+	private static double [] resize(double [] array, int size)
+	{
+		double [] ret = new double[size];
+		System.arraycopy(array, 0, ret, 0, Math.min(array.length, size));
+		return ret;
+	}
+
+	private static byte [] resize(byte [] array, int size)
+	{
+		byte [] ret = new byte[size];
+		System.arraycopy(array, 0, ret, 0, Math.min(array.length, size));
+		return ret;
+	}
+}
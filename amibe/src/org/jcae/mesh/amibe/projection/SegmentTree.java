@@ -0,0 +1,306 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+import gnu.trove.TDoubleArrayList;
+
+/**
+ * Bounding volume hierarchy of 3D segments.  Segments are stored into
+ * flat arrays and sorted so that each node of the hierarchy contains
+ * consecutive segments.  Nodes are split at the median of the largest
+ * extent of segment centers, the tree is thus balanced and queries
+ * visit a logarithmic number of nodes when segments are well distributed.
+ * This structure is static, it has to be rebuilt when segments change.
+ */
+final class SegmentTree
+{
+	// Maximal number of segments in a leaf
+	private static final int BUCKETSIZE = 4;
+
+	private final int nrSegments;
+	// Segment origins and directions, 3 values by segment
+	private final double [] origin;
+	private final double [] direction;
+	private final double [] sqrNorm;
+	// Bounding boxes of nodes, 6 values by node (lower and upper corners)
+	private final double [] bbox;
+	// Index of first segment of each node, and number of segments
+	private final int [] first;
+	private final int [] count;
+	// Index of children of inner nodes, -1 for leaves
+	private final int [] left;
+	private final int [] right;
+	private int nrNodes;
+
+	/**
+	 * Creates a tree.
+	 *
+	 * @param coords  segment end points, 6 values by segment
+	 */
+	SegmentTree(TDoubleArrayList coords)
+	{
+		nrSegments = coords.size() / 6;
+		origin = new double[3*nrSegments];
+		direction = new double[3*nrSegments];
+		sqrNorm = new double[nrSegments];
+		int [] index = new int[nrSegments];
+		double [] center = new double[3*nrSegments];
+		for (int i = 0; i < nrSegments; i++)
+		{
+			index[i] = i;
+			for (int k = 0; k < 3; k++)
+				center[3*i+k] = 0.5 * (coords.getQuick(6*i+k) + coords.getQuick(6*i+3+k));
+		}
+		// A binary tree with leaves of at least BUCKETSIZE/2 segments
+		// has less than 4*nrSegments/BUCKETSIZE nodes.
+		int maxNodes = Math.max(1, 4 * nrSegments / BUCKETSIZE + 1);
+		bbox = new double[6*maxNodes];
+		first = new int[maxNodes];
+		count = new int[maxNodes];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		if (nrSegments > 0)
+			build(0, nrSegments, index, center, coords);
+		// Store segments in tree order
+		for (int i = 0; i < nrSegments; i++)
+		{
+			int s = index[i];
+			double n2 = 0.0;
+			for (int k = 0; k < 3; k++)
+			{
+				origin[3*i+k] = coords.getQuick(6*s+k);
+				direction[3*i+k] = coords.getQuick(6*s+3+k) - origin[3*i+k];
+				n2 += direction[3*i+k] * direction[3*i+k];
+			}
+			sqrNorm[i] = n2;
+		}
+	}
+
+	/**
+	 * Returns the number of segments.
+	 */
+	int size()
+	{
+		return nrSegments;
+	}
+
+	private int build(int start, int end, int [] index, double [] center, TDoubleArrayList coords)
+	{
+		int node = nrNodes;
+		nrNodes++;
+		first[node] = start;
+		count[node] = end - start;
+		left[node] = right[node] = -1;
+		int offset = 6*node;
+		if (end - start <= BUCKETSIZE)
+		{
+			bbox[offset] = bbox[offset+1] = bbox[offset+2] = Double.MAX_VALUE;
+			bbox[offset+3] = bbox[offset+4] = bbox[offset+5] = - Double.MAX_VALUE;
+			for (int i = start; i < end; i++)
+			{
+				int s = index[i];
+				for (int k = 0; k < 3; k++)
+				{
+					double a = coords.getQuick(6*s+k);
+					double b = coords.getQuick(6*s+3+k);
+					bbox[offset+k] = Math.min(bbox[offset+k], Math.min(a, b));
+					bbox[offset+3+k] = Math.max(bbox[offset+3+k], Math.max(a, b));
+				}
+			}
+			return node;
+		}
+		// Split along the largest extent of segment centers
+		double [] cbox = new double[6];
+		cbox[0] = cbox[1] = cbox[2] = Double.MAX_VALUE;
+		cbox[3] = cbox[4] = cbox[5] = - Double.MAX_VALUE;
+		for (int i = start; i < end; i++)
+		{
+			int s = index[i];
+			for (int k = 0; k < 3; k++)
+			{
+				cbox[k] = Math.min(cbox[k], center[3*s+k]);
+				cbox[3+k] = Math.max(cbox[3+k], center[3*s+k]);
+			}
+		}
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+		{
+			if (cbox[3+k] - cbox[k] > cbox[3+axis] - cbox[axis])
+				axis = k;
+		}
+		int middle = (start + end) / 2;
+		select(index, center, axis, start, end - 1, middle);
+		int l = build(start, middle, index, center, coords);
+		int r = build(middle, end, index, center, coords);
+		left[node] = l;
+		right[node] = r;
+		for (int k = 0; k < 3; k++)
+		{
+			bbox[offset+k] = Math.min(bbox[6*l+k], bbox[6*r+k]);
+			bbox[offset+3+k] = Math.max(bbox[6*l+3+k], bbox[6*r+3+k]);
+		}
+		return node;
+	}
+
+	// Partially sorts index[lo..hi] so that index[k] is at its sorted place
+	private static void select(int [] index, double [] center, int axis, int lo, int hi, int k)
+	{
+		while (hi > lo)
+		{
+			double pivot = center[3*index[(lo + hi) >>> 1]+axis];
+			int i = lo;
+			int j = hi;
+			while (i <= j)
+			{
+				while (center[3*index[i]+axis] < pivot)
+					i++;
+				while (center[3*index[j]+axis] > pivot)
+					j--;
+				if (i <= j)
+				{
+					int temp = index[i];
+					index[i] = index[j];
+					index[j] = temp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	private double sqrDistanceBox(int node, double [] pos)
+	{
+		double ret = 0.0;
+		for (int k = 0; k < 3; k++)
+		{
+			double d = bbox[6*node+k] - pos[k];
+			if (d < 0.0)
+				d = pos[k] - bbox[6*node+3+k];
+			if (d > 0.0)
+				ret += d * d;
+		}
+		return ret;
+	}
+
+	private double sqrDistanceSegment(int s, double [] pos)
+	{
+		double t =
+			direction[3*s]   * (pos[0] - origin[3*s]) +
+			direction[3*s+1] * (pos[1] - origin[3*s+1]) +
+			direction[3*s+2] * (pos[2] - origin[3*s+2]);
+		if (t <= 0)
+			t = 0.0;
+		else if (t >= sqrNorm[s])
+			t = 1.0;
+		else
+			t /= sqrNorm[s];
+		double dx = pos[0] - (origin[3*s]   + t * direction[3*s]);
+		double dy = pos[1] - (origin[3*s+1] + t * direction[3*s+1]);
+		double dz = pos[2] - (origin[3*s+2] + t * direction[3*s+2]);
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Returns the squared distance between a point and the nearest
+	 * segment, or <code>Double.MAX_VALUE</code> if there is no segment.
+	 *
+	 * @param pos  point coordinates
+	 */
+	double getSqrDistance(double [] pos)
+	{
+		double dMin = Double.MAX_VALUE;
+		if (nrSegments == 0)
+			return dMin;
+		int [] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			if (sqrDistanceBox(node, pos) >= dMin)
+				continue;
+			if (left[node] < 0)
+			{
+				for (int s = first[node], end = first[node] + count[node]; s < end; s++)
+				{
+					double d = sqrDistanceSegment(s, pos);
+					if (d < dMin)
+						dMin = d;
+				}
+				continue;
+			}
+			// Visit nearest child first
+			int l = left[node];
+			int r = right[node];
+			if (sqrDistanceBox(l, pos) < sqrDistanceBox(r, pos))
+			{
+				stack[top++] = r;
+				stack[top++] = l;
+			}
+			else
+			{
+				stack[top++] = l;
+				stack[top++] = r;
+			}
+		}
+		return dMin;
+	}
+
+	/**
+	 * Tells whether a segment is within a given distance of a point.
+	 *
+	 * @param pos  point coordinates
+	 * @param distance2  squared distance
+	 * @return <code>true</code> if a segment is at a squared distance
+	 *   lower than or equal to <code>distance2</code>
+	 */
+	boolean isNearer(double [] pos, double distance2)
+	{
+		if (nrSegments == 0)
+			return false;
+		int [] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			if (sqrDistanceBox(node, pos) > distance2)
+				continue;
+			if (left[node] < 0)
+			{
+				for (int s = first[node], end = first[node] + count[node]; s < end; s++)
+				{
+					if (sqrDistanceSegment(s, pos) <= distance2)
+						return true;
+				}
+				continue;
+			}
+			stack[top++] = right[node];
+			stack[top++] = left[node];
+		}
+		return false;
+	}
+}
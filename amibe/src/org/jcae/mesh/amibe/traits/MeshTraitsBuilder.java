@@ -24,6 +24,7 @@ import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.TraceInterface;
 import org.jcae.mesh.amibe.ds.TraceNull;
+import org.jcae.mesh.amibe.ds.TraceBinaryRecord;
 import org.jcae.mesh.amibe.ds.TraceRecord;
 import org.jcae.mesh.amibe.ds.TraceReplay;
 import org.jcae.mesh.amibe.metrics.KdTree;
@@ -45,6 +46,7 @@ public class MeshTraitsBuilder extends TraitsBuilder
 	private static final int GROUPLIST        = 1 << BITGROUPS;
 	private static final int KDTREE           = 1 << BITKDTREE;
 	private static final int TRACE            = 1 << BITTRACE;
+	private static final int TRACEBINARY      = 1 << 28;
 	private static final int TRACEREPLAY      = 1 << 29;
 	private static final int TRIANGLESET      = 1 << 30;
 	private static final int NODESET          = 1 << 31;
@@ -223,6 +225,20 @@ public class MeshTraitsBuilder extends TraitsBuilder
 	public final MeshTraitsBuilder addTraceRecord()
 	{
 		attributes |= TRACE;
+		attributes &= ~(TRACEREPLAY | TRACEBINARY);
+		return this;
+	}
+
+	/**
+	 * Adds {@link TraceBinaryRecord} instance to mesh traits.  Traces
+	 * are written in a compact binary format which can be replayed by
+	 * {@link TraceReplay#replay}.
+	 *
+	 * @return  this instance
+	 */
+	public final MeshTraitsBuilder addTraceBinaryRecord()
+	{
+		attributes |= TRACE | TRACEBINARY;
 		attributes &= ~TRACEREPLAY;
 		return this;
 	}
@@ -230,6 +246,7 @@ public class MeshTraitsBuilder extends TraitsBuilder
 	public final MeshTraitsBuilder addTraceReplay()
 	{
 		attributes |= TRACE | TRACEREPLAY;
+		attributes &= ~TRACEBINARY;
 		return this;
 	}
 
@@ -260,6 +277,8 @@ public class MeshTraitsBuilder extends TraitsBuilder
 		{
 			if ((attributes & TRACEREPLAY) != 0)
 				t.array[index[BITTRACE]] = new TraceReplay();
+			else if ((attributes & TRACEBINARY) != 0)
+				t.array[index[BITTRACE]] = new TraceBinaryRecord();
 			else
 				t.array[index[BITTRACE]] = new TraceRecord();
 		}
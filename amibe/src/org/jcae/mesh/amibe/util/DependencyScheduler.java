@@ -0,0 +1,196 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.amibe.util;
+
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs tasks which depend on each other on a pool of threads.  Tasks are
+ * the nodes of a directed acyclic graph, a task is started only when all
+ * tasks it depends on are finished.  When several tasks are ready, the
+ * one which has been added first is started first, so that tasks are run
+ * in insertion order when there is a single thread and insertion order
+ * is compatible with dependencies.
+ */
+public final class DependencyScheduler
+{
+	private final List<Runnable> tasks = new ArrayList<Runnable>();
+	// Successors of each task
+	private final List<TIntArrayList> successors = new ArrayList<TIntArrayList>();
+	// Number of unfinished tasks each task depends on
+	private final TIntArrayList nrDependencies = new TIntArrayList();
+
+	// Scheduling state, guarded by this instance
+	private final PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+	private int [] nrPending;
+	private int nrRunning;
+	private int nrRemaining;
+	private boolean failed;
+
+	/**
+	 * Adds a task.
+	 *
+	 * @param task  task to run
+	 * @return task index, to be used by {@link #addDependency}
+	 */
+	public int addTask(Runnable task)
+	{
+		tasks.add(task);
+		successors.add(new TIntArrayList());
+		nrDependencies.add(0);
+		return tasks.size() - 1;
+	}
+
+	/**
+	 * Tells that a task must not be started before another one is finished.
+	 *
+	 * @param task  index of dependent task
+	 * @param dependency  index of the task which must be run before
+	 */
+	public void addDependency(int task, int dependency)
+	{
+		if (task == dependency)
+			throw new IllegalArgumentException("Task "+task+" cannot depend on itself");
+		successors.get(dependency).add(task);
+		nrDependencies.set(task, nrDependencies.get(task) + 1);
+	}
+
+	/**
+	 * Returns the number of tasks.
+	 */
+	public int getNumberOfTasks()
+	{
+		return tasks.size();
+	}
+
+	/**
+	 * Runs all tasks and waits until they are finished.  If a task throws
+	 * an exception, no other task is started and this exception is
+	 * rethrown once running tasks are finished.
+	 *
+	 * @param nrThreads  maximal number of threads, including the calling
+	 *   thread
+	 * @throws IllegalStateException if dependencies contain a cycle
+	 */
+	public void run(int nrThreads)
+	{
+		int nrTasks = tasks.size();
+		synchronized (this)
+		{
+			nrPending = nrDependencies.toNativeArray();
+			ready.clear();
+			for (int i = 0; i < nrTasks; i++)
+			{
+				if (nrPending[i] == 0)
+					ready.add(i);
+			}
+			nrRemaining = nrTasks;
+			nrRunning = 0;
+			failed = false;
+		}
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>(nrThreads);
+		Callable<Object> worker = new Callable<Object>()
+		{
+			public Object call()
+			{
+				for (int i = nextTask(); i >= 0; i = nextTask())
+				{
+					try
+					{
+						tasks.get(i).run();
+					}
+					catch (RuntimeException ex)
+					{
+						fail();
+						throw ex;
+					}
+					catch (Error ex)
+					{
+						fail();
+						throw ex;
+					}
+					finish(i);
+				}
+				return null;
+			}
+		};
+		for (int i = 0; i < nrThreads; i++)
+			workers.add(worker);
+		ParallelExecutor.invokeAll(workers, nrThreads);
+		synchronized (this)
+		{
+			if (nrRemaining > 0)
+				throw new IllegalStateException("Cyclic dependencies between "+nrRemaining+" tasks");
+		}
+	}
+
+	/**
+	 * Waits until a task is ready and returns its index, or -1 if there
+	 * is nothing left to do.
+	 */
+	private synchronized int nextTask()
+	{
+		while (ready.isEmpty() && nrRunning > 0 && !failed)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			}
+		}
+		if (ready.isEmpty() || failed)
+		{
+			// Wake up other threads, there may be a cycle
+			notifyAll();
+			return -1;
+		}
+		nrRunning++;
+		return ready.poll();
+	}
+
+	private synchronized void finish(int task)
+	{
+		TIntArrayList next = successors.get(task);
+		for (int i = 0, n = next.size(); i < n; i++)
+		{
+			int s = next.get(i);
+			nrPending[s]--;
+			if (nrPending[s] == 0)
+				ready.add(s);
+		}
+		nrRunning--;
+		nrRemaining--;
+		notifyAll();
+	}
+
+	private synchronized void fail()
+	{
+		failed = true;
+		nrRunning--;
+		notifyAll();
+	}
+}
@@ -0,0 +1,287 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import java.io.Serializable;
+
+/**
+ * Binary min-heap of non-negative integer identifiers sorted by a
+ * <code>double</code> value.  Values are stored into a <code>double[]</code>
+ * array indexed by identifiers, and position of identifiers within the heap
+ * are stored into an <code>int[]</code> array, so that {@link #update} and
+ * {@link #remove} run in <code>O(log n)</code>.  No object is allocated,
+ * except when arrays have to grow.
+ *
+ * <p>
+ * Identifiers must be small integers, since arrays are sized by the
+ * largest identifier.  {@link IndexedHeapQueue} maps objects to
+ * identifiers.
+ * </p>
+ */
+public class IndexedBinaryHeap implements Serializable
+{
+	private static final long serialVersionUID = 3590126384172905543L;
+
+	// Heap array: heap[0] is the identifier with lowest value
+	private int [] heap;
+	// Position of identifiers in heap, or -1
+	private int [] position;
+	// Values of identifiers
+	private double [] value;
+	private int size = 0;
+
+	public IndexedBinaryHeap()
+	{
+		this(16);
+	}
+
+	/**
+	 * Creates an empty heap.
+	 *
+	 * @param capacity  initial capacity, identifiers lower than this value
+	 * can be inserted without array reallocation
+	 */
+	public IndexedBinaryHeap(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		heap = new int[capacity];
+		position = new int[capacity];
+		value = new double[capacity];
+		for (int i = 0; i < capacity; i++)
+			position[i] = -1;
+	}
+
+	/**
+	 * Resizes internal arrays so that identifiers lower than
+	 * <code>capacity</code> can be inserted.
+	 *
+	 * @param capacity  new capacity
+	 */
+	public final void ensureCapacity(int capacity)
+	{
+		int old = position.length;
+		if (capacity <= old)
+			return;
+		int [] newHeap = new int[capacity];
+		System.arraycopy(heap, 0, newHeap, 0, size);
+		heap = newHeap;
+		int [] newPosition = new int[capacity];
+		System.arraycopy(position, 0, newPosition, 0, old);
+		for (int i = old; i < capacity; i++)
+			newPosition[i] = -1;
+		position = newPosition;
+		double [] newValue = new double[capacity];
+		System.arraycopy(value, 0, newValue, 0, old);
+		value = newValue;
+	}
+
+	/**
+	 * Tells whether this heap is empty.
+	 */
+	public final boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of identifiers in this heap.
+	 */
+	public final int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Checks whether an identifier is in this heap.
+	 */
+	public final boolean contains(int id)
+	{
+		return id < position.length && position[id] >= 0;
+	}
+
+	/**
+	 * Returns value of an identifier.  Result is undefined if identifier
+	 * is not in this heap.
+	 */
+	public final double getValue(int id)
+	{
+		return value[id];
+	}
+
+	/**
+	 * Inserts an identifier.
+	 *
+	 * @param id  identifier, it must not already be in heap
+	 * @param v   value
+	 */
+	public final void insert(int id, double v)
+	{
+		if (id < 0)
+			throw new IllegalArgumentException("Negative identifier: "+id);
+		if (id >= position.length)
+			ensureCapacity(Math.max(id + 1, 2 * position.length));
+		assert position[id] < 0 : "Identifier already in heap: "+id;
+		value[id] = v;
+		heap[size] = id;
+		position[id] = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Changes value of an identifier.
+	 *
+	 * @param id  identifier
+	 * @param v   new value
+	 * @return <code>true</code> if identifier was present in heap,
+	 *         <code>false</code> otherwise.
+	 */
+	public final boolean update(int id, double v)
+	{
+		if (!contains(id))
+			return false;
+		double old = value[id];
+		value[id] = v;
+		if (v < old)
+			siftUp(position[id]);
+		else
+			siftDown(position[id]);
+		return true;
+	}
+
+	/**
+	 * Removes an identifier.
+	 *
+	 * @param id  identifier
+	 * @return <code>true</code> if identifier was present in heap,
+	 *         <code>false</code> otherwise.
+	 */
+	public final boolean remove(int id)
+	{
+		if (!contains(id))
+			return false;
+		int pos = position[id];
+		position[id] = -1;
+		size--;
+		if (pos == size)
+			return true;
+		int last = heap[size];
+		heap[pos] = last;
+		position[last] = pos;
+		if (value[last] < value[id])
+			siftUp(pos);
+		else
+			siftDown(pos);
+		return true;
+	}
+
+	/**
+	 * Returns identifier with the lowest value.  Heap must not be empty.
+	 */
+	public final int peek()
+	{
+		return heap[0];
+	}
+
+	/**
+	 * Returns the lowest value.  Heap must not be empty.
+	 */
+	public final double peekValue()
+	{
+		return value[heap[0]];
+	}
+
+	/**
+	 * Removes identifier with the lowest value.  Heap must not be empty.
+	 *
+	 * @return identifier with the lowest value
+	 */
+	public final int poll()
+	{
+		int ret = heap[0];
+		remove(ret);
+		return ret;
+	}
+
+	/**
+	 * Returns identifier found at a given position in heap array.  This
+	 * can be used to iterate over identifiers in no particular order.
+	 *
+	 * @param pos  position, between 0 and <code>size()-1</code>
+	 * @return identifier
+	 */
+	public final int get(int pos)
+	{
+		return heap[pos];
+	}
+
+	/**
+	 * Removes all identifiers.
+	 */
+	public final void clear()
+	{
+		for (int i = 0; i < size; i++)
+			position[heap[i]] = -1;
+		size = 0;
+	}
+
+	private void siftUp(int pos)
+	{
+		int id = heap[pos];
+		double v = value[id];
+		while (pos > 0)
+		{
+			int parent = (pos - 1) >> 1;
+			int p = heap[parent];
+			if (value[p] <= v)
+				break;
+			heap[pos] = p;
+			position[p] = pos;
+			pos = parent;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+
+	private void siftDown(int pos)
+	{
+		int id = heap[pos];
+		double v = value[id];
+		int half = size >> 1;
+		while (pos < half)
+		{
+			int child = 2 * pos + 1;
+			int c = heap[child];
+			int right = child + 1;
+			if (right < size && value[heap[right]] < value[c])
+			{
+				child = right;
+				c = heap[child];
+			}
+			if (v <= value[c])
+				break;
+			heap[pos] = c;
+			position[c] = pos;
+			pos = child;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+}
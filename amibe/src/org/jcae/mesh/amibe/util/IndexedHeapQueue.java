@@ -0,0 +1,202 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import gnu.trove.TObjectIntHashMap;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Priority queue backed by an {@link IndexedBinaryHeap}.  Each object is
+ * given a slot identifier when inserted, and slots of removed objects are
+ * recycled, so that heap arrays stay as small as the largest number of
+ * objects simultaneously present in queue.  Unlike {@link QSortedTree},
+ * no node is allocated when objects are inserted or updated.
+ */
+public class IndexedHeapQueue<E> implements SortedQueue<E>, Serializable
+{
+	private static final long serialVersionUID = -5120364825127624036L;
+	private final IndexedBinaryHeap heap;
+	// Mapping between objects and slot identifiers
+	private transient TObjectIntHashMap<E> ids;
+	// Objects stored by slot identifiers
+	private Object [] objects;
+	// Recycled slot identifiers
+	private int [] freeIds;
+	private int nrFreeIds = 0;
+	private int nextId = 0;
+	// Maximal number of values looked at by getRootValue()
+	private static final int NR_SAMPLES = 63;
+	private final double [] samples = new double[NR_SAMPLES];
+
+	public IndexedHeapQueue()
+	{
+		this(16);
+	}
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param capacity  initial capacity
+	 */
+	public IndexedHeapQueue(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		heap = new IndexedBinaryHeap(capacity);
+		ids = new TObjectIntHashMap<E>(capacity);
+		objects = new Object[capacity];
+		freeIds = new int[capacity];
+	}
+
+	private void readObject(java.io.ObjectInputStream s)
+		throws java.io.IOException, ClassNotFoundException
+	{
+		s.defaultReadObject();
+		int size = heap.size();
+		ids = new TObjectIntHashMap<E>(size);
+		for (int i = 0; i < size; i++)
+		{
+			int id = heap.get(i);
+			ids.put(getObject(id), id);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private E getObject(int id)
+	{
+		return (E) objects[id];
+	}
+
+	public final void insert(E o, double value)
+	{
+		assert !ids.containsKey(o) : "Object already in queue: "+o;
+		int id;
+		if (nrFreeIds > 0)
+		{
+			nrFreeIds--;
+			id = freeIds[nrFreeIds];
+		}
+		else
+		{
+			id = nextId;
+			nextId++;
+			if (id >= objects.length)
+			{
+				Object [] newObjects = new Object[2*objects.length];
+				System.arraycopy(objects, 0, newObjects, 0, objects.length);
+				objects = newObjects;
+				heap.ensureCapacity(newObjects.length);
+			}
+		}
+		objects[id] = o;
+		ids.put(o, id);
+		heap.insert(id, value);
+	}
+
+	public final boolean remove(E o)
+	{
+		if (!ids.containsKey(o))
+			return false;
+		int id = ids.remove(o);
+		heap.remove(id);
+		objects[id] = null;
+		if (nrFreeIds >= freeIds.length)
+		{
+			int [] newFreeIds = new int[2*freeIds.length];
+			System.arraycopy(freeIds, 0, newFreeIds, 0, nrFreeIds);
+			freeIds = newFreeIds;
+		}
+		freeIds[nrFreeIds] = id;
+		nrFreeIds++;
+		return true;
+	}
+
+	public final boolean update(E o, double value)
+	{
+		if (!ids.containsKey(o))
+			return false;
+		int id = ids.get(o);
+		heap.update(id, value);
+		return true;
+	}
+
+	public final boolean contains(E o)
+	{
+		return ids.containsKey(o);
+	}
+
+	public final int size()
+	{
+		return heap.size();
+	}
+
+	public final boolean isEmpty()
+	{
+		return heap.isEmpty();
+	}
+
+	public final void clear()
+	{
+		heap.clear();
+		ids.clear();
+		for (int i = 0; i < nextId; i++)
+			objects[i] = null;
+		nextId = 0;
+		nrFreeIds = 0;
+	}
+
+	/**
+	 * Return an approximation of the median quality factor.  Values are
+	 * sampled at evenly spaced positions of the heap array, each object
+	 * has one position so this is an unbiased sample of all values.
+	 * Infinite values and <code>Double.MAX_VALUE</code>, which are used
+	 * as costs of edges which must not be processed, are skipped so that
+	 * the penalty computed from this value stays finite.
+	 */
+	public final double getRootValue()
+	{
+		int size = heap.size();
+		int step = (size + NR_SAMPLES - 1) / NR_SAMPLES;
+		int nr = 0;
+		for (int pos = 0; pos < size; pos += step)
+		{
+			double v = heap.getValue(heap.get(pos));
+			if (v < Double.MAX_VALUE && v > -Double.MAX_VALUE)
+			{
+				samples[nr] = v;
+				nr++;
+			}
+		}
+		if (nr == 0)
+			return 0.0;
+		Arrays.sort(samples, 0, nr);
+		return samples[nr / 2];
+	}
+
+	public final E peek()
+	{
+		return getObject(heap.peek());
+	}
+
+	public final double peekValue()
+	{
+		return heap.peekValue();
+	}
+}
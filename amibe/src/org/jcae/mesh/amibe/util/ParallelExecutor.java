@@ -0,0 +1,205 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.amibe.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a thread pool shared by all amibe algorithms.  Threads are
+ * daemon threads created on demand and released when idle, so that calling
+ * these methods many times, for instance in each batch query, does not
+ * create new pools.  Exceptions thrown by tasks are rethrown in the calling
+ * thread, checked exceptions are wrapped into a
+ * <code>RuntimeException</code>.
+ */
+public final class ParallelExecutor
+{
+	private static ExecutorService pool;
+
+	private ParallelExecutor()
+	{
+	}
+
+	/**
+	 * Returns the number of processors available to the virtual machine.
+	 */
+	public static int getNumberOfProcessors()
+	{
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static synchronized ExecutorService getPool()
+	{
+		if (pool == null)
+		{
+			pool = Executors.newCachedThreadPool(new ThreadFactory()
+			{
+				private final AtomicInteger counter = new AtomicInteger();
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "amibe-worker-"+counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Submits a task to the shared pool.  Its result must be retrieved
+	 * with {@link #get}.
+	 *
+	 * @param task  task to run
+	 * @return a handle on the result
+	 */
+	public static <T> Future<T> submit(Callable<T> task)
+	{
+		return getPool().submit(task);
+	}
+
+	/**
+	 * Waits for a task submitted by {@link #submit} and returns its result.
+	 *
+	 * @param future  handle returned by {@link #submit}
+	 * @return task result
+	 */
+	public static <T> T get(Future<T> future)
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw rethrow(ex.getCause());
+		}
+	}
+
+	/**
+	 * Runs tasks with at most <code>nrThreads</code> threads, including
+	 * the calling thread, and waits until they are all finished.  Tasks
+	 * are picked in list order by each thread, so that tasks may be
+	 * smaller than the number of threads without penalty.  When
+	 * <code>nrThreads</code> is 1, tasks are run by the calling thread.
+	 *
+	 * @param tasks  tasks to run
+	 * @param nrThreads  maximal number of threads
+	 * @return results, in the same order as tasks
+	 */
+	public static <T> List<T> invokeAll(final List<? extends Callable<T>> tasks, int nrThreads)
+	{
+		final int nrTasks = tasks.size();
+		final List<T> ret = new ArrayList<T>(nrTasks);
+		for (int i = 0; i < nrTasks; i++)
+			ret.add(null);
+		nrThreads = Math.max(1, Math.min(nrThreads, nrTasks));
+		if (nrThreads == 1)
+		{
+			for (int i = 0; i < nrTasks; i++)
+				ret.set(i, call(tasks.get(i)));
+			return ret;
+		}
+		final AtomicInteger next = new AtomicInteger();
+		Callable<Object> worker = new Callable<Object>()
+		{
+			public Object call()
+				throws Exception
+			{
+				for (int i = next.getAndIncrement(); i < nrTasks; i = next.getAndIncrement())
+				{
+					T result = tasks.get(i).call();
+					synchronized (ret)
+					{
+						ret.set(i, result);
+					}
+				}
+				return null;
+			}
+		};
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(nrThreads - 1);
+		for (int i = 1; i < nrThreads; i++)
+			futures.add(submit(worker));
+		RuntimeException error = null;
+		try
+		{
+			call(worker);
+		}
+		catch (RuntimeException ex)
+		{
+			// Skip remaining tasks
+			next.set(nrTasks);
+			error = ex;
+		}
+		for (Future<Object> f: futures)
+		{
+			try
+			{
+				get(f);
+			}
+			catch (RuntimeException ex)
+			{
+				if (error == null)
+					error = ex;
+			}
+		}
+		if (error != null)
+			throw error;
+		synchronized (ret)
+		{
+			return ret;
+		}
+	}
+
+	private static <T> T call(Callable<T> task)
+	{
+		try
+		{
+			return task.call();
+		}
+		catch (Exception ex)
+		{
+			throw rethrow(ex);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable cause)
+	{
+		if (cause instanceof RuntimeException)
+			return (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new RuntimeException(cause);
+	}
+}
@@ -36,7 +36,7 @@ import java.util.logging.Logger;
  * that duplicate quality factors are allowed.  See examples in algorithms from
  * {@link org.jcae.mesh.amibe.algos3d}.
  */
-public abstract class QSortedTree<E> implements Serializable
+public abstract class QSortedTree<E> implements SortedQueue<E>, Serializable
 {
 	private static final long serialVersionUID = -2194224744257185278L;
 	private static final Logger logger=Logger.getLogger(QSortedTree.class.getName());	
@@ -101,8 +101,9 @@ public abstract class QSortedTree<E> implements Serializable
 			final E temp = that.data;
 			that.data = data;
 			data = temp;
-			// For now there is no reason to swap values
+			final double tempValue = that.value;
 			that.value = value;
+			value = tempValue;
 		}
 	
 		public final double getValue()
@@ -492,6 +493,24 @@ public abstract class QSortedTree<E> implements Serializable
 		return root.child[0].getValue();
 	}
 	
+	/**
+	 * Return the object with the lowest quality factor.
+	 * @return the object with the lowest quality factor.
+	 */
+	public final E peek()
+	{
+		return root.child[0].firstNode().getData();
+	}
+
+	/**
+	 * Return the lowest quality factor.
+	 * @return the lowest quality factor.
+	 */
+	public final double peekValue()
+	{
+		return root.child[0].firstNode().getValue();
+	}
+
 	private final Iterator<Node<E>> nullIterator = new Iterator<Node<E>>()
 	{
 		public boolean hasNext() { return false; }
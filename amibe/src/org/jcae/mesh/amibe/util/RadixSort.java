@@ -0,0 +1,136 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import java.util.Arrays;
+
+/**
+ * Radix sort of non-negative <code>long</code> keys carrying an
+ * <code>int</code> payload.  Keys are sorted by bytes, starting from the
+ * least significant one, and byte passes which do not change anything are
+ * skipped, so sorting keys built from small integers is cheap.  No object
+ * is allocated except two work arrays of the same size as input arrays.
+ * The sort is stable, payloads of equal keys keep their relative order.
+ */
+public final class RadixSort
+{
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int MASK = RADIX - 1;
+
+	private RadixSort()
+	{
+	}
+
+	/**
+	 * Sorts the first <code>n</code> keys in increasing order, and moves
+	 * values accordingly.
+	 *
+	 * @param keys  keys to sort, they must be non-negative
+	 * @param values  payload, <code>values[i]</code> is moved along with <code>keys[i]</code>
+	 * @param n  number of elements to sort
+	 */
+	public static void sort(long [] keys, int [] values, int n)
+	{
+		sort(keys, values, 0, n);
+	}
+
+	/**
+	 * Sorts keys between <code>from</code> (inclusive) and <code>to</code>
+	 * (exclusive) in increasing order, and moves values accordingly.
+	 * Work arrays have size <code>to-from</code>, so that several ranges
+	 * of the same arrays can be sorted concurrently.
+	 *
+	 * @param keys  keys to sort, they must be non-negative
+	 * @param values  payload, <code>values[i]</code> is moved along with <code>keys[i]</code>
+	 * @param from  index of the first element to sort
+	 * @param to  index after the last element to sort
+	 */
+	public static void sort(long [] keys, int [] values, int from, int to)
+	{
+		int n = to - from;
+		if (n < 2)
+			return;
+		long maxKey = 0L;
+		for (int i = from; i < to; i++)
+		{
+			if (keys[i] < 0L)
+				throw new IllegalArgumentException("Negative key: "+keys[i]);
+			maxKey |= keys[i];
+		}
+		long [] srcKeys = keys;
+		int [] srcValues = values;
+		int srcOffset = from;
+		long [] dstKeys = new long[n];
+		int [] dstValues = new int[n];
+		int dstOffset = 0;
+		int [] count = new int[RADIX];
+		for (int shift = 0; shift < 64 && (maxKey >>> shift) != 0L; shift += RADIX_BITS)
+		{
+			if (!countingPass(srcKeys, srcValues, srcOffset, dstKeys, dstValues, dstOffset, n, shift, count))
+				continue;
+			long [] tk = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = tk;
+			int [] tv = srcValues;
+			srcValues = dstValues;
+			dstValues = tv;
+			int tOffset = srcOffset;
+			srcOffset = dstOffset;
+			dstOffset = tOffset;
+		}
+		if (srcKeys != keys)
+		{
+			System.arraycopy(srcKeys, srcOffset, keys, from, n);
+			System.arraycopy(srcValues, srcOffset, values, from, n);
+		}
+	}
+
+	/**
+	 * Performs a counting pass on a given byte.
+	 *
+	 * @return <code>false</code> if all keys have the same byte, in which case
+	 * nothing is copied, <code>true</code> otherwise.
+	 */
+	private static boolean countingPass(long [] srcKeys, int [] srcValues, int srcOffset,
+		long [] dstKeys, int [] dstValues, int dstOffset, int n, int shift, int [] count)
+	{
+		Arrays.fill(count, 0);
+		int end = srcOffset + n;
+		for (int i = srcOffset; i < end; i++)
+			count[(int) ((srcKeys[i] >>> shift) & MASK)]++;
+		if (count[(int) ((srcKeys[srcOffset] >>> shift) & MASK)] == n)
+			return false;
+		int sum = dstOffset;
+		for (int b = 0; b < RADIX; b++)
+		{
+			int c = count[b];
+			count[b] = sum;
+			sum += c;
+		}
+		for (int i = srcOffset; i < end; i++)
+		{
+			int pos = count[(int) ((srcKeys[i] >>> shift) & MASK)]++;
+			dstKeys[pos] = srcKeys[i];
+			dstValues[pos] = srcValues[i];
+		}
+		return true;
+	}
+}
@@ -0,0 +1,93 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+/**
+ * Priority queues of objects sorted by quality factors.  Objects with the
+ * lowest quality factor are processed first, duplicate quality factors are
+ * allowed.  This interface is implemented by binary trees
+ * ({@link QSortedTree}) and by binary heaps ({@link IndexedHeapQueue}).
+ */
+public interface SortedQueue<E>
+{
+	/**
+	 * Insert an object into this queue.  Duplicates are not checked.
+	 * @param o      object
+	 * @param value  quality factor
+	 */
+	void insert(E o, double value);
+
+	/**
+	 * Remove an object from this queue.
+	 * @param o      object being removed
+	 * @return  <code>true</code> if object was present in queue,
+	 * <code>false</code> otherwise.
+	 */
+	boolean remove(E o);
+
+	/**
+	 * Update the quality factor of an object, if it was already
+	 * present in queue.
+	 * @param o      object being updated
+	 * @param value  new quality factor
+	 * @return <code>true</code> if object was present in queue,
+	 *         <code>false</code> otherwise.
+	 */
+	boolean update(E o, double value);
+
+	/**
+	 * Checks whether an object exist is this queue.
+	 * @param o      object being checked
+	 * @return <code>true</code> if this queue contains this object,
+	 *   <code>false</code> otherwise.
+	 */
+	boolean contains(E o);
+
+	/**
+	 * Return the number of objects in this queue.
+	 */
+	int size();
+
+	/**
+	 * Tell whether this queue is empty.
+	 */
+	boolean isEmpty();
+
+	/**
+	 * Clear this queue.
+	 */
+	void clear();
+
+	/**
+	 * Return an approximation of the median quality factor.
+	 */
+	double getRootValue();
+
+	/**
+	 * Return the object with the lowest quality factor.  Queue must not
+	 * be empty.
+	 */
+	E peek();
+
+	/**
+	 * Return the lowest quality factor.  Queue must not be empty.
+	 */
+	double peekValue();
+}
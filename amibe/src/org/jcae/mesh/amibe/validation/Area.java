@@ -30,9 +30,9 @@ import org.jcae.mesh.amibe.metrics.Matrix3D;
  */
 public class Area extends QualityProcedure
 {
-	private static final double [] v1 = new double[3];
-	private static final double [] v2 = new double[3];
-	private static final double [] v3 = new double[3];
+	private final double [] v1 = new double[3];
+	private final double [] v2 = new double[3];
+	private final double [] v3 = new double[3];
 	
 	@Override
 	protected void setValidationFeatures()
@@ -41,6 +41,12 @@ public class Area extends QualityProcedure
 		type = QualityProcedure.FACE;
 	}
 
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
 	@Override
 	public float quality(Object o)
 	{
@@ -37,6 +37,12 @@ public class MaxAngleFace extends QualityProcedure
 		type = QualityProcedure.FACE;
 	}
 
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
 	@Override
 	public float quality(Object o)
 	{
@@ -38,6 +38,12 @@ public class MinLengthFace extends QualityProcedure
 		type = QualityProcedure.FACE;
 	}
 
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
 	@Override
 	public float quality(Object o)
 	{
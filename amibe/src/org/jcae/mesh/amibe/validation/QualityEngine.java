@@ -0,0 +1,301 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.validation;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import org.jcae.mesh.xmldata.AmibeReader;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Compute several quality criteria in a single pass.
+ *
+ * Elements are split into ranges which are processed concurrently, each
+ * range has its own {@link QualityProcedure} instances and its own
+ * {@link QualityStatistics} instances, which are merged at the end.
+ * Quality procedures must then have a public constructor without
+ * argument.  Values are not stored, memory usage does not depend on mesh
+ * size.  Element indices are the same as with {@link QualityFloat}, that
+ * is triangles and nodes are numbered in iteration order, outer triangles
+ * being skipped.
+ *
+ * Example:
+ * <pre>
+ *    QualityEngine engine = new QualityEngine();
+ *    engine.setNumberOfThreads(0);
+ *    QualityStatistics minAngle = engine.add(new MinAngleFace());
+ *    minAngle.setTarget((float) Math.PI/3.0f);
+ *    minAngle.split(0.0f, 1.0f, 10);
+ *    QualityStatistics maxLength = engine.add(new MaxLengthFace());
+ *    maxLength.setHighIsWorse(true);
+ *    engine.compute(new AmibeReader.Dim3(xmlDir));
+ *    minAngle.printLayers();
+ *    maxLength.printStatistics();
+ * </pre>
+ */
+public class QualityEngine
+{
+	private static final Logger LOGGER=Logger.getLogger(QualityEngine.class.getName());
+	private final List<QualityProcedureFactory> factories = new ArrayList<QualityProcedureFactory>();
+	private final List<QualityStatistics> results = new ArrayList<QualityStatistics>();
+	private final List<QualityProcedure> procedures = new ArrayList<QualityProcedure>();
+	private int nrThreads = 1;
+
+	/**
+	 * Sets the number of threads, default is 1.  If <code>n</code> is
+	 * not positive, all processors are used.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		if (n <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
+		else
+			nrThreads = n;
+	}
+
+	/**
+	 * Adds a quality criterion.  Only its class is used, a new instance
+	 * is created for each range of elements.
+	 *
+	 * @param qproc  quality procedure
+	 * @return statistics which are updated by <code>compute</code>
+	 * methods; they can be configured before calling these methods.
+	 */
+	public final QualityStatistics add(QualityProcedure qproc)
+	{
+		if (qproc.getType() != QualityProcedure.FACE && qproc.getType() != QualityProcedure.NODE)
+			throw new IllegalArgumentException("Only face and node criteria are supported");
+		QualityProcedureFactory factory = new QualityProcedureFactory(qproc.getClass().getName());
+		if (factory.buildQualityProcedure() == null)
+			throw new IllegalArgumentException(qproc.getClass().getName()+" has no public constructor without argument");
+		factories.add(factory);
+		procedures.add(qproc);
+		QualityStatistics ret = new QualityStatistics();
+		results.add(ret);
+		return ret;
+	}
+
+	/**
+	 * Computes quality of mesh elements.
+	 *
+	 * @param mesh  mesh
+	 */
+	public final void compute(Mesh mesh)
+	{
+		final Triangle [] triangles = new Triangle[mesh.getTriangles().size()];
+		int nrTriangles = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				triangles[nrTriangles++] = t;
+		}
+		Collection<Vertex> nodeset = mesh.getNodes();
+		if (nodeset == null)
+		{
+			nodeset = new LinkedHashSet<Vertex>(nrTriangles / 2);
+			for (int i = 0; i < nrTriangles; i++)
+				for (Vertex v : triangles[i].vertex)
+					nodeset.add(v);
+		}
+		final Vertex [] nodes = nodeset.toArray(new Vertex[nodeset.size()]);
+
+		clear();
+		List<Callable<QualityStatistics[]>> tasks = new ArrayList<Callable<QualityStatistics[]>>();
+		for (Range r : split(nrTriangles))
+		{
+			final Range range = r;
+			tasks.add(new Callable<QualityStatistics[]>()
+			{
+				public QualityStatistics[] call()
+				{
+					QualityProcedure [] qprocs = buildQualityProcedures(QualityProcedure.FACE);
+					QualityStatistics [] stats = buildStatistics();
+					for (int i = range.first; i < range.last; i++)
+						for (int j = 0; j < qprocs.length; j++)
+							if (qprocs[j] != null)
+								stats[j].add(i, qprocs[j].quality(triangles[i]));
+					finish(qprocs);
+					return stats;
+				}
+			});
+		}
+		for (Range r : split(nodes.length))
+		{
+			final Range range = r;
+			tasks.add(new Callable<QualityStatistics[]>()
+			{
+				public QualityStatistics[] call()
+				{
+					QualityProcedure [] qprocs = buildQualityProcedures(QualityProcedure.NODE);
+					QualityStatistics [] stats = buildStatistics();
+					for (int i = range.first; i < range.last; i++)
+						for (int j = 0; j < qprocs.length; j++)
+							if (qprocs[j] != null)
+								stats[j].add(i, qprocs[j].quality(nodes[i]));
+					finish(qprocs);
+					return stats;
+				}
+			});
+		}
+		merge(ParallelExecutor.invokeAll(tasks, nrThreads));
+	}
+
+	/**
+	 * Computes quality of triangles stored on disk, without building a
+	 * {@link Mesh}.  Only criteria for which
+	 * {@link QualityProcedure#isLocal} returns <code>true</code> can be
+	 * computed this way.  Triangles of all submeshes are processed, and
+	 * they are numbered as in files.  Outer triangles are skipped, they
+	 * are written last by {@link org.jcae.mesh.xmldata.MeshWriter} so
+	 * indices are the same as with {@link #compute(Mesh)}.
+	 *
+	 * @param reader  mesh reader
+	 */
+	public final void compute(AmibeReader.Dim3 reader) throws IOException
+	{
+		for (QualityProcedure qproc : procedures)
+		{
+			if (qproc.getType() != QualityProcedure.FACE || !qproc.isLocal())
+				throw new IllegalArgumentException(qproc.getClass().getName()+" cannot be computed without building a Mesh");
+		}
+		clear();
+		List<Callable<QualityStatistics[]>> tasks = new ArrayList<Callable<QualityStatistics[]>>();
+		int offset = 0;
+		for (AmibeReader.SubMesh subMesh : reader.getSubmeshes())
+		{
+			final DoubleBuffer nodesBuffer = subMesh.getNodesBuffer();
+			final IntBuffer triasBuffer = subMesh.getTrianglesBuffer();
+			for (Range r : split(subMesh.getNumberOfTrias()))
+			{
+				final Range range = r;
+				final int indexOffset = offset;
+				tasks.add(new Callable<QualityStatistics[]>()
+				{
+					public QualityStatistics[] call()
+					{
+						// Buffers have an internal position, each task
+						// has its own views
+						DoubleBuffer coords = nodesBuffer.duplicate();
+						IntBuffer trias = triasBuffer.duplicate();
+						QualityProcedure [] qprocs = buildQualityProcedures(QualityProcedure.FACE);
+						QualityStatistics [] stats = buildStatistics();
+						Triangle t = new Triangle(null);
+						for (int k = 0; k < 3; k++)
+							t.vertex[k] = new Vertex(null, 0.0, 0.0, 0.0);
+						for (int i = range.first; i < range.last; i++)
+						{
+							boolean outer = false;
+							for (int k = 0; k < 3; k++)
+							{
+								int n = trias.get(3*i+k);
+								if (n < 0)
+								{
+									outer = true;
+									break;
+								}
+								t.vertex[k].moveTo(coords.get(3*n), coords.get(3*n+1), coords.get(3*n+2));
+							}
+							if (outer)
+								continue;
+							for (int j = 0; j < qprocs.length; j++)
+								stats[j].add(indexOffset + i, qprocs[j].quality(t));
+						}
+						finish(qprocs);
+						return stats;
+					}
+				});
+			}
+			offset += subMesh.getNumberOfTrias();
+		}
+		merge(ParallelExecutor.invokeAll(tasks, nrThreads));
+	}
+
+	private static class Range
+	{
+		private final int first, last;
+		Range(int first, int last)
+		{
+			this.first = first;
+			this.last = last;
+		}
+	}
+
+	// Split [0, n) into one range per thread
+	private List<Range> split(int n)
+	{
+		List<Range> ret = new ArrayList<Range>(nrThreads);
+		int step = (n + nrThreads - 1) / nrThreads;
+		for (int i = 0; i < n; i += step)
+			ret.add(new Range(i, Math.min(n, i + step)));
+		return ret;
+	}
+
+	// Procedures which do not apply on this element type are null
+	private QualityProcedure [] buildQualityProcedures(int type)
+	{
+		QualityProcedure [] ret = new QualityProcedure[factories.size()];
+		for (int j = 0; j < ret.length; j++)
+		{
+			if (procedures.get(j).getType() == type)
+				ret[j] = factories.get(j).buildQualityProcedure();
+		}
+		return ret;
+	}
+
+	private QualityStatistics [] buildStatistics()
+	{
+		QualityStatistics [] ret = new QualityStatistics[results.size()];
+		for (int j = 0; j < ret.length; j++)
+			ret[j] = new QualityStatistics(results.get(j));
+		return ret;
+	}
+
+	private static void finish(QualityProcedure [] qprocs)
+	{
+		for (QualityProcedure qproc : qprocs)
+			if (qproc != null)
+				qproc.finish();
+	}
+
+	private void clear()
+	{
+		for (QualityStatistics s : results)
+			s.clear();
+	}
+
+	private void merge(List<QualityStatistics[]> stats)
+	{
+		for (QualityStatistics [] s : stats)
+			for (int j = 0; j < s.length; j++)
+				results.get(j).merge(s[j]);
+		LOGGER.fine("Quality computed on "+stats.size()+" ranges");
+	}
+}
@@ -114,6 +114,17 @@ public abstract class QualityProcedure
 	 */
 	public abstract float quality(Object o);
 	
+	/**
+	 * Tells whether quality only depends on vertex coordinates of the
+	 * element.  In this case, {@link QualityEngine} can compute it
+	 * without building a {@link org.jcae.mesh.amibe.ds.Mesh}.
+	 * By default, this method returns <code>false</code>.
+	 */
+	public boolean isLocal()
+	{
+		return false;
+	}
+
 	/**
 	 * Returns default scale factor.
 	 */
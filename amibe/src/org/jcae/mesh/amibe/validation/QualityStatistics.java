@@ -0,0 +1,478 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.validation;
+
+import java.util.logging.Logger;
+
+/**
+ * Statistics about quality values, with bounded memory.
+ *
+ * Contrary to {@link QualityFloat}, values are not stored.  Minimum,
+ * maximum, mean value and standard deviation are computed on the fly,
+ * and histogram, approximate quantiles and a list of worst elements
+ * are updated when a value is added.  Memory usage does not depend on
+ * the number of values, so this class is suitable for very large
+ * meshes.  Instances can be merged, so that values are computed
+ * concurrently, see {@link QualityEngine}.
+ *
+ * Quantiles are computed from a histogram of the 16 most significant
+ * bits of float values, their relative precision is thus about 1%.
+ */
+public class QualityStatistics
+{
+	private static final Logger logger=Logger.getLogger(QualityStatistics.class.getName());
+	// Number of cells used to compute quantiles
+	private static final int NR_CELLS = 1 << 16;
+	private int [] cells;
+	private long count;
+	private float scaleFactor = 1.0f;
+	private float qmin, qmax;
+	private int imin, imax;
+	// qavg and qavg2 have to be stored into doubles, otherwise
+	// standard deviation may be miscomputed with very large data
+	// collections.
+	private double qavg, qavg2;
+	// Histogram defined by split()
+	private int layers = -1;
+	private float vmin, vmax;
+	private long [] sorted;
+	// Worst values, stored as a binary heap whose root is the best
+	// value among them.
+	private int nrWorst = 10;
+	private boolean highIsWorse = false;
+	private int heapSize;
+	private float [] worstValues;
+	private int [] worstIndices;
+
+	public QualityStatistics()
+	{
+		clear();
+	}
+
+	/**
+	 * Creates an empty instance with the same settings as another one.
+	 */
+	QualityStatistics(QualityStatistics that)
+	{
+		scaleFactor = that.scaleFactor;
+		nrWorst = that.nrWorst;
+		highIsWorse = that.highIsWorse;
+		if (that.layers >= 0)
+			split(that.vmin, that.vmax, that.layers);
+		clear();
+	}
+
+	/**
+	 * Removes all values.  Settings are kept.
+	 */
+	public final void clear()
+	{
+		cells = null;
+		count = 0L;
+		qmin = Float.MAX_VALUE;
+		qmax = -Float.MAX_VALUE;
+		imin = imax = -1;
+		qavg = qavg2 = 0.0;
+		if (sorted != null)
+			sorted = new long[layers+2];
+		heapSize = 0;
+		worstValues = new float[nrWorst];
+		worstIndices = new int[nrWorst];
+	}
+
+	/**
+	 * Normalize quality target.  This method divides all values
+	 * by the given factor, it must be called before adding values.
+	 *
+	 * @param factor   the scale factor.
+	 */
+	public final void setTarget(float factor)
+	{
+		scaleFactor = 1.0f / factor;
+	}
+
+	/**
+	 * Sets the number of worst elements to keep, default is 10.  This
+	 * method must be called before adding values.
+	 */
+	public final void setNumberOfWorstElements(int n)
+	{
+		nrWorst = n;
+		clear();
+	}
+
+	/**
+	 * Tells whether worst elements are those with highest values.  By
+	 * default, they are those with lowest values.  This method must be
+	 * called before adding values.
+	 */
+	public final void setHighIsWorse(boolean b)
+	{
+		highIsWorse = b;
+		clear();
+	}
+
+	/**
+	 * Defines histogram displayed by {@link #printLayers}.  The range
+	 * between <code>v1</code> and <code>v2</code> is divided into
+	 * <code>nr</code> subsegments of equal length, like
+	 * {@link QualityFloat#split(float, float, int)}.  Contrary to
+	 * QualityFloat, this method must be called before adding values.
+	 *
+	 * @param v1  minimal value to consider.
+	 * @param v2  maximal value to consider.
+	 * @param nr  the desired number of subsegments.
+	 */
+	public final void split(float v1, float v2, int nr)
+	{
+		layers = nr;
+		vmin = v1;
+		vmax = v2;
+		sorted = (layers < 0 ? null : new long[layers+2]);
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param index  index of the element
+	 * @param x  quality value of this element
+	 */
+	public final void add(int index, float x)
+	{
+		float val = x * scaleFactor;
+		if (Float.isNaN(val))
+		{
+			logger.fine("NaN value found for element "+index);
+			return;
+		}
+		count++;
+		double dval = val;
+		qavg += dval;
+		qavg2 += dval * dval;
+		if (qmin > val)
+		{
+			qmin = val;
+			imin = index;
+		}
+		if (qmax < val)
+		{
+			qmax = val;
+			imax = index;
+		}
+		if (cells == null)
+			cells = new int[NR_CELLS];
+		cells[cell(val)]++;
+		if (sorted != null)
+			sorted[layer(val)]++;
+		addWorst(index, val);
+	}
+
+	/**
+	 * Adds all values of another instance, which must have the same
+	 * settings.
+	 */
+	public final void merge(QualityStatistics that)
+	{
+		if (that.count == 0L)
+			return;
+		count += that.count;
+		qavg += that.qavg;
+		qavg2 += that.qavg2;
+		if (qmin > that.qmin)
+		{
+			qmin = that.qmin;
+			imin = that.imin;
+		}
+		if (qmax < that.qmax)
+		{
+			qmax = that.qmax;
+			imax = that.imax;
+		}
+		if (cells == null)
+			cells = new int[NR_CELLS];
+		for (int i = 0; i < NR_CELLS; i++)
+			cells[i] += that.cells[i];
+		if (sorted != null)
+		{
+			for (int i = 0; i < sorted.length; i++)
+				sorted[i] += that.sorted[i];
+		}
+		for (int i = 0; i < that.heapSize; i++)
+			addWorst(that.worstIndices[i], that.worstValues[i]);
+	}
+
+	// Cells are ordered like float values
+	private static int cell(float val)
+	{
+		int bits = Float.floatToIntBits(val);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return (bits ^ 0x80000000) >>> 16;
+	}
+
+	private static float cellLowerBound(int cell)
+	{
+		int bits = (cell << 16) ^ 0x80000000;
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return Float.intBitsToFloat(bits);
+	}
+
+	private int layer(float val)
+	{
+		//  Same as QualityFloat.split(float, float, int)
+		float delta = (vmax - vmin) / layers;
+		int cell = (int) ((val - vmin) / delta + 1.001f);
+		if (cell < 0)
+			cell = 0;
+		else if (cell >= layers + 1)
+		{
+			if (val > vmax)
+				cell = layers + 1;
+			else
+				cell = layers;
+		}
+		return cell;
+	}
+
+	// Returns true if (v1, i1) is worse than (v2, i2).  Ties are
+	// broken by indices so that worst elements do not depend on the
+	// order in which values are added.
+	private boolean isWorse(float v1, int i1, float v2, int i2)
+	{
+		if (v1 != v2)
+			return highIsWorse ? v1 > v2 : v1 < v2;
+		return i1 < i2;
+	}
+
+	private void addWorst(int index, float val)
+	{
+		if (nrWorst <= 0)
+			return;
+		int pos;
+		if (heapSize < nrWorst)
+		{
+			// Sift up
+			pos = heapSize;
+			heapSize++;
+			while (pos > 0)
+			{
+				int parent = (pos - 1) / 2;
+				if (!isWorse(worstValues[parent], worstIndices[parent], val, index))
+					break;
+				worstValues[pos] = worstValues[parent];
+				worstIndices[pos] = worstIndices[parent];
+				pos = parent;
+			}
+		}
+		else
+		{
+			if (!isWorse(val, index, worstValues[0], worstIndices[0]))
+				return;
+			// Replace root and sift down
+			pos = 0;
+			while (true)
+			{
+				int child = 2 * pos + 1;
+				if (child >= heapSize)
+					break;
+				if (child + 1 < heapSize && isWorse(worstValues[child], worstIndices[child], worstValues[child+1], worstIndices[child+1]))
+					child++;
+				if (!isWorse(val, index, worstValues[child], worstIndices[child]))
+					break;
+				worstValues[pos] = worstValues[child];
+				worstIndices[pos] = worstIndices[child];
+				pos = child;
+			}
+		}
+		worstValues[pos] = val;
+		worstIndices[pos] = index;
+	}
+
+	/**
+	 * Returns indices of worst elements, from the worst one.
+	 */
+	public final int [] getWorstIndices()
+	{
+		int [] ret = new int[heapSize];
+		float [] values = new float[heapSize];
+		sortWorst(ret, values);
+		return ret;
+	}
+
+	/**
+	 * Returns values of worst elements, in the same order as
+	 * {@link #getWorstIndices}.
+	 */
+	public final float [] getWorstValues()
+	{
+		int [] indices = new int[heapSize];
+		float [] ret = new float[heapSize];
+		sortWorst(indices, ret);
+		return ret;
+	}
+
+	private void sortWorst(int [] indices, float [] values)
+	{
+		System.arraycopy(worstIndices, 0, indices, 0, heapSize);
+		System.arraycopy(worstValues, 0, values, 0, heapSize);
+		// Insertion sort, there are few values
+		for (int i = 1; i < heapSize; i++)
+		{
+			float v = values[i];
+			int idx = indices[i];
+			int j = i - 1;
+			for (; j >= 0 && isWorse(v, idx, values[j], indices[j]); j--)
+			{
+				values[j+1] = values[j];
+				indices[j+1] = indices[j];
+			}
+			values[j+1] = v;
+			indices[j+1] = idx;
+		}
+	}
+
+	/**
+	 * Return value by its distribution index.  Returned value is
+	 * such that there are about <code>p*N</code> values below it, where
+	 * <code>N</code> is the total number of values.  For instance,
+	 * <code>getValueByPercent(0.0)</code> (resp. 1 and 0.5) returns
+	 * minimum value (resp. maximum value and median value).
+	 * Minimum and maximum values are exact, other values have a relative
+	 * precision of about 1%.
+	 *
+	 * @param p  number between 0 and 1
+	 * @return  value associated to this distribution index
+	 */
+	public final float getValueByPercent(double p)
+	{
+		if (p <= 0.0 || count == 0L)
+			return qmin;
+		if (p >= 1.0)
+			return qmax;
+		long target = (long) (p * count);
+		long sum = 0L;
+		for (int i = 0; i < NR_CELLS; i++)
+		{
+			sum += cells[i];
+			if (sum > target)
+			{
+				float ret = cellLowerBound(i);
+				if (ret < qmin)
+					return qmin;
+				if (ret > qmax)
+					return qmax;
+				return ret;
+			}
+		}
+		return qmax;
+	}
+
+	/**
+	 * Return minimum value.
+	 */
+	public final float getMinValue()
+	{
+		return qmin;
+	}
+
+	/**
+	 * Return maximum value.
+	 */
+	public final float getMaxValue()
+	{
+		return qmax;
+	}
+
+	/**
+	 * Return mean value
+	 */
+	public final float getMeanValue()
+	{
+		return (float) (qavg / count);
+	}
+
+	/**
+	 * Return standard deviation
+	 */
+	public final float getStandardDeviation()
+	{
+		double avg = qavg / count;
+		return (float) Math.sqrt(qavg2 / count - avg*avg);
+	}
+
+	/**
+	 * Return the number of quality values.
+	 */
+	public final long size()
+	{
+		return count;
+	}
+
+	/**
+	 * Return the number of values in each subsegment defined by
+	 * {@link #split}.  First (resp. last) value is the number of values
+	 * lower (resp. greater) than the range.
+	 */
+	public final long [] getLayers()
+	{
+		if (sorted == null)
+			return null;
+		long [] ret = new long[sorted.length];
+		System.arraycopy(sorted, 0, ret, 0, sorted.length);
+		return ret;
+	}
+
+	/**
+	 * Display histogram about quality values.
+	 */
+	public final void printLayers()
+	{
+		if (layers < 0)
+		{
+			logger.severe("split() method must be called before adding values");
+			return;
+		}
+		float delta = (vmax - vmin) / layers;
+		if (sorted[0] > 0)
+			System.out.printf(" < %g %d (%.4g%%)%n", vmin, sorted[0], (((float) 100.0 * sorted[0])/count));
+		for (int i = 0; i < layers; i++)
+		{
+			System.out.printf(" %g ; %g %d (%.4g%%)%n", vmin + i * delta, vmin + (i+1) * delta, sorted[i+1], (((float) 100.0 * sorted[i+1])/count));
+		}
+		if (sorted[layers+1] > 0)
+			System.out.printf(" > %g %d (%.4g%%)%n", vmax, sorted[layers+1], (((float) 100.0 * sorted[layers+1])/count));
+		printStatistics();
+	}
+
+	/**
+	 * Display statistics about quality values.
+	 */
+	public final void printStatistics()
+	{
+		System.out.println("total: "+count);
+		System.out.printf("qmin: %.6g (index=%d starting from 0)%n", qmin, imin);
+		System.out.printf("qmax: %.6g (index=%d starting from 0)%n", qmax, imax);
+		System.out.printf("qavg: %.6g%n", getMeanValue());
+		System.out.printf("qdev: %.6g%n", getStandardDeviation());
+		int [] indices = getWorstIndices();
+		float [] values = getWorstValues();
+		for (int i = 0; i < indices.length; i++)
+			System.out.printf("worst %d: %.6g (index=%d)%n", i, values[i], indices[i]);
+	}
+}
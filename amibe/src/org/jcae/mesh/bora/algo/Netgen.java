@@ -26,9 +26,6 @@ import org.jcae.mesh.bora.ds.BSubMesh;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import org.jcae.mesh.bora.xmldata.Storage;
-import org.jcae.mesh.bora.xmldata.MESHReader;
-import org.jcae.mesh.xmldata.MeshExporter;
-import org.jcae.mesh.xmldata.MeshWriter;
 import java.io.File;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -44,6 +41,8 @@ import java.util.logging.Logger;
 public class Netgen implements AlgoInterface
 {
 	private static final Logger LOGGER=Logger.getLogger(Netgen.class.getName());
+	private static final String [] netgenCmd = System.getProperty(
+		"org.jcae.mesh.bora.algo.Netgen.command", "netgen").split(" +");
 	private final double maxlen;
 	private static boolean available = true;
 	private static String banner = null;
@@ -56,7 +55,10 @@ public class Netgen implements AlgoInterface
 			available = true;
 			banner = "";
 			try {
-				Process p = Runtime.getRuntime().exec(new String[] {"netgen", "-batchmode"});
+				String [] cmd = new String[netgenCmd.length + 1];
+				System.arraycopy(netgenCmd, 0, cmd, 0, netgenCmd.length);
+				cmd[netgenCmd.length] = "-batchmode";
+				Process p = Runtime.getRuntime().exec(cmd);
 				p.waitFor();
 				if (p.exitValue() != 0)
 					available = false;
@@ -90,30 +92,15 @@ public class Netgen implements AlgoInterface
 		mtb.addNodeList();
 		Mesh m = new Mesh(mtb);
 		Storage.readAllFaces(m, d.getGraphCell(), s);
-		String outDir = "netgen.tmp"+File.separator+"s"+s.getId();
-		try
-		{
-			MeshWriter.writeObject3D(m, outDir, d.getGraphCell().getGraph().getModel().getCADFile());
-		} catch (java.io.IOException ex) {
-			ex.printStackTrace();
-			return false;
-		}
-		String pfx = "netgen-"+d.getId();
-		new MeshExporter.STL(outDir).write(pfx+".stl");
+		File outDir = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d));
+		outDir.mkdirs();
+		VolumeMeshExecutor executor = new VolumeMeshExecutor(m);
+		// Surface mesh is no more needed
+		m = null;
 		try {
-			Process p = Runtime.getRuntime().exec(new String[] {"netgen", "-batchmode", "-meshfile="+pfx+".mesh", "-geofile="+pfx+".stl"});
-			p.waitFor();
-			if (p.exitValue() != 0)
+			if (!executor.runNetgen(netgenCmd, outDir, "netgen-"+d.getId()))
 				return false;
-			// Import volume mesh...
-			m = new Mesh(mtb);
-			MESHReader.readMesh(m, pfx+".mesh");
-			d.setMesh(m);
-			// ... and store it on disk
-			Storage.writeSolid(d);
-			// Remove temporary files
-			//new File(pfx+".stl").delete();
-			//new File(pfx+".mesh").delete();
+			Storage.writeSolid(d, executor.getNodes(), executor.getTetrahedra());
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			return false;
@@ -26,9 +26,6 @@ import org.jcae.mesh.bora.ds.BSubMesh;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import org.jcae.mesh.bora.xmldata.Storage;
-import org.jcae.mesh.bora.xmldata.MESHReader;
-import org.jcae.mesh.xmldata.MeshExporter;
-import org.jcae.mesh.xmldata.MeshWriter;
 import java.io.File;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -45,7 +42,8 @@ import java.util.logging.Logger;
 public class TetGen implements AlgoInterface
 {
 	private static final Logger LOGGER=Logger.getLogger(TetGen.class.getName());
-	private static final String tetgenCmd = "tetgen";
+	private static final String [] tetgenCmd = System.getProperty(
+		"org.jcae.mesh.bora.algo.TetGen.command", "tetgen").split(" +");
 	private final double volume;
 	private static boolean available = true;
 	private static String banner = null;
@@ -59,7 +57,10 @@ public class TetGen implements AlgoInterface
 			available = true;
 			banner = "";
 			try {
-				Process p = Runtime.getRuntime().exec(new String[] {tetgenCmd, "-version"});
+				String [] cmd = new String[tetgenCmd.length + 1];
+				System.arraycopy(tetgenCmd, 0, cmd, 0, tetgenCmd.length);
+				cmd[tetgenCmd.length] = "-version";
+				Process p = Runtime.getRuntime().exec(cmd);
 				p.waitFor();
 				if (p.exitValue() != 0)
 					available = false;
@@ -95,31 +96,15 @@ public class TetGen implements AlgoInterface
 		mtb.addNodeList();
 		Mesh m = new Mesh(mtb);
 		Storage.readAllFaces(m, d.getGraphCell(), s);
-		String outDir = "tetgen.tmp"+File.separator+"s"+s.getId();
-		try
-		{
-			MeshWriter.writeObject3D(m, outDir, d.getGraphCell().getGraph().getModel().getCADFile());
-		} catch (java.io.IOException ex) {
-			ex.printStackTrace();
-			return false;
-		}
-		String pfx = "tetgen-"+d.getId();
-		new MeshExporter.POLY(outDir).write(pfx+".poly");
+		File outDir = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d));
+		outDir.mkdirs();
+		VolumeMeshExecutor executor = new VolumeMeshExecutor(m);
+		// Surface mesh is no more needed
+		m = null;
 		try {
-			String args = "-a"+volume+"pYNEFg";
-			Process p = Runtime.getRuntime().exec(new String[] {tetgenCmd, args, pfx});
-			p.waitFor();
-			if (p.exitValue() != 0)
+			if (!executor.runTetGen(tetgenCmd, "-a"+volume+"pYF", outDir, "tetgen-"+d.getId()))
 				return false;
-			// Import volume mesh...
-			m = new Mesh(mtb);
-			MESHReader.readMesh(m, pfx+".1.mesh");
-			d.setMesh(m);
-			// ... and store it on disk
-			Storage.writeSolid(d);
-			// Remove temporary files
-			new File(pfx+".poly").delete();
-			new File(pfx+".1.mesh").delete();
+			Storage.writeSolid(d, executor.getNodes(), executor.getTetrahedra());
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			return false;
@@ -0,0 +1,584 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.bora.algo;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import org.jcae.mesh.xmldata.OutputBuffer;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs external volume meshers.  Surface meshes are given as primitive
+ * arrays, they are written into TetGen <code>.poly</code> files or into
+ * binary STL files for Netgen, and the <code>.node</code>/<code>.ele</code>
+ * or Medit <code>.mesh</code> output files are parsed into primitive
+ * arrays, without building {@link Mesh} instances.
+ *
+ * Several instances may run concurrently, the number of external processes
+ * running at the same time is limited by {@link #setMaxProcesses}.  By
+ * default, this limit is the number of processors, and it can be changed
+ * by the <code>org.jcae.mesh.bora.algo.VolumeMeshExecutor.processes</code>
+ * system property.
+ */
+public final class VolumeMeshExecutor
+{
+	private static final Logger LOGGER=Logger.getLogger(VolumeMeshExecutor.class.getName());
+	private static int maxProcesses;
+	private static Semaphore processes;
+	static
+	{
+		setMaxProcesses(Integer.getInteger("org.jcae.mesh.bora.algo.VolumeMeshExecutor.processes", 0).intValue());
+	}
+
+	// Surface mesh
+	private final double [] coords;
+	private final int [] triangles;
+	private final int [] markers;
+	// Volume mesh
+	private double [] nodes;
+	private int [] tetrahedra;
+
+	/**
+	 * Creates an executor for a surface mesh.
+	 *
+	 * @param coords  vertex coordinates
+	 * @param triangles  vertex indices of triangles, starting from 0
+	 * @param markers  facet markers, may be <code>null</code>
+	 */
+	public VolumeMeshExecutor(double [] coords, int [] triangles, int [] markers)
+	{
+		if (triangles.length % 3 != 0 || coords.length % 3 != 0)
+			throw new IllegalArgumentException("Invalid array length");
+		if (markers != null && markers.length != triangles.length / 3)
+			throw new IllegalArgumentException("Invalid number of markers");
+		this.coords = coords;
+		this.triangles = triangles;
+		this.markers = markers;
+	}
+
+	/**
+	 * Creates an executor for a surface mesh.  Outer triangles are skipped
+	 * and triangle group ids are used as facet markers.
+	 *
+	 * @param surface  surface mesh, it must have a node list
+	 */
+	public VolumeMeshExecutor(Mesh surface)
+	{
+		this(surfaceCoordinates(surface), surfaceTriangles(surface, false), surfaceTriangles(surface, true));
+	}
+
+	private static double [] surfaceCoordinates(Mesh surface)
+	{
+		double [] ret = new double[3 * surface.getNodes().size()];
+		int i = 0;
+		for (Vertex v : surface.getNodes())
+		{
+			double [] xyz = v.getUV();
+			ret[i++] = xyz[0];
+			ret[i++] = xyz[1];
+			ret[i++] = xyz[2];
+		}
+		return ret;
+	}
+
+	private static int [] surfaceTriangles(Mesh surface, boolean markers)
+	{
+		TObjectIntHashMap<Vertex> index = new TObjectIntHashMap<Vertex>(surface.getNodes().size());
+		int i = 0;
+		for (Vertex v : surface.getNodes())
+		{
+			index.put(v, i);
+			i++;
+		}
+		TIntArrayList ret = new TIntArrayList(3 * surface.getTriangles().size());
+		for (Triangle t : surface.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			if (markers)
+				ret.add(t.getGroupId());
+			else
+			{
+				for (int j = 0; j < 3; j++)
+					ret.add(index.get(t.vertex[j]));
+			}
+		}
+		return ret.toNativeArray();
+	}
+
+	/**
+	 * Sets the maximal number of external processes running at the same
+	 * time.
+	 *
+	 * @param n  number of processes, number of processors if n &lt;= 0
+	 */
+	public static synchronized void setMaxProcesses(int n)
+	{
+		maxProcesses = n > 0 ? n : ParallelExecutor.getNumberOfProcessors();
+		processes = new Semaphore(maxProcesses);
+	}
+
+	public static synchronized int getMaxProcesses()
+	{
+		return maxProcesses;
+	}
+
+	private static synchronized Semaphore getProcesses()
+	{
+		return processes;
+	}
+
+	/**
+	 * Returns vertex coordinates of the volume mesh.
+	 */
+	public double [] getNodes()
+	{
+		return nodes;
+	}
+
+	/**
+	 * Returns vertex indices of tetrahedra, starting from 0.
+	 */
+	public int [] getTetrahedra()
+	{
+		return tetrahedra;
+	}
+
+	/**
+	 * Runs TetGen.  Input file <code>name.poly</code> is written into
+	 * <code>dir</code>, and output files <code>name.1.node</code> and
+	 * <code>name.1.ele</code> are read.  All these files are removed.
+	 *
+	 * @param command  command and its first arguments
+	 * @param switches  TetGen switches, which must not suppress
+	 *   <code>.node</code> and <code>.ele</code> files
+	 * @param dir  working directory
+	 * @param name  base name of files
+	 * @return <code>true</code> if TetGen succeeded
+	 */
+	public boolean runTetGen(String [] command, String switches, File dir, String name)
+		throws IOException
+	{
+		File poly = new File(dir, name+".poly");
+		File node = new File(dir, name+".1.node");
+		File ele = new File(dir, name+".1.ele");
+		try
+		{
+			writePoly(poly);
+			if (!run(command, dir, switches, poly.getName()))
+				return false;
+			nodes = readNodes(node);
+			tetrahedra = readElements(ele, 4);
+			return true;
+		}
+		finally
+		{
+			poly.delete();
+			node.delete();
+			ele.delete();
+			new File(dir, name+".1.face").delete();
+			new File(dir, name+".1.edge").delete();
+		}
+	}
+
+	/**
+	 * Runs Netgen.  Input file <code>name.stl</code> is written into
+	 * <code>dir</code>, and output file <code>name.mesh</code> is read.
+	 * These files are removed.
+	 *
+	 * @param command  command and its first arguments
+	 * @param dir  working directory
+	 * @param name  base name of files
+	 * @return <code>true</code> if Netgen succeeded
+	 */
+	public boolean runNetgen(String [] command, File dir, String name)
+		throws IOException
+	{
+		File stl = new File(dir, name+".stl");
+		File mesh = new File(dir, name+".mesh");
+		try
+		{
+			writeBinarySTL(stl);
+			if (!run(command, dir, "-batchmode", "-meshfile="+mesh.getName(), "-geofile="+stl.getName()))
+				return false;
+			readMedit(mesh);
+			return true;
+		}
+		finally
+		{
+			stl.delete();
+			mesh.delete();
+		}
+	}
+
+	private static boolean run(String [] command, File dir, String... args)
+		throws IOException
+	{
+		List<String> cmd = new ArrayList<String>(command.length + args.length);
+		cmd.addAll(Arrays.asList(command));
+		cmd.addAll(Arrays.asList(args));
+		Semaphore semaphore = getProcesses();
+		semaphore.acquireUninterruptibly();
+		try
+		{
+			if (LOGGER.isLoggable(Level.FINE))
+				LOGGER.log(Level.FINE, "Running "+cmd+" in "+dir);
+			Process p = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).start();
+			p.getOutputStream().close();
+			// Output must be consumed, otherwise process may be blocked
+			BufferedReader output = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			try
+			{
+				for (String line = output.readLine(); line != null; line = output.readLine())
+					LOGGER.finer(line);
+			}
+			finally
+			{
+				output.close();
+			}
+			int exitValue = p.waitFor();
+			if (exitValue != 0)
+				LOGGER.warning(cmd.get(0)+" exited with status "+exitValue);
+			return exitValue == 0;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		finally
+		{
+			semaphore.release();
+		}
+	}
+
+	private void writePoly(File file) throws IOException
+	{
+		OutputBuffer out = new OutputBuffer(64 * (coords.length + triangles.length));
+		int nrNodes = coords.length / 3;
+		int nrTriangles = triangles.length / 3;
+		out.append("# Part 1 - node list");
+		out.newLine();
+		out.append(nrNodes);
+		out.append(" 3 0 0");
+		out.newLine();
+		for (int i = 0; i < nrNodes; i++)
+		{
+			out.append(i + 1);
+			for (int k = 0; k < 3; k++)
+			{
+				out.append((byte) ' ');
+				out.append(Double.toString(coords[3*i+k]));
+			}
+			out.newLine();
+		}
+		out.append("# Part 2 - facet list");
+		out.newLine();
+		out.append(nrTriangles);
+		out.append(markers == null ? " 0" : " 1");
+		out.newLine();
+		for (int i = 0; i < nrTriangles; i++)
+		{
+			out.append("1 0");
+			if (markers != null)
+			{
+				out.append((byte) ' ');
+				out.append(markers[i]);
+			}
+			out.newLine();
+			out.append((byte) '3');
+			for (int k = 0; k < 3; k++)
+			{
+				out.append((byte) ' ');
+				out.append(triangles[3*i+k] + 1);
+			}
+			out.newLine();
+		}
+		out.append("# Part 3 - hole list");
+		out.newLine();
+		out.append("0");
+		out.newLine();
+		out.append("# Part 4 - region list");
+		out.newLine();
+		out.append("0");
+		out.newLine();
+		write(out, file);
+	}
+
+	private void writeBinarySTL(File file) throws IOException
+	{
+		int nrTriangles = triangles.length / 3;
+		OutputBuffer out = new OutputBuffer(84 + 50 * nrTriangles);
+		byte [] header = new byte[80];
+		byte [] title = "jCAE surface mesh".getBytes();
+		System.arraycopy(title, 0, header, 0, title.length);
+		out.append(header, 0, header.length);
+		out.appendIntLE(nrTriangles);
+		double [] p = new double[9];
+		for (int i = 0; i < nrTriangles; i++)
+		{
+			for (int j = 0; j < 3; j++)
+				for (int k = 0; k < 3; k++)
+					p[3*j+k] = coords[3*triangles[3*i+j]+k];
+			double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+			double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+			double nx = uy * vz - uz * vy;
+			double ny = uz * vx - ux * vz;
+			double nz = ux * vy - uy * vx;
+			double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (norm > 0.0)
+			{
+				nx /= norm;
+				ny /= norm;
+				nz /= norm;
+			}
+			out.appendFloatLE((float) nx);
+			out.appendFloatLE((float) ny);
+			out.appendFloatLE((float) nz);
+			for (int k = 0; k < 9; k++)
+				out.appendFloatLE((float) p[k]);
+			out.appendShortLE(0);
+		}
+		write(out, file);
+	}
+
+	private static void write(OutputBuffer out, File file) throws IOException
+	{
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try
+		{
+			out.writeTo(channel);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads a TetGen <code>.node</code> file.
+	 */
+	private static double [] readNodes(File file) throws IOException
+	{
+		Tokenizer in = new Tokenizer(file);
+		try
+		{
+			int nr = in.nextInt();
+			int dim = in.nextInt();
+			int nrAttributes = in.nextInt();
+			int nrMarkers = in.nextInt();
+			if (dim != 3)
+				throw new IOException(file+": invalid dimension "+dim);
+			double [] ret = new double[3 * nr];
+			for (int i = 0; i < nr; i++)
+			{
+				in.nextInt();
+				for (int k = 0; k < 3; k++)
+					ret[3*i+k] = in.nextDouble();
+				for (int k = 0; k < nrAttributes + nrMarkers; k++)
+					in.next();
+			}
+			return ret;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a TetGen <code>.ele</code> file.  Node indices start from 0 or
+	 * 1, the same index base is used in <code>.node</code> and
+	 * <code>.ele</code> files; it is found by looking at the first index
+	 * of the companion <code>.node</code> file.
+	 */
+	private static int [] readElements(File file, int nrNodesPerElement) throws IOException
+	{
+		String path = file.getPath();
+		int base = firstIndex(new File(path.substring(0, path.length() - 4)+".node"));
+		Tokenizer in = new Tokenizer(file);
+		try
+		{
+			int nr = in.nextInt();
+			int nrNodes = in.nextInt();
+			int nrAttributes = in.nextInt();
+			if (nrNodes < nrNodesPerElement)
+				throw new IOException(file+": invalid number of nodes "+nrNodes);
+			int [] ret = new int[nrNodesPerElement * nr];
+			for (int i = 0; i < nr; i++)
+			{
+				in.nextInt();
+				for (int k = 0; k < nrNodesPerElement; k++)
+					ret[nrNodesPerElement*i+k] = in.nextInt() - base;
+				for (int k = nrNodesPerElement; k < nrNodes + nrAttributes; k++)
+					in.next();
+			}
+			return ret;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static int firstIndex(File node) throws IOException
+	{
+		Tokenizer in = new Tokenizer(node);
+		try
+		{
+			for (int k = 0; k < 4; k++)
+				in.next();
+			return in.nextInt();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads vertices and tetrahedra from a Medit <code>.mesh</code> file.
+	 */
+	private void readMedit(File file) throws IOException
+	{
+		Tokenizer in = new Tokenizer(file);
+		try
+		{
+			for (String keyword = in.next(); keyword != null; keyword = in.next())
+			{
+				if (keyword.equals("Vertices"))
+				{
+					int nr = in.nextInt();
+					nodes = new double[3 * nr];
+					for (int i = 0; i < nr; i++)
+					{
+						for (int k = 0; k < 3; k++)
+							nodes[3*i+k] = in.nextDouble();
+						// Reference
+						in.next();
+					}
+				}
+				else if (keyword.equals("Tetrahedra"))
+				{
+					int nr = in.nextInt();
+					tetrahedra = new int[4 * nr];
+					for (int i = 0; i < nr; i++)
+					{
+						for (int k = 0; k < 4; k++)
+							tetrahedra[4*i+k] = in.nextInt() - 1;
+						in.next();
+					}
+				}
+				else if (keyword.equals("End"))
+					break;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		if (nodes == null || tetrahedra == null)
+			throw new IOException(file+": no tetrahedra found");
+	}
+
+	/**
+	 * Splits a text file into tokens separated by white spaces.  Comments
+	 * start with a <code>#</code> character and end at end of line.
+	 */
+	private static final class Tokenizer
+	{
+		private final InputStream in;
+		private final StringBuilder token = new StringBuilder();
+		private final File file;
+
+		Tokenizer(File file) throws IOException
+		{
+			this.file = file;
+			in = new BufferedInputStream(new FileInputStream(file), 65536);
+		}
+
+		String next() throws IOException
+		{
+			token.setLength(0);
+			int c = in.read();
+			while (true)
+			{
+				if (c == '#')
+				{
+					while (c >= 0 && c != '\n')
+						c = in.read();
+				}
+				else if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+					c = in.read();
+				else
+					break;
+			}
+			if (c < 0)
+				return null;
+			while (c >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != '#')
+			{
+				token.append((char) c);
+				c = in.read();
+			}
+			return token.toString();
+		}
+
+		private String nextToken() throws IOException
+		{
+			String ret = next();
+			if (ret == null)
+				throw new IOException(file+": unexpected end of file");
+			return ret;
+		}
+
+		int nextInt() throws IOException
+		{
+			return Integer.parseInt(nextToken());
+		}
+
+		double nextDouble() throws IOException
+		{
+			return Double.parseDouble(nextToken().replace('D', 'E'));
+		}
+
+		void close() throws IOException
+		{
+			in.close();
+		}
+	}
+}
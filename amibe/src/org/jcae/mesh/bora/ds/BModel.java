@@ -21,6 +21,9 @@
 
 package org.jcae.mesh.bora.ds;
 
+import org.jcae.mesh.amibe.util.DependencyScheduler;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import org.jcae.mesh.bora.algo.VolumeMeshExecutor;
 import org.jcae.mesh.bora.xmldata.BModelWriter;
 import org.jcae.mesh.bora.xmldata.Storage;
 import org.jcae.mesh.cad.CADShapeFactory;
@@ -35,6 +38,7 @@ import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,6 +75,16 @@ public class BModel
 		TESSELLATION_3
 	}
 	private State state = State.INPUT;
+	//   Tessellation states, shape types and names by dimension
+	private static final State [] TESSELLATION = {
+		State.TESSELLATION_0, State.TESSELLATION_1, State.TESSELLATION_2, State.TESSELLATION_3
+	};
+	private static final CADShapeEnum [] TESSELLATION_TYPES = {
+		CADShapeEnum.VERTEX, CADShapeEnum.EDGE, CADShapeEnum.FACE, CADShapeEnum.SOLID
+	};
+	private static final String [] TESSELLATION_NAMES = { "vertex", "edge", "face", "solid" };
+	//   Number of threads used to compute discretizations
+	private int nrThreads = 1;
 
 	/**
 	 * Bind a CAD representation to a disk directory.
@@ -99,6 +113,18 @@ public class BModel
 		xmlDir = newDir;
 	}
 
+	/**
+	 * Sets the number of threads used to compute discretizations.  By
+	 * default, discretizations are computed one at a time, because all
+	 * CAD kernels are not thread-safe.
+	 *
+	 * @param n  number of threads, all processors are used if n &lt;= 0
+	 */
+	public void setNumberOfThreads(int n)
+	{
+		nrThreads = n > 0 ? n : ParallelExecutor.getNumberOfProcessors();
+	}
+
 	public static void reset()
 	{
 		freeIndex = 1;
@@ -314,104 +340,137 @@ public class BModel
 
 	final void discretizeVertices()
 	{
-		if (state.compareTo(State.TESSELLATION_0) >= 0)
+		discretize(State.TESSELLATION_0);
+	}
+
+	final void discretizeEdges()
+	{
+		discretize(State.TESSELLATION_1);
+	}
+
+	final void discretizeFaces()
+	{
+		discretize(State.TESSELLATION_2);
+	}
+
+	final void discretizeSolids()
+	{
+		discretize(State.TESSELLATION_3);
+	}
+
+	/**
+	 * Discretizes all cells up to a given dimension.  A task is created for
+	 * each discretization which has not been computed yet, and it depends on
+	 * the discretizations of its boundary cells, so that discretizations
+	 * which do not depend on each other can be computed concurrently.
+	 * Each discretization is stored into its own directory, output thus
+	 * does not depend on the number of threads.  Meshes of faces and solids
+	 * are released as soon as they are stored.
+	 * Solids are meshed by external processes once all faces are stored,
+	 * they do not use the CAD kernel and are thus computed concurrently,
+	 * up to {@link VolumeMeshExecutor#getMaxProcesses} at a time.
+	 */
+	private void discretize(State target)
+	{
+		if (state.compareTo(target) >= 0)
 			return;
 		if (state == State.INPUT)
 			computeConstraints();
 
 		BCADGraphCell root = cad.getRootCell();
-		for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.VERTEX); its.hasNext(); )
+		DependencyScheduler scheduler = new DependencyScheduler();
+		DependencyScheduler solids = new DependencyScheduler();
+		Map<BDiscretization, Integer> tasks = new HashMap<BDiscretization, Integer>();
+		for (int dim = 0; dim < TESSELLATION.length && TESSELLATION[dim].compareTo(target) <= 0; dim++)
 		{
-			BCADGraphCell cell = its.next();
-			for (BDiscretization d : cell.getDiscretizations())
-				d.discretize();
+			if (state.compareTo(TESSELLATION[dim]) >= 0)
+				continue;
+			Collection<BDiscretization> discretizations = new LinkedHashSet<BDiscretization>();
+			for (Iterator<BCADGraphCell> its = root.shapesExplorer(TESSELLATION_TYPES[dim]); its.hasNext(); )
+				discretizations.addAll(its.next().getDiscretizations());
+			Progress progress = new Progress(TESSELLATION_NAMES[dim], dim < 2 ? Level.CONFIG : Level.INFO, discretizations.size());
+			if (dim > 0)
+				LOGGER.log(progress.level, "Discretize "+discretizations.size()+" "+progress.name+" discretizations");
+			for (BDiscretization d : discretizations)
+			{
+				if (dim == 3)
+				{
+					solids.addTask(new DiscretizationTask(d, progress));
+					continue;
+				}
+				int index = scheduler.addTask(new DiscretizationTask(d, progress));
+				tasks.put(d, index);
+				if (dim == 0)
+					continue;
+				for (Iterator<BCADGraphCell> its = d.getGraphCell().shapesExplorer(TESSELLATION_TYPES[dim-1]); its.hasNext(); )
+				{
+					for (BDiscretization sub : its.next().getDiscretizations())
+					{
+						Integer dep = tasks.get(sub);
+						if (dep != null)
+							scheduler.addDependency(index, dep);
+					}
+				}
+			}
 		}
-		state = State.TESSELLATION_0;
+		scheduler.run(nrThreads);
+		if (solids.getNumberOfTasks() > 0)
+			solids.run(Math.max(nrThreads, VolumeMeshExecutor.getMaxProcesses()));
+		state = target;
 	}
 
-	final void discretizeEdges()
+	private static final class Progress
 	{
-		if (state.compareTo(State.TESSELLATION_1) >= 0)
-			return;
-		discretizeVertices();
-		LOGGER.config("Discretize edges");
-		BCADGraphCell root = cad.getRootCell();
-		int nrEdges = 0;
-		if (LOGGER.isLoggable(Level.CONFIG))
+		private final String name;
+		private final Level level;
+		private final int total;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		Progress(String name, Level level, int total)
 		{
-			for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.EDGE); its.hasNext(); its.next())
-				nrEdges++;
+			this.name = name;
+			this.level = level;
+			this.total = total;
 		}
-		int cnt = 0;
-		for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.EDGE); its.hasNext(); )
+
+		void done(BDiscretization d)
 		{
-			BCADGraphCell cell = its.next();
-			cnt++;
-			LOGGER.config("  edge "+cnt+"/"+nrEdges);
-			for (BDiscretization d : cell.getDiscretizations())
-			{
-				d.discretize();
-				Storage.writeEdge(d);
-			}
+			if (LOGGER.isLoggable(level))
+				LOGGER.log(level, "  "+name+" "+counter.incrementAndGet()+"/"+total+" (discretization "+d.getId()+")");
 		}
-		state = State.TESSELLATION_1;
 	}
 
-	final void discretizeFaces()
+	private static final class DiscretizationTask implements Runnable
 	{
-		if (state.compareTo(State.TESSELLATION_2) >= 0)
-			return;
-		discretizeEdges();
-		LOGGER.info("Discretize faces");
-		BCADGraphCell root = cad.getRootCell();
-		int nrFaces = 0;
-		if (LOGGER.isLoggable(Level.INFO))
+		private final BDiscretization d;
+		private final Progress progress;
+
+		DiscretizationTask(BDiscretization d, Progress progress)
 		{
-			for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.FACE); its.hasNext(); its.next())
-				nrFaces++;
+			this.d = d;
+			this.progress = progress;
 		}
-		int cnt = 0;
-		for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.FACE); its.hasNext(); )
+
+		public void run()
 		{
-			BCADGraphCell cell = its.next();
-			cnt++;
-			LOGGER.info("  face "+cnt+"/"+nrFaces);
-			for (BDiscretization d : cell.getDiscretizations())
+			CADShapeEnum cse = d.getGraphCell().getType();
+			d.discretize();
+			if (cse == CADShapeEnum.VERTEX)
+				return;
+			if (cse == CADShapeEnum.EDGE)
+				Storage.writeEdge(d);
+			else if (cse == CADShapeEnum.FACE)
 			{
-				d.discretize();
 				Storage.writeFace(d);
 				d.setMesh(null);
 			}
-		}
-		state = State.TESSELLATION_2;
-	}
-
-	final void discretizeSolids()
-	{
-		if (state.compareTo(State.TESSELLATION_3) >= 0)
-			return;
-		discretizeFaces();
-		LOGGER.info("Discretize solids");
-		BCADGraphCell root = cad.getRootCell();
-		int nrSolids = 0;
-		if (LOGGER.isLoggable(Level.INFO))
-		{
-			for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.SOLID); its.hasNext(); its.next())
-				nrSolids++;
-		}
-		int cnt = 0;
-		for (Iterator<BCADGraphCell> its = root.shapesExplorer(CADShapeEnum.SOLID); its.hasNext(); )
-		{
-			BCADGraphCell cell = its.next();
-			cnt++;
-			LOGGER.info("  solid "+cnt+"/"+nrSolids);
-			for (BDiscretization d : cell.getDiscretizations())
+			else if (cse == CADShapeEnum.SOLID)
 			{
-				d.discretize();
 				Storage.writeSolid(d);
+				d.setMesh(null);
 			}
+			progress.done(d);
 		}
-		state = State.TESSELLATION_3;
 	}
 
 	/**
@@ -165,6 +165,43 @@ public class Storage
 		}
 	}
 
+	/**
+	 * Writes a volume mesh given as primitive arrays.  This is used by
+	 * external volume meshers, which do not build {@link Mesh} instances.
+	 *
+	 * @param d  discretization of a solid
+	 * @param nodes  vertex coordinates
+	 * @param tetrahedra  vertex indices of tetrahedra, starting from 0
+	 */
+	public static void writeSolid(BDiscretization d, double [] nodes, int [] tetrahedra)
+	{
+		BCADGraphCell solid = d.getGraphCell();
+		try
+		{
+			File dir = new File(solid.getGraph().getModel().getOutputDir(d));
+			writeId(dir, solid.getId());
+			// Inner vertices of solids have no references
+			new FileOutputStream(new File(dir, "r")).close();
+			new FileOutputStream(new File(dir, "p")).close();
+			File nodesFile = new File(dir, "n");
+			if (LOGGER.isLoggable(Level.FINE))
+				LOGGER.log(Level.FINE, "begin writing "+nodesFile+" solid "+solid.getId());
+			DataOutputStream nodesout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nodesFile)));
+			for (double x : nodes)
+				nodesout.writeDouble(x);
+			nodesout.close();
+			DataOutputStream facesout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, "f"))));
+			// Set first index to 1, as in write2dNodeReferences
+			for (int i : tetrahedra)
+				facesout.writeInt(i + 1);
+			facesout.close();
+		}
+		catch(IOException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
 	/**
 	 * Populates a Mesh instance by reading all faces and edges which have
 	 * constraints.
@@ -0,0 +1,382 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import gnu.trove.TIntObjectHashMap;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Cache of leaves decoded by {@link MeshReader}.  Vertex coordinates,
+ * triangles and vertex adjacency of a leaf are stored into primitive
+ * arrays.  Leaves are evicted in least recently used order when the
+ * memory used by cached leaves exceeds a given budget.
+ *
+ * Leaves adjacent to those being loaded can be read in background by
+ * {@link #prefetch}, so that they are already decoded when a traversal
+ * requests them.
+ */
+public class LeafCache
+{
+	private static final Logger logger=Logger.getLogger(LeafCache.class.getName());
+
+	/**
+	 * Decoded content of a leaf.
+	 */
+	static final class Leaf
+	{
+		/** Vertex coordinates, 3 values per vertex. */
+		final double [] coords;
+		/**
+		 * Triangles, 7 values per triangle: leaf indices of its vertices,
+		 * local indices of its vertices and group number.
+		 */
+		final int [] triangles;
+		/**
+		 * Leaves adjacent to vertex <code>i</code> are stored in
+		 * <code>adjacency</code> between <code>adjOffsets[i]</code>
+		 * and <code>adjOffsets[i+1]</code>.
+		 */
+		final int [] adjOffsets;
+		final int [] adjacency;
+
+		Leaf(double [] coords, int [] triangles, int [] adjOffsets, int [] adjacency)
+		{
+			this.coords = coords;
+			this.triangles = triangles;
+			this.adjOffsets = adjOffsets;
+			this.adjacency = adjacency;
+		}
+
+		/**
+		 * Tells whether a vertex is only adjacent to leaves found in
+		 * a given set.
+		 */
+		boolean isWritable(int index, TIntHashSet leaves)
+		{
+			for (int i = adjOffsets[index], n = adjOffsets[index+1]; i < n; i++)
+			{
+				if (!leaves.contains(adjacency[i]))
+					return false;
+			}
+			return true;
+		}
+
+		long size()
+		{
+			return estimate(coords.length, triangles.length, adjacency.length);
+		}
+	}
+
+	private final OEMM oemm;
+	private final long maxSize;
+	private long size;
+	private long hits;
+	private long misses;
+	private long prefetched;
+	// Leaves from least to most recently used
+	private final LinkedHashMap<Integer, Leaf> leaves = new LinkedHashMap<Integer, Leaf>();
+	private final TIntObjectHashMap<Future<Leaf>> pending = new TIntObjectHashMap<Future<Leaf>>();
+
+	/**
+	 * Creates a cache for leaves of an OEMM.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param maxSize  memory budget, in bytes
+	 */
+	public LeafCache(OEMM oemm, long maxSize)
+	{
+		this.oemm = oemm;
+		this.maxSize = maxSize;
+	}
+
+	// Approximate memory usage of decoded arrays
+	private static long estimate(int nrCoords, int nrTriangleInts, int nrAdjacency)
+	{
+		return 8L * nrCoords + 4L * (nrTriangleInts + nrCoords / 3 + 1 + nrAdjacency);
+	}
+
+	private static long estimate(OEMM.Node node)
+	{
+		return estimate(3 * node.vn, 7 * node.tn, 0);
+	}
+
+	/**
+	 * Returns decoded content of a leaf, loading it from disk if needed.
+	 */
+	Leaf get(OEMM.Node node)
+	{
+		Future<Leaf> future;
+		synchronized (this)
+		{
+			Leaf ret = leaves.remove(node.leafIndex);
+			if (ret != null)
+			{
+				// Move this leaf at the end of access list
+				leaves.put(node.leafIndex, ret);
+				hits++;
+				return ret;
+			}
+			future = pending.get(node.leafIndex);
+			if (future != null)
+				hits++;
+			else
+				misses++;
+		}
+		if (future != null)
+			return ParallelExecutor.get(future);
+		Leaf ret = load(oemm, node);
+		put(node.leafIndex, ret);
+		return ret;
+	}
+
+	/**
+	 * Returns decoded content of a leaf if it is cached, and
+	 * <code>null</code> otherwise.  Hit and miss counters and access
+	 * order are not modified.
+	 */
+	synchronized Leaf peek(int leafIndex)
+	{
+		return leaves.get(leafIndex);
+	}
+
+	private synchronized void put(int leafIndex, Leaf leaf)
+	{
+		if (leaves.put(leafIndex, leaf) == null)
+			size += leaf.size();
+		// Evict least recently used leaves, but keep the last one
+		for (Iterator<Map.Entry<Integer, Leaf>> it = leaves.entrySet().iterator();
+			size > maxSize && leaves.size() > 1; )
+		{
+			Map.Entry<Integer, Leaf> e = it.next();
+			if (e.getKey().intValue() == leafIndex)
+				continue;
+			size -= e.getValue().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Loads in background leaves which are adjacent to a set of leaves
+	 * and are not already cached.  Leaves are not prefetched if they
+	 * would not fit into memory budget, and at most one leaf per processor
+	 * is being read at the same time.
+	 *
+	 * @param working  set of leaf indices
+	 */
+	public void prefetch(TIntHashSet working)
+	{
+		TIntHashSet candidates = new TIntHashSet();
+		for (TIntIterator it = working.iterator(); it.hasNext(); )
+		{
+			OEMM.Node node = oemm.leaves[it.next()];
+			if (node.adjLeaves == null)
+				continue;
+			for (int i = 0, n = node.adjLeaves.size(); i < n; i++)
+			{
+				int adj = node.adjLeaves.get(i);
+				if (!working.contains(adj))
+					candidates.add(adj);
+			}
+		}
+		long workingSize = 0L;
+		for (TIntIterator it = working.iterator(); it.hasNext(); )
+			workingSize += estimate(oemm.leaves[it.next()]);
+		synchronized (this)
+		{
+			long budget = maxSize - workingSize;
+			for (int leafIndex : pending.keys())
+				budget -= estimate(oemm.leaves[leafIndex]);
+			// Do not read too many files at the same time
+			int maxPending = ParallelExecutor.getNumberOfProcessors();
+			for (TIntIterator it = candidates.iterator(); it.hasNext() && pending.size() < maxPending; )
+			{
+				final OEMM.Node node = oemm.leaves[it.next()];
+				if (leaves.containsKey(node.leafIndex) || pending.containsKey(node.leafIndex))
+					continue;
+				budget -= estimate(node);
+				if (budget < 0L)
+					break;
+				prefetched++;
+				pending.put(node.leafIndex, ParallelExecutor.submit(new Callable<Leaf>()
+				{
+					public Leaf call()
+					{
+						try
+						{
+							Leaf ret = load(oemm, node);
+							put(node.leafIndex, ret);
+							return ret;
+						}
+						finally
+						{
+							removePending(node.leafIndex);
+						}
+					}
+				}));
+			}
+		}
+	}
+
+	private synchronized void removePending(int leafIndex)
+	{
+		pending.remove(leafIndex);
+	}
+
+	/**
+	 * Waits until all leaves being prefetched are loaded.
+	 */
+	public void waitForPrefetch()
+	{
+		while (true)
+		{
+			Future<Leaf> future;
+			synchronized (this)
+			{
+				if (pending.isEmpty())
+					return;
+				future = pending.get(pending.keys()[0]);
+			}
+			// Task removes itself from pending map
+			ParallelExecutor.get(future);
+		}
+	}
+
+	/**
+	 * Removes all leaves from this cache.  Leaves being prefetched are
+	 * loaded before.
+	 */
+	public void clear()
+	{
+		waitForPrefetch();
+		synchronized (this)
+		{
+			leaves.clear();
+			size = 0L;
+		}
+	}
+
+	/**
+	 * Returns the number of requests of leaves which were found in this
+	 * cache, or were being prefetched.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests of leaves which had to be read from
+	 * disk.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of leaves which have been prefetched.
+	 */
+	public synchronized long getPrefetched()
+	{
+		return prefetched;
+	}
+
+	/**
+	 * Returns the memory used by cached leaves, in bytes.
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Reads vertices, triangles and adjacency of a leaf.  This method
+	 * uses its own buffers and can be called by several threads.
+	 */
+	static Leaf load(OEMM oemm, OEMM.Node node)
+	{
+		double [] coords = new double[3*node.vn];
+		int [] triangles = new int[7*node.tn];
+		try
+		{
+			ByteBuffer bb = read(Storage.getVerticesFile(oemm, node).getPath(), Storage.VERTEX_SIZE * node.vn);
+			bb.asDoubleBuffer().get(coords);
+			bb = read(Storage.getTrianglesFile(oemm, node).getPath(), Storage.TRIANGLE_SIZE * node.tn);
+			bb.asIntBuffer().get(triangles);
+		}
+		catch (IOException ex)
+		{
+			logger.severe("I/O error when reading leaf "+node.leafIndex+" in "+oemm.getDirectory());
+			throw new RuntimeException(ex);
+		}
+		List<TIntArrayList> adj = Storage.readAdjacencyFile(oemm, node, null);
+		int [] adjOffsets = new int[node.vn+1];
+		int nrAdj = 0;
+		for (int i = 0; i < node.vn; i++)
+		{
+			adjOffsets[i] = nrAdj;
+			if (i < adj.size())
+				nrAdj += adj.get(i).size();
+		}
+		adjOffsets[node.vn] = nrAdj;
+		int [] adjacency = new int[nrAdj];
+		for (int i = 0, n = Math.min(node.vn, adj.size()); i < n; i++)
+		{
+			TIntArrayList list = adj.get(i);
+			for (int j = 0, m = list.size(); j < m; j++)
+				adjacency[adjOffsets[i]+j] = list.get(j);
+		}
+		return new Leaf(coords, triangles, adjOffsets, adjacency);
+	}
+
+	private static ByteBuffer read(String file, int length) throws IOException
+	{
+		ByteBuffer ret = ByteBuffer.allocate(length);
+		FileChannel fc = new FileInputStream(file).getChannel();
+		try
+		{
+			while (ret.hasRemaining())
+			{
+				if (fc.read(ret) < 0)
+					throw new IOException("Unexpected end of file "+file);
+			}
+		}
+		finally
+		{
+			fc.close();
+		}
+		ret.flip();
+		return ret;
+	}
+}
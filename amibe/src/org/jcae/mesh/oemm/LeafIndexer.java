@@ -0,0 +1,449 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntIterator;
+import gnu.trove.TIntObjectHashMap;
+
+/**
+ * Parallel indexation of leaves of a dispatched OEMM, see
+ * {@link RawStorage#indexOEMM(String, String, int)}.
+ *
+ * Leaves are independent: vertices of a leaf are deduplicated with an
+ * open-addressing hash table of integer coordinates, and leaves are
+ * processed by a pool of threads.  Global index ranges are computed
+ * afterwards in traversal order.  External vertices are then found in
+ * tables of adjacent leaves, which are loaded by each task.  Memory usage
+ * is thus proportional to the size of leaves being processed, and files
+ * are identical to those written by sequential indexation.
+ */
+final class LeafIndexer
+{
+	private static final Logger logger=Logger.getLogger(LeafIndexer.class.getName());
+
+	//  In dispatched file, a triangle has 9 int coordinates and an int.
+	private static final int TRIANGLE_SIZE_DISPATCHED = 40;
+	private static final int INTS_PER_TRIANGLE = TRIANGLE_SIZE_DISPATCHED / 4;
+
+	private final OEMM oemm;
+	private final FileChannel data;
+	private final String outDir;
+	private final int nrThreads;
+	//  Number of triangles stored in each leaf
+	private final int [] storedTriangles;
+
+	/**
+	 * @param o  OEMM read from dispatched structure
+	 * @param dataChannel  dispatched data file, it is read concurrently
+	 * @param dir  output directory
+	 * @param threads  number of threads
+	 */
+	LeafIndexer(OEMM o, FileChannel dataChannel, String dir, int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads: "+threads);
+		oemm = o;
+		data = dataChannel;
+		outDir = dir;
+		nrThreads = threads;
+		storedTriangles = new int[oemm.getNumberOfLeaves()];
+	}
+
+	/**
+	 * Returns the number of triangles which are stored in a leaf, they
+	 * are those whose vertices belong to leaves with indices greater
+	 * than or equal to this leaf index.
+	 */
+	int getNumberOfStoredTriangles(OEMM.Node leaf)
+	{
+		return storedTriangles[leaf.leafIndex];
+	}
+
+	/**
+	 * Open-addressing hash table of integer coordinates.  Vertices are
+	 * numbered by insertion order.
+	 */
+	static final class VertexTable
+	{
+		private int [] coords;
+		//  Vertex index + 1, 0 for empty slots
+		private int [] slots;
+		private int size;
+
+		VertexTable(int capacity)
+		{
+			coords = new int[3 * Math.max(16, capacity)];
+			int n = 32;
+			while (n < 2 * capacity)
+				n <<= 1;
+			slots = new int[n];
+		}
+
+		private static int hash(int i, int j, int k)
+		{
+			int h = i * 0x9E3779B1 + j * 0x85EBCA77 + k * 0xC2B2AE3D;
+			return h ^ (h >>> 15);
+		}
+
+		private int find(int i, int j, int k)
+		{
+			int mask = slots.length - 1;
+			for (int s = hash(i, j, k) & mask; ; s = (s + 1) & mask)
+			{
+				int v = slots[s] - 1;
+				if (v < 0 || (coords[3*v] == i && coords[3*v+1] == j && coords[3*v+2] == k))
+					return s;
+			}
+		}
+
+		/**
+		 * Returns the index of a vertex, or -1 if it is not found.
+		 */
+		int get(int [] ijk)
+		{
+			return slots[find(ijk[0], ijk[1], ijk[2])] - 1;
+		}
+
+		/**
+		 * Returns the index of a vertex, it is inserted if needed.
+		 */
+		int add(int [] ijk)
+		{
+			int s = find(ijk[0], ijk[1], ijk[2]);
+			if (slots[s] > 0)
+				return slots[s] - 1;
+			if (3 * size == coords.length)
+			{
+				int [] newCoords = new int[2 * coords.length];
+				System.arraycopy(coords, 0, newCoords, 0, coords.length);
+				coords = newCoords;
+			}
+			System.arraycopy(ijk, 0, coords, 3 * size, 3);
+			size++;
+			slots[s] = size;
+			if (2 * size > slots.length)
+				rehash();
+			return size - 1;
+		}
+
+		private void rehash()
+		{
+			slots = new int[2 * slots.length];
+			int mask = slots.length - 1;
+			for (int v = 0; v < size; v++)
+			{
+				int s = hash(coords[3*v], coords[3*v+1], coords[3*v+2]) & mask;
+				while (slots[s] != 0)
+					s = (s + 1) & mask;
+				slots[s] = v + 1;
+			}
+		}
+
+		int size()
+		{
+			return size;
+		}
+	}
+
+	private static void readFully(FileChannel fc, ByteBuffer bb, long position)
+		throws IOException
+	{
+		while (bb.hasRemaining())
+		{
+			int n = fc.read(bb, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of file");
+			position += n;
+		}
+		bb.flip();
+	}
+
+	private static void write(File file, ByteBuffer bb) throws IOException
+	{
+		bb.flip();
+		FileChannel fc = new FileOutputStream(file).getChannel();
+		try
+		{
+			while (bb.hasRemaining())
+				fc.write(bb);
+		}
+		finally
+		{
+			fc.close();
+		}
+	}
+
+	/**
+	 * Reads triangles of a leaf from dispatched file.
+	 */
+	private IntBuffer readTriangles(OEMM.Node current) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.allocate(8);
+		readFully(data, bb, current.counter);
+		long pos = bb.getLong();
+		assert pos == current.counter : ""+pos+" != "+current.counter;
+		bb = ByteBuffer.allocate(TRIANGLE_SIZE_DISPATCHED * current.tn);
+		readFully(data, bb, current.counter + 8L);
+		return bb.asIntBuffer();
+	}
+
+	private static boolean contains(OEMM.Node current, int [] ijk)
+	{
+		return ijk[0] >= current.i0 && ijk[0] < current.i0 + current.size &&
+		       ijk[1] >= current.j0 && ijk[1] < current.j0 + current.size &&
+		       ijk[2] >= current.k0 && ijk[2] < current.k0 + current.size;
+	}
+
+	private VertexTable loadVertexTable(OEMM.Node node) throws IOException
+	{
+		VertexTable ret = new VertexTable(node.vn);
+		RandomAccessFile raf = new RandomAccessFile(new File(outDir, node.file+"i"), "r");
+		try
+		{
+			ByteBuffer bb = ByteBuffer.allocate(12 * node.vn);
+			readFully(raf.getChannel(), bb, 0L);
+			IntBuffer bbI = bb.asIntBuffer();
+			int [] ijk = new int[3];
+			for (int i = 0; i < node.vn; i++)
+			{
+				bbI.get(ijk);
+				ret.add(ijk);
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Indexes internal vertices of a leaf.  Integer and double coordinates
+	 * of its vertices are written into "i" and "v" files, and leaves
+	 * adjacent to each vertex into "a" file.
+	 */
+	private void indexInternalVertices(OEMM.Node current) throws IOException
+	{
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Indexing internal vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
+		IntBuffer triangles = readTriangles(current);
+		VertexTable inner = new VertexTable(current.tn);
+		//  Adjacent leaves of inner vertices, null when empty
+		List<TIntHashSet> localAdjSet = new ArrayList<TIntHashSet>();
+		//  Leaves have less than 256 neighbors
+		TIntHashSet set = new TIntHashSet(256);
+		int [] ijk = new int[3];
+		int [] leaf = new int[3];
+		int [] pointIndex = new int[3];
+		int tCount = 0;
+		for (int t = 0; t < current.tn; t++)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				triangles.get(ijk);
+				if (contains(current, ijk))
+				{
+					leaf[i] = current.leafIndex;
+					pointIndex[i] = inner.add(ijk);
+					if (pointIndex[i] == localAdjSet.size())
+						localAdjSet.add(null);
+				}
+				else
+					leaf[i] = oemm.search(ijk).leafIndex;
+			}
+			//  Group number
+			triangles.get();
+			for (int i = 0; i < 3; i++)
+			{
+				if (leaf[i] != current.leafIndex)
+					continue;
+				for (int j = 0; j < 3; j++)
+				{
+					if (i == j || leaf[j] == current.leafIndex)
+						continue;
+					set.add(leaf[j]);
+					TIntHashSet adj = localAdjSet.get(pointIndex[i]);
+					if (adj == null)
+					{
+						adj = new TIntHashSet();
+						localAdjSet.set(pointIndex[i], adj);
+					}
+					adj.add(leaf[j]);
+				}
+			}
+			//  Triangles are stored in the node with lowest leafIndex
+			if (leaf[0] >= current.leafIndex && leaf[1] >= current.leafIndex && leaf[2] >= current.leafIndex)
+				tCount++;
+		}
+		int vn = inner.size();
+
+		current.adjLeaves = new TIntArrayList(set.size());
+		TIntIntHashMap invMap = new TIntIntHashMap(set.size());
+		int cnt = 0;
+		for (TIntIterator it = set.iterator(); it.hasNext();)
+		{
+			int ind = it.next();
+			current.adjLeaves.add(ind);
+			invMap.put(ind, cnt);
+			cnt++;
+		}
+
+		ByteBuffer bbi = ByteBuffer.allocate(12 * vn);
+		bbi.asIntBuffer().put(inner.coords, 0, 3 * vn);
+		bbi.position(12 * vn);
+		write(new File(outDir, current.file+"i"), bbi);
+		ByteBuffer bbv = ByteBuffer.allocate(24 * vn);
+		DoubleBuffer bbvD = bbv.asDoubleBuffer();
+		double [] xyz = new double[3];
+		for (int i = 0; i < vn; i++)
+		{
+			System.arraycopy(inner.coords, 3*i, ijk, 0, 3);
+			oemm.int2double(ijk, xyz);
+			bbvD.put(xyz);
+		}
+		bbv.position(24 * vn);
+		write(new File(outDir, current.file+"v"), bbv);
+		int adjSize = vn;
+		for (TIntHashSet adj : localAdjSet)
+		{
+			if (adj != null)
+				adjSize += adj.size();
+		}
+		ByteBuffer bba = ByteBuffer.allocate(adjSize);
+		for (TIntHashSet adj : localAdjSet)
+		{
+			if (adj == null)
+			{
+				bba.put((byte) 0);
+				continue;
+			}
+			bba.put((byte) adj.size());
+			for (TIntIterator it = adj.iterator(); it.hasNext();)
+				bba.put((byte) invMap.get(it.next()));
+		}
+		write(new File(outDir, current.file+"a"), bba);
+
+		current.vn = vn;
+		storedTriangles[current.leafIndex] = tCount;
+		logger.fine("number of internal vertices: "+vn);
+	}
+
+	/**
+	 * Writes triangles stored in a leaf into its "t" file.  Vertices are
+	 * given by their leaf and their local index, which is found in tables
+	 * of this leaf and its adjacent leaves.
+	 */
+	private void indexExternalVertices(OEMM.Node current) throws IOException
+	{
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Indexing external vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
+		TIntObjectHashMap<VertexTable> tables = new TIntObjectHashMap<VertexTable>();
+		tables.put(current.leafIndex, loadVertexTable(current));
+		for (int i = 0; i < current.adjLeaves.size(); i++)
+		{
+			int adj = current.adjLeaves.get(i);
+			tables.put(adj, loadVertexTable(oemm.leaves[adj]));
+		}
+		IntBuffer triangles = readTriangles(current);
+		ByteBuffer bbt = ByteBuffer.allocate(Storage.TRIANGLE_SIZE * storedTriangles[current.leafIndex]);
+		IntBuffer bbtI = bbt.asIntBuffer();
+		int [] ijk = new int[3];
+		int [] leaf = new int[3];
+		int [] pointIndex = new int[3];
+		for (int t = 0; t < current.tn; t++)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				triangles.get(ijk);
+				leaf[i] = oemm.search(ijk).leafIndex;
+				pointIndex[i] = tables.get(leaf[i]).get(ijk);
+				assert pointIndex[i] >= 0;
+			}
+			int groupNumber = triangles.get();
+			if (leaf[0] >= current.leafIndex && leaf[1] >= current.leafIndex && leaf[2] >= current.leafIndex)
+			{
+				bbtI.put(leaf);
+				bbtI.put(pointIndex);
+				bbtI.put(groupNumber);
+			}
+		}
+		bbt.position(4 * bbtI.position());
+		write(new File(outDir, current.file+"t"), bbt);
+	}
+
+	private void run(List<OEMM.Node> leaves, final boolean internal)
+	{
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(leaves.size());
+		for (final OEMM.Node current : leaves)
+		{
+			tasks.add(new Callable<Object>()
+			{
+				public Object call() throws IOException
+				{
+					if (internal)
+						indexInternalVertices(current);
+					else
+						indexExternalVertices(current);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+	}
+
+	/**
+	 * Indexes internal vertices of all leaves.  Leaf fields
+	 * <code>vn</code> and <code>adjLeaves</code> are updated, but
+	 * not global indices.
+	 */
+	void indexInternalVertices(List<OEMM.Node> leaves)
+	{
+		run(leaves, true);
+	}
+
+	/**
+	 * Writes triangle files of all leaves, and removes temporary files
+	 * containing integer coordinates.  Internal vertices must have been
+	 * indexed before.
+	 */
+	void indexExternalVertices(List<OEMM.Node> leaves)
+	{
+		run(leaves, false);
+		for (OEMM.Node current : leaves)
+			new File(outDir, current.file+"i").delete();
+	}
+}
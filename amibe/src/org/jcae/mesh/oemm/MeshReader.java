@@ -24,7 +24,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
-import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -54,6 +53,8 @@ public class MeshReader extends Storage
 	protected TIntObjectHashMap<Mesh> mapNodeToMesh = null;
 	// Map between octant index and a list of vertices from adjacent triangles so that all triangles are readable
 	protected TIntObjectHashMap<List<FakeNonReadVertex>> mapNodeToNonReadVertexList = null;
+	// Cache of decoded leaves, may be null
+	private LeafCache cache = null;
 
 	/**
 	 * Buffer size.  Vertices and triangles are read through buffers to improve
@@ -95,6 +96,38 @@ public class MeshReader extends Storage
 			mapNodeToNonReadVertexList = null;
 	}
 
+	/**
+	 * Sets a cache of decoded leaves.  When a cache is set, leaves are
+	 * read from disk only if they are not found in this cache, and leaves
+	 * adjacent to those loaded by {@link #buildMesh(TIntHashSet)} are
+	 * prefetched in background.  A cache can be shared between several
+	 * readers of the same OEMM.
+	 *
+	 * @param cache  cache of decoded leaves, or <code>null</code> to
+	 *               always read leaves from disk
+	 */
+	public void setCache(LeafCache cache)
+	{
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the cache of decoded leaves.
+	 *
+	 * @return the cache of decoded leaves, or <code>null</code>
+	 */
+	public LeafCache getCache()
+	{
+		return cache;
+	}
+
+	private LeafCache.Leaf getLeaf(OEMM.Node node)
+	{
+		if (cache != null)
+			return cache.get(node);
+		return LeafCache.load(oemm, node);
+	}
+
 	/**
 	 * Builds meshes for all octants.  This method maintains a map in memory of meshes
 	 * from all octants; each mesh can be retrieved by {@link #getMesh}.
@@ -118,8 +151,9 @@ public class MeshReader extends Storage
 			loadedLeaves.clear();
 			loadedLeaves.add(current.leafIndex);
 			TIntObjectHashMap<Vertex> vertMap = new TIntObjectHashMap<Vertex>();
-			readVertices(loadedLeaves, mesh, vertMap, current);
-			readTriangles(loadedLeaves, mesh, vertMap, current);
+			LeafCache.Leaf leaf = getLeaf(current);
+			readVertices(loadedLeaves, mesh, vertMap, current, leaf);
+			readTriangles(loadedLeaves, mesh, vertMap, current, leaf);
 			if (mesh.hasAdjacency())
 				mesh.buildAdjacency();
 		}
@@ -195,13 +229,19 @@ public class MeshReader extends Storage
 		
 		TIntObjectHashMap<Vertex> vertMap = new TIntObjectHashMap<Vertex>();
 		
+		// Neighbours are read in background while this mesh is built
+		if (cache != null)
+			cache.prefetch(leaves);
 		TIntArrayList sortedLeaves = new TIntArrayList(leaves.toArray());
 		sortedLeaves.sort();
+		LeafCache.Leaf [] data = new LeafCache.Leaf[sortedLeaves.size()];
 		for (int i = 0, n = sortedLeaves.size(); i < n; i++) {
-			readVertices(leaves, mesh, vertMap, oemm.leaves[sortedLeaves.get(i)]);
+			OEMM.Node current = oemm.leaves[sortedLeaves.get(i)];
+			data[i] = getLeaf(current);
+			readVertices(leaves, mesh, vertMap, current, data[i]);
 		}
 		for (int i = 0, n = sortedLeaves.size(); i < n; i++) {
-			readTriangles(leaves, mesh, vertMap, oemm.leaves[sortedLeaves.get(i)]);
+			readTriangles(leaves, mesh, vertMap, oemm.leaves[sortedLeaves.get(i)], data[i]);
 		}
 		if (mapNodeToNonReadVertexList != null) {
 			loadVerticesFromUnloadedNodes();
@@ -224,144 +264,88 @@ public class MeshReader extends Storage
 	}
 
 	/**
-	 * Reads vertex coordinates, create Vertex instances and store them into a map.
+	 * Creates Vertex instances from decoded coordinates and store them into a map.
 	 */
-	private void readVertices(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current)
+	private void readVertices(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current, LeafCache.Leaf leaf)
 	{
-		try
-		{
-			logger.fine("Reading "+current.vn+" vertices from "+getVerticesFile(oemm, current));
-			mesh.ensureCapacity(2*current.vn);
-			Vertex [] vert = new Vertex[current.vn];
-			double [] xyz = new double[3];
-			List<TIntArrayList> listAdjacentLeaves = readAdjacencyFile(oemm, current, leaves);
-			FileChannel fc = new FileInputStream(getVerticesFile(oemm, current)).getChannel();
-			buffer.clear();
-			DoubleBuffer bbD = buffer.asDoubleBuffer();
-			int remaining = current.vn;
-			int index = 0;
-			for (int nblock = (remaining * VERTEX_SIZE) / BUFFER_SIZE; nblock >= 0; --nblock)
-			{
-				buffer.rewind();
-				fc.read(buffer);
-				bbD.rewind();
-				int nf = BUFFER_SIZE / VERTEX_SIZE;
-				if (remaining < nf)
-					nf = remaining;
-				remaining -= nf;
-				for(int nr = 0; nr < nf; nr ++)
-				{
-					bbD.get(xyz);
-					vert[index] = mesh.createVertex(xyz);
-					vert[index].setLabel(current.minIndex + index);
-					vert[index].setReadable(true);
-					boolean writable = listAdjacentLeaves.get(index).isEmpty();
-					vert[index].setWritable(writable);
-					vertMap.put(current.minIndex + index, vert[index]);
-					mesh.add(vert[index]);
-					index++;
-					
-				}
-			}
-			fc.close();
-		}
-		catch (IOException ex)
+		logger.fine("Reading "+current.vn+" vertices from "+getVerticesFile(oemm, current));
+		mesh.ensureCapacity(2*current.vn);
+		double [] coords = leaf.coords;
+		for (int index = 0; index < current.vn; index++)
 		{
-			logger.severe("I/O error when reading file "+getVerticesFile(oemm, current));
-			ex.printStackTrace();
-			throw new RuntimeException(ex);
+			Vertex v = mesh.createVertex(coords[3*index], coords[3*index+1], coords[3*index+2]);
+			v.setLabel(current.minIndex + index);
+			v.setReadable(true);
+			v.setWritable(leaf.isWritable(index, leaves));
+			vertMap.put(current.minIndex + index, v);
+			mesh.add(v);
 		}
 	}
 	
 	/**
-	 * Reads triangle file, create Triangle instances and store them into mesh.
+	 * Creates Triangle instances from decoded triangles and store them into mesh.
 	 */
-	private void readTriangles(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current)
+	private void readTriangles(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current, LeafCache.Leaf leaf)
 	{
-		try
+		logger.fine("Reading "+current.tn+" triangles from "+getTrianglesFile(oemm, current));
+		Vertex [] vert = new Vertex[3];
+		TIntHashSet processedNode = new TIntHashSet();
+		int [] triangles = leaf.triangles;
+		mesh.ensureCapacity(current.tn);
+		for(int offset = 0, end = 7 * current.tn; offset < end; offset += 7)
 		{
-			logger.fine("Reading "+current.tn+" triangles from "+getTrianglesFile(oemm, current));
-			FileChannel fc = new FileInputStream(getTrianglesFile(oemm, current)).getChannel();
-			Vertex [] vert = new Vertex[3];
-			TIntHashSet processedNode = new TIntHashSet();
-			int [] leaf = new int[3];
-			int [] pointIndex = new int[3];
-			mesh.ensureCapacity(current.tn);
-			int remaining = current.tn;
-			buffer.clear();
-			IntBuffer bbI = buffer.asIntBuffer();
-			for (int nblock = (remaining * TRIANGLE_SIZE) / BUFFER_SIZE; nblock >= 0; --nblock)
+			boolean readable = true;
+			boolean writable = true;
+			for (int j = 0; j < 3; j++)
 			{
-				buffer.rewind();
-				fc.read(buffer);
-				bbI.rewind();
-				int nf = BUFFER_SIZE / TRIANGLE_SIZE;
-				if (remaining < nf)
-					nf = remaining;
-				remaining -= nf;
-				for(int nr = 0; nr < nf; nr ++)
+				int leafIndex = triangles[offset+j];
+				int pointIndex = triangles[offset+3+j];
+				int globalIndex = oemm.leaves[leafIndex].minIndex + pointIndex;
+				if (leaves.contains(leafIndex))
 				{
-					boolean readable = true;
-					boolean writable = true;
-					bbI.get(leaf);
-					bbI.get(pointIndex);
-					for (int j = 0; j < 3; j++)
-					{
-						int globalIndex = oemm.leaves[leaf[j]].minIndex + pointIndex[j];
-						if (leaves.contains(leaf[j]))
-						{
-							vert[j] = vertMap.get(globalIndex);
-							assert vert[j] != null;
-						}
-						else
+					vert[j] = vertMap.get(globalIndex);
+					assert vert[j] != null;
+				}
+				else
+				{
+					writable = false;
+					vert[j] = vertMap.get(globalIndex);
+					if (vert[j] == null) {
+						vert[j] = new FakeNonReadVertex(oemm, leafIndex, pointIndex);
+						vertMap.put(globalIndex, vert[j]);
+						if (mapNodeToNonReadVertexList != null)
 						{
-							writable = false;
-							vert[j] = vertMap.get(globalIndex);
-							if (vert[j] == null) {
-								vert[j] = new FakeNonReadVertex(oemm, leaf[j], pointIndex[j]);
-								vertMap.put(globalIndex, vert[j]);
-								if (mapNodeToNonReadVertexList != null)
-								{
-									FakeNonReadVertex vertex = (FakeNonReadVertex) vert[j];
-									List<FakeNonReadVertex> vertices = mapNodeToNonReadVertexList.get(leaf[j]);
-									if (vertices == null) {
-										vertices = new ArrayList<FakeNonReadVertex>();
-										mapNodeToNonReadVertexList.put(leaf[j], vertices);
-									}
-									vertices.add(vertex);
-								}
+							FakeNonReadVertex vertex = (FakeNonReadVertex) vert[j];
+							List<FakeNonReadVertex> vertices = mapNodeToNonReadVertexList.get(leafIndex);
+							if (vertices == null) {
+								vertices = new ArrayList<FakeNonReadVertex>();
+								mapNodeToNonReadVertexList.put(leafIndex, vertices);
 							}
+							vertices.add(vertex);
 						}
 					}
-					// group number
-					int groupId = bbI.get();
-					createTriangle(groupId, vert, readable, writable, mesh);
-					// When called from buildMeshes(), cross boundary triangles are put into
-					// all crossed octants.
-					if (mapNodeToMesh != null && mapNodeToNonReadVertexList != null)
-					{
-						processedNode.clear();
-						for (int j = 0; j < 3; j++) {
-							if (vert[j] instanceof FakeNonReadVertex) {
-								FakeNonReadVertex fnrVertex = (FakeNonReadVertex) vert[j];
-								int leafIndex = fnrVertex.getOEMMIndex();
-								if (!processedNode.contains(leafIndex)) {
-									Mesh altMesh = mapNodeToMesh.get(leafIndex);
-									createTriangle(-leafIndex, vert, false, false, altMesh);
-									processedNode.add(leafIndex);
-								}
-							}
+				}
+			}
+			// group number
+			int groupId = triangles[offset+6];
+			createTriangle(groupId, vert, readable, writable, mesh);
+			// When called from buildMeshes(), cross boundary triangles are put into
+			// all crossed octants.
+			if (mapNodeToMesh != null && mapNodeToNonReadVertexList != null)
+			{
+				processedNode.clear();
+				for (int j = 0; j < 3; j++) {
+					if (vert[j] instanceof FakeNonReadVertex) {
+						FakeNonReadVertex fnrVertex = (FakeNonReadVertex) vert[j];
+						int leafIndex = fnrVertex.getOEMMIndex();
+						if (!processedNode.contains(leafIndex)) {
+							Mesh altMesh = mapNodeToMesh.get(leafIndex);
+							createTriangle(-leafIndex, vert, false, false, altMesh);
+							processedNode.add(leafIndex);
 						}
 					}
 				}
 			}
-			fc.close();
-		}
-		catch (IOException ex)
-		{
-			logger.severe("I/O error when reading indexed file "+getTrianglesFile(oemm, current));
-			ex.printStackTrace();
-			throw new RuntimeException(ex);
 		}
 	}
 
@@ -396,6 +380,16 @@ public class MeshReader extends Storage
 				it.advance();
 				OEMM.Node node = oemm.leaves[it.key()];
 				List<FakeNonReadVertex> list = it.value();
+				LeafCache.Leaf leaf = (cache == null ? null : cache.peek(node.leafIndex));
+				if (leaf != null)
+				{
+					// Coordinates had already been decoded
+					for (FakeNonReadVertex vertex: list) {
+						System.arraycopy(leaf.coords, 3 * vertex.getLocalNumber(), vertex.getUV(), 0, 3);
+						vertex.setReadable(true);
+					}
+					continue;
+				}
 				sortFakeNonReadVertexList(list);
 				FileChannel fch = null;
 				try {
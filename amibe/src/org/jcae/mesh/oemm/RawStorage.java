@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.oemm;
 
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import java.io.File;
 import java.io.DataInputStream;
 import java.io.BufferedInputStream;
@@ -36,8 +37,7 @@ import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.lang.ref.SoftReference;
 import gnu.trove.TIntIterator;
 import gnu.trove.TIntIntHashMap;
@@ -186,8 +186,11 @@ public class RawStorage
 		logger.info("Count triangles");
 		logger.fine("Reading "+soupFile+" and count triangles");
 		CountTriangles ct = new CountTriangles(tree, build);
+		long start = System.currentTimeMillis();
 		readSoup(soupFile, ct);
+		long elapsed = Math.max(1L, System.currentTimeMillis() - start);
 		logger.info("Number of triangles: "+ct.getTriangleCount());
+		logger.info("Soup read in "+elapsed+" ms ("+(ct.getTriangleCount() * TRIANGLE_SIZE_RAW / 1024L / elapsed)+" MB/s)");
 		double [] bbox = ct.getBoundingBox();
 		if (!tree.checkBoundingBox(bbox))
 		{
@@ -279,6 +282,29 @@ public class RawStorage
 	 * @param  dataFile  dispatched data file
 	 */
 	public static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile)
+	{
+		dispatch(tree, soupFile, structFile, dataFile, ParallelExecutor.getNumberOfProcessors());
+	}
+
+	/**
+	 * Reads a triangle soup and dispatches triangles into an intermediate
+	 * OEMM data structure.  Soup file is mapped into memory by chunks,
+	 * triangles are classified into leaves by worker threads and appended
+	 * to leaf blocks by the calling thread, see {@link SoupDispatcher}.
+	 * Output does not depend on the number of threads.
+	 * 
+	 * @param  tree  an OEMM
+	 * @param  soupFile  triangle soup file name
+	 * @param  structFile  output file containing dispatched data structure
+	 * @param  dataFile  dispatched data file
+	 * @param  nrThreads  number of threads used to classify triangles
+	 */
+	public static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile, int nrThreads)
+	{
+		dispatch(tree, soupFile, structFile, dataFile, nrThreads, SoupDispatcher.DEFAULT_CHUNK_SIZE);
+	}
+
+	static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile, int nrThreads, int chunkSize)
 	{
 		if (tree == null)
 		{
@@ -303,13 +329,8 @@ public class RawStorage
 			FileChannel fc = raf.getChannel();
 			raf.setLength(outputFileSize);
 
-			Map<OEMM.Node, ByteBuffer> buffers = new HashMap<OEMM.Node, ByteBuffer>();
-			DispatchTriangles dt = new DispatchTriangles(tree, fc, buffers);
-			readSoup(soupFile, dt);
-
-			logger.fine("Raw OEMM: flush buffers");
-			FlushBuffersProcedure fb_proc = new FlushBuffersProcedure(fc, buffers);
-			tree.walk(fb_proc);
+			SoupDispatcher dispatcher = new SoupDispatcher(tree, nrThreads, chunkSize);
+			dispatcher.dispatch(soupFile, fc);
 			raf.close();
 			
 			//  Write octree data structure onto disk
@@ -332,79 +353,6 @@ public class RawStorage
 		}
 	}
 	
-	private static final class DispatchTriangles implements SoupReaderInterface
-	{
-		private final OEMM.Node [] cells = new OEMM.Node[3];
-		private final int [] ijk9 = new int[9];
-		private final OEMM oemm;
-		private final FileChannel fc;
-		private final Map<OEMM.Node, ByteBuffer> buffers;
-		public DispatchTriangles(OEMM o, FileChannel f, Map<OEMM.Node, ByteBuffer> m)
-		{
-			oemm = o;
-			fc = f;
-			buffers = m;
-		}
-		public void processVertex(int i, double [] xyz)
-		{
-			oemm.double2int(xyz, ijk9);
-			cells[i] = oemm.search(ijk9);
-			if (i < 2)
-			{
-				System.arraycopy(ijk9, 0, ijk9, 3 * i + 3, 3);
-			}
-		}
-		public void processTriangle(int group)
-		{
-			try
-			{
-				addToCell(fc, cells[0], buffers, ijk9, group);
-				if (cells[1] != cells[0])
-					addToCell(fc, cells[1], buffers, ijk9, group);
-				if (cells[2] != cells[0] && cells[2] != cells[1])
-					addToCell(fc, cells[2], buffers, ijk9, group);
-			}
-			catch (IOException ex)
-			{
-				logger.severe("I/O error when writing dispatched file");
-				ex.printStackTrace();
-				throw new RuntimeException(ex);
-			}
-		}
-	}
-
-	private static void addToCell(FileChannel fc, OEMM.Node current, Map<OEMM.Node, ByteBuffer> buffers, int [] ijk, int attribute)
-		throws IOException
-	{
-		assert current.counter <= fc.size();
-		//  With 20 millions of triangles, unbuffered output took 420s
-		//  and buffered output 180s (4K buffer cache)
-		ByteBuffer list = buffers.get(current);
-		if (list == null)
-		{
-			//  Must be a multiple of 10!
-			list = ByteBuffer.allocate(4000);
-			buffers.put(current, list);
-			list.putLong(current.counter);
-			list.flip();
-			fc.write(list, current.counter);
-			current.counter += list.limit();
-			list.clear();
-		}
-		else if (!list.hasRemaining())
-		{
-			// Flush buffer
-			list.flip();
-			fc.write(list, current.counter);
-			current.counter += list.limit();
-			list.clear();
-		}
-		for (int i = 0; i < ijk.length; i++)
-			list.putInt(ijk[i]);
-		list.putInt(attribute);
-		current.tn++;
-	}
-	
 	private static final class ComputeOffsetProcedure extends TraversalProcedure
 	{
 		private long offset = 0L;
@@ -456,53 +404,6 @@ public class RawStorage
 		}
 	}
 	
-	private static final class FlushBuffersProcedure extends TraversalProcedure
-	{
-		private final FileChannel fc;
-		private final Map<OEMM.Node, ByteBuffer> buffers;
-		FlushBuffersProcedure(FileChannel channel, Map<OEMM.Node, ByteBuffer> m)
-		{
-			fc = channel;
-			buffers = m;
-		}
-		@Override
-		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
-		{
-			if (visit != LEAF)
-				return OK;
-			ByteBuffer list = buffers.get(current);
-			if (list == null)
-			{
-				list = ByteBuffer.allocate(8);
-				list.putLong(current.counter);
-				list.rewind();
-				try
-				{
-					assert current.counter <= fc.size();
-					fc.write(list, current.counter);
-				}
-				catch (IOException ex)
-				{
-					logger.severe("I/O error when writing file");
-				}
-				return OK;
-			}
-			// Flush buffer
-			try
-			{
-				assert current.counter <= fc.size();
-				list.flip();
-				fc.write(list, current.counter);
-				current.counter += list.limit();
-			}
-			catch (IOException ex)
-			{
-				logger.severe("I/O error when writing file");
-			}
-			return OK;
-		}
-	}
-	
 	private static final class WriteStructureProcedure extends TraversalProcedure
 	{
 		private final DataOutputStream out;
@@ -564,8 +465,8 @@ public class RawStorage
 			int nrleaves = bufIn.readInt();
 			int nrbytes = bufIn.readInt();
 			int nrT = 0;
-			byte [] name = new byte[nrbytes+1];
-			bufIn.read(name, 0, nrbytes);
+			byte [] name = new byte[nrbytes];
+			bufIn.readFully(name);
 			ret = new OEMM(new String(name));
 			ret.leaves = new OEMM.Node[nrleaves];
 			for (int i = 0; i < 4; i++)
@@ -606,16 +507,108 @@ public class RawStorage
 	}
 	
 	/**
-	 * Transforms dispatched file into an OEMM.
+	 * Transforms dispatched file into an OEMM.  Leaves are indexed by all
+	 * processors.
 	 *
 	 * @param structFile  dispatched file.
 	 * @param outDir  directory in which OEMM structure will be stored.
 	 */
 	public static void indexOEMM(String structFile, String outDir)
+	{
+		indexOEMM(structFile, outDir, ParallelExecutor.getNumberOfProcessors());
+	}
+
+	/**
+	 * Transforms dispatched file into an OEMM.  Vertices of each leaf are
+	 * deduplicated with a hash table of integer coordinates, and leaves are
+	 * processed concurrently, see {@link LeafIndexer}.  Global vertex
+	 * indices are then computed in traversal order, so that output does
+	 * not depend on the number of threads.
+	 *
+	 * @param structFile  dispatched file.
+	 * @param outDir  directory in which OEMM structure will be stored.
+	 * @param nrThreads  number of threads indexing leaves
+	 */
+	public static void indexOEMM(String structFile, String outDir, int nrThreads)
+	{
+		try
+		{
+			OEMM ret = readDispatchedStructure(structFile);
+			//  Until setDirectory() is called below, OEMM directory
+			//  contains the name of dispatched data file
+			String dataFile = ret.getDirectory();
+			if (logger.isLoggable(Level.FINE))
+				ret.printInfos();
+			logger.info("Write octree cells onto disk");
+			OEMM fake = new OEMM(outDir);
+			logger.fine("Store data header on disk");
+			new File(outDir).mkdirs();
+			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(fake.getFileName())));
+			oos.writeObject(ret);
+			oos.writeObject(Integer.valueOf(ret.getNumberOfLeaves()));
+
+			SetPathComponentsProcedure spc_proc = new SetPathComponentsProcedure(outDir);
+			ret.walk(spc_proc);
+			List<OEMM.Node> leaves = spc_proc.getLeaves();
+			FileInputStream fis = new FileInputStream(dataFile);
+			LeafIndexer indexer = new LeafIndexer(ret, fis.getChannel(), outDir, nrThreads);
+
+			//  Index internal vertices
+			logger.fine("Index internal vertices");
+			indexer.indexInternalVertices(leaves);
+			//  Compute global indices and store leaves
+			int room = (Integer.MAX_VALUE - 3*ret.root.tn) / ret.getNumberOfLeaves();
+			int globalIndex = 0;
+			for (OEMM.Node current : leaves)
+			{
+				current.minIndex = globalIndex;
+				current.maxIndex = globalIndex + current.vn + room - 1;
+				globalIndex += current.vn + room;
+				// Stored number of triangles is written onto disk,
+				// but we still need the old value.
+				int tn = current.tn;
+				current.tn = indexer.getNumberOfStoredTriangles(current);
+				oos.writeObject(current);
+				current.tn = tn;
+			}
+			oos.close();
+
+			//  Index external vertices
+			logger.fine("Index external vertices");
+			indexer.indexExternalVertices(leaves);
+			fis.close();
+		}
+		catch (FileNotFoundException ex)
+		{
+			logger.severe("File "+structFile+" not found");
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+		catch (IOException ex)
+		{
+			logger.severe("I/O error when reading file  "+structFile);
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Transforms dispatched file into an OEMM by inserting vertices of each
+	 * leaf into an AVL tree.  This is the former sequential implementation,
+	 * it is kept to check that {@link #indexOEMM(String, String, int)}
+	 * writes the same files.
+	 *
+	 * @param structFile  dispatched file.
+	 * @param outDir  directory in which OEMM structure will be stored.
+	 */
+	static void indexOEMMWithAVLTrees(String structFile, String outDir)
 	{
 		try
 		{
 			OEMM ret = readDispatchedStructure(structFile);
+			//  Until setDirectory() is called below, OEMM directory
+			//  contains the name of dispatched data file
+			String dataFile = ret.getDirectory();
 			if (logger.isLoggable(Level.FINE))
 				ret.printInfos();
 			logger.info("Write octree cells onto disk");
@@ -625,10 +618,11 @@ public class RawStorage
 			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(fake.getFileName())));
 			oos.writeObject(ret);
 			oos.writeObject(Integer.valueOf(ret.getNumberOfLeaves()));
+			ret.walk(new SetPathComponentsProcedure(outDir));
 			
 			//  Index internal vertices
 			logger.fine("Index internal vertices");
-			FileInputStream fis = new FileInputStream(ret.getFileName());
+			FileInputStream fis = new FileInputStream(dataFile);
 			IndexInternalVerticesProcedure iiv_proc = new IndexInternalVerticesProcedure(fis, oos, outDir);
 			ret.walk(iiv_proc);
 			fis.close();
@@ -636,7 +630,7 @@ public class RawStorage
 			
 			//  Index external vertices
 			logger.fine("Index external vertices");
-			fis = new FileInputStream(ret.getFileName());
+			fis = new FileInputStream(dataFile);
 			//  We have a handle on triangle soup, which will be
 			//  no more read, we can now set output diirectory
 			//  to its final value.
@@ -666,27 +660,19 @@ public class RawStorage
 			throw new RuntimeException(ex);
 		}
 	}
-	
-	private static class IndexInternalVerticesProcedure extends TraversalProcedure
+
+	/**
+	 * Sets file names of leaves, creates their directories and collects
+	 * leaves in traversal order.
+	 */
+	private static class SetPathComponentsProcedure extends TraversalProcedure
 	{
-		private final FileChannel fc;
-		private final ObjectOutputStream oos;
 		private final String outDir;
-		private int globalIndex = 0;
 		private final ArrayList<String> path = new ArrayList<String>();
-		private final int [] ijk = new int[3];
-		private int room = 0;
-		IndexInternalVerticesProcedure(FileInputStream in, ObjectOutputStream headerOut, String dir)
+		private final List<OEMM.Node> leaves = new ArrayList<OEMM.Node>();
+		SetPathComponentsProcedure(String dir)
 		{
-			fc = in.getChannel();
 			outDir = dir;
-			oos = headerOut;
-		}
-		@Override
-		public void init(OEMM oemm)
-		{
-			super.init(oemm);
-			room = (Integer.MAX_VALUE - 3*oemm.root.tn) / oemm.getNumberOfLeaves();
 		}
 		@Override
 		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
@@ -703,12 +689,6 @@ public class RawStorage
 				path.add(""+octant);
 				return OK;
 			}
-			
-			if (logger.isLoggable(Level.FINE))
-				logger.fine("Indexing internal vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
-			ijk[0] = current.i0;
-			ijk[1] = current.j0;
-			ijk[2] = current.k0;
 			if (path.size() > 0)
 			{
 				StringBuilder sbdir = new StringBuilder(path.get(0));
@@ -724,6 +704,43 @@ public class RawStorage
 				new File(outDir).mkdirs();
 				current.setPathComponents(null, octant);
 			}
+			leaves.add(current);
+			return OK;
+		}
+		List<OEMM.Node> getLeaves()
+		{
+			return leaves;
+		}
+	}
+	
+	private static class IndexInternalVerticesProcedure extends TraversalProcedure
+	{
+		private final FileChannel fc;
+		private final ObjectOutputStream oos;
+		private final String outDir;
+		private int globalIndex = 0;
+		private final int [] ijk = new int[3];
+		private int room = 0;
+		IndexInternalVerticesProcedure(FileInputStream in, ObjectOutputStream headerOut, String dir)
+		{
+			fc = in.getChannel();
+			outDir = dir;
+			oos = headerOut;
+		}
+		@Override
+		public void init(OEMM oemm)
+		{
+			super.init(oemm);
+			room = (Integer.MAX_VALUE - 3*oemm.root.tn) / oemm.getNumberOfLeaves();
+		}
+		@Override
+		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
+		{
+			if (visit != LEAF)
+				return OK;
+			
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Indexing internal vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
 			PAVLTreeIntArrayDup inner = new PAVLTreeIntArrayDup();
 			PAVLTreeIntArrayDup outer = new PAVLTreeIntArrayDup();
 			int nrExternal = 0;
@@ -0,0 +1,335 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Pipelined dispatch of a triangle soup into a linearized octree.
+ *
+ * The soup file is mapped into memory by large chunks.  Triangles of a
+ * chunk are converted into integer coordinates and classified into leaves
+ * by a pool of worker threads, while the calling thread appends the
+ * previous chunk to leaf blocks of the dispatched file.  Triangles are
+ * written in the same order as when soup is read sequentially, so the
+ * dispatched file does not depend on the number of threads.
+ *
+ * Leaves must have been counted and their offsets computed, see
+ * {@link RawStorage#dispatch}.  Each leaf has a bounded write buffer which
+ * is allocated when its first triangle is found.
+ */
+final class SoupDispatcher
+{
+	private static final Logger logger=Logger.getLogger(SoupDispatcher.class.getName());
+
+	//  In triangle soup, a triangle has 9 double coordinates and two ints.
+	private static final int TRIANGLE_SIZE_RAW = 80;
+	//  In dispatched file, a triangle has 9 int coordinates and an int.
+	private static final int TRIANGLE_SIZE_DISPATCHED = 40;
+	//  Number of ints stored for each triangle in a Chunk
+	private static final int INTS_PER_TRIANGLE = TRIANGLE_SIZE_DISPATCHED / 4;
+	//  Default number of triangles in a chunk, 20 MB are mapped at once
+	static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+	//  Size of leaf buffers, must be a multiple of TRIANGLE_SIZE_DISPATCHED
+	private static final int LEAF_BUFFER_SIZE = 4000;
+
+	private final OEMM oemm;
+	private final OEMM.Node [] leaves;
+	private final ByteBuffer [] buffers;
+	private final int nrThreads;
+	private final int chunkSize;
+
+	//  Statistics
+	private long nrTriangles;
+	private long bytesWritten;
+	private long mapTime;
+	private long classifyTime;
+	private long waitTime;
+	private long writeTime;
+
+	/**
+	 * Creates an instance for a given OEMM.
+	 *
+	 * @param o  an OEMM on which {@link RawStorage#dispatch} has computed
+	 *   leaf indices and offsets
+	 * @param threads  number of worker threads
+	 * @param chunk  number of triangles read at once
+	 */
+	SoupDispatcher(OEMM o, int threads, int chunk)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads: "+threads);
+		if (chunk < 1)
+			throw new IllegalArgumentException("Invalid chunk size: "+chunk);
+		oemm = o;
+		nrThreads = threads;
+		chunkSize = chunk;
+		leaves = new OEMM.Node[oemm.getNumberOfLeaves()];
+		oemm.walk(new TraversalProcedure()
+		{
+			@Override
+			public final int action(OEMM tree, OEMM.Node current, int octant, int visit)
+			{
+				if (visit == LEAF)
+					leaves[current.leafIndex] = current;
+				return OK;
+			}
+		});
+		buffers = new ByteBuffer[leaves.length];
+	}
+
+	/**
+	 * Triangles of a soup chunk, converted into integer coordinates.
+	 */
+	private static final class Chunk
+	{
+		//  Integer coordinates and group of triangles
+		private final int [] data;
+		//  Leaf indices of triangle vertices, -1 if this leaf
+		//  already appears in this triangle
+		private final int [] cells;
+		private int size;
+		private Chunk(int capacity)
+		{
+			data = new int[INTS_PER_TRIANGLE * capacity];
+			cells = new int[3 * capacity];
+		}
+	}
+
+	private final class ClassifyTask implements Callable<Long>
+	{
+		private final ByteBuffer soup;
+		private final Chunk chunk;
+		private final int first;
+		private final int last;
+		private ClassifyTask(ByteBuffer soup, Chunk chunk, int first, int last)
+		{
+			this.soup = soup;
+			this.chunk = chunk;
+			this.first = first;
+			this.last = last;
+		}
+		public Long call()
+		{
+			long start = System.nanoTime();
+			double [] xyz = new double[3];
+			int [] ijk = new int[3];
+			OEMM.Node [] nodes = new OEMM.Node[3];
+			int [] data = chunk.data;
+			int [] cells = chunk.cells;
+			for (int t = first; t < last; t++)
+			{
+				int offset = t * TRIANGLE_SIZE_RAW;
+				for (int i = 0; i < 3; i++)
+				{
+					for (int k = 0; k < 3; k++)
+						xyz[k] = soup.getDouble(offset + 24 * i + 8 * k);
+					oemm.double2int(xyz, ijk);
+					nodes[i] = oemm.search(ijk);
+					System.arraycopy(ijk, 0, data, INTS_PER_TRIANGLE * t + 3 * i, 3);
+				}
+				data[INTS_PER_TRIANGLE * t + 9] = soup.getInt(offset + 72);
+				cells[3*t] = nodes[0].leafIndex;
+				cells[3*t+1] = (nodes[1] != nodes[0] ? nodes[1].leafIndex : -1);
+				cells[3*t+2] = (nodes[2] != nodes[0] && nodes[2] != nodes[1] ? nodes[2].leafIndex : -1);
+			}
+			return Long.valueOf(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Dispatches triangles of a soup file.  When this method returns,
+	 * all leaf buffers have been flushed and leaf headers written.
+	 *
+	 * @param soupFile  triangle soup file name
+	 * @param out  dispatched data file
+	 */
+	void dispatch(String soupFile, FileChannel out)
+		throws IOException
+	{
+		long start = System.nanoTime();
+		FileChannel in = new FileInputStream(soupFile).getChannel();
+		try
+		{
+			long total = in.size() / TRIANGLE_SIZE_RAW;
+			Chunk [] chunks = new Chunk[] {
+				new Chunk((int) Math.min(chunkSize, total)),
+				new Chunk((int) Math.min(chunkSize, total))
+			};
+			int current = 0;
+			long next = 0L;
+			List<Future<Long>> pending = null;
+			if (total > 0L)
+			{
+				pending = classify(in, next, total, chunks[current]);
+				next += chunks[current].size;
+			}
+			while (pending != null)
+			{
+				waitForTasks(pending);
+				Chunk ready = chunks[current];
+				current = 1 - current;
+				pending = null;
+				//  Start processing next chunk before writing this one
+				if (next < total)
+				{
+					pending = classify(in, next, total, chunks[current]);
+					next += chunks[current].size;
+				}
+				write(ready, out);
+			}
+			long t0 = System.nanoTime();
+			flush(out);
+			writeTime += System.nanoTime() - t0;
+			nrTriangles = total;
+		}
+		finally
+		{
+			in.close();
+		}
+		logStatistics(System.nanoTime() - start);
+	}
+
+	private List<Future<Long>> classify(FileChannel in, long first, long total, Chunk chunk)
+		throws IOException
+	{
+		long t0 = System.nanoTime();
+		int nr = (int) Math.min(chunk.cells.length / 3, total - first);
+		ByteBuffer soup = in.map(FileChannel.MapMode.READ_ONLY, first * TRIANGLE_SIZE_RAW, (long) nr * TRIANGLE_SIZE_RAW);
+		chunk.size = nr;
+		mapTime += System.nanoTime() - t0;
+		List<Future<Long>> ret = new ArrayList<Future<Long>>(nrThreads);
+		if (nrThreads == 1)
+		{
+			classifyTime += new ClassifyTask(soup, chunk, 0, nr).call().longValue();
+			return ret;
+		}
+		int step = (nr + nrThreads - 1) / nrThreads;
+		for (int i = 0; i < nr; i += step)
+		{
+			//  Each task has its own view, absolute reads do not modify
+			//  its state but buffers are not documented as thread safe.
+			ret.add(ParallelExecutor.submit(new ClassifyTask(soup.duplicate(), chunk, i, Math.min(nr, i + step))));
+		}
+		return ret;
+	}
+
+	private void waitForTasks(List<Future<Long>> tasks)
+	{
+		long t0 = System.nanoTime();
+		for (Future<Long> f : tasks)
+			classifyTime += ParallelExecutor.get(f).longValue();
+		waitTime += System.nanoTime() - t0;
+	}
+
+	private void write(Chunk chunk, FileChannel out)
+		throws IOException
+	{
+		long t0 = System.nanoTime();
+		int [] data = chunk.data;
+		int [] cells = chunk.cells;
+		for (int t = 0; t < chunk.size; t++)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				int leaf = cells[3*t+i];
+				if (leaf >= 0)
+					addToLeaf(out, leaf, data, INTS_PER_TRIANGLE * t);
+			}
+		}
+		writeTime += System.nanoTime() - t0;
+	}
+
+	private void addToLeaf(FileChannel out, int leaf, int [] data, int offset)
+		throws IOException
+	{
+		OEMM.Node current = leaves[leaf];
+		assert current.counter <= out.size();
+		ByteBuffer list = buffers[leaf];
+		if (list == null)
+		{
+			list = ByteBuffer.allocate(LEAF_BUFFER_SIZE);
+			buffers[leaf] = list;
+			list.putLong(current.counter);
+			writeBuffer(out, current, list);
+		}
+		else if (!list.hasRemaining())
+			writeBuffer(out, current, list);
+		for (int i = 0; i < INTS_PER_TRIANGLE; i++)
+			list.putInt(data[offset+i]);
+		current.tn++;
+	}
+
+	private void writeBuffer(FileChannel out, OEMM.Node current, ByteBuffer list)
+		throws IOException
+	{
+		list.flip();
+		int nr = list.limit();
+		while (list.hasRemaining())
+			out.write(list, current.counter + list.position());
+		current.counter += nr;
+		bytesWritten += nr;
+		list.clear();
+	}
+
+	private void flush(FileChannel out)
+		throws IOException
+	{
+		for (int i = 0; i < leaves.length; i++)
+		{
+			OEMM.Node current = leaves[i];
+			ByteBuffer list = buffers[i];
+			if (list == null)
+			{
+				//  Empty leaf, write its header
+				list = ByteBuffer.allocate(8);
+				list.putLong(current.counter);
+			}
+			writeBuffer(out, current, list);
+			buffers[i] = null;
+		}
+	}
+
+	private static String rate(long bytes, long nanos)
+	{
+		if (nanos <= 0L)
+			return "-";
+		return String.format("%.1f MB/s", bytes * 1.e9 / nanos / 1048576.0);
+	}
+
+	private void logStatistics(long elapsed)
+	{
+		long bytesRead = nrTriangles * TRIANGLE_SIZE_RAW;
+		logger.info("Dispatched "+nrTriangles+" triangles with "+nrThreads+" thread(s) in "+(elapsed / 1000000L)+" ms ("+rate(bytesRead, elapsed)+")");
+		logger.info("  map soup:  "+(mapTime / 1000000L)+" ms");
+		logger.info("  read and classify: "+(classifyTime / 1000000L)+" ms in worker threads ("+rate(bytesRead, classifyTime)+" per thread), "+(waitTime / 1000000L)+" ms waited");
+		logger.info("  write: "+(bytesWritten / 1048576L)+" MB in "+(writeTime / 1000000L)+" ms ("+rate(bytesWritten, writeTime)+")");
+	}
+}
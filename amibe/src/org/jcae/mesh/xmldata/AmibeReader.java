@@ -21,16 +21,45 @@
 package org.jcae.mesh.xmldata;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 /**
+ * Reads an Amibe mesh directory.
+ *
+ * <p>
+ * Binary files can be read either by copying values into arrays, see
+ * {@link SubMesh#getNodes} or {@link Group#readTria3}, or through read-only
+ * views of memory-mapped files, see {@link SubMesh#getNodesBuffer},
+ * {@link SubMesh#getTrianglesBuffer} and {@link Group#getTria3IdsBuffer}.
+ * The region of a file used by a submesh or a group is mapped the first
+ * time its view is requested, and the same mapping is then shared by all
+ * views.  A region cannot be larger than 2GB, larger submeshes are read
+ * through windows, see {@link SubMesh#getNodesBuffer(int, int)} and
+ * {@link SubMesh#getTrianglesBuffer(int, int)}.  Mapped regions are
+ * released by {@link #close}, which must be called before files are
+ * overwritten or deleted.
+ * </p>
+ * <p>
+ * Nodes, triangles and groups may have been written into compressed block
+ * files, see {@link AmibeWriter.Dim3#Dim3(String, boolean, boolean, boolean)}.
+ * They are then decoded transparently; views contain decoded values
+ * instead of being mapped.
+ * </p>
  *
  * @author Jerome Robert
  */
@@ -41,6 +70,7 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		private String name;
 		private int numberOfNodes, numberOfTrias, numberOfBeams;
 		private int nodesOffset, beamsOffset, triasOffset;
+		private IntBuffer triaIds, beamIds;
 
 		/**
 		 * @return the name
@@ -95,8 +125,7 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		{
 			if (numberOfTrias == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
-			IntFileReader ifrG = pfrf.getIntReader(getBinFile(groupsFilename));
+			IntFileReader ifrG = getIntReader(groupsFilename);
 			int[] toReturn = new int[numberOfTrias];
 			for (int i = 0; i < numberOfTrias; i++)
 				toReturn[i] = ifrG.get(triasOffset+i);
@@ -108,9 +137,8 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		{
 			if (numberOfTrias == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			int[] ids = readTria3Ids();
-			IntFileReader ifrT = pfrf.getIntReader(getBinFile("triangles"+dim()+"d.bin"));
+			IntFileReader ifrT = getIntReader("triangles"+dim()+"d.bin");
 			int[] toReturn = new int[numberOfTrias * 3];
 			for (int i = 0; i < numberOfTrias; i++)
 				ifrT.get(ids[i] * 3, toReturn, i * 3, 3);
@@ -122,9 +150,8 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		{
 			if (numberOfBeams == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			int[] ids = readBeamsIds();
-			IntFileReader ifrT = pfrf.getIntReader(getBinFile("beams"+dim()+"d.bin"));
+			IntFileReader ifrT = getIntReader("beams"+dim()+"d.bin");
 			int[] toReturn = new int[numberOfBeams * 2];
 			for (int i = 0; i < numberOfBeams; i++)
 				ifrT.get(ids[i] * 2, toReturn, i * 2, 2);
@@ -135,14 +162,41 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		public int[] readBeamsIds() throws IOException {
 			if (numberOfBeams == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
-			IntFileReader ifrG = pfrf.getIntReader(getBinFile("bgroups.bin"));
+			IntFileReader ifrG = getIntReader("bgroups.bin");
 			int[] toReturn = new int[numberOfBeams];
 			for (int i = 0; i < numberOfBeams; i++)
 				toReturn[i] = ifrG.get(beamsOffset+i);
 			ifrG.close();
 			return toReturn;
 		}
+
+		/**
+		 * Returns a read-only view of triangle ids of this group.  Like
+		 * {@link #readTria3Ids}, ids are indices in triangle file.
+		 */
+		public IntBuffer getTria3IdsBuffer() throws IOException
+		{
+			synchronized (AmibeReader.this)
+			{
+				if (triaIds == null)
+					triaIds = mapInts(groupsFilename, triasOffset, numberOfTrias);
+				return triaIds.duplicate();
+			}
+		}
+
+		/**
+		 * Returns a read-only view of beam ids of this group.  Like
+		 * {@link #readBeamsIds}, ids are indices in beam file.
+		 */
+		public IntBuffer getBeamsIdsBuffer() throws IOException
+		{
+			synchronized (AmibeReader.this)
+			{
+				if (beamIds == null)
+					beamIds = mapInts("bgroups.bin", beamsOffset, numberOfBeams);
+				return beamIds.duplicate();
+			}
+		}
 	}
 
 	public class SubMesh
@@ -151,6 +205,8 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		private int numberOfNodes, numberOfTrias, numberOfBeams, numberOfReferences;
 		private int nodesOffset, beamsOffset, triasOffset;
 		private LinkedHashMap<String, Group> groups = new LinkedHashMap<String, Group>();
+		private DoubleBuffer nodes;
+		private IntBuffer trias, beams;
 
 		/**
 		 * @return the subShape
@@ -215,20 +271,17 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 
 		public DoubleFileReader getNodes() throws IOException
 		{
-			File f = getBinFile("nodes"+dim()+"d.bin");
-			return new PrimitiveFileReaderFactory().getDoubleReader(f);
+			return getDoubleReader("nodes"+dim()+"d.bin");
 		}
 
 		public IntFileReader getBeams() throws IOException
 		{
-			return new PrimitiveFileReaderFactory().getIntReader(
-				getBinFile("beams"+dim()+"d.bin"));
+			return getIntReader("beams"+dim()+"d.bin");
 		}
 		
 		public IntFileReader getTriangles() throws IOException
 		{
-			return new PrimitiveFileReaderFactory().getIntReader(
-				getBinFile("triangles"+dim()+"d.bin"));
+			return getIntReader("triangles"+dim()+"d.bin");
 		}
 		
 		public float[] readNodes(int[] nodesID) throws IOException
@@ -253,8 +306,7 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 			int[] refs = new int[numberOfReferences];
 			if(numberOfReferences > 0)
 			{
-				IntFileReader ifrR = new PrimitiveFileReaderFactory().getIntReader(
-					getBinFile("nodes1dref.bin"));
+				IntFileReader ifrR = getIntReader("nodes1dref.bin");
 				ifrR.get(refs);
 				ifrR.close();
 			}
@@ -264,6 +316,103 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		public int getNumberOfReferences() {
 			return numberOfReferences;
 		}
+
+		/**
+		 * Returns a read-only view of node coordinates of this submesh.
+		 * Coordinates of node <code>i</code> are stored at indices
+		 * <code>dim*i</code> to <code>dim*i+dim-1</code>.
+		 */
+		public DoubleBuffer getNodesBuffer() throws IOException
+		{
+			synchronized (AmibeReader.this)
+			{
+				if (nodes == null)
+				{
+					ByteBuffer bb = map("nodes"+dim()+"d.bin", 8L * dim() * nodesOffset, 8L * dim() * numberOfNodes);
+					nodes = bb.asDoubleBuffer();
+				}
+				return nodes.duplicate();
+			}
+		}
+
+		/**
+		 * Returns a read-only view of coordinates of nodes
+		 * <code>first</code> to <code>first+number-1</code> of this
+		 * submesh.  Unlike {@link #getNodesBuffer()}, this window is
+		 * mapped on each call, so that submeshes larger than 2GB can
+		 * be read by windows.
+		 *
+		 * @param first  index of the first node
+		 * @param number  number of nodes
+		 */
+		public DoubleBuffer getNodesBuffer(int first, int number) throws IOException
+		{
+			checkWindow(first, number, numberOfNodes);
+			synchronized (AmibeReader.this)
+			{
+				ByteBuffer bb = map("nodes"+dim()+"d.bin", 8L * dim() * ((long) nodesOffset + first), 8L * dim() * number);
+				return bb.asDoubleBuffer();
+			}
+		}
+
+		/**
+		 * Returns a read-only view of triangles of this submesh, as
+		 * three node indices per triangle.
+		 */
+		public IntBuffer getTrianglesBuffer() throws IOException
+		{
+			synchronized (AmibeReader.this)
+			{
+				if (trias == null)
+					trias = mapInts("triangles"+dim()+"d.bin", 3L * triasOffset, 3L * numberOfTrias);
+				return trias.duplicate();
+			}
+		}
+
+		/**
+		 * Returns a read-only view of triangles <code>first</code> to
+		 * <code>first+number-1</code> of this submesh.  Unlike
+		 * {@link #getTrianglesBuffer()}, this window is mapped on each
+		 * call, so that submeshes larger than 2GB can be read by
+		 * windows.
+		 *
+		 * @param first  index of the first triangle
+		 * @param number  number of triangles
+		 */
+		public IntBuffer getTrianglesBuffer(int first, int number) throws IOException
+		{
+			checkWindow(first, number, numberOfTrias);
+			synchronized (AmibeReader.this)
+			{
+				return mapInts("triangles"+dim()+"d.bin", 3L * ((long) triasOffset + first), 3L * number);
+			}
+		}
+
+		/**
+		 * Returns a read-only view of beams of this submesh, as two node
+		 * indices per beam.
+		 */
+		public IntBuffer getBeamsBuffer() throws IOException
+		{
+			synchronized (AmibeReader.this)
+			{
+				if (beams == null)
+					beams = mapInts("beams"+dim()+"d.bin", 2L * beamsOffset, 2L * numberOfBeams);
+				return beams.duplicate();
+			}
+		}
+
+		private void unmap()
+		{
+			nodes = null;
+			trias = null;
+			beams = null;
+			for (Group g : groups.values())
+			{
+				g.triaIds = null;
+				g.beamIds = null;
+			}
+		}
 	}
 
 	public static class Dim1 extends AmibeReader {
@@ -346,11 +495,25 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 	private String shape;
 	private List<SubMesh> submeshes = new ArrayList<SubMesh>();
 	private final String path;
+	private final List<MappedByteBuffer> mappedBuffers = new ArrayList<MappedByteBuffer>();
+	private final Map<String, BlockFile> blockFiles = new HashMap<String, BlockFile>();
 	@Override
 	protected void read(Document dom) {
 		Element mesh = getElement(dom.getDocumentElement(), "mesh");
 		assert mesh != null;
 		shape = readFile(getElement(mesh, "shape")).location;
+		for(Element e:getElements(mesh, "blocks"))
+		{
+			String location = e.getAttribute("location");
+			String [] tokens = e.getTextContent().trim().split("\\s+");
+			long [] offsets = new long[tokens.length];
+			for(int i = 0; i < tokens.length; i++)
+				offsets[i] = Long.parseLong(tokens[i]);
+			blockFiles.put(location, new BlockFile(new File(path, location),
+				"doublestream".equals(e.getAttribute("format")),
+				Integer.parseInt(e.getAttribute("stride")),
+				Long.parseLong(e.getAttribute("number")), offsets));
+		}
 		for(Element e:getElements(mesh, "submesh"))
 		{
 			SubMesh sm = new SubMesh();
@@ -419,6 +582,95 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 	{
 		return new File(new File(path, binDirectory()), name);
 	}
+
+	/**
+	 * Returns <code>true</code> if nodes, triangles and groups are stored
+	 * into compressed block files.
+	 */
+	public boolean isCompressed()
+	{
+		return !blockFiles.isEmpty();
+	}
+
+	private BlockFile getBlockFile(String name)
+	{
+		return blockFiles.get(binDirectory()+"/"+name);
+	}
+
+	private IntFileReader getIntReader(String name) throws IOException
+	{
+		BlockFile bf = getBlockFile(name);
+		if (bf != null)
+			return bf.getIntReader();
+		return new PrimitiveFileReaderFactory().getIntReader(getBinFile(name));
+	}
+
+	private DoubleFileReader getDoubleReader(String name) throws IOException
+	{
+		BlockFile bf = getBlockFile(name);
+		if (bf != null)
+			return bf.getDoubleReader();
+		return new PrimitiveFileReaderFactory().getDoubleReader(getBinFile(name));
+	}
+
+	/**
+	 * Maps a region of a binary file in read-only mode.  Compressed files
+	 * are decoded into a heap buffer instead.
+	 *
+	 * @param name  file name
+	 * @param offset  offset of the first byte
+	 * @param length  number of bytes
+	 * @return a read-only buffer
+	 */
+	private ByteBuffer map(String name, long offset, long length) throws IOException
+	{
+		if (length == 0)
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Cannot map more than 2GB of "+name+" at once, use smaller windows instead");
+		BlockFile bf = getBlockFile(name);
+		if (bf != null)
+		{
+			int size = bf.getElementSize();
+			return bf.decode(offset / size, length / size).asReadOnlyBuffer();
+		}
+		FileChannel fc = new FileInputStream(getBinFile(name)).getChannel();
+		try
+		{
+			// Mapping remains valid after channel is closed
+			MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, offset, length);
+			mappedBuffers.add(bb);
+			return bb;
+		}
+		finally
+		{
+			fc.close();
+		}
+	}
+
+	private static void checkWindow(int first, int number, int size)
+	{
+		if (first < 0 || number < 0 || (long) first + number > size)
+			throw new IndexOutOfBoundsException("Invalid window: first="+first+" number="+number+" size="+size);
+	}
+
+	private IntBuffer mapInts(String name, long offset, long number) throws IOException
+	{
+		return map(name, 4L * offset, 4L * number).asIntBuffer();
+	}
+
+	/**
+	 * Releases memory-mapped files.  Views which had been returned before
+	 * must not be used after this call, new views can be requested.
+	 */
+	public synchronized void close()
+	{
+		for (SubMesh sm : submeshes)
+			sm.unmap();
+		for (MappedByteBuffer bb : mappedBuffers)
+			IntFileReaderByMmap.clean(bb);
+		mappedBuffers.clear();
+	}
 	
 	public AmibeReader(String path) throws SAXException, IOException {
 		this.path = path;
@@ -19,6 +19,7 @@
  */
 
 package org.jcae.mesh.xmldata;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -97,7 +98,15 @@ public abstract class AmibeWriter {
 
 	public static class Dim3 extends AmibeWriter {
 		public Dim3(String name, boolean normal, boolean hasRef) throws IOException {
-			init(name, hasRef);
+			this(name, normal, hasRef, false);
+		}
+
+		/**
+		 * @param compressed  if <code>true</code>, nodes, triangles and
+		 * groups are written into compressed block files, see jcae.xsd
+		 */
+		public Dim3(String name, boolean normal, boolean hasRef, boolean compressed) throws IOException {
+			init(name, hasRef, compressed);
 			if(normal)
 			{
 				File dir3d = new File(name, binDirectory());
@@ -188,6 +197,17 @@ public abstract class AmibeWriter {
 		return new DataOutputStream(new BufferedOutputStream(
 			new NIOutputStream(fos.getChannel()), 1024*64));
 	}
+
+	private DataOutputStream createDOS(File f, boolean doubles, int stride) throws IOException
+	{
+		if (!compressed)
+			return createDOS(f);
+		BlockOutputStream out = new BlockOutputStream(f, doubles, stride,
+			ParallelExecutor.getNumberOfProcessors());
+		blockStreams.add(out);
+		blockLocations.add(binDirectory() + "/" + f.getName());
+		return new DataOutputStream(out);
+	}
 	
 	protected DataOutputStream nodeChan, triaChan, groupChan, refChan,
 		beamChan, normalChan, nodeGroupChan;
@@ -203,6 +223,9 @@ public abstract class AmibeWriter {
 	private boolean shapeWritten;
 	private int subShape;
 	private boolean haveSubShape;
+	private boolean compressed;
+	private final List<BlockOutputStream> blockStreams = new ArrayList<BlockOutputStream>();
+	private final List<String> blockLocations = new ArrayList<String>();
 	
 	/** Set the subShape */
 	public void setSubShape(int i)
@@ -320,9 +343,6 @@ public abstract class AmibeWriter {
 	{
 		try {
 			writeSubMesh();
-			xmlWriter.out.writeEndElement();
-			xmlWriter.out.writeEndElement();
-			xmlWriter.close();
 			nodeChan.close();
 			triaChan.close();
 			groupChan.close();
@@ -331,6 +351,10 @@ public abstract class AmibeWriter {
 			bGroupChan.close();
 			if(refChan != null)
 				refChan.close();
+			writeBlocks();
+			xmlWriter.out.writeEndElement();
+			xmlWriter.out.writeEndElement();
+			xmlWriter.close();
 		} catch (SAXException ex) {
 			LOGGER.log(Level.SEVERE, null, ex);
 		} catch (XMLStreamException ex) {
@@ -344,6 +368,12 @@ public abstract class AmibeWriter {
 	private File fnode;
 	protected final void init(String path, boolean writeReferences) throws IOException
 	{
+		init(path, writeReferences, false);
+	}
+
+	protected final void init(String path, boolean writeReferences, boolean compressed) throws IOException
+	{
+		this.compressed = compressed;
 		try {
 			new File(path).mkdirs();
 			nodeFName = "nodes" + dim() + "d.bin";
@@ -362,9 +392,9 @@ public abstract class AmibeWriter {
 				File ref = new File(dir3d, refFName);
 				refChan = createDOS(ref);
 			}
-			nodeChan = createDOS(fnode);
-			triaChan = createDOS(ftria);
-			groupChan = createDOS(fgrp);
+			nodeChan = createDOS(fnode, true, dim());
+			triaChan = createDOS(ftria, false, 3);
+			groupChan = createDOS(fgrp, false, 1);
 			bGroupChan = createDOS(bgroups);
 			nodeGroupChan = createDOS(new File(dir3d, "nodeGroups.bin"));
 			beamChan = createDOS(fbeams);
@@ -389,6 +419,8 @@ public abstract class AmibeWriter {
 	}
 	
 	public void getNode(int i, double[] nc) throws IOException {
+		if(compressed)
+			throw new IllegalStateException("Nodes cannot be read back from compressed files");
 		if(nodesReader == null)
 		{
 			nodesReader = new DoubleFileReaderByDirectBuffer(fnode);
@@ -415,6 +447,30 @@ public abstract class AmibeWriter {
 		o.writeEndElement();
 	}
 
+	/** Writes the index of compressed files, they must have been closed */
+	private void writeBlocks() throws XMLStreamException
+	{
+		XMLStreamWriter o = xmlWriter.out;
+		for(int i = 0; i < blockStreams.size(); i++)
+		{
+			BlockOutputStream b = blockStreams.get(i);
+			o.writeStartElement("blocks");
+			o.writeAttribute("format", b.isDoubleStream() ? "doublestream" : "integerstream");
+			o.writeAttribute("location", blockLocations.get(i));
+			o.writeAttribute("stride", Integer.toString(b.getStride()));
+			o.writeAttribute("number", Long.toString(b.getNumberOfValues()));
+			StringBuilder sb = new StringBuilder();
+			for(long offset : b.getOffsets())
+			{
+				if(sb.length() > 0)
+					sb.append(' ');
+				sb.append(offset);
+			}
+			o.writeCharacters(sb.toString());
+			o.writeEndElement();
+		}
+	}
+
 	private void writeSubMesh() throws IOException
 	{
 		try
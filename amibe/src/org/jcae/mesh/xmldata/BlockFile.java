@@ -0,0 +1,527 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary file of doubles or integers stored in compressed blocks.
+ *
+ * <p>
+ * Values are grouped into blocks of {@link #BLOCK_SIZE} values, and each
+ * block is compressed independently, so that blocks can be encoded and
+ * decoded concurrently and any value can be read without decoding the
+ * whole file.  Byte offsets of blocks are not stored in the file itself
+ * but in the XML file.  A value is predicted by the value found
+ * <code>stride</code> positions before, for instance the same coordinate
+ * of the previous node, or the same vertex of the previous triangle:
+ * </p>
+ * <ul>
+ *   <li>Double bits are XORed with bits of the prediction, and bytes of
+ *   these differences are transposed so that the most significant bytes,
+ *   which are often null, are contiguous.</li>
+ *   <li>The difference between an integer and its prediction is written
+ *   as a zigzag variable-length integer.</li>
+ * </ul>
+ * <p>
+ * Result is then compressed by {@link Deflater}.  Encoding is lossless,
+ * decoded blocks contain the same big-endian values as uncompressed
+ * files.
+ * </p>
+ */
+final class BlockFile
+{
+	/** Number of values in a block. */
+	static final int BLOCK_SIZE = 1 << 16;
+	/** Maximal number of decoded blocks kept by readers. */
+	private static final int CACHE_SIZE = 8;
+
+	private final File file;
+	private final boolean doubles;
+	private final int stride;
+	private final long numberOfValues;
+	private final long [] offsets;
+
+	/**
+	 * @param file  compressed file
+	 * @param doubles  <code>true</code> if values are doubles,
+	 *   <code>false</code> if they are integers
+	 * @param stride  distance to the value used as prediction
+	 * @param numberOfValues  number of values
+	 * @param offsets  byte offsets of blocks, followed by file size
+	 */
+	BlockFile(File file, boolean doubles, int stride, long numberOfValues, long [] offsets)
+	{
+		if (offsets.length != 1 + (numberOfValues + BLOCK_SIZE - 1) / BLOCK_SIZE)
+			throw new IllegalArgumentException("Invalid block index for "+file);
+		this.file = file;
+		this.doubles = doubles;
+		this.stride = stride;
+		this.numberOfValues = numberOfValues;
+		this.offsets = offsets;
+	}
+
+	int getElementSize()
+	{
+		return doubles ? 8 : 4;
+	}
+
+	private int getNumberOfBlocks()
+	{
+		return offsets.length - 1;
+	}
+
+	private int getBlockLength(int block)
+	{
+		return (int) Math.min(BLOCK_SIZE, numberOfValues - (long) block * BLOCK_SIZE);
+	}
+
+	/**
+	 * Encodes a block.
+	 *
+	 * @param raw  big-endian values
+	 * @param length  number of bytes
+	 * @param doubles  <code>true</code> if values are doubles
+	 * @param stride  distance to the value used as prediction
+	 * @return compressed block
+	 */
+	static byte [] encode(byte [] raw, int length, boolean doubles, int stride)
+	{
+		ByteBuffer in = ByteBuffer.wrap(raw, 0, length);
+		byte [] tmp;
+		int size;
+		if (doubles)
+		{
+			int n = length / 8;
+			tmp = new byte[length];
+			for (int i = 0; i < n; i++)
+			{
+				long x = in.getLong(8*i);
+				if (i >= stride)
+					x ^= in.getLong(8*(i-stride));
+				for (int k = 0; k < 8; k++)
+					tmp[k*n+i] = (byte) (x >>> (56 - 8*k));
+			}
+			size = length;
+		}
+		else
+		{
+			int n = length / 4;
+			tmp = new byte[5*n];
+			size = 0;
+			for (int i = 0; i < n; i++)
+			{
+				int d = in.getInt(4*i);
+				if (i >= stride)
+					d -= in.getInt(4*(i-stride));
+				d = (d << 1) ^ (d >> 31);
+				while ((d & ~0x7f) != 0)
+				{
+					tmp[size++] = (byte) ((d & 0x7f) | 0x80);
+					d >>>= 7;
+				}
+				tmp[size++] = (byte) d;
+			}
+		}
+		Deflater deflater = new Deflater();
+		try
+		{
+			deflater.setInput(tmp, 0, size);
+			deflater.finish();
+			byte [] out = new byte[size + size / 100 + 64];
+			int nr = 0;
+			while (!deflater.finished())
+			{
+				if (nr == out.length)
+				{
+					byte [] newOut = new byte[2 * out.length];
+					System.arraycopy(out, 0, newOut, 0, nr);
+					out = newOut;
+				}
+				nr += deflater.deflate(out, nr, out.length - nr);
+			}
+			byte [] ret = new byte[nr];
+			System.arraycopy(out, 0, ret, 0, nr);
+			return ret;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Reads and decodes a block.
+	 *
+	 * @param fc  channel of this file, it is only used with absolute
+	 *   positions and can thus be shared between threads
+	 * @param block  block index
+	 * @return big-endian values
+	 */
+	private ByteBuffer decode(FileChannel fc, int block) throws IOException
+	{
+		int n = getBlockLength(block);
+		ByteBuffer compressed = ByteBuffer.allocate((int) (offsets[block+1] - offsets[block]));
+		long position = offsets[block];
+		while (compressed.hasRemaining())
+		{
+			int nr = fc.read(compressed, position);
+			if (nr < 0)
+				throw new IOException(file+": unexpected end of file");
+			position += nr;
+		}
+		byte [] tmp = new byte[doubles ? 8*n : 5*n];
+		Inflater inflater = new Inflater();
+		int size = 0;
+		try
+		{
+			inflater.setInput(compressed.array());
+			while (!inflater.finished() && size < tmp.length)
+			{
+				int nr = inflater.inflate(tmp, size, tmp.length - size);
+				if (nr == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException(file+": truncated block "+block);
+				size += nr;
+			}
+		}
+		catch (DataFormatException ex)
+		{
+			throw new IOException(file+": corrupted block "+block, ex);
+		}
+		finally
+		{
+			inflater.end();
+		}
+		ByteBuffer ret = ByteBuffer.allocate(getElementSize() * n);
+		if (doubles)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				long x = 0L;
+				for (int k = 0; k < 8; k++)
+					x = (x << 8) | (tmp[k*n+i] & 0xffL);
+				if (i >= stride)
+					x ^= ret.getLong(8*(i-stride));
+				ret.putLong(8*i, x);
+			}
+		}
+		else
+		{
+			int pos = 0;
+			for (int i = 0; i < n; i++)
+			{
+				int d = 0;
+				int shift = 0;
+				byte b;
+				do
+				{
+					if (pos >= size)
+						throw new IOException(file+": corrupted block "+block);
+					b = tmp[pos++];
+					d |= (b & 0x7f) << shift;
+					shift += 7;
+				}
+				while (b < 0);
+				d = (d >>> 1) ^ -(d & 1);
+				if (i >= stride)
+					d += ret.getInt(4*(i-stride));
+				ret.putInt(4*i, d);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Decodes several blocks concurrently.
+	 */
+	private ByteBuffer [] decode(final FileChannel fc, int first, int last)
+		throws IOException
+	{
+		List<Callable<ByteBuffer>> tasks = new ArrayList<Callable<ByteBuffer>>(last - first);
+		for (int b = first; b < last; b++)
+		{
+			final int block = b;
+			tasks.add(new Callable<ByteBuffer>()
+			{
+				public ByteBuffer call() throws IOException
+				{
+					return decode(fc, block);
+				}
+			});
+		}
+		return ParallelExecutor.invokeAll(tasks, ParallelExecutor.getNumberOfProcessors()).toArray(new ByteBuffer[tasks.size()]);
+	}
+
+	/**
+	 * Decodes a range of values.
+	 *
+	 * @param first  index of the first value
+	 * @param number  number of values
+	 * @return big-endian values
+	 */
+	ByteBuffer decode(long first, long number) throws IOException
+	{
+		if (first < 0 || number < 0 || first + number > numberOfValues)
+			throw new IllegalArgumentException("Invalid range "+first+"+"+number+" in "+file);
+		if (number * getElementSize() > Integer.MAX_VALUE)
+			throw new IOException("Cannot decode more than 2GB of "+file);
+		ByteBuffer ret = ByteBuffer.allocate((int) number * getElementSize());
+		if (number == 0)
+			return ret;
+		int firstBlock = (int) (first / BLOCK_SIZE);
+		int lastBlock = (int) ((first + number - 1) / BLOCK_SIZE) + 1;
+		FileChannel fc = new FileInputStream(file).getChannel();
+		try
+		{
+			ByteBuffer [] blocks = decode(fc, firstBlock, lastBlock);
+			int start = (int) (first - (long) firstBlock * BLOCK_SIZE) * getElementSize();
+			for (ByteBuffer bb : blocks)
+			{
+				bb.position(start);
+				if (bb.remaining() > ret.remaining())
+					bb.limit(start + ret.remaining());
+				ret.put(bb);
+				start = 0;
+			}
+		}
+		finally
+		{
+			fc.close();
+		}
+		ret.clear();
+		return ret;
+	}
+
+	DoubleFileReader getDoubleReader() throws IOException
+	{
+		if (!doubles)
+			throw new IllegalStateException(file+" does not contain doubles");
+		return new DoubleReader();
+	}
+
+	IntFileReader getIntReader() throws IOException
+	{
+		if (doubles)
+			throw new IllegalStateException(file+" does not contain integers");
+		return new IntReader();
+	}
+
+	/**
+	 * Common part of readers.  Decoded blocks are kept in a small LRU
+	 * cache; when a block is missing, next blocks are decoded at the same
+	 * time because files are most often read sequentially.
+	 */
+	private abstract class Reader
+	{
+		private final FileChannel fc;
+		private final Map<Integer, ByteBuffer> cache = new LinkedHashMap<Integer, ByteBuffer>(2 * CACHE_SIZE, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest)
+			{
+				return size() > CACHE_SIZE;
+			}
+		};
+		protected long position;
+
+		Reader() throws IOException
+		{
+			fc = new FileInputStream(file).getChannel();
+		}
+
+		public long size()
+		{
+			return numberOfValues;
+		}
+
+		public boolean isEOF()
+		{
+			return position >= numberOfValues;
+		}
+
+		public void close()
+		{
+			cache.clear();
+			try
+			{
+				fc.close();
+			}
+			catch (IOException ex)
+			{
+			}
+		}
+
+		/**
+		 * Returns the decoded block containing a value, its position is
+		 * set to this value.
+		 */
+		protected final ByteBuffer block(long index) throws IOException
+		{
+			if (index < 0 || index >= numberOfValues)
+				throw new IOException("Index "+index+" out of bounds in "+file);
+			int b = (int) (index / BLOCK_SIZE);
+			ByteBuffer ret = cache.get(b);
+			if (ret == null)
+			{
+				int last = Math.min(getNumberOfBlocks(),
+					b + Math.max(1, Math.min(CACHE_SIZE, ParallelExecutor.getNumberOfProcessors())));
+				ByteBuffer [] blocks = decode(fc, b, last);
+				for (int i = blocks.length - 1; i >= 0; i--)
+					cache.put(b + i, blocks[i]);
+				ret = blocks[0];
+			}
+			ret.position((int) (index - (long) b * BLOCK_SIZE) * getElementSize());
+			return ret;
+		}
+	}
+
+	private final class DoubleReader extends Reader implements DoubleFileReader
+	{
+		DoubleReader() throws IOException
+		{
+		}
+
+		public double get() throws IOException
+		{
+			double ret = get(position);
+			position++;
+			return ret;
+		}
+
+		public double get(int index) throws IOException
+		{
+			return get((long) index);
+		}
+
+		private double get(long index) throws IOException
+		{
+			return block(index).getDouble();
+		}
+
+		public int get(double [] dst) throws IOException
+		{
+			return get(dst, 0, dst.length);
+		}
+
+		public int get(double [] dst, int offset, int len) throws IOException
+		{
+			int ret = get(position, dst, offset, len);
+			position += ret;
+			return ret;
+		}
+
+		public int get(int index, double [] dst) throws IOException
+		{
+			return get(index, dst, 0, dst.length);
+		}
+
+		public int get(int index, double [] dst, int offset, int len) throws IOException
+		{
+			return get((long) index, dst, offset, len);
+		}
+
+		private int get(long index, double [] dst, int offset, int len) throws IOException
+		{
+			len = (int) Math.min(len, numberOfValues - index);
+			int done = 0;
+			while (done < len)
+			{
+				ByteBuffer bb = block(index + done);
+				int n = Math.min(len - done, bb.remaining() / 8);
+				bb.asDoubleBuffer().get(dst, offset + done, n);
+				done += n;
+			}
+			return Math.max(len, 0);
+		}
+	}
+
+	private final class IntReader extends Reader implements IntFileReader
+	{
+		IntReader() throws IOException
+		{
+		}
+
+		public int get() throws IOException
+		{
+			int ret = get(position);
+			position++;
+			return ret;
+		}
+
+		public int get(int index) throws IOException
+		{
+			return get((long) index);
+		}
+
+		private int get(long index) throws IOException
+		{
+			return block(index).getInt();
+		}
+
+		public int get(int [] dst) throws IOException
+		{
+			return get(dst, 0, dst.length);
+		}
+
+		public int get(int [] dst, int offset, int len) throws IOException
+		{
+			int ret = get(position, dst, offset, len);
+			position += ret;
+			return ret;
+		}
+
+		public int get(int index, int [] dst) throws IOException
+		{
+			return get(index, dst, 0, dst.length);
+		}
+
+		public int get(int index, int [] dst, int offset, int len) throws IOException
+		{
+			return get((long) index, dst, offset, len);
+		}
+
+		private int get(long index, int [] dst, int offset, int len) throws IOException
+		{
+			len = (int) Math.min(len, numberOfValues - index);
+			int done = 0;
+			while (done < len)
+			{
+				ByteBuffer bb = block(index + done);
+				int n = Math.min(len - done, bb.remaining() / 4);
+				bb.asIntBuffer().get(dst, offset + done, n);
+				done += n;
+			}
+			return Math.max(len, 0);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a {@link BlockFile}.  Values are written as by
+ * {@link java.io.DataOutputStream}, blocks are compressed by worker
+ * threads while next values are written, and are then written in order.
+ */
+class BlockOutputStream extends OutputStream
+{
+	private final FileChannel channel;
+	private final boolean doubles;
+	private final int stride;
+	private final int nrThreads;
+	private final LinkedList<Future<byte []>> pending = new LinkedList<Future<byte []>>();
+	private byte [] current;
+	private int size;
+	private long numberOfBytes;
+	private long [] offsets = new long[16];
+	private int numberOfBlocks;
+	private boolean closed;
+
+	/**
+	 * @param file  output file
+	 * @param doubles  <code>true</code> if values are doubles,
+	 *   <code>false</code> if they are integers
+	 * @param stride  distance to the value used as prediction
+	 * @param nrThreads  maximal number of blocks being compressed
+	 */
+	BlockOutputStream(File file, boolean doubles, int stride, int nrThreads)
+		throws IOException
+	{
+		this.channel = new FileOutputStream(file).getChannel();
+		this.doubles = doubles;
+		this.stride = stride;
+		this.nrThreads = Math.max(1, nrThreads);
+		current = new byte[getBlockBytes()];
+	}
+
+	private int getBlockBytes()
+	{
+		return BlockFile.BLOCK_SIZE * (doubles ? 8 : 4);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		current[size++] = (byte) b;
+		numberOfBytes++;
+		if (size == current.length)
+			flushBlock();
+	}
+
+	@Override
+	public void write(byte [] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			int n = Math.min(len, current.length - size);
+			System.arraycopy(b, off, current, size, n);
+			size += n;
+			numberOfBytes += n;
+			off += n;
+			len -= n;
+			if (size == current.length)
+				flushBlock();
+		}
+	}
+
+	private void flushBlock() throws IOException
+	{
+		if (size == 0)
+			return;
+		final byte [] raw = current;
+		final int length = size;
+		if (nrThreads == 1)
+			writeBlock(BlockFile.encode(raw, length, doubles, stride));
+		else
+		{
+			while (pending.size() >= nrThreads)
+				writeBlock(ParallelExecutor.get(pending.removeFirst()));
+			pending.add(ParallelExecutor.submit(new Callable<byte []>()
+			{
+				public byte [] call()
+				{
+					return BlockFile.encode(raw, length, doubles, stride);
+				}
+			}));
+			// Block is owned by its task
+			current = new byte[getBlockBytes()];
+		}
+		size = 0;
+	}
+
+	private void writeBlock(byte [] compressed) throws IOException
+	{
+		if (numberOfBlocks + 1 >= offsets.length)
+		{
+			long [] newOffsets = new long[2 * offsets.length];
+			System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+			offsets = newOffsets;
+		}
+		numberOfBlocks++;
+		offsets[numberOfBlocks] = offsets[numberOfBlocks - 1] + compressed.length;
+		ByteBuffer bb = ByteBuffer.wrap(compressed);
+		while (bb.hasRemaining())
+			channel.write(bb);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+		flushBlock();
+		while (!pending.isEmpty())
+			writeBlock(ParallelExecutor.get(pending.removeFirst()));
+		channel.close();
+		current = null;
+	}
+
+	/**
+	 * Returns the number of values written.
+	 */
+	long getNumberOfValues()
+	{
+		return numberOfBytes / (doubles ? 8 : 4);
+	}
+
+	/**
+	 * Returns byte offsets of blocks, followed by file size.  This
+	 * method can only be called after stream is closed.
+	 */
+	long [] getOffsets()
+	{
+		if (!closed)
+			throw new IllegalStateException("Stream is not closed");
+		long [] ret = new long[numberOfBlocks + 1];
+		System.arraycopy(offsets, 0, ret, 0, ret.length);
+		return ret;
+	}
+
+	boolean isDoubleStream()
+	{
+		return doubles;
+	}
+
+	int getStride()
+	{
+		return stride;
+	}
+}
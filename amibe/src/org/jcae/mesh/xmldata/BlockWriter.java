@@ -0,0 +1,150 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Writes blocks of a file in order, while they are formatted by worker
+ * threads.  At most <code>nrThreads</code> blocks are formatted at the
+ * same time; the calling thread copies finished blocks into a large
+ * direct buffer, which is written into the channel when full.
+ */
+class BlockWriter
+{
+	/** Formats a part of a file. */
+	abstract static class Block
+	{
+		abstract void format(OutputBuffer out) throws IOException;
+	}
+
+	private static final int BUFFER_SIZE = 8 << 20;
+	private static final int BLOCK_SIZE = 1 << 20;
+	private final WritableByteChannel channel;
+	private final int nrThreads;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final LinkedList<Future<OutputBuffer>> pending = new LinkedList<Future<OutputBuffer>>();
+	private final ConcurrentLinkedQueue<OutputBuffer> free = new ConcurrentLinkedQueue<OutputBuffer>();
+
+	/**
+	 * @param channel  output channel
+	 * @param nrThreads  number of threads formatting blocks; when 1,
+	 *     blocks are formatted by the calling thread
+	 */
+	BlockWriter(WritableByteChannel channel, int nrThreads)
+	{
+		this.channel = channel;
+		this.nrThreads = Math.max(1, nrThreads);
+	}
+
+	private OutputBuffer getBuffer()
+	{
+		OutputBuffer ret = free.poll();
+		if (ret == null)
+			ret = new OutputBuffer(BLOCK_SIZE);
+		ret.clear();
+		return ret;
+	}
+
+	/**
+	 * Adds a block after those already added.
+	 */
+	void add(final Block block) throws IOException
+	{
+		if (nrThreads == 1)
+		{
+			OutputBuffer out = getBuffer();
+			block.format(out);
+			write(out);
+			return;
+		}
+		while (pending.size() >= nrThreads)
+			write(ParallelExecutor.get(pending.removeFirst()));
+		pending.add(ParallelExecutor.submit(new Callable<OutputBuffer>()
+		{
+			public OutputBuffer call() throws IOException
+			{
+				OutputBuffer out = getBuffer();
+				block.format(out);
+				return out;
+			}
+		}));
+	}
+
+	/**
+	 * Adds bytes after blocks already added.
+	 */
+	void add(OutputBuffer out) throws IOException
+	{
+		flushPending();
+		copy(out);
+	}
+
+	private void copy(OutputBuffer out) throws IOException
+	{
+		int offset = 0;
+		int remaining = out.size();
+		while (remaining > 0)
+		{
+			if (!buffer.hasRemaining())
+				flushBuffer();
+			int n = Math.min(remaining, buffer.remaining());
+			out.copyTo(offset, n, buffer);
+			offset += n;
+			remaining -= n;
+		}
+	}
+
+	private void write(OutputBuffer out) throws IOException
+	{
+		copy(out);
+		free.add(out);
+	}
+
+	private void flushPending() throws IOException
+	{
+		while (!pending.isEmpty())
+			write(ParallelExecutor.get(pending.removeFirst()));
+	}
+
+	private void flushBuffer() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes all blocks into the channel.  Channel is not closed.
+	 */
+	void flush() throws IOException
+	{
+		flushPending();
+		flushBuffer();
+	}
+}
@@ -0,0 +1,669 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.util.ParallelExecutor;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Read UNV files through memory-mapped buffers.
+ * <ul>
+ * <li>Files larger than 2GB are mapped into several regions.</li>
+ * <li>Numbers are parsed directly from bytes, no String is created for
+ * nodes and elements.  Floating-point values are the same as those
+ * returned by <code>Double.parseDouble</code>, which is only called
+ * for exponents larger than 22, more than 18 significant digits, or
+ * when the result is too close to a rounding boundary.</li>
+ * <li>Nodes (datasets 2411 and 781) are split into chunks which are
+ * parsed concurrently, and sent in file order to {@link Handler}.</li>
+ * <li>Elements (dataset 2412) and groups (datasets 2430, 2435, 2467 and
+ * 2477) are parsed sequentially, records have a variable length.</li>
+ * <li>Coordinates are divided by the length unit of dataset 164.</li>
+ * </ul>
+ */
+public class MappedUNVReader
+{
+	/** Receives data found by {@link MappedUNVReader#read}. */
+	public interface Handler
+	{
+		/**
+		 * Called for consecutive blocks of nodes, in file order.
+		 *
+		 * @param labels  node labels
+		 * @param coords  node coordinates, 3 values by node
+		 * @param nr  number of nodes, arrays may be larger
+		 */
+		void addNodes(int [] labels, double [] coords, int nr) throws IOException;
+
+		/**
+		 * Called for each element of dataset 2412.
+		 *
+		 * @param label  element label
+		 * @param type  FE descriptor id
+		 * @param nodes  labels of element nodes
+		 * @param nrNodes  number of nodes, array may be larger
+		 * @param offset  offset of element records in file, see
+		 *    {@link MappedUNVReader#getText}
+		 * @param length  length of element records in file
+		 */
+		void addElement(int label, int type, int [] nodes, int nrNodes, long offset, int length) throws IOException;
+
+		/**
+		 * Called for each group.
+		 *
+		 * @param name  group name
+		 * @param elements  labels of elements, nodes are skipped
+		 * @param nr  number of elements, array may be larger
+		 */
+		void addGroup(String name, int [] elements, int nr) throws IOException;
+
+		/**
+		 * Called for all other datasets, and for dataset 164 too.
+		 * <code>in</code> contains lines following dataset type,
+		 * including the final <code>-1</code> line.
+		 *
+		 * @param type  dataset type
+		 * @param in  dataset content
+		 */
+		void readDataset(int type, BufferedReader in) throws IOException;
+	}
+
+	private static final Logger LOGGER=Logger.getLogger(MappedUNVReader.class.getName());
+	private static final int REGION_SHIFT = 30;
+	private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+	// Nodes are parsed by chunks of this size
+	private static final int CHUNK_SIZE = 4 << 20;
+	// Exact powers of ten
+	private static final double [] POW10 = new double[23];
+	static
+	{
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = 10.0 * POW10[i-1];
+	}
+
+	private final MappedByteBuffer [] regions;
+	private final long size;
+	private int nrThreads = ParallelExecutor.getNumberOfProcessors();
+	private double unit = 1.0;
+
+	public MappedUNVReader(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			size = channel.size();
+			regions = new MappedByteBuffer[(int) ((size + REGION_MASK) >>> REGION_SHIFT)];
+			for (int i = 0; i < regions.length; i++)
+			{
+				long start = ((long) i) << REGION_SHIFT;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << REGION_SHIFT));
+			}
+		}
+		finally
+		{
+			// Mappings remain valid after channel is closed
+			in.close();
+		}
+	}
+
+	/**
+	 * Sets the number of threads used to parse nodes.  By default, all
+	 * processors are used.  If <code>n</code> is not positive, all
+	 * processors are used.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		if (n <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
+		else
+			nrThreads = n;
+	}
+
+	/**
+	 * Returns records stored at a given location, without the
+	 * trailing newline.
+	 */
+	public final String getText(long offset, int length)
+	{
+		int n = length;
+		while (n > 0 && (get(offset + n - 1) == '\n' || get(offset + n - 1) == '\r'))
+			n--;
+		byte [] bytes = new byte[n];
+		for (int i = 0; i < n; i++)
+			bytes[i] = get(offset + i);
+		return new String(bytes);
+	}
+
+	/**
+	 * Reads the whole file.
+	 *
+	 * @param handler  object which receives data
+	 */
+	public final void read(Handler handler) throws IOException
+	{
+		unit = 1.0;
+		Cursor c = new Cursor(0L, size);
+		while (!c.atEnd())
+		{
+			if (!c.isSeparatorLine())
+			{
+				c.skipLine();
+				continue;
+			}
+			c.skipLine();
+			if (c.atEnd())
+				break;
+			int type = c.nextInt();
+			c.skipLine();
+			long start = c.pos;
+			Cursor d = new Cursor(start, findDatasetEnd(start));
+			switch (type)
+			{
+				case 2411:
+				case 781:
+					readNodes(d, handler);
+					break;
+				case 2412:
+					readElements(d, handler);
+					break;
+				case 2430:
+				case 2435:
+				case 2467:
+				case 2477:
+					readGroups(d, type, handler);
+					break;
+				case 164:
+					d.skipLine();
+					unit = d.nextDouble();
+					handler.readDataset(type, getDatasetReader(start, d.end));
+					break;
+				default:
+					handler.readDataset(type, getDatasetReader(start, d.end));
+			}
+			// Skip final -1 line
+			c.pos = d.end;
+			c.skipLine();
+		}
+	}
+
+	/**
+	 * Computes <code>m * 10^e</code> with double-double arithmetic, so
+	 * that mantissas larger than 2^53 are handled.  Returns NaN when
+	 * the result cannot be rounded safely.
+	 */
+	private static double toDouble(long m, int e)
+	{
+		double hi = (double) m;
+		double lo = (double) (m - (long) hi);
+		double p = POW10[Math.abs(e)];
+		double x, c;
+		if (e >= 0)
+		{
+			x = hi * p;
+			c = productError(hi, p, x) + lo * p;
+		}
+		else
+		{
+			x = hi / p;
+			double prod = x * p;
+			// Remainder of hi / p is exact
+			double r = (hi - prod) - productError(x, p, prod);
+			c = (r + lo) / p;
+		}
+		double ret = x + c;
+		// Remainder of x + c, it must not be close to half an ulp
+		double d = Math.abs(c - (ret - x));
+		double half = 0.5 * Math.ulp(ret);
+		if (Math.abs(d - half) < 1.e-6 * half || Math.abs(d - 0.5 * half) < 1.e-6 * half)
+			return Double.NaN;
+		return ret;
+	}
+
+	/** Returns the rounding error of <code>prod = a * b</code> */
+	private static double productError(double a, double b, double prod)
+	{
+		double t = 134217729.0 * a;
+		double ah = t - (t - a);
+		double al = a - ah;
+		t = 134217729.0 * b;
+		double bh = t - (t - b);
+		double bl = b - bh;
+		return ((ah * bh - prod) + ah * bl + al * bh) + al * bl;
+	}
+
+	private byte get(long pos)
+	{
+		return regions[(int) (pos >>> REGION_SHIFT)].get((int) (pos & REGION_MASK));
+	}
+
+	// Returns the beginning of the line which ends current dataset
+	private long findDatasetEnd(long start)
+	{
+		Cursor c = new Cursor(start, size);
+		while (!c.atEnd() && !c.isSeparatorLine())
+			c.skipLine();
+		return c.pos;
+	}
+
+	private BufferedReader getDatasetReader(long start, long end)
+	{
+		// Include final -1 line
+		Cursor c = new Cursor(end, size);
+		c.skipLine();
+		return new BufferedReader(new InputStreamReader(new RegionInputStream(start, c.pos)));
+	}
+
+	private static class NodeChunk
+	{
+		int [] labels = new int[1024];
+		double [] coords = new double[3*1024];
+		int nr;
+		void add(int label, double x, double y, double z)
+		{
+			if (nr >= labels.length)
+			{
+				int [] newLabels = new int[2*labels.length];
+				System.arraycopy(labels, 0, newLabels, 0, nr);
+				labels = newLabels;
+				double [] newCoords = new double[3*labels.length];
+				System.arraycopy(coords, 0, newCoords, 0, 3*nr);
+				coords = newCoords;
+			}
+			labels[nr] = label;
+			coords[3*nr] = x;
+			coords[3*nr+1] = y;
+			coords[3*nr+2] = z;
+			nr++;
+		}
+	}
+
+	private void readNodes(Cursor d, Handler handler) throws IOException
+	{
+		// Split dataset into chunks beginning with a node label record
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(Long.valueOf(d.pos));
+		for (long pos = d.pos + CHUNK_SIZE; pos < d.end; pos += CHUNK_SIZE)
+		{
+			Cursor c = new Cursor(pos, d.end);
+			c.skipLine();
+			if (!c.atEnd() && !c.isLabelRecord())
+				c.skipLine();
+			if (c.pos > bounds.get(bounds.size() - 1).longValue() && c.pos < d.end)
+				bounds.add(Long.valueOf(c.pos));
+		}
+		bounds.add(Long.valueOf(d.end));
+		LOGGER.fine("Reading nodes in "+(bounds.size() - 1)+" chunks");
+		final double scale = 1.0 / unit;
+		// Process chunks by batches to bound memory usage
+		int batchSize = 2 * nrThreads;
+		for (int first = 0; first < bounds.size() - 1; first += batchSize)
+		{
+			List<Callable<NodeChunk>> tasks = new ArrayList<Callable<NodeChunk>>();
+			for (int i = first; i < Math.min(bounds.size() - 1, first + batchSize); i++)
+			{
+				final long start = bounds.get(i).longValue();
+				final long end = bounds.get(i+1).longValue();
+				tasks.add(new Callable<NodeChunk>()
+				{
+					public NodeChunk call()
+					{
+						NodeChunk ret = new NodeChunk();
+						Cursor c = new Cursor(start, end);
+						while (!c.atEnd())
+						{
+							int label = c.nextInt();
+							c.skipLine();
+							double x = c.nextDouble();
+							double y = c.nextDouble();
+							double z = c.hasNextOnLine() ? c.nextDouble() : 0.0;
+							c.skipLine();
+							ret.add(label, x * scale, y * scale, z * scale);
+						}
+						return ret;
+					}
+				});
+			}
+			for (NodeChunk chunk : ParallelExecutor.invokeAll(tasks, nrThreads))
+				handler.addNodes(chunk.labels, chunk.coords, chunk.nr);
+		}
+	}
+
+	private static boolean isBeam(int type)
+	{
+		return type == 11 || (type >= 21 && type <= 24);
+	}
+
+	private void readElements(Cursor c, Handler handler) throws IOException
+	{
+		int [] nodes = new int[32];
+		while (!c.atEnd())
+		{
+			long offset = c.pos;
+			int label = c.nextInt();
+			int type = c.nextInt();
+			// Physical property, material property and color
+			c.nextInt();
+			c.nextInt();
+			c.nextInt();
+			int nrNodes = c.nextInt();
+			c.skipLine();
+			// Beams have an extra record
+			if (isBeam(type))
+				c.skipLine();
+			if (nrNodes > nodes.length)
+				nodes = new int[nrNodes];
+			for (int i = 0; i < nrNodes; i++)
+				nodes[i] = c.nextInt();
+			c.skipLine();
+			handler.addElement(label, type, nodes, nrNodes, offset, (int) (c.pos - offset));
+		}
+	}
+
+	private void readGroups(Cursor c, int type, Handler handler) throws IOException
+	{
+		int entitySize = (type == 2430 ? 2 : 4);
+		int [] elements = new int[1024];
+		while (!c.atEnd())
+		{
+			// Number of entities is the last number of first record
+			int nrEntities = 0;
+			while (c.hasNextOnLine())
+				nrEntities = c.nextInt();
+			c.skipLine();
+			String name = c.nextLine().trim();
+			if (nrEntities > elements.length)
+				elements = new int[nrEntities];
+			int nr = 0;
+			for (int i = 0; i < nrEntities; i++)
+			{
+				int entityType = c.nextInt();
+				int tag = c.nextInt();
+				for (int j = 2; j < entitySize; j++)
+					c.nextInt();
+				// 8 is for elements, 7 for nodes
+				if (entityType == 8)
+					elements[nr++] = tag;
+			}
+			if (nrEntities > 0)
+				c.skipLine();
+			handler.addGroup(name, elements, nr);
+		}
+	}
+
+	/**
+	 * Position in a range of the file.
+	 */
+	private class Cursor
+	{
+		private long pos;
+		private final long end;
+		Cursor(long start, long end)
+		{
+			pos = start;
+			this.end = end;
+		}
+
+		boolean atEnd()
+		{
+			return pos >= end;
+		}
+
+		void skipLine()
+		{
+			while (pos < end && get(pos) != '\n')
+				pos++;
+			if (pos < end)
+				pos++;
+		}
+
+		private void skipBlanks()
+		{
+			while (pos < end)
+			{
+				byte b = get(pos);
+				if (b != ' ' && b != '\t' && b != '\r')
+					break;
+				pos++;
+			}
+		}
+
+		private void skipWhitespaces()
+		{
+			while (pos < end)
+			{
+				byte b = get(pos);
+				if (b != ' ' && b != '\t' && b != '\r' && b != '\n')
+					break;
+				pos++;
+			}
+		}
+
+		boolean hasNextOnLine()
+		{
+			skipBlanks();
+			return pos < end && get(pos) != '\n';
+		}
+
+		// Tells whether current line only contains -1
+		boolean isSeparatorLine()
+		{
+			long p = pos;
+			while (p < end && (get(p) == ' ' || get(p) == '\t'))
+				p++;
+			if (p + 1 >= end || get(p) != '-' || get(p+1) != '1')
+				return false;
+			for (p += 2; p < end; p++)
+			{
+				byte b = get(p);
+				if (b == '\n')
+					return true;
+				if (b != ' ' && b != '\t' && b != '\r')
+					return false;
+			}
+			return true;
+		}
+
+		// Tells whether current line contains 4 integers, which is
+		// the case for the first record of nodes, the second one
+		// contains coordinates.
+		boolean isLabelRecord()
+		{
+			int nrTokens = 0;
+			boolean inToken = false;
+			for (long p = pos; p < end; p++)
+			{
+				byte b = get(p);
+				if (b == '\n')
+					break;
+				if (b == ' ' || b == '\t' || b == '\r')
+					inToken = false;
+				else if ((b >= '0' && b <= '9') || b == '-' || b == '+')
+				{
+					if (!inToken)
+						nrTokens++;
+					inToken = true;
+				}
+				else
+					return false;
+			}
+			return nrTokens == 4;
+		}
+
+		String nextLine()
+		{
+			long start = pos;
+			skipLine();
+			return getText(start, (int) (pos - start));
+		}
+
+		int nextInt()
+		{
+			skipWhitespaces();
+			if (pos >= end)
+				throw new RuntimeException("Unexpected end of dataset at offset "+pos);
+			boolean negative = false;
+			byte b = get(pos);
+			if (b == '-' || b == '+')
+			{
+				negative = (b == '-');
+				pos++;
+			}
+			int ret = 0;
+			int nrDigits = 0;
+			while (pos < end)
+			{
+				b = get(pos);
+				if (b < '0' || b > '9')
+					break;
+				ret = 10 * ret + (b - '0');
+				nrDigits++;
+				pos++;
+			}
+			if (nrDigits == 0)
+				throw new RuntimeException("Integer expected at offset "+pos);
+			return negative ? -ret : ret;
+		}
+
+		double nextDouble()
+		{
+			skipWhitespaces();
+			if (pos >= end)
+				throw new RuntimeException("Unexpected end of dataset at offset "+pos);
+			long start = pos;
+			boolean negative = false;
+			byte b = get(pos);
+			if (b == '-' || b == '+')
+			{
+				negative = (b == '-');
+				pos++;
+			}
+			// Significant digits are stored into mantissa, exponent
+			// is adjusted for digits which do not fit.
+			long mantissa = 0L;
+			boolean truncated = false;
+			int nrDigits = 0;
+			int exponent = 0;
+			boolean dot = false;
+			for (; pos < end; pos++)
+			{
+				b = get(pos);
+				if (b == '.')
+				{
+					if (dot)
+						break;
+					dot = true;
+					continue;
+				}
+				if (b < '0' || b > '9')
+					break;
+				if (mantissa < 100000000000000000L)
+				{
+					mantissa = 10L * mantissa + (b - '0');
+					if (dot)
+						exponent--;
+				}
+				else
+				{
+					if (!dot)
+						exponent++;
+					if (b != '0')
+						truncated = true;
+				}
+				nrDigits++;
+			}
+			if (nrDigits == 0)
+				throw new RuntimeException("Number expected at offset "+start);
+			if (pos < end && (b == 'D' || b == 'd' || b == 'E' || b == 'e'))
+			{
+				pos++;
+				boolean negativeExponent = false;
+				b = pos < end ? get(pos) : 0;
+				if (b == '-' || b == '+')
+				{
+					negativeExponent = (b == '-');
+					pos++;
+				}
+				int e = 0;
+				for (; pos < end; pos++)
+				{
+					b = get(pos);
+					if (b < '0' || b > '9')
+						break;
+					e = 10 * e + (b - '0');
+				}
+				exponent += negativeExponent ? -e : e;
+			}
+			double ret;
+			if (mantissa == 0L)
+				ret = 0.0;
+			else if (truncated || exponent < -22 || exponent > 22 ||
+				Double.isNaN(ret = toDouble(mantissa, exponent)))
+			{
+				// Rare case, fall back to Double.parseDouble
+				String s = getText(start, (int) (pos - start)).replace('D', 'E').replace('d', 'e');
+				return Double.parseDouble(s);
+			}
+			return negative ? -ret : ret;
+		}
+	}
+
+	private class RegionInputStream extends InputStream
+	{
+		private long pos;
+		private final long end;
+		RegionInputStream(long start, long end)
+		{
+			pos = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read()
+		{
+			if (pos >= end)
+				return -1;
+			return get(pos++) & 0xff;
+		}
+
+		@Override
+		public int read(byte [] b, int off, int len)
+		{
+			if (pos >= end)
+				return -1;
+			int n = (int) Math.min(len, end - pos);
+			for (int i = 0; i < n; i++)
+				b[off+i] = get(pos++);
+			return n;
+		}
+	}
+}
@@ -24,6 +24,7 @@ import gnu.trove.TIntHashSet;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntIntHashMap;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -32,6 +33,9 @@ import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
 import java.text.DecimalFormatSymbols;
@@ -47,12 +51,20 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 
 /**
  * Extract groups from the full mesh and write them to a UNV file.
  * It renumber elements so there ids are from 1 to n. Although it
  * uses the NIO it may not be performant as efficient as a full
  * dump of the mesh to UNV.
+ * <p>
+ * UNV and binary STL files which are not compressed are written through a
+ * <code>FileChannel</code> by {@link #write(String)}: blocks of nodes and
+ * elements are formatted by worker threads into {@link OutputBuffer}
+ * instances, and written in order.  The number of threads can be set by
+ * {@link #setNumberOfThreads}.
+ * </p>
  * @author Jerome Robert
  *
  */
@@ -179,6 +191,9 @@ abstract public class MeshExporter
 	private final static String CR=System.getProperty("line.separator");
 	private final static NumberFormat FORMAT_D25_16=new FormatD25_16();
 	private final static NumberFormat FORMAT_I10=new FormatI10();
+	private final static int NODES_PER_BLOCK=16384;
+	private final static int TRIANGLES_PER_BLOCK=32768;
+	private final static int ENTRIES_PER_BLOCK=32768;
 	
 	private final File directory;
 	private final Document document;
@@ -186,6 +201,7 @@ abstract public class MeshExporter
 	int[][] groups;
 	String[] names;
 	private int numberOfTriangles;
+	private int nrThreads = ParallelExecutor.getNumberOfProcessors();
 	
 	/**
 	 * @param directory The directory which contains 3d files
@@ -308,7 +324,7 @@ abstract public class MeshExporter
 		return null;
 	}
 	
-	private void readGroups() throws IOException
+	final void readGroups() throws IOException
 	{
 		IntFileReader ifrG = new PrimitiveFileReaderFactory().getIntReader(getGroupFile());
 		Element xmlGroups=(Element) document.getElementsByTagName("groups").item(0);
@@ -337,7 +353,49 @@ abstract public class MeshExporter
 		}
 	}
 	
-	private int[] readTriangles() throws IOException
+	/**
+	 * Sets the number of threads used to format files written through a
+	 * <code>FileChannel</code>.  By default, all processors are used.  If
+	 * <code>n</code> is not positive, all processors are used.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		if (n <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
+		else
+			nrThreads = n;
+	}
+
+	/**
+	 * Returns, for each Amibe node, its index in exported file starting
+	 * from 1 in Amibe order, or 0 if node is not used.
+	 *
+	 * @param triangles  Amibe nodes of exported triangles
+	 * @return an array whose size is the largest node index plus one
+	 */
+	private static int[] renumberNodes(int[] triangles)
+	{
+		int max = -1;
+		for (int n : triangles)
+			max = Math.max(max, n);
+		int[] toReturn = new int[max + 1];
+		for (int n : triangles)
+			toReturn[n] = 1;
+		int count = 0;
+		for (int i = 0; i < toReturn.length; i++)
+		{
+			if (toReturn[i] != 0)
+				toReturn[i] = ++count;
+		}
+		return toReturn;
+	}
+
+	final int getNumberOfThreads()
+	{
+		return nrThreads;
+	}
+
+	final int[] readTriangles() throws IOException
 	{
 		IntFileReader ifrT = new PrimitiveFileReaderFactory().getIntReader(getTriaFile());
 		int[] toReturn = new int[numberOfTriangles * 3];
@@ -391,6 +449,19 @@ abstract public class MeshExporter
 		logger.info("Export into file "+fileName+" (format "+getClass().getSimpleName()+")");
 		try
 		{
+			if(!fileName.endsWith(".gz") && canWriteChannel())
+			{
+				FileOutputStream fos=new FileOutputStream(fileName);
+				try
+				{
+					write(fos.getChannel());
+				}
+				finally
+				{
+					fos.close();
+				}
+				return;
+			}
 			FileOutputStream fos=new FileOutputStream(fileName);
 			BufferedOutputStream bos=new BufferedOutputStream(fos);
 			PrintStream pstream;
@@ -420,6 +491,23 @@ abstract public class MeshExporter
 		}
 	}
 	
+	/**
+	 * Tells whether {@link #write(FileChannel)} is implemented.
+	 */
+	boolean canWriteChannel()
+	{
+		return false;
+	}
+
+	/**
+	 * Writes file through a channel, blocks are formatted by worker
+	 * threads.  The channel is not closed.
+	 */
+	void write(FileChannel out) throws IOException
+	{
+		throw new UnsupportedOperationException();
+	}
+
 	protected abstract void writeNodes(PrintStream out, int[] nodesID,
 		TIntIntHashMap amibeToUNV) throws IOException;
 	
@@ -483,6 +571,17 @@ abstract public class MeshExporter
 			out.println(FORMAT_D25_16.format(x)+FORMAT_D25_16.format(y)+FORMAT_D25_16.format(z));
 		}
 
+		public static void writeSingleNode(OutputBuffer out, int count, double x, double y, double z)
+		{
+			out.appendI10(count);
+			out.append("         1         1         1");
+			out.newLine();
+			out.appendD25_16(x);
+			out.appendD25_16(y);
+			out.appendD25_16(z);
+			out.newLine();
+		}
+
 		// We use our own convention for elements:
 		//      2: linear beam
 		//      3: linear triangle
@@ -519,6 +618,17 @@ abstract public class MeshExporter
 			out.println(FORMAT_I10.format(n0)+FORMAT_I10.format(n1)+FORMAT_I10.format(n2));
 		}
 
+		public static void writeSingleTriangle(OutputBuffer out, int count, int n0, int n1, int n2)
+		{
+			out.appendI10(count);
+			out.append("        91         1         1         1         3");
+			out.newLine();
+			out.appendI10(n0);
+			out.appendI10(n1);
+			out.appendI10(n2);
+			out.newLine();
+		}
+
 		public static void writeSingleGroup(PrintStream out, int groupId, String name, int[] ids)
 		{
 			out.println(FORMAT_I10.format(groupId)+"         0         0         0         0         0         0"+FORMAT_I10.format(ids.length));
@@ -609,6 +719,148 @@ abstract public class MeshExporter
 			logger.info("Total number of triangles: "+count);
 		}
 		
+		@Override
+		boolean canWriteChannel()
+		{
+			return true;
+		}
+
+		private static void writeSeparator(OutputBuffer out, String dataset)
+		{
+			out.append("    -1");
+			out.newLine();
+			if (dataset != null)
+			{
+				out.append(dataset);
+				out.newLine();
+			}
+		}
+
+		@Override
+		void write(FileChannel channel) throws IOException
+		{
+			readGroups();
+			final int[] triangles=readTriangles();
+			BlockWriter out=new BlockWriter(channel, getNumberOfThreads());
+			ByteArrayOutputStream header=new ByteArrayOutputStream();
+			PrintStream ps=new PrintStream(header);
+			writeInit(ps);
+			ps.flush();
+			OutputBuffer buffer=new OutputBuffer(header.size());
+			buffer.append(header.toByteArray(), 0, header.size());
+
+			// Nodes
+			final int[] amibeToUNV=renumberNodes(triangles);
+			int[] nodes=new int[triangles.length];
+			int nrNodes=0;
+			for(int i=0; i<amibeToUNV.length; i++)
+			{
+				if(amibeToUNV[i]!=0)
+					nodes[nrNodes++]=i;
+			}
+			writeSeparator(buffer, "  2411");
+			out.add(buffer);
+			DoubleFileReader dfrN=new PrimitiveFileReaderFactory().getDoubleReader(getNodeFile());
+			for(int first=0; first<nrNodes; first+=NODES_PER_BLOCK)
+			{
+				final int n=Math.min(NODES_PER_BLOCK, nrNodes-first);
+				final int label=first+1;
+				final double[] coords=new double[3*n];
+				for(int i=0; i<n; i++)
+					dfrN.get(3*nodes[first+i], coords, 3*i, 3);
+				out.add(new BlockWriter.Block()
+				{
+					@Override
+					void format(OutputBuffer o)
+					{
+						for(int i=0; i<n; i++)
+							writeSingleNode(o, label+i, coords[3*i], coords[3*i+1], coords[3*i+2]);
+					}
+				});
+			}
+			dfrN.close();
+			nodes=null;
+			logger.info("Total number of nodes: "+nrNodes);
+
+			// Triangles
+			buffer=new OutputBuffer(64);
+			writeSeparator(buffer, null);
+			writeSeparator(buffer, "  2412");
+			out.add(buffer);
+			int nrTriangles=triangles.length/3;
+			for(int first=0; first<nrTriangles; first+=TRIANGLES_PER_BLOCK)
+			{
+				final int n=Math.min(TRIANGLES_PER_BLOCK, nrTriangles-first);
+				final int start=first;
+				out.add(new BlockWriter.Block()
+				{
+					@Override
+					void format(OutputBuffer o)
+					{
+						for(int i=start; i<start+n; i++)
+							writeSingleTriangle(o, i+1, amibeToUNV[triangles[3*i]],
+								amibeToUNV[triangles[3*i+1]], amibeToUNV[triangles[3*i+2]]);
+					}
+				});
+			}
+			logger.info("Total number of triangles: "+nrTriangles);
+
+			// Groups, when a triangle belongs to several groups, its last
+			// label is used
+			int maxTria=-1;
+			for(int[] g : groups)
+				for(int t : g)
+					maxTria=Math.max(maxTria, t);
+			final int[] triaLabel=new int[maxTria+1];
+			int count=0;
+			for(int[] g : groups)
+				for(int t : g)
+					triaLabel[t]=++count;
+			buffer=new OutputBuffer(64);
+			writeSeparator(buffer, null);
+			writeSeparator(buffer, "  2435");
+			out.add(buffer);
+			for(int i=0; i<groups.length; i++)
+			{
+				final int[] group=groups[i];
+				final int groupIndex=i;
+				// Blocks begin on even entries so that lines are kept
+				for(int first=0; first==0 || first<group.length; first+=ENTRIES_PER_BLOCK)
+				{
+					final int start=first;
+					final int end=Math.min(group.length, first+ENTRIES_PER_BLOCK);
+					out.add(new BlockWriter.Block()
+					{
+						@Override
+						void format(OutputBuffer o)
+						{
+							if(start==0)
+							{
+								o.appendI10(groupIndex+1);
+								o.append("         0         0         0         0         0         0");
+								o.appendI10(group.length);
+								o.newLine();
+								o.append(names[groupIndex]);
+								o.newLine();
+							}
+							for(int j=start; j<end; j++)
+							{
+								o.append("         8");
+								o.appendI10(triaLabel[group[j]]);
+								o.append("         0         0");
+								if(j%2==1 || j==group.length-1)
+									o.newLine();
+							}
+						}
+					});
+				}
+			}
+			buffer=new OutputBuffer(64);
+			writeSeparator(buffer, null);
+			out.add(buffer);
+			out.flush();
+		}
+
 		/**
 		 * @param out
 		 * @param amibeTriaToUNVTria
@@ -699,6 +951,162 @@ abstract public class MeshExporter
 		}
 	}
 	
+	/**
+	 * Binary STL file.  Triangles are written with their normal and
+	 * coordinates in single precision, in little-endian order.
+	 */
+	public static class BinarySTL extends MeshExporter
+	{
+		private static final int REGION_SHIFT=27;
+		private static final int REGION_MASK=(1 << REGION_SHIFT) - 1;
+
+		public BinarySTL(File directory, int[] groupIds)
+		{
+			super(directory, groupIds);
+		}
+
+		public BinarySTL(String file)
+		{
+			super(file);
+		}
+
+		@Override
+		boolean canWriteChannel()
+		{
+			return true;
+		}
+
+		@Override
+		void write(FileChannel channel) throws IOException
+		{
+			readGroups();
+			final int[] triangles=readTriangles();
+			final DoubleBuffer[] nodes=mapNodes();
+			BlockWriter out=new BlockWriter(channel, getNumberOfThreads());
+			int nrTriangles=triangles.length/3;
+			OutputBuffer header=new OutputBuffer(84);
+			writeHeader(header, nrTriangles);
+			out.add(header);
+			for(int first=0; first<nrTriangles; first+=TRIANGLES_PER_BLOCK)
+			{
+				final int n=Math.min(TRIANGLES_PER_BLOCK, nrTriangles-first);
+				final int start=first;
+				out.add(new BlockWriter.Block()
+				{
+					@Override
+					void format(OutputBuffer o)
+					{
+						double[] xyz=new double[9];
+						for(int i=start; i<start+n; i++)
+						{
+							for(int k=0; k<9; k++)
+							{
+								long index=3L*triangles[3*i+k/3]+k%3;
+								xyz[k]=nodes[(int) (index >>> REGION_SHIFT)].get((int) (index & REGION_MASK));
+							}
+							writeSingleTriangle(o, xyz);
+						}
+					}
+				});
+			}
+			out.flush();
+			logger.info("Total number of triangles: "+nrTriangles);
+		}
+
+		/** Maps node file, by regions of 2^27 doubles */
+		private DoubleBuffer[] mapNodes() throws IOException
+		{
+			FileInputStream in=new FileInputStream(getNodeFile());
+			try
+			{
+				FileChannel fc=in.getChannel();
+				long size=fc.size() / 8L;
+				DoubleBuffer[] toReturn=new DoubleBuffer[(int) ((size + REGION_MASK) >>> REGION_SHIFT)];
+				for(int i=0; i<toReturn.length; i++)
+				{
+					long start=((long) i) << REGION_SHIFT;
+					long length=Math.min(size - start, 1L << REGION_SHIFT);
+					toReturn[i]=fc.map(FileChannel.MapMode.READ_ONLY, 8L*start, 8L*length).asDoubleBuffer();
+				}
+				return toReturn;
+			}
+			finally
+			{
+				// Mappings remain valid after channel is closed
+				in.close();
+			}
+		}
+
+		private static void writeHeader(OutputBuffer out, int nrTriangles)
+		{
+			// Header must not begin with "solid"
+			String title="jCAE binary STL export";
+			out.append(title);
+			for(int i=title.length(); i<80; i++)
+				out.append((byte) ' ');
+			out.appendIntLE(nrTriangles);
+		}
+
+		/**
+		 * Writes a triangle.
+		 * @param xyz coordinates of the 3 vertices
+		 */
+		public static void writeSingleTriangle(OutputBuffer out, double[] xyz)
+		{
+			double ux=xyz[3]-xyz[0], uy=xyz[4]-xyz[1], uz=xyz[5]-xyz[2];
+			double vx=xyz[6]-xyz[0], vy=xyz[7]-xyz[1], vz=xyz[8]-xyz[2];
+			double nx=uy*vz-uz*vy, ny=uz*vx-ux*vz, nz=ux*vy-uy*vx;
+			double norm=Math.sqrt(nx*nx+ny*ny+nz*nz);
+			if(norm>0.0)
+			{
+				nx/=norm;
+				ny/=norm;
+				nz/=norm;
+			}
+			out.appendFloatLE((float) nx);
+			out.appendFloatLE((float) ny);
+			out.appendFloatLE((float) nz);
+			for(int k=0; k<9; k++)
+				out.appendFloatLE((float) xyz[k]);
+			// Attribute byte count
+			out.appendShortLE(0);
+		}
+
+		@Override
+		protected void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV)
+		{
+			//Nothing to do
+		}
+
+		/**
+		 * Used when file is compressed.
+		 */
+		@Override
+		public void writeTriangles(PrintStream out, int[] triangles,
+			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
+			throws IOException
+		{
+			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(getNodeFile());
+			int nrTriangles=triangles.length/3;
+			OutputBuffer buffer=new OutputBuffer(1 << 20);
+			writeHeader(buffer, nrTriangles);
+			double[] xyz=new double[9];
+			for(int i=0; i<nrTriangles; i++)
+			{
+				for(int k=0; k<3; k++)
+					dfrN.get(3*triangles[3*i+k], xyz, 3*k, 3);
+				writeSingleTriangle(buffer, xyz);
+				if(buffer.size() > 1 << 20)
+				{
+					buffer.writeTo(out);
+					buffer.clear();
+				}
+			}
+			buffer.writeTo(out);
+			dfrN.close();
+		}
+	}
+
 	public static class MESH extends MeshExporter
 	{
 		public MESH(File directory, int[] groupIds)
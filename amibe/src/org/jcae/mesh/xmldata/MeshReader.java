@@ -29,15 +29,21 @@ import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.MGroup3D;
 import org.jcae.mesh.amibe.patch.Mesh2D;
 import org.jcae.mesh.amibe.patch.Vertex2D;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
@@ -201,7 +207,8 @@ public class MeshReader
 	}
 
 	/**
-	 * Loads an Amibe 3D XML file into an existing Mesh instance.
+	 * Loads an Amibe 3D XML file into an existing Mesh instance.  All
+	 * processors are used.
 	 *
 	 * @param mesh     data structure updated when reading files
 	 * @param xmlDir   directory containing XML files
@@ -209,74 +216,124 @@ public class MeshReader
 	public static void readObject3D(Mesh mesh, String xmlDir)
 		throws IOException
 	{
+		readObject3D(mesh, xmlDir, 0);
+	}
+
+	/**
+	 * Loads an Amibe 3D XML file into an existing Mesh instance.  Node and
+	 * triangle files are mapped, and vertices and triangles are created
+	 * by chunks in parallel into preallocated arrays; the bounding box of
+	 * vertices is computed at the same time.  They are then added to the
+	 * mesh in file order, so that the resulting mesh does not depend on
+	 * the number of threads.  If mesh has a Kd-tree, it is now filled with
+	 * vertices; if this Kd-tree has not been set up yet, it is initialized
+	 * with this bounding box, otherwise its bounding box must already
+	 * enclose all vertices.
+	 *
+	 * @param mesh     data structure updated when reading files
+	 * @param xmlDir   directory containing XML files
+	 * @param nrThreads  number of threads, all processors are used if
+	 *   nrThreads &lt;= 0
+	 */
+	public static void readObject3D(final Mesh mesh, String xmlDir, int nrThreads)
+		throws IOException
+	{
+		if (nrThreads <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
+		AmibeReader.Dim3 reader;
+		try {
+			reader = new AmibeReader.Dim3(xmlDir);
+		} catch (SAXException ex) {
+			throw new IOException(ex);
+		}
 		try {
-			AmibeReader.Dim3 reader = new AmibeReader.Dim3(xmlDir);
 			SubMesh subMesh = reader.getSubmeshes().get(0);
-			int numberOfReferences = subMesh.getNumberOfReferences();
+			final int numberOfReferences = subMesh.getNumberOfReferences();
 			int[] refs = null;
 			if (numberOfReferences > 0) {
 				refs = subMesh.getReferences();
 				mesh.setPersistentReferences(true);
 			}
-			DoubleFileReader dfrN = subMesh.getNodes();
-			int numberOfNodes = subMesh.getNumberOfNodes();
-			Vertex[] nodelist = new Vertex[numberOfNodes + 1];
+			final int[] labels = refs;
+			final int numberOfNodes = subMesh.getNumberOfNodes();
+			final Vertex[] nodelist = new Vertex[numberOfNodes + 1];
 			nodelist[numberOfNodes] = mesh.outerVertex;
-			int label;
-			double[] coord = new double[3];
-			double[] bbmin = new double[3];
-			double[] bbmax = new double[3];
-			for (int j = 0; j < 3; j++) {
-				bbmin[j] = Double.MAX_VALUE;
-				bbmax[j] = Double.MIN_VALUE;
+			final Slices nodes = new Slices(subMesh, true);
+			List<Callable<double[]>> nodeTasks = new ArrayList<Callable<double[]>>();
+			for (int c = 0; c < numberOfNodes; c += CHUNK_SIZE) {
+				final int start = c;
+				final int end = Math.min(numberOfNodes, c + CHUNK_SIZE);
+				nodeTasks.add(new Callable<double[]>() {
+					public double[] call() throws IOException {
+						double[] coord = nodes.getDoubles(3 * start, 3 * (end - start));
+						double[] bbox = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+							-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+						for (int i = start; i < end; i++) {
+							int k = 3 * (i - start);
+							Vertex v = mesh.createVertex(coord[k], coord[k+1], coord[k+2]);
+							if (i >= numberOfNodes - numberOfReferences)
+								v.setRef(labels[i + numberOfReferences - numberOfNodes]);
+							nodelist[i] = v;
+							for (int j = 0; j < 3; j++) {
+								bbox[j] = Math.min(bbox[j], coord[k+j]);
+								bbox[j+3] = Math.max(bbox[j+3], coord[k+j]);
+							}
+						}
+						return bbox;
+					}
+				});
 			}
-			mesh.ensureCapacity(2 * numberOfNodes);
-			for (int i = 0; i < numberOfNodes; i++) {
-				dfrN.get(coord);
-				nodelist[i] = mesh.createVertex(coord);
-				if (i < numberOfNodes - numberOfReferences) {
-					label = 0;
-				} else {
-					assert refs != null;
-					label = refs[i + numberOfReferences - numberOfNodes];
-				}
-				nodelist[i].setRef(label);
+			double[] bbmin = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+			double[] bbmax = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+			for (double[] bbox : ParallelExecutor.invokeAll(nodeTasks, nrThreads)) {
 				for (int j = 0; j < 3; j++) {
-					if (coord[j] > bbmax[j]) {
-						bbmax[j] = coord[j];
-					}
-					if (coord[j] < bbmin[j]) {
-						bbmin[j] = coord[j];
-					}
+					bbmin[j] = Math.min(bbmin[j], bbox[j]);
+					bbmax[j] = Math.max(bbmax[j], bbox[j+3]);
 				}
 			}
-			dfrN.close();
+			nodes.close();
+			mesh.ensureCapacity(2 * numberOfNodes);
 			if (mesh.hasNodes()) {
 				for (int i = 0; i < numberOfNodes; i++) {
 					mesh.add(nodelist[i]);
 				}
 			}
-			IntFileReader ifrT = subMesh.getTriangles();
-			int numberOfTriangles = subMesh.getNumberOfTrias();
-			Triangle[] facelist = new Triangle[numberOfTriangles];
-			int[] ind = new int[3];
-			Vertex[] pts = new Vertex[3];
-			for (int i = 0; i < numberOfTriangles; i++) {
-				boolean outer = false;
-				for (int j = 0; j < 3; j++) {
-					ind[j] = ifrT.get();
-					if (ind[j] < 0) {
-						ind[j] = -ind[j];
-						outer = true;
+			KdTree<Vertex> kdTree = mesh.getKdTree();
+			if (kdTree != null && numberOfNodes > 0) {
+				if (!kdTree.isSetup())
+					mesh.resetKdTree(bbmin, bbmax);
+				for (int i = 0; i < numberOfNodes; i++)
+					kdTree.add(nodelist[i]);
+			}
+
+			final int numberOfTriangles = subMesh.getNumberOfTrias();
+			final Triangle[] facelist = new Triangle[numberOfTriangles];
+			final Slices trias = new Slices(subMesh, false);
+			List<Callable<Object>> triaTasks = new ArrayList<Callable<Object>>();
+			for (int c = 0; c < numberOfTriangles; c += CHUNK_SIZE) {
+				final int start = c;
+				final int end = Math.min(numberOfTriangles, c + CHUNK_SIZE);
+				triaTasks.add(new Callable<Object>() {
+					public Object call() throws IOException {
+						int[] ind = trias.getInts(3 * start, 3 * (end - start));
+						for (int i = start; i < end; i++) {
+							int k = 3 * (i - start);
+							// Outer triangles are rebuilt by buildAdjacency
+							if (ind[k] < 0 || ind[k+1] < 0 || ind[k+2] < 0)
+								continue;
+							facelist[i] = mesh.createTriangle(
+								nodelist[ind[k]], nodelist[ind[k+1]], nodelist[ind[k+2]]);
+						}
+						return null;
 					}
-					pts[j] = nodelist[ind[j]];
-				}
-				if (!outer) {
-					facelist[i] = mesh.createTriangle(pts[0], pts[1], pts[2]);
-					mesh.add(facelist[i]);
-				}
-			}		
-			ifrT.close();
+				});
+			}
+			ParallelExecutor.invokeAll(triaTasks, nrThreads);
+			trias.close();
+			for (Triangle t : facelist) {
+				if (t != null)
+					mesh.add(t);
+			}
 
 			int numberOfBeams = subMesh.getNumberOfBeams();
 			if (numberOfBeams > 0)
@@ -296,13 +353,80 @@ public class MeshReader
 				for(int j : g.readBeamsIds())
 					mesh.setBeamGroup(j, id);
 			}
-			//  Build adjacency relations
-			if (mesh.hasAdjacency()) {
-				logger.fine("Build mesh adjacency");
-				mesh.buildAdjacency();
+		} finally {
+			reader.close();
+		}
+		//  Build adjacency relations, AdjacencyBuilder is also parallel
+		if (mesh.hasAdjacency()) {
+			logger.fine("Build mesh adjacency");
+			mesh.buildAdjacency();
+		}
+	}
+
+	/** Number of vertices or triangles created by a task */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Copies slices of node or triangle files.  Files are mapped when
+	 * possible, otherwise slices are read by a reader shared by all
+	 * threads.
+	 */
+	private static final class Slices
+	{
+		private final SubMesh subMesh;
+		private final boolean nodes;
+		// View of the whole region, or null if it is larger than 2GB
+		// and windows are mapped on demand
+		private DoubleBuffer doubleView;
+		private IntBuffer intView;
+
+		Slices(SubMesh subMesh, boolean nodes) throws IOException
+		{
+			this.subMesh = subMesh;
+			this.nodes = nodes;
+			long size = nodes ? 24L * subMesh.getNumberOfNodes() : 12L * subMesh.getNumberOfTrias();
+			if (size > Integer.MAX_VALUE)
+				logger.fine("File is too large to be mapped at once, it is mapped by windows");
+			else if (nodes)
+				doubleView = subMesh.getNodesBuffer();
+			else
+				intView = subMesh.getTrianglesBuffer();
+		}
+
+		double[] getDoubles(int index, int length) throws IOException
+		{
+			assert nodes && index % 3 == 0 && length % 3 == 0;
+			double[] ret = new double[length];
+			DoubleBuffer view;
+			if (doubleView != null) {
+				view = doubleView.duplicate();
+				view.position(index);
+			} else {
+				view = subMesh.getNodesBuffer(index / 3, length / 3);
 			}
-		} catch (SAXException ex) {
-			throw new IOException(ex);
+			view.get(ret);
+			return ret;
+		}
+
+		int[] getInts(int index, int length) throws IOException
+		{
+			assert !nodes && index % 3 == 0 && length % 3 == 0;
+			int[] ret = new int[length];
+			IntBuffer view;
+			if (intView != null) {
+				view = intView.duplicate();
+				view.position(index);
+			} else {
+				view = subMesh.getTrianglesBuffer(index / 3, length / 3);
+			}
+			view.get(ret);
+			return ret;
+		}
+
+		void close()
+		{
+			doubleView = null;
+			intView = null;
 		}
 	}
 
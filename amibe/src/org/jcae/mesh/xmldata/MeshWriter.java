@@ -26,15 +26,18 @@ import org.jcae.mesh.amibe.patch.Mesh2D;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.util.ParallelExecutor;
 import gnu.trove.TObjectIntHashMap;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 
@@ -139,27 +142,165 @@ public class MeshWriter
 		}
 	}
 
-	private static void writeObjectGroups(Mesh mesh, AmibeWriter aw)
-		throws IOException
+	/**
+	 * Gives dense indices to vertices without hash maps.  As in
+	 * adjacency computations, the index of a vertex is temporarily stored
+	 * into its label, and original labels are restored by
+	 * {@link #restoreLabels}.  Memory usage is thus a few bytes per vertex.
+	 */
+	private static final class VertexIndex
 	{
-		int cnt=0;
-		HashMap<Integer, TIntArrayList> groupMap = new HashMap<Integer, TIntArrayList>();
-		HashMap<Integer, TIntArrayList> bgroupMap = new HashMap<Integer, TIntArrayList>();
-		for(Triangle f: mesh.getTriangles())
+		// Labels of indexed vertices are shifted by this value, and they
+		// are checked against vertices array so that they cannot be
+		// confused with original labels.
+		private static final int LABEL_OFFSET = Integer.MIN_VALUE;
+		private final Vertex outer;
+		private Vertex [] vertices;
+		private int [] labels;
+		private int size;
+
+		VertexIndex(Vertex outer, int capacity)
 		{
-			if (!f.isWritable())
-				continue;
-			int id = f.getGroupId();
-			TIntArrayList list = groupMap.get(id);
-			if (list == null)
+			this.outer = outer;
+			vertices = new Vertex[Math.max(16, capacity)];
+			labels = new int[vertices.length];
+		}
+
+		private int index(Vertex v)
+		{
+			int i = v.getLabel() - LABEL_OFFSET;
+			if (i >= 0 && i < size && vertices[i] == v)
+				return i;
+			return -1;
+		}
+
+		/**
+		 * Returns the index of a vertex.  Outer vertex is numbered after
+		 * all other vertices, and vertices which had not been added get
+		 * index 0, as was done when indices were stored in a hash map.
+		 */
+		int get(Vertex v)
+		{
+			if (v == outer)
+				return size;
+			return Math.max(0, index(v));
+		}
+
+		void add(Vertex v)
+		{
+			if (v == outer || index(v) >= 0)
+				return;
+			if (size == vertices.length)
 			{
-				list = new TIntArrayList(100);
-				groupMap.put(id, list);
+				Vertex [] newVertices = new Vertex[2 * size];
+				System.arraycopy(vertices, 0, newVertices, 0, size);
+				vertices = newVertices;
+				int [] newLabels = new int[2 * size];
+				System.arraycopy(labels, 0, newLabels, 0, size);
+				labels = newLabels;
 			}
-			list.add(cnt);
-			cnt++;
+			vertices[size] = v;
+			labels[size] = v.getLabel();
+			v.setLabel(size + LABEL_OFFSET);
+			size++;
 		}
 
+		/**
+		 * Writes nodes and renumbers them in file order.  As in
+		 * {@link MeshWriter#writeObjectNodes}, inner nodes are written
+		 * first, then nodes with distinct references, and then nodes
+		 * which duplicate a reference.
+		 */
+		void write(AmibeWriter out) throws IOException
+		{
+			Vertex [] ordered = new Vertex[size];
+			int [] orderedLabels = new int[size];
+			int n = 0;
+			int nref = 0;
+			for (int i = 0; i < size; i++)
+			{
+				if (vertices[i].getRef() != 0)
+					nref++;
+				else
+				{
+					ordered[n] = vertices[i];
+					orderedLabels[n] = labels[i];
+					n++;
+				}
+			}
+			if (nref > 0)
+			{
+				TIntHashSet refs = new TIntHashSet(nref);
+				int dup = size;
+				for (int i = 0; i < size; i++)
+				{
+					int ref1d = vertices[i].getRef();
+					if (ref1d == 0)
+						continue;
+					if (refs.add(ref1d))
+					{
+						ordered[n] = vertices[i];
+						orderedLabels[n] = labels[i];
+						n++;
+					}
+					else
+					{
+						// Duplicate nodes are stored backwards at the end
+						dup--;
+						ordered[dup] = vertices[i];
+						orderedLabels[dup] = labels[i];
+					}
+				}
+				reverse(ordered, orderedLabels, n, size);
+			}
+			vertices = ordered;
+			labels = orderedLabels;
+			for (int i = 0; i < size; i++)
+			{
+				Vertex v = vertices[i];
+				v.setLabel(i + LABEL_OFFSET);
+				out.addNode(v.getUV());
+				if (v.getRef() != 0)
+					out.addNodeRef(Math.abs(v.getRef()));
+			}
+		}
+
+		private static void reverse(Vertex [] v, int [] l, int from, int to)
+		{
+			for (int i = from, j = to - 1; i < j; i++, j--)
+			{
+				Vertex tv = v[i];
+				v[i] = v[j];
+				v[j] = tv;
+				int tl = l[i];
+				l[i] = l[j];
+				l[j] = tl;
+			}
+		}
+
+		void restoreLabels()
+		{
+			for (int i = 0; i < size; i++)
+				vertices[i].setLabel(labels[i]);
+			vertices = null;
+			labels = null;
+		}
+	}
+
+	/**
+	 * Writes groups of triangles and beams.  Triangle ids are sorted by
+	 * group with a counting sort, whose passes are run on chunks by
+	 * several threads.  Within a group, ids are written in increasing
+	 * order.
+	 *
+	 * @param groupIds  group id of each writable triangle
+	 * @param counts  number of triangles in each group
+	 */
+	private static void writeObjectGroups(Mesh mesh, final int [] groupIds,
+		final int nrTriangles, TIntIntHashMap counts, AmibeWriter aw, int nrThreads)
+		throws IOException
+	{
+		HashMap<Integer, TIntArrayList> bgroupMap = new HashMap<Integer, TIntArrayList>();
 		List<Vertex> beams = mesh.getBeams();
 		for(int i = 0 ; i < beams.size(); i+=2)
 		{
@@ -175,24 +316,89 @@ public class MeshWriter
 
 		// Sort group ids
 		TreeSet<Integer> sortedKeys = new TreeSet<Integer>();
-		sortedKeys.addAll(groupMap.keySet());
+		for (int id: counts.keys())
+			sortedKeys.add(id);
+		final int [] keys = new int[counts.size()];
+		int nrKeys = 0;
+		for (int id: sortedKeys)
+			keys[nrKeys++] = id;
 		sortedKeys.addAll(bgroupMap.keySet());
-		
+		// Slot of each group in keys array; read-only from now on
+		final TIntIntHashMap slots = new TIntIntHashMap(keys.length);
+		for (int k = 0; k < keys.length; k++)
+			slots.put(keys[k], k);
+
+		int nrChunks = Math.max(1, Math.min(nrThreads, nrTriangles / CHUNK_MIN_TRIANGLES));
+		final int [][] offsets = new int[nrChunks][keys.length];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrChunks);
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int start = (int) ((long) nrTriangles * c / nrChunks);
+			final int end = (int) ((long) nrTriangles * (c + 1) / nrChunks);
+			final int [] chunkCounts = offsets[c];
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					for (int i = start; i < end; i++)
+						chunkCounts[slots.get(groupIds[i])]++;
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+		// Replace counts by offsets where each chunk writes its ids
+		int [] groupStart = new int[keys.length];
+		int offset = 0;
+		for (int k = 0; k < keys.length; k++)
+		{
+			groupStart[k] = offset;
+			for (int c = 0; c < nrChunks; c++)
+			{
+				int cnt = offsets[c][k];
+				offsets[c][k] = offset;
+				offset += cnt;
+			}
+		}
+		final int [] sorted = new int[nrTriangles];
+		tasks.clear();
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int start = (int) ((long) nrTriangles * c / nrChunks);
+			final int end = (int) ((long) nrTriangles * (c + 1) / nrChunks);
+			final int [] chunkOffsets = offsets[c];
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					for (int i = start; i < end; i++)
+						sorted[chunkOffsets[slots.get(groupIds[i])]++] = i;
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, nrThreads);
+
 		for (int id: sortedKeys)
 		{
 			String name = mesh.getGroupName(id);
 			aw.nextGroup(name == null ? Integer.toString(id) : name);
-			TIntArrayList list = groupMap.get(id);
-			if(list != null)
-				for(int i = 0, n = list.size(); i < n; i++)
-					aw.addTriaToGroup(list.get(i));
+			if (slots.containsKey(id))
+			{
+				int k = slots.get(id);
+				for (int i = groupStart[k], n = i + counts.get(id); i < n; i++)
+					aw.addTriaToGroup(sorted[i]);
+			}
 
-			list = bgroupMap.get(id);
+			TIntArrayList list = bgroupMap.get(id);
 			if(list != null)
 				for(int i = 0, n = list.size(); i < n; i++)
 					aw.addBeamToGroup(list.get(i));
 		}
 	}
+
+	// Minimal number of triangles sorted by a thread
+	private static final int CHUNK_MIN_TRIANGLES = 100000;
 	
 	/**
 	 * Write the current object to an Amibe 2D XML file and binary files.
@@ -239,40 +445,112 @@ public class MeshWriter
 	 */
 	public static void writeObject3D(Mesh submesh, String xmlDir, String brepFile)
 		throws IOException
+	{
+		writeObject3D(submesh, xmlDir, brepFile, false);
+	}
+
+	/**
+	 * Write the current object to an Amibe 3D XML file and binary files.
+	 *
+	 * @param submesh      mesh to be written on disk
+	 * @param xmlDir       name of the XML file
+	 * @param brepFile     basename of the brep file
+	 * @param compressed   if <code>true</code>, nodes, triangles and groups
+	 *                     are written into compressed block files
+	 */
+	public static void writeObject3D(Mesh submesh, String xmlDir, String brepFile, boolean compressed)
+		throws IOException
+	{
+		writeObject3D(submesh, xmlDir, brepFile, compressed, 1);
+	}
+
+	/**
+	 * Write the current object to an Amibe 3D XML file and binary files.
+	 * Nodes and triangles are streamed in a single traversal; vertices
+	 * are numbered through their labels, which are restored afterwards,
+	 * so that no hash map nor node set is built.
+	 *
+	 * @param submesh      mesh to be written on disk
+	 * @param xmlDir       name of the XML file
+	 * @param brepFile     basename of the brep file
+	 * @param compressed   if <code>true</code>, nodes, triangles and groups
+	 *                     are written into compressed block files
+	 * @param nrThreads    number of threads used to sort triangles by
+	 *                     group, all processors are used if nrThreads &lt;= 0
+	 */
+	public static void writeObject3D(Mesh submesh, String xmlDir, String brepFile,
+		boolean compressed, int nrThreads)
+		throws IOException
 	{
 		logger.info("Write mesh into "+xmlDir+java.io.File.separator+JCAEXMLData.xml3dFilename);
+		if (nrThreads <= 0)
+			nrThreads = ParallelExecutor.getNumberOfProcessors();
 		Collection<Triangle> trianglelist = submesh.getTriangles();
 		Collection<Vertex> nodelist = submesh.getNodes();
-		if (nodelist == null)
+		List<Vertex> beams = submesh.getBeams();
+		VertexIndex nodeIndex = new VertexIndex(submesh.outerVertex,
+			nodelist == null ? trianglelist.size() / 2 : nodelist.size());
+		try
 		{
-			nodelist = new LinkedHashSet<Vertex>(trianglelist.size() / 2);
-			for (Triangle t: trianglelist)
+			if (nodelist == null)
 			{
-				if (!t.isWritable())
-					continue;
-				for (int j = 0; j < 3; j++)
+				for (Triangle t: trianglelist)
 				{
-					if (!nodelist.contains(t.vertex[j]))
-						nodelist.add(t.vertex[j]);
+					if (!t.isWritable())
+						continue;
+					for (int j = 0; j < 3; j++)
+						nodeIndex.add(t.vertex[j]);
 				}
+				for (Vertex v: beams)
+					nodeIndex.add(v);
 			}
-			nodelist.addAll(submesh.getBeams());
-		}
-		TObjectIntHashMap<Vertex> nodeIndex=new TObjectIntHashMap<Vertex>(nodelist.size());
-		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(xmlDir, false,
-			submesh.hasPersistentReferences());
-		if (brepFile != null)
-			aw.setShape(brepFile);
+			else
+			{
+				for (Vertex v: nodelist)
+					nodeIndex.add(v);
+			}
+			AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(xmlDir, false,
+				submesh.hasPersistentReferences(), compressed);
+			if (brepFile != null)
+				aw.setShape(brepFile);
 
-		writeObjectNodes(nodelist, submesh.outerVertex, aw, nodeIndex);
-		writeObjectTriangles(trianglelist, nodeIndex, aw);
-		writeObjectGroups(submesh, aw);
-		List<Vertex> beams = submesh.getBeams();
-		for(int i = 0; i<beams.size(); i+=2)
-			aw.addBeam(
-				nodeIndex.get(beams.get(i)),
-				nodeIndex.get(beams.get(i+1)));
-		aw.finish();
+			nodeIndex.write(aw);
+			// Write inner triangles and record their groups
+			int [] groupIds = new int[trianglelist.size()];
+			TIntIntHashMap counts = new TIntIntHashMap();
+			int nrTriangles = 0;
+			for(Triangle f: trianglelist)
+			{
+				if (!f.isWritable())
+					continue;
+				aw.addTriangle(
+					nodeIndex.get(f.vertex[0]),
+					nodeIndex.get(f.vertex[1]),
+					nodeIndex.get(f.vertex[2]));
+				int id = f.getGroupId();
+				groupIds[nrTriangles++] = id;
+				counts.adjustOrPutValue(id, 1, 1);
+			}
+			// Next write outer triangles
+			for(Triangle f: trianglelist)
+			{
+				if (f.isWritable())
+					continue;
+				aw.addTriangle(
+					-nodeIndex.get(f.vertex[0]),
+					-nodeIndex.get(f.vertex[1]),
+					-nodeIndex.get(f.vertex[2]));
+			}
+			writeObjectGroups(submesh, groupIds, nrTriangles, counts, aw, nrThreads);
+			for(int i = 0; i<beams.size(); i+=2)
+				aw.addBeam(
+					nodeIndex.get(beams.get(i)),
+					nodeIndex.get(beams.get(i+1)));
+			aw.finish();
+		}
+		finally
+		{
+			nodeIndex.restoreLabels();
+		}
 	}
 }
-
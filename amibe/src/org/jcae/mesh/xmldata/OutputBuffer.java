@@ -0,0 +1,398 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.text.NumberFormat;
+
+/**
+ * Growable byte array to format text or binary files without creating
+ * objects.  Text numbers are formatted like {@link MeshExporter.FormatD25_16} and
+ * {@link MeshExporter.FormatI10}, but digits are computed with
+ * double-double arithmetic and written directly into bytes.  Values
+ * which are too close to a rounding boundary, and values whose magnitude
+ * is out of [1e-28, 2^53), are formatted by <code>FormatD25_16</code>.
+ * Instances are not thread-safe, each thread must use its own buffer.
+ */
+public final class OutputBuffer
+{
+	private static final byte [] NEWLINE = System.getProperty("line.separator").getBytes();
+	// Exact powers of ten
+	private static final double [] POW10 = new double[23];
+	private static final long [] LONG_POW10 = new long[19];
+	static
+	{
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = 10.0 * POW10[i-1];
+		LONG_POW10[0] = 1L;
+		for (int i = 1; i < LONG_POW10.length; i++)
+			LONG_POW10[i] = 10L * LONG_POW10[i-1];
+	}
+
+	private byte [] data;
+	private int size;
+	// Scaled value computed by scale()
+	private double scaledHi, scaledLo;
+	// Digits computed by digits()
+	private long mantissa;
+	private int exponent;
+
+	public OutputBuffer(int capacity)
+	{
+		data = new byte[Math.max(capacity, 64)];
+	}
+
+	/** Removes all bytes. */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/** Returns the number of bytes. */
+	public int size()
+	{
+		return size;
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if (size + n > data.length)
+		{
+			byte [] newData = new byte[Math.max(2 * data.length, size + n)];
+			System.arraycopy(data, 0, newData, 0, size);
+			data = newData;
+		}
+	}
+
+	/**
+	 * Appends a string, which must only contain ASCII characters.
+	 */
+	public void append(String s)
+	{
+		int n = s.length();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++)
+			data[size++] = (byte) s.charAt(i);
+	}
+
+	/** Appends bytes. */
+	public void append(byte [] b, int offset, int length)
+	{
+		ensureCapacity(length);
+		System.arraycopy(b, offset, data, size, length);
+		size += length;
+	}
+
+	/** Appends a line separator. */
+	public void newLine()
+	{
+		ensureCapacity(NEWLINE.length);
+		for (byte b : NEWLINE)
+			data[size++] = b;
+	}
+
+	/** Appends a byte. */
+	public void append(byte b)
+	{
+		ensureCapacity(1);
+		data[size++] = b;
+	}
+
+	/** Appends an int in little-endian order. */
+	public void appendIntLE(int value)
+	{
+		ensureCapacity(4);
+		data[size++] = (byte) value;
+		data[size++] = (byte) (value >>> 8);
+		data[size++] = (byte) (value >>> 16);
+		data[size++] = (byte) (value >>> 24);
+	}
+
+	/** Appends a short in little-endian order. */
+	public void appendShortLE(int value)
+	{
+		ensureCapacity(2);
+		data[size++] = (byte) value;
+		data[size++] = (byte) (value >>> 8);
+	}
+
+	/** Appends a float in little-endian order. */
+	public void appendFloatLE(float value)
+	{
+		appendIntLE(Float.floatToIntBits(value));
+	}
+
+	/** Appends an integer without padding. */
+	public void append(long value)
+	{
+		ensureCapacity(20);
+		if (value < 0)
+		{
+			data[size++] = '-';
+			// Long.MIN_VALUE is not supported
+			value = -value;
+		}
+		int n = 1;
+		while (n < LONG_POW10.length && value >= LONG_POW10[n])
+			n++;
+		for (int i = n - 1; i >= 0; i--)
+		{
+			data[size + i] = (byte) ('0' + value % 10L);
+			value /= 10L;
+		}
+		size += n;
+	}
+
+	/** Appends an integer, right-aligned in 10 characters. */
+	public void appendI10(int value)
+	{
+		ensureCapacity(10);
+		int n = value < 0 ? 2 : 1;
+		for (long v = Math.abs((long) value); v >= 10L; v /= 10L)
+			n++;
+		for (int i = n; i < 10; i++)
+			data[size++] = ' ';
+		append(value);
+	}
+
+	/**
+	 * Appends a double with 17 significant digits and a <code>D</code>
+	 * exponent, right-aligned in 25 characters.
+	 */
+	public void appendD25_16(double x)
+	{
+		ensureCapacity(25);
+		if (!digits(x))
+		{
+			byte [] b = FORMAT_D25_16.get().format(x).getBytes();
+			append(b, 0, b.length);
+			return;
+		}
+		boolean negative = (Double.doubleToRawLongBits(x) < 0L);
+		int width = negative ? 23 : 22;
+		for (int i = width; i < 25; i++)
+			data[size++] = ' ';
+		if (negative)
+			data[size++] = '-';
+		long m = mantissa;
+		for (int i = 17; i >= 2; i--)
+		{
+			data[size + i] = (byte) ('0' + m % 10L);
+			m /= 10L;
+		}
+		data[size] = (byte) ('0' + m);
+		data[size + 1] = '.';
+		size += 18;
+		data[size++] = 'D';
+		int e = exponent;
+		if (e < 0)
+		{
+			data[size++] = '-';
+			e = -e;
+		}
+		else
+			data[size++] = '+';
+		data[size++] = (byte) ('0' + e / 10);
+		data[size++] = (byte) ('0' + e % 10);
+	}
+
+	private static final ThreadLocal<NumberFormat> FORMAT_D25_16 = new ThreadLocal<NumberFormat>()
+	{
+		@Override
+		protected NumberFormat initialValue()
+		{
+			return new MeshExporter.FormatD25_16();
+		}
+	};
+
+	/**
+	 * Computes the shortest decimal representation of <code>x</code>
+	 * with 15, 16 or 17 significant digits which is converted back
+	 * into <code>x</code>, and stores it into <code>mantissa</code>
+	 * (17 digits, padded with zeros) and <code>exponent</code>.
+	 *
+	 * @return <code>false</code> if digits cannot be computed safely
+	 */
+	private boolean digits(double x)
+	{
+		double a = Math.abs(x);
+		if (a == 0.0)
+		{
+			mantissa = 0L;
+			exponent = 0;
+			return true;
+		}
+		// Integers larger than 2^53 are not printed with their
+		// shortest representation by DecimalFormat
+		if (!(a >= 1.e-28 && a < 9007199254740992.0))
+			return false;
+		int e10 = (int) Math.floor(Math.log10(a));
+		// log10 may be off by one
+		for (int i = 0; i < 2; i++)
+		{
+			if (!scale(a, 16 - e10))
+				return false;
+			if (scaledHi < 1.e16)
+				e10--;
+			else if (scaledHi >= 1.e17)
+				e10++;
+			else
+				break;
+		}
+		if (scaledHi < 1.e16 || scaledHi >= 1.e17)
+			return false;
+		// scaledHi is an integer, scaledLo is small
+		double floorLo = Math.floor(scaledLo);
+		long d17 = (long) scaledHi + (long) floorLo;
+		double frac = scaledLo - floorLo;
+		// Half distance to adjacent doubles, in scaled units
+		double halfGap = 0.5 * Math.ulp(a) * scaleFactor(16 - e10);
+		boolean powerOfTwo = (Double.doubleToRawLongBits(a) & 0xfffffffffffffL) == 0L;
+		for (int n = 15; n <= 17; n++)
+		{
+			long q = LONG_POW10[17 - n];
+			long c = d17 / q;
+			double rem = (double) (d17 % q) + frac;
+			double half = 0.5 * q;
+			if (Math.abs(rem - half) < 1.e-6)
+				return false;
+			if (rem > half)
+				c++;
+			// Distance between candidate and scaled value
+			double diff = (double) (c * q - d17) - frac;
+			double limit = (diff < 0.0 && powerOfTwo) ? 0.5 * halfGap : halfGap;
+			if (Math.abs(Math.abs(diff) - limit) < 1.e-6 * limit)
+				return false;
+			if (Math.abs(diff) < limit)
+			{
+				mantissa = c * q;
+				exponent = e10;
+				if (mantissa >= LONG_POW10[17])
+				{
+					mantissa /= 10L;
+					exponent++;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static double scaleFactor(int k)
+	{
+		if (k > 22)
+			return POW10[22] * POW10[k - 22];
+		else if (k >= 0)
+			return POW10[k];
+		else
+			return 1.0 / POW10[-k];
+	}
+
+	/**
+	 * Computes <code>a * 10^k</code> as a double-double number and
+	 * stores it into <code>scaledHi</code> and <code>scaledLo</code>.
+	 */
+	private boolean scale(double a, int k)
+	{
+		if (k > 44 || k < -22)
+			return false;
+		if (k > 22)
+		{
+			// a * 10^22 is exactly t + te
+			double t = a * POW10[22];
+			double te = productError(a, POW10[22], t);
+			double p = POW10[k - 22];
+			scaledHi = t * p;
+			scaledLo = productError(t, p, scaledHi) + te * p;
+		}
+		else if (k >= 0)
+		{
+			double p = POW10[k];
+			scaledHi = a * p;
+			scaledLo = productError(a, p, scaledHi);
+		}
+		else
+		{
+			double p = POW10[-k];
+			double q = a / p;
+			double prod = q * p;
+			// Remainder of a / p is exact
+			double r = (a - prod) - productError(q, p, prod);
+			scaledHi = q;
+			scaledLo = r / p;
+		}
+		// Normalize so that scaledHi is the nearest double
+		double s = scaledHi + scaledLo;
+		scaledLo -= s - scaledHi;
+		scaledHi = s;
+		return true;
+	}
+
+	/** Returns the rounding error of <code>prod = a * b</code>. */
+	static double productError(double a, double b, double prod)
+	{
+		double t = 134217729.0 * a;
+		double ah = t - (t - a);
+		double al = a - ah;
+		t = 134217729.0 * b;
+		double bh = t - (t - b);
+		double bl = b - bh;
+		return ((ah * bh - prod) + ah * bl + al * bh) + al * bl;
+	}
+
+	/**
+	 * Copies bytes into a buffer, which must have enough room.
+	 *
+	 * @param offset  index of the first byte to copy
+	 * @param length  number of bytes
+	 */
+	public void copyTo(int offset, int length, ByteBuffer dst)
+	{
+		dst.put(data, offset, length);
+	}
+
+	/**
+	 * Writes bytes into a channel.
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(data, 0, size);
+		while (bb.hasRemaining())
+			channel.write(bb);
+	}
+
+	/**
+	 * Writes bytes into a stream.
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		out.write(data, 0, size);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(data, 0, size);
+	}
+}
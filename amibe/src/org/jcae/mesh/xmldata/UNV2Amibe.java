@@ -24,24 +24,22 @@ package org.jcae.mesh.xmldata;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import gnu.trove.TIntArrayList;
 
 
 /**
  * Convert a UNV mesh to an Amibe mesh.
  * <ul>
- * <li>The convertion is out-of-core and can handle large mesh.</li>
+ * <li>The convertion is out-of-core and can handle large mesh.  Files are
+ * memory-mapped and nodes are parsed concurrently.</li>
  * <li>The nodes and triangles of the input file must have contiguous ids.</li>
  * <li>Only triangles, nodes, and groups are imported.</li>
  * <li>2412-21 (linear beams) and 2412-92 (parabolic trias) are exported as a minimal unv
@@ -65,6 +63,13 @@ public class UNV2Amibe
 		{
 			buffer=line+'\n'+parse(in);
 		}
+
+		/** Create an element which has already been parsed */
+		protected Element(String buffer, int[] nodes)
+		{
+			this.buffer=buffer;
+			this.nodes=nodes;
+		}
 		
 		public void write(PrintStream out)
 		{
@@ -122,58 +127,60 @@ public class UNV2Amibe
 		}		
 	}
 
+	/** An element read by {@link MappedUNVReader} */
+	private class MappedElement extends Element
+	{
+		public MappedElement(String buffer, int[] nodes)
+		{
+			super(buffer, nodes);
+		}
+
+		@Override
+		protected String parse(BufferedReader in)
+		{
+			throw new IllegalStateException();
+		}
+	}
+
 	/**
 	 * Map an UNV element ID with Amibe element ID.
 	 * This is required because UNV file mix beams and trias while amibe
 	 * separate them
-	 * This is done in a temporary file to save memory
+	 * Amibe ID and type are packed into a single int, so that 100 millions
+	 * elements only need 400MB.
 	 */
 	private static class IDMapping
 	{
 		/**
-		 * Element type in the temporary file used to separate beams from trias
-		 * in groups.
+		 * Element type used to separate beams from trias in groups.
 		 */
 		public static int TRIAS = 0, BEAMS = 1;
-		private FileChannel channel;
-		private File file;
-		private ByteBuffer buffer = ByteBuffer.allocate(8);
-		public IDMapping() throws IOException
-		{
-			file = File.createTempFile("amibe", ".bin");
-			file.deleteOnExit();
-			channel = new RandomAccessFile(file, "rw").getChannel();
-		}
+		private final TIntArrayList ids = new TIntArrayList();
+		private int current;
 
-		public void close() throws IOException
+		public void close()
 		{
-			channel.close();
-			file.delete();
+			ids.clear();
 		}
 
-		public void add(int amibeID, int type) throws IOException
+		public void add(int amibeID, int type)
 		{
-			buffer.rewind();
-			buffer.putInt(amibeID);
-			buffer.putInt(type);
-			buffer.rewind();			
-			channel.write(buffer);
+			ids.add((amibeID << 1) | type);
 		}
 
-		public void seek(int id) throws IOException
+		public void seek(int id)
 		{
-			buffer.rewind();
-			channel.read(buffer, 8*id);
+			current = ids.get(id);
 		}
 
 		public int getID()
 		{
-			return buffer.getInt(0);
+			return current >>> 1;
 		}
 
 		public int getType()
 		{
-			return buffer.getInt(4);
+			return current & 1;
 		}
 	}
 	
@@ -181,6 +188,7 @@ public class UNV2Amibe
 	private String unitBlock;	
 	private String stripedUnvFile;
 	private IDMapping idMapping;
+	private int nrThreads;
 	
 	/** a list of 2412 elements which won't be store in the amibe file */
 	private final ArrayList<Element> elements=new ArrayList<Element>();
@@ -190,11 +198,115 @@ public class UNV2Amibe
 		importMesh(new File(input), output);
 	}
 
+	/**
+	 * Import a UNV file.  File is memory-mapped and nodes are parsed
+	 * concurrently, see {@link MappedUNVReader}.
+	 */
 	public final void importMesh(File input, String output) throws IOException
 	{
-		BufferedReader br=new BufferedReader(new FileReader(input));
-		importMesh(br, output);
-		br.close();
+		AmibeWriter.Dim3 out = new AmibeWriter.Dim3(output);
+		out.setFixNoGroup(true);
+		MappedUNVReader reader = new MappedUNVReader(input);
+		reader.setNumberOfThreads(nrThreads);
+		idMapping = new IDMapping();
+		reader.read(new AmibeHandler(reader, out));
+		idMapping.close();
+		out.finish();
+		if(stripedUnvFile!=null)
+			writeStripedUnv(out);
+	}
+
+	/**
+	 * Sets the number of threads used to parse nodes of files.  If
+	 * <code>n</code> is not positive, all processors are used.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
+	/** Write data found by {@link MappedUNVReader} into an Amibe mesh */
+	private class AmibeHandler implements MappedUNVReader.Handler
+	{
+		private final MappedUNVReader reader;
+		private final AmibeWriter.Dim3 out;
+		private int nbTrias;
+		private int nbBeams;
+		AmibeHandler(MappedUNVReader reader, AmibeWriter.Dim3 out)
+		{
+			this.reader = reader;
+			this.out = out;
+		}
+
+		public void addNodes(int[] labels, double[] coords, int nr)
+			throws IOException
+		{
+			for(int i=0; i<nr; i++)
+				out.addNode(coords[3*i], coords[3*i+1], coords[3*i+2]);
+		}
+
+		public void addElement(int label, int type, int[] nodes, int nrNodes,
+			long offset, int length) throws IOException
+		{
+			switch(type)
+			{
+				case 41:
+				case 51:
+				case 61:
+				case 74:
+				case 91:
+					out.addTriangle(nodes[0]-1, nodes[1]-1, nodes[2]-1);
+					idMapping.add(nbTrias, IDMapping.TRIAS);
+					nbTrias ++;
+					break;
+				case 11: //rod
+				case 21: //linear beam
+					out.addBeam(nodes[0]-1, nodes[1]-1);
+					elements.add(new MappedElement(reader.getText(offset, length),
+						new int[]{nodes[0], nodes[1]}));
+					idMapping.add(nbBeams, IDMapping.BEAMS);
+					nbBeams ++;
+					break;
+				case 92: //parabolic triangles
+					out.addTriangle(nodes[0]-1, nodes[2]-1, nodes[4]-1);
+					int[] n = new int[6];
+					System.arraycopy(nodes, 0, n, 0, 6);
+					elements.add(new MappedElement(reader.getText(offset, length), n));
+					idMapping.add(nbTrias, IDMapping.TRIAS);
+					nbTrias ++;
+					break;
+				case 94: //ignored
+				case 118: //tetra
+					break;
+				default:
+					LOGGER.log(Level.WARNING, "Warning: Section 2412, type {0} unknown", type);
+			}
+		}
+
+		public void addGroup(String name, int[] ids, int nr)
+			throws IOException
+		{
+			out.nextGroup(name);
+			for(int i=0; i<nr; i++)
+			{
+				if(ids[i] == 0)
+					continue;
+				idMapping.seek(ids[i]-1);
+				if(idMapping.getType() == IDMapping.BEAMS)
+					out.addBeamToGroup(idMapping.getID());
+				else
+					out.addTriaToGroup(idMapping.getID());
+			}
+		}
+
+		public void readDataset(int type, BufferedReader in)
+			throws IOException
+		{
+			// Unit has already been applied to nodes, only keep
+			// unitBlock for striped UNV
+			if(type == 164)
+				readUnit(in);
+		}
 	}
 
 	public final void importMesh(BufferedReader in, String outputDir) throws IOException
@@ -455,12 +567,14 @@ public class UNV2Amibe
 				case 11: //rod
 				case 21: //linear beam
 					Element21 beam = new Element21(line, rd);
+					elements.add(beam);
 					out.addBeam(beam.getNode(0)-1, beam.getNode(1)-1);
 					idMapping.add(nbBeams, IDMapping.BEAMS);
 					nbBeams ++;
 					break;
 				case 92: //parabolic triangles
 					Element92 e=new Element92(line, rd);
+					elements.add(e);
 					out.addTriangle(e.getNode(0)-1, e.getNode(2)-1, e.getNode(4)-1);
 					idMapping.add(nbTrias, IDMapping.TRIAS);
 					nbTrias ++;
@@ -43,6 +43,7 @@ import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import org.jcae.mesh.oemm.OEMM;
 import org.jcae.mesh.oemm.MeshReader;
+import org.jcae.mesh.oemm.LeafCache;
 import org.jcae.viewer3d.bg.ViewableBG;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -168,6 +169,10 @@ public class OEMMBehavior extends Behavior
 		
 		fineReader = new MeshReader(oemm);
 		fineReader.setLoadNonReadableTriangles(true);
+		// Leaves around the visible ones are decoded in background
+		long cacheSize = Long.getLong("org.jcae.viewer3d.OEMMBehavior.leafCacheSize", 64L << 20);
+		if (cacheSize > 0L)
+			fineReader.setCache(new LeafCache(oemm, cacheSize));
 
 		mtb.addTriangleList();
 		coarseReader = new MeshReader(coarseOEMM);
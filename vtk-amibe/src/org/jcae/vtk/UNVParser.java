@@ -6,6 +6,7 @@ import gnu.trove.TIntIntHashMap;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
+import org.jcae.mesh.xmldata.MappedUNVReader;
 
 public class UNVParser
 {
@@ -191,7 +192,62 @@ public class UNVParser
 					}
 			}
 		}
-		
+		finish();
+	}
+
+	/**
+	 * Parse a UNV file.  This is faster than {@link #parse(BufferedReader)},
+	 * file is memory-mapped and nodes are parsed concurrently.
+	 */
+	public void parse(File file) throws IOException
+	{
+		elementSurfaceIndicesMap=new TIntIntHashMap();
+		elementVolumeIndicesMap=new TIntIntHashMap();
+		nodesIndicesMap=new TIntIntHashMap();
+		final TFloatArrayList coords=new TFloatArrayList();
+		final int[] elementNodes=new int[8];
+		new MappedUNVReader(file).read(new MappedUNVReader.Handler()
+		{
+			public void addNodes(int[] labels, double[] xyz, int nr)
+			{
+				for(int i=0; i<nr; i++)
+				{
+					nodesIndicesMap.put(labels[i], coords.size()/3);
+					coords.add((float) xyz[3*i]);
+					coords.add((float) xyz[3*i+1]);
+					coords.add((float) xyz[3*i+2]);
+				}
+			}
+
+			public void addElement(int label, int type, int[] nodes,
+				int nrNodes, long offset, int length)
+			{
+				System.arraycopy(nodes, 0, elementNodes, 0, Math.min(nrNodes, elementNodes.length));
+				UNVParser.this.addElement(label, type, elementNodes);
+			}
+
+			public void addGroup(String name, int[] elements, int nr)
+			{
+				surfaceGroupNames.add(name);
+				int[] facelist=new int[nr];
+				for(int i=0; i<nr; i++)
+					facelist[i]=elementSurfaceIndicesMap.get(elements[i]);
+				surfaceGroups.add(facelist);
+			}
+
+			public void readDataset(int type, BufferedReader in)
+				throws IOException
+			{
+				if(type == 790)
+					readLoadSets(in);
+			}
+		});
+		nodesCoordinates=coords.toNativeArray();
+		finish();
+	}
+
+	private void finish()
+	{
 		//If there are triangles but no groups
 		if(surfaceGroupNames.size()==0 && surfaceIndices.size()>0)
 		{
@@ -215,6 +271,7 @@ public class UNVParser
 	private void readFace(BufferedReader rd) throws IOException
 	{			
 		String line;
+		int[] nodes=new int[8];
 
 		while (!(line = rd.readLine().trim()).equals("-1"))
 		{
@@ -224,57 +281,62 @@ public class UNVParser
 			int type = Integer.parseInt(st.nextToken());
 
 			line = rd.readLine(); //RECORD 2			
-			
-			switch(type)
-			{
-				case 21: // Linear beam
-					st = new StringTokenizer(line);	
-					elementSurfaceIndicesMap.put(ind, BEAM2_MASK | surfaceIndices.size());
-					for(int i=0; i<2; i++)
-						surfaceIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken())));
-					hasBeam2 = true;
-					break;
-				case 74:  // Membrane Linear Triangle
-				case 91:  // Thin Shell Linear Triangle
-				case 41:  // Plane Stress Linear Triangle
-					st = new StringTokenizer(line);	
-					elementSurfaceIndicesMap.put(ind, TRIA3_MASK | surfaceIndices.size());
-					for(int i=0; i<3; i++)
-						surfaceIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken()))); 									
-					hasTria3 = true;
-					break;
-				case 92: // Thin Shell Parabolic Triangle
-					st = new StringTokenizer(line);	
-					elementSurfaceIndicesMap.put(ind, TRIA6_MASK | surfaceIndices.size());
-					for(int i=0; i<3; i++)
-					{
-						surfaceIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken())));
-						st.nextToken(); //keep only vertex nodes
-					}
-					hasTria6 = true;
-					break;
-				case 94: // Thin Shell Linear Quadrilateral
-					st = new StringTokenizer(line);	
-					elementSurfaceIndicesMap.put(ind, QUAD4_MASK | surfaceIndices.size());
-					for(int i=0; i<4; i++)
-						surfaceIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken())));
-					hasQuad4 = true;
-					break;
-				case 111: // Solid Linear Tetrahedron
-					st = new StringTokenizer(line);	
-					elementVolumeIndicesMap.put(ind, TETRA4_MASK | volumeIndices.size());
-					for(int i=0; i<4; i++)
-						volumeIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken())));   
-					hasTetra4 = true;
-					break;
-				case 115: // Solid Linear Brick
-					st = new StringTokenizer(line);	
-					elementVolumeIndicesMap.put(ind, HEXA8_MASK | volumeIndices.size());
-					for(int i=0; i<8; i++)
-						volumeIndices.add(nodesIndicesMap.get(Integer.parseInt(st.nextToken())));   
-					hasHexa8 = true;
-					break;
-			}
+			st = new StringTokenizer(line);
+			for(int i=0; i<nodes.length && st.hasMoreTokens(); i++)
+				nodes[i]=Integer.parseInt(st.nextToken());
+			addElement(ind, type, nodes);
+		}
+	}
+
+	/**
+	 * Add an element.
+	 * @param ind element label
+	 * @param type FE descriptor id
+	 * @param nodes node labels
+	 */
+	private void addElement(int ind, int type, int[] nodes)
+	{
+		switch(type)
+		{
+			case 21: // Linear beam
+				elementSurfaceIndicesMap.put(ind, BEAM2_MASK | surfaceIndices.size());
+				for(int i=0; i<2; i++)
+					surfaceIndices.add(nodesIndicesMap.get(nodes[i]));
+				hasBeam2 = true;
+				break;
+			case 74:  // Membrane Linear Triangle
+			case 91:  // Thin Shell Linear Triangle
+			case 41:  // Plane Stress Linear Triangle
+				elementSurfaceIndicesMap.put(ind, TRIA3_MASK | surfaceIndices.size());
+				for(int i=0; i<3; i++)
+					surfaceIndices.add(nodesIndicesMap.get(nodes[i]));
+				hasTria3 = true;
+				break;
+			case 92: // Thin Shell Parabolic Triangle
+				elementSurfaceIndicesMap.put(ind, TRIA6_MASK | surfaceIndices.size());
+				//keep only vertex nodes
+				for(int i=0; i<3; i++)
+					surfaceIndices.add(nodesIndicesMap.get(nodes[2*i]));
+				hasTria6 = true;
+				break;
+			case 94: // Thin Shell Linear Quadrilateral
+				elementSurfaceIndicesMap.put(ind, QUAD4_MASK | surfaceIndices.size());
+				for(int i=0; i<4; i++)
+					surfaceIndices.add(nodesIndicesMap.get(nodes[i]));
+				hasQuad4 = true;
+				break;
+			case 111: // Solid Linear Tetrahedron
+				elementVolumeIndicesMap.put(ind, TETRA4_MASK | volumeIndices.size());
+				for(int i=0; i<4; i++)
+					volumeIndices.add(nodesIndicesMap.get(nodes[i]));
+				hasTetra4 = true;
+				break;
+			case 115: // Solid Linear Brick
+				elementVolumeIndicesMap.put(ind, HEXA8_MASK | volumeIndices.size());
+				for(int i=0; i<8; i++)
+					volumeIndices.add(nodesIndicesMap.get(nodes[i]));
+				hasHexa8 = true;
+				break;
 		}
 	}
 	
@@ -21,6 +21,7 @@
 package org.jcae.vtk;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -79,12 +80,13 @@ public class UNVToMesh
 		UNVParser parser = new UNVParser();
 		try
 		{
-			InputStream in;
 			if(filePath.endsWith(".gz") || filePath.endsWith(".GZ"))
-				in = new GZIPInputStream(new FileInputStream(filePath));
+			{
+				InputStream in = new GZIPInputStream(new FileInputStream(filePath));
+				parser.parse(new BufferedReader(new InputStreamReader(in)));
+			}
 			else
-				in = new FileInputStream(filePath);
-			parser.parse(new BufferedReader(new InputStreamReader(in)));
+				parser.parse(new File(filePath));
 		} catch (Exception e)
 		{
 			System.err.println(e.getMessage());